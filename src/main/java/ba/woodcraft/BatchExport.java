@@ -0,0 +1,246 @@
+package ba.woodcraft;
+
+import ba.woodcraft.export.CanvasDocument;
+import ba.woodcraft.export.ExportFormat;
+import ba.woodcraft.export.ExportServiceRegistry;
+import ba.woodcraft.export.PdfExportService;
+import ba.woodcraft.export.SvgExportService;
+import ba.woodcraft.io.DesignFile;
+import ba.woodcraft.io.ProjectFile;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Headless re-export of saved designs, without a JavaFX stage:
+ *
+ * <pre>
+ * BatchExport [--format pdf] [--out dir] [--threads n] file-or-dir...
+ * </pre>
+ *
+ * Directories are searched for {@code .wcf} and {@code .wcd} files. Each file is loaded and exported on a
+ * fixed pool of one worker per core; the queue in front of it is bounded, so a large batch
+ * never has more than a few loaded documents waiting.
+ * <p>
+ * Each export is named after its source. When two sources would share a name, e.g.
+ * {@code plan.wcf} and {@code plan.wcd}, the source extension is kept ({@code plan.wcf.pdf});
+ * sources that still collide, e.g. two {@code plan.wcf} from different directories under one
+ * {@code --out}, are reported as failed instead of overwriting each other.
+ */
+public class BatchExport {
+
+    private record Result(Path source, Path target, int shapes, long bytes, long nanos, Exception error) {}
+
+    public static void main(String[] args) throws InterruptedException {
+        ExportFormat format = ExportFormat.PDF;
+        Path outDir = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        List<Path> inputs = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--format" -> format = formatOf(value(args, ++i));
+                    case "--out" -> outDir = Path.of(value(args, ++i));
+                    case "--threads" -> threads = threadsOf(value(args, ++i));
+                    default -> inputs.add(Path.of(args[i]));
+                }
+            }
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            usage();
+        }
+        List<Path> files = collect(inputs);
+        if (files.isEmpty()) {
+            usage();
+        }
+
+        if (outDir != null) {
+            try {
+                Files.createDirectories(outDir);
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.exit(2);
+            }
+        }
+
+        ExportServiceRegistry registry = new ExportServiceRegistry();
+        // every file is a different design, so fragments are never reused; without a cache the
+        // workers do not queue on its lock either
+        registry.register(ExportFormat.PDF, new PdfExportService(0));
+        registry.register(ExportFormat.SVG, new SvgExportService(0));
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads * 2), new ThreadPoolExecutor.CallerRunsPolicy());
+        long start = System.nanoTime();
+        List<Future<Result>> futures = new ArrayList<>(files.size());
+        Map<Path, Path> targets = targetsFor(files, outDir, format);
+        for (Path file : files) {
+            Path target = targets.get(file);
+            if (target == null) {
+                Path clash = targetFor(file, outDir, format, true);
+                futures.add(CompletableFuture.completedFuture(new Result(file, clash, 0, 0, 0,
+                        new IOException("another input is also exported to " + clash))));
+                continue;
+            }
+            ExportFormat f = format;
+            futures.add(pool.submit(() -> exportOne(registry, f, file, target)));
+        }
+
+        int failed = 0;
+        int shapes = 0;
+        long bytes = 0;
+        for (Future<Result> future : futures) {
+            Result r;
+            try {
+                r = future.get();
+            } catch (ExecutionException ex) {
+                // exportOne catches everything; only an Error gets here
+                throw new IllegalStateException(ex.getCause());
+            }
+            if (r.error() != null) {
+                failed++;
+                System.err.printf(Locale.ROOT, "FAIL %s: %s%n", r.source(), r.error().getMessage());
+                continue;
+            }
+            shapes += r.shapes();
+            bytes += r.bytes();
+            System.out.printf(Locale.ROOT, "%8.1f ms  %7d shapes  %s -> %s%n",
+                    r.nanos() / 1e6, r.shapes(), r.source(), r.target());
+        }
+        pool.shutdown();
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        int done = files.size() - failed;
+        System.out.printf(Locale.ROOT,
+                "%d files (%d failed) in %.2f s on %d threads: %.1f files/s, %.0f shapes/s, %.1f MB/s written%n",
+                done, failed, seconds, threads, done / seconds, shapes / seconds, bytes / seconds / (1024 * 1024));
+        System.exit(failed == 0 ? 0 : 1);
+    }
+
+    private static String value(String[] args, int i) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException(args[i - 1] + " needs a value");
+        }
+        return args[i];
+    }
+
+    private static ExportFormat formatOf(String name) {
+        try {
+            return ExportFormat.valueOf(name.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException ex) {
+            throw new IllegalArgumentException("unknown format " + name);
+        }
+    }
+
+    private static int threadsOf(String count) {
+        int threads;
+        try {
+            threads = Integer.parseInt(count);
+        } catch (NumberFormatException ex) {
+            threads = 0;
+        }
+        if (threads < 1) {
+            throw new IllegalArgumentException("--threads needs a positive number, not " + count);
+        }
+        return threads;
+    }
+
+    private static void usage() {
+        System.err.println("usage: BatchExport [--format pdf] [--out dir] [--threads n] file-or-dir...");
+        System.exit(2);
+    }
+
+    private static Result exportOne(ExportServiceRegistry registry, ExportFormat format, Path source, Path target) {
+        long t0 = System.nanoTime();
+        try {
+            CanvasDocument document;
+            int shapes;
+            if (source.getFileName().toString().endsWith(ProjectFile.EXTENSION)) {
+                ProjectFile.Project project = ProjectFile.open(source);
+                document = new CanvasDocument(project.pageWidth(), project.pageHeight(), project.shapes(), List.of());
+                shapes = project.shapeCount();
+            } else {
+                DesignFile.Design design = DesignFile.read(source);
+                document = new CanvasDocument(design.pageWidth(), design.pageHeight(),
+                        design.document().snapshot(), List.of());
+                shapes = design.document().size();
+            }
+            registry.export(format, document, target.toFile());
+            return new Result(source, target, shapes, Files.size(target),
+                    System.nanoTime() - t0, null);
+        } catch (Exception ex) {
+            return new Result(source, target, 0, 0, System.nanoTime() - t0, ex);
+        }
+    }
+
+    private static List<Path> collect(List<Path> inputs) {
+        List<Path> files = new ArrayList<>();
+        // a file named twice, or also found under a directory, is exported once
+        Set<Path> seen = new HashSet<>();
+        for (Path input : inputs) {
+            if (!Files.isDirectory(input)) {
+                if (seen.add(input.toAbsolutePath().normalize())) {
+                    files.add(input);
+                }
+                continue;
+            }
+            try (Stream<Path> walk = Files.walk(input)) {
+                walk.filter(p -> p.getFileName().toString().endsWith(DesignFile.EXTENSION)
+                                || p.getFileName().toString().endsWith(ProjectFile.EXTENSION))
+                        .sorted()
+                        .filter(p -> seen.add(p.toAbsolutePath().normalize()))
+                        .forEach(files::add);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return files;
+    }
+
+    // the target of every file, or null for files that would overwrite another file's export
+    private static Map<Path, Path> targetsFor(List<Path> files, Path outDir, ExportFormat format) {
+        Map<String, Integer> plain = new HashMap<>();
+        for (Path file : files) {
+            plain.merge(key(targetFor(file, outDir, format, false)), 1, Integer::sum);
+        }
+        Map<Path, Path> targets = new LinkedHashMap<>();
+        Map<String, Integer> uses = new HashMap<>();
+        for (Path file : files) {
+            boolean clash = plain.get(key(targetFor(file, outDir, format, false))) > 1;
+            Path target = targetFor(file, outDir, format, clash);
+            targets.put(file, target);
+            uses.merge(key(target), 1, Integer::sum);
+        }
+        targets.replaceAll((file, target) -> uses.get(key(target)) > 1 ? null : target);
+        return targets;
+    }
+
+    // case-insensitive file systems treat Plan.pdf and plan.pdf as one file
+    private static String key(Path target) {
+        return target.toAbsolutePath().normalize().toString().toLowerCase(Locale.ROOT);
+    }
+
+    private static Path targetFor(Path source, Path outDir, ExportFormat format, boolean keepSourceExtension) {
+        String name = source.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 && !keepSourceExtension ? name.substring(0, dot) : name;
+        // "*.pdf" -> ".pdf"
+        String extension = format.getExtensionPattern().substring(1);
+        Path dir = outDir != null ? outDir : source.toAbsolutePath().getParent();
+        return dir.resolve(base + extension);
+    }
+}
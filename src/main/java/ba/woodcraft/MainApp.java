@@ -1,6 +1,7 @@
 package ba.woodcraft;
 
 import ba.woodcraft.ui.controller.SceneNavigator;
+import ba.woodcraft.util.DBConnection;
 import javafx.application.Application;
 import javafx.stage.Stage;
 
@@ -14,6 +15,11 @@ public class MainApp extends Application {
         SceneNavigator.show("view/login.fxml");
     }
 
+    @Override
+    public void stop() {
+        DBConnection.shutdown();
+    }
+
     public static void main(String[] args) {
         launch();
 
@@ -0,0 +1,60 @@
+package ba.woodcraft.dao;
+
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs DAO calls on virtual threads, one per call, so that a slow or unreachable database
+ * never blocks the JavaFX application thread. A call still running after
+ * {@code woodcraft.db.timeoutMillis} (10 s by default) completes with a
+ * {@link TimeoutException} and its thread is interrupted.
+ *
+ * Futures complete on the worker thread; UI code hands the result over with
+ * {@code whenCompleteAsync(..., Platform::runLater)}.
+ */
+public final class DaoExecutor {
+
+    public static final long TIMEOUT_MILLIS = Long.getLong("woodcraft.db.timeoutMillis", 10_000);
+
+    private static final ExecutorService EXECUTOR =
+            Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("dao-", 0).factory());
+
+    @FunctionalInterface
+    public interface Call<T> {
+        T call() throws SQLException;
+    }
+
+    private DaoExecutor() {
+    }
+
+    /**
+     * For follow-up stages that should stay off the FX thread, e.g. hashing a password.
+     */
+    public static Executor executor() {
+        return EXECUTOR;
+    }
+
+    public static <T> CompletableFuture<T> supply(Call<T> call) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Future<?> task = EXECUTOR.submit(() -> {
+            try {
+                result.complete(call.call());
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        });
+        result.orTimeout(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS).whenComplete((value, error) -> {
+            if (error instanceof TimeoutException) {
+                // frees a thread stuck waiting for a pooled connection
+                task.cancel(true);
+            }
+        });
+        return result;
+    }
+}
@@ -0,0 +1,201 @@
+package ba.woodcraft.dao;
+
+import ba.woodcraft.util.DBConnection;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.logging.Logger;
+
+/**
+ * Designs stored in the database, each owned by a user. The shapes themselves go through
+ * {@link ShapeDAO}; a {@link ShapeChangeTracker} ties a project to the document it was
+ * loaded into, so that saving writes only what changed.
+ */
+public class ProjectDAO {
+
+    private static final Logger LOG = Logger.getLogger(ProjectDAO.class.getName());
+
+    public static final int DEFAULT_PAGE_SIZE = 2000;
+
+    public record DbProject(int id, int ownerId, String name, double pageWidth, double pageHeight,
+                            Instant updatedAt) {}
+
+    private final ShapeDAO shapeDAO;
+
+    public ProjectDAO() {
+        this(new ShapeDAO());
+    }
+
+    public ProjectDAO(ShapeDAO shapeDAO) {
+        this.shapeDAO = shapeDAO;
+    }
+
+    public ShapeDAO getShapeDAO() {
+        return shapeDAO;
+    }
+
+    public DbProject create(int ownerId, String name, double pageWidth, double pageHeight) {
+        String sql = "INSERT INTO projects (owner_id, name, page_width, page_height) VALUES (?, ?, ?, ?)";
+
+        try (Connection con = DBConnection.getConnection();
+             PreparedStatement ps = con.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+
+            ps.setInt(1, ownerId);
+            ps.setString(2, name);
+            ps.setDouble(3, pageWidth);
+            ps.setDouble(4, pageHeight);
+            ps.executeUpdate();
+
+            ResultSet keys = ps.getGeneratedKeys();
+            if (keys.next()) {
+                return findById(keys.getInt(1));
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    public DbProject findById(int id) {
+        String sql = "SELECT id, owner_id, name, page_width, page_height, updated_at FROM projects WHERE id = ?";
+
+        try (Connection con = DBConnection.getConnection();
+             PreparedStatement ps = con.prepareStatement(sql)) {
+
+            ps.setInt(1, id);
+            ResultSet rs = ps.executeQuery();
+
+            if (rs.next()) {
+                return readProject(rs);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * The user's projects, most recently saved first.
+     */
+    public List<DbProject> findByOwner(int ownerId) {
+        String sql = "SELECT id, owner_id, name, page_width, page_height, updated_at FROM projects"
+                + " WHERE owner_id = ? ORDER BY updated_at DESC";
+        List<DbProject> projects = new ArrayList<>();
+
+        try (Connection con = DBConnection.getConnection();
+             PreparedStatement ps = con.prepareStatement(sql)) {
+
+            ps.setInt(1, ownerId);
+            ResultSet rs = ps.executeQuery();
+
+            while (rs.next()) {
+                projects.add(readProject(rs));
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return projects;
+    }
+
+    /**
+     * Deletes the project with all its shapes.
+     */
+    public boolean delete(int id) {
+        String sql = "DELETE FROM projects WHERE id = ?";
+
+        try (Connection con = DBConnection.getConnection();
+             PreparedStatement ps = con.prepareStatement(sql)) {
+
+            ps.setInt(1, id);
+            return ps.executeUpdate() == 1;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Loads every shape of the tracker's project into its document, {@code pageSize} rows per
+     * query. For a large design, load the visible region first with
+     * {@link ShapeDAO#findPageInRegion} and {@link ShapeChangeTracker#adopt}, then the rest.
+     *
+     * @return how many shapes were added, or -1 if loading failed part way
+     */
+    public int load(ShapeChangeTracker tracker, int pageSize) {
+        int added = 0;
+        ShapeDAO.StoredShape after = null;
+        while (true) {
+            ShapeDAO.Page page = shapeDAO.findPage(tracker.getProjectId(), after, pageSize);
+            if (page == null) {
+                return -1;
+            }
+            added += tracker.adopt(page.shapes());
+            if (!page.more()) {
+                return added;
+            }
+            after = page.last();
+        }
+    }
+
+    /**
+     * Writes the shapes changed since the last save or load, and the page size, in one
+     * transaction. Nothing is written if the project no longer exists.
+     */
+    public boolean save(ShapeChangeTracker tracker, double pageWidth, double pageHeight) {
+        ShapeChangeTracker.Changes changes = tracker.changes();
+        if (!write(tracker.getProjectId(), changes, pageWidth, pageHeight)) {
+            return false;
+        }
+        tracker.saved(changes);
+        return true;
+    }
+
+    boolean write(int projectId, ShapeChangeTracker.Changes changes, double pageWidth, double pageHeight) {
+        String sql = "UPDATE projects SET page_width = ?, page_height = ?, updated_at = CURRENT_TIMESTAMP"
+                + " WHERE id = ?";
+        long start = System.nanoTime();
+
+        try (Connection con = DBConnection.getConnection()) {
+            con.setAutoCommit(false);
+            try (PreparedStatement ps = con.prepareStatement(sql)) {
+                ps.setDouble(1, pageWidth);
+                ps.setDouble(2, pageHeight);
+                ps.setInt(3, projectId);
+                if (ps.executeUpdate() != 1) {
+                    con.rollback();
+                    return false;
+                }
+                shapeDAO.delete(con, projectId, changes.deletes());
+                shapeDAO.write(con, projectId, changes.writes());
+                con.commit();
+            } catch (SQLException | RuntimeException e) {
+                con.rollback();
+                throw e;
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        }
+        LOG.fine(() -> String.format(Locale.ROOT, "Saved project %d: %d shapes written, %d deleted in %.1f ms",
+                projectId, changes.writes().size(), changes.deletes().length, (System.nanoTime() - start) / 1e6));
+        return true;
+    }
+
+    private static DbProject readProject(ResultSet rs) throws SQLException {
+        return new DbProject(
+                rs.getInt("id"),
+                rs.getInt("owner_id"),
+                rs.getString("name"),
+                rs.getDouble("page_width"),
+                rs.getDouble("page_height"),
+                rs.getTimestamp("updated_at").toInstant()
+        );
+    }
+}
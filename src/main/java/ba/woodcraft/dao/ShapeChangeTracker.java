@@ -0,0 +1,162 @@
+package ba.woodcraft.dao;
+
+import ba.woodcraft.model.ShapeDocument;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Remembers what was last saved of a document to its project, so a save writes only the
+ * shapes that changed since. A shape is dirty when the document has stamped it with a newer
+ * version, or when its z key no longer sorts between its neighbours.
+ *
+ * z keys are sparse: new shapes get keys {@link #Z_GAP} apart, and a shape put back between
+ * two others takes a key in the gap, so removing or restoring one shape leaves the rows
+ * above it alone.
+ *
+ * Not thread-safe; use it on the document's thread. {@link Changes} are plain data and can
+ * be written from any thread.
+ */
+public final class ShapeChangeTracker {
+
+    static final long Z_GAP = 1024;
+
+    /**
+     * Rows to write and rows to delete.
+     *
+     * @param versions the document version of each written shape, parallel to {@code writes}
+     */
+    public record Changes(List<ShapeDAO.StoredShape> writes, long[] versions, long[] deletes) {
+
+        public boolean isEmpty() {
+            return writes.isEmpty() && deletes.length == 0;
+        }
+    }
+
+    private final int projectId;
+    private final ShapeDocument document;
+    private final Map<Long, Long> savedVersions = new HashMap<>();
+    private final Map<Long, Long> savedZ = new HashMap<>();
+
+    public ShapeChangeTracker(int projectId, ShapeDocument document) {
+        this.projectId = projectId;
+        this.document = document;
+    }
+
+    public int getProjectId() {
+        return projectId;
+    }
+
+    public ShapeDocument getDocument() {
+        return document;
+    }
+
+    /**
+     * Puts loaded shapes into the document, in z-order among those loaded before. Shapes the
+     * document already has, e.g. from an overlapping region, are skipped.
+     *
+     * @return how many shapes were added
+     */
+    public int adopt(List<ShapeDAO.StoredShape> shapes) {
+        int added = 0;
+        for (ShapeDAO.StoredShape shape : shapes) {
+            if (document.contains(shape.id())) {
+                continue;
+            }
+            document.insert(shape.id(), slotFor(shape.z(), shape.id()), shape.record());
+            savedVersions.put(shape.id(), document.getShapeVersion(shape.id()));
+            savedZ.put(shape.id(), shape.z());
+            added++;
+        }
+        return added;
+    }
+
+    // first slot whose shape sorts after (z, id); shapes never saved sort on top
+    private int slotFor(long z, long id) {
+        int low = 0;
+        int high = document.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            long midId = document.idAt(mid);
+            Long midZ = savedZ.get(midId);
+            if (midZ != null && (midZ < z || midZ == z && midId < id)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    public boolean hasChanges() {
+        int saved = 0;
+        for (int slot = 0; slot < document.size(); slot++) {
+            long id = document.idAt(slot);
+            Long version = savedVersions.get(id);
+            if (version == null || version != document.getShapeVersion(id)) {
+                return true;
+            }
+            saved++;
+        }
+        return saved != savedVersions.size();
+    }
+
+    /**
+     * What a save has to write to bring the project up to the document.
+     */
+    public Changes changes() {
+        int size = document.size();
+        List<ShapeDAO.StoredShape> writes = new ArrayList<>();
+        long[] versions = new long[16];
+        long previous = 0;
+        for (int slot = 0; slot < size; slot++) {
+            long id = document.idAt(slot);
+            Long saved = savedZ.get(id);
+            long z = saved != null && saved > previous ? saved : nextZ(slot, previous);
+            long version = document.getShapeVersion(id);
+            Long savedVersion = savedVersions.get(id);
+            if (saved == null || z != saved || savedVersion == null || savedVersion != version) {
+                if (writes.size() == versions.length) {
+                    versions = Arrays.copyOf(versions, versions.length * 2);
+                }
+                versions[writes.size()] = version;
+                writes.add(new ShapeDAO.StoredShape(id, z, document.recordAt(slot)));
+            }
+            previous = z;
+        }
+        long[] deletes = savedVersions.keySet().stream()
+                .filter(id -> !document.contains(id))
+                .mapToLong(Long::longValue)
+                .toArray();
+        return new Changes(writes, Arrays.copyOf(versions, writes.size()), deletes);
+    }
+
+    // a key above the previous one, below the next shape's saved key if there is room
+    private long nextZ(int slot, long previous) {
+        if (slot + 1 < document.size()) {
+            Long next = savedZ.get(document.idAt(slot + 1));
+            if (next != null && next - previous > 1) {
+                return previous + Math.min(Z_GAP, (next - previous) / 2);
+            }
+        }
+        return previous + Z_GAP;
+    }
+
+    /**
+     * Called once the changes are committed.
+     */
+    void saved(Changes changes) {
+        List<ShapeDAO.StoredShape> writes = changes.writes();
+        for (int i = 0; i < writes.size(); i++) {
+            ShapeDAO.StoredShape shape = writes.get(i);
+            savedVersions.put(shape.id(), changes.versions()[i]);
+            savedZ.put(shape.id(), shape.z());
+        }
+        for (long id : changes.deletes()) {
+            savedVersions.remove(id);
+            savedZ.remove(id);
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package ba.woodcraft.dao;
+
+import ba.woodcraft.model.ShapeRecord;
+import ba.woodcraft.util.DBConnection;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Shapes of a project, one row each (see {@code db/projects.sql}). Reads come a page at a
+ * time in z-order, optionally only those touching a region; writes happen inside
+ * {@link ProjectDAO#save}'s transaction.
+ */
+public class ShapeDAO {
+
+    public record StoredShape(long id, long z, ShapeRecord record) {}
+
+    /**
+     * @param more whether another page may follow; ask for it with {@link #last()}
+     */
+    public record Page(List<StoredShape> shapes, boolean more) {
+
+        public StoredShape last() {
+            return shapes.isEmpty() ? null : shapes.get(shapes.size() - 1);
+        }
+    }
+
+    // rows per executeBatch; with rewriteBatchedStatements the driver sends each batch as a
+    // few multi-row INSERTs instead of one round trip per row
+    private static final int BATCH_SIZE = 1000;
+
+    private static final int FLAG_STROKE = 1;
+    private static final int FLAG_FILL = 2;
+
+    private static final ShapeRecord.Kind[] KINDS = ShapeRecord.Kind.values();
+
+    private static final String COLUMNS =
+            "shape_id, z, kind, flags, stroke_argb, stroke_width, fill_argb, transform, coords, ops";
+
+    // keyset paging on (z, shape_id), so a page costs the same however deep it is
+    private static final String AFTER = "project_id = ? AND (z > ? OR (z = ? AND shape_id > ?))";
+
+    public Page findPage(int projectId, StoredShape after, int limit) {
+        String sql = "SELECT " + COLUMNS + " FROM shapes WHERE " + AFTER
+                + " ORDER BY z, shape_id LIMIT ?";
+
+        try (Connection con = DBConnection.getConnection();
+             PreparedStatement ps = con.prepareStatement(sql)) {
+
+            int i = setAfter(ps, projectId, after);
+            ps.setInt(i, limit + 1);
+            return readPage(ps, limit);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * Like {@link #findPage}, but only shapes whose bounds touch the rectangle, in page
+     * coordinates.
+     */
+    public Page findPageInRegion(int projectId, double minX, double minY, double maxX, double maxY,
+                                 StoredShape after, int limit) {
+        String sql = "SELECT " + COLUMNS + " FROM shapes WHERE " + AFTER
+                + " AND MBRIntersects(bounds, ST_MakeEnvelope(Point(?, ?), Point(?, ?)))"
+                + " ORDER BY z, shape_id LIMIT ?";
+
+        try (Connection con = DBConnection.getConnection();
+             PreparedStatement ps = con.prepareStatement(sql)) {
+
+            int i = setAfter(ps, projectId, after);
+            ps.setDouble(i++, minX);
+            ps.setDouble(i++, minY);
+            ps.setDouble(i++, maxX);
+            ps.setDouble(i++, maxY);
+            ps.setInt(i, limit + 1);
+            return readPage(ps, limit);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    public int countByProject(int projectId) {
+        String sql = "SELECT COUNT(*) FROM shapes WHERE project_id = ?";
+
+        try (Connection con = DBConnection.getConnection();
+             PreparedStatement ps = con.prepareStatement(sql)) {
+
+            ps.setInt(1, projectId);
+            ResultSet rs = ps.executeQuery();
+            if (rs.next()) {
+                return rs.getInt(1);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return -1;
+    }
+
+    /**
+     * Inserts the shapes, or overwrites them where the row exists. Runs on the caller's
+     * connection and transaction.
+     */
+    void write(Connection con, int projectId, List<StoredShape> shapes) throws SQLException {
+        if (shapes.isEmpty()) {
+            return;
+        }
+        String sql = "INSERT INTO shapes (project_id, " + COLUMNS + ", bounds)"
+                + " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ST_MakeEnvelope(Point(?, ?), Point(?, ?))) AS new"
+                + " ON DUPLICATE KEY UPDATE z = new.z, kind = new.kind, flags = new.flags,"
+                + " stroke_argb = new.stroke_argb, stroke_width = new.stroke_width,"
+                + " fill_argb = new.fill_argb, transform = new.transform,"
+                + " coords = new.coords, ops = new.ops, bounds = new.bounds";
+
+        try (PreparedStatement ps = con.prepareStatement(sql)) {
+            int pending = 0;
+            for (StoredShape shape : shapes) {
+                ShapeRecord record = shape.record();
+                ps.setInt(1, projectId);
+                ps.setLong(2, shape.id());
+                ps.setLong(3, shape.z());
+                ps.setInt(4, record.getKind().ordinal());
+                ps.setInt(5, (record.hasStroke() ? FLAG_STROKE : 0) | (record.hasFill() ? FLAG_FILL : 0));
+                ps.setInt(6, record.getStrokeArgb());
+                ps.setDouble(7, record.getStrokeWidth());
+                ps.setInt(8, record.getFillArgb());
+                if (record.isIdentityTransform()) {
+                    ps.setNull(9, Types.BINARY);
+                } else {
+                    ps.setBytes(9, toBytes(record.getTransform()));
+                }
+                ps.setBytes(10, toBytes(record.getCoords()));
+                byte[] ops = record.getPathOps();
+                if (ops.length == 0) {
+                    ps.setNull(11, Types.BLOB);
+                } else {
+                    ps.setBytes(11, ops);
+                }
+                boolean bounded = Double.isFinite(record.getMinX()) && Double.isFinite(record.getMaxX())
+                        && Double.isFinite(record.getMinY()) && Double.isFinite(record.getMaxY());
+                ps.setDouble(12, bounded ? record.getMinX() : 0);
+                ps.setDouble(13, bounded ? record.getMinY() : 0);
+                ps.setDouble(14, bounded ? record.getMaxX() : 0);
+                ps.setDouble(15, bounded ? record.getMaxY() : 0);
+                ps.addBatch();
+                if (++pending == BATCH_SIZE) {
+                    ps.executeBatch();
+                    pending = 0;
+                }
+            }
+            if (pending > 0) {
+                ps.executeBatch();
+            }
+        }
+    }
+
+    /**
+     * Runs on the caller's connection and transaction.
+     */
+    void delete(Connection con, int projectId, long[] ids) throws SQLException {
+        for (int from = 0; from < ids.length; from += BATCH_SIZE) {
+            int count = Math.min(BATCH_SIZE, ids.length - from);
+            String sql = "DELETE FROM shapes WHERE project_id = ? AND shape_id IN ("
+                    + "?, ".repeat(count - 1) + "?)";
+
+            try (PreparedStatement ps = con.prepareStatement(sql)) {
+                ps.setInt(1, projectId);
+                for (int i = 0; i < count; i++) {
+                    ps.setLong(i + 2, ids[from + i]);
+                }
+                ps.executeUpdate();
+            }
+        }
+    }
+
+    private static int setAfter(PreparedStatement ps, int projectId, StoredShape after) throws SQLException {
+        long z = after == null ? Long.MIN_VALUE : after.z();
+        long id = after == null ? Long.MIN_VALUE : after.id();
+        ps.setInt(1, projectId);
+        ps.setLong(2, z);
+        ps.setLong(3, z);
+        ps.setLong(4, id);
+        return 5;
+    }
+
+    // one row past the limit tells whether there is more
+    private static Page readPage(PreparedStatement ps, int limit) throws SQLException {
+        List<StoredShape> shapes = new ArrayList<>(limit);
+        boolean more = false;
+        try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                if (shapes.size() == limit) {
+                    more = true;
+                    break;
+                }
+                shapes.add(readShape(rs));
+            }
+        }
+        return new Page(shapes, more);
+    }
+
+    private static StoredShape readShape(ResultSet rs) throws SQLException {
+        int flags = rs.getInt("flags");
+        byte[] transform = rs.getBytes("transform");
+        ShapeRecord record = new ShapeRecord(
+                KINDS[rs.getInt("kind")],
+                toDoubles(rs.getBytes("coords")),
+                rs.getBytes("ops"),
+                (flags & FLAG_STROKE) != 0,
+                rs.getInt("stroke_argb"),
+                rs.getDouble("stroke_width"),
+                (flags & FLAG_FILL) != 0,
+                rs.getInt("fill_argb"),
+                transform == null ? null : toDoubles(transform)
+        );
+        return new StoredShape(rs.getLong("shape_id"), rs.getLong("z"), record);
+    }
+
+    private static byte[] toBytes(double[] values) {
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * Double.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asDoubleBuffer().put(values);
+        return buffer.array();
+    }
+
+    private static double[] toDoubles(byte[] bytes) {
+        double[] values = new double[bytes.length / Double.BYTES];
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().get(values);
+        return values;
+    }
+}
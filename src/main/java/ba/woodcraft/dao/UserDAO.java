@@ -5,12 +5,33 @@ import ba.woodcraft.util.DBConnection;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 public class UserDAO {
 
     public record DbUser(int id, String username, String passwordHash, String role) {}
 
     public DbUser findByUsername(String username) {
+        try {
+            return queryByUsername(username);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * Like {@link #findByUsername} off the calling thread; completes with {@code null} if
+     * there is no such user, or exceptionally if the database could not be asked.
+     */
+    public CompletableFuture<DbUser> findByUsernameAsync(String username) {
+        return DaoExecutor.supply(() -> queryByUsername(username));
+    }
+
+    private DbUser queryByUsername(String username) throws SQLException {
         String sql = "SELECT id, username, password_hash, role FROM users WHERE username = ?";
 
         try (Connection con = DBConnection.getConnection();
@@ -27,12 +48,38 @@ public class UserDAO {
                         rs.getString("role")
                 );
             }
-        } catch (Exception e) {
-            e.printStackTrace();
         }
         return null;
     }
+
     public boolean insertUser(String username, String passwordHash, String role) {
+        try {
+            return executeInsert(username, passwordHash, role);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Like {@link #insertUser} off the calling thread; completes exceptionally if the
+     * database could not be asked, or if the username is taken (see {@link #isDuplicateKey}).
+     */
+    public CompletableFuture<Boolean> insertUserAsync(String username, String passwordHash, String role) {
+        return DaoExecutor.supply(() -> executeInsert(username, passwordHash, role));
+    }
+
+    /**
+     * Whether an insert failed on the unique username, e.g. because another registration
+     * got in between the lookup and the insert (SQLSTATE 23000).
+     */
+    public static boolean isDuplicateKey(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        return cause instanceof SQLIntegrityConstraintViolationException
+                || cause instanceof SQLException e && "23000".equals(e.getSQLState());
+    }
+
+    private boolean executeInsert(String username, String passwordHash, String role) throws SQLException {
         String sql = "INSERT INTO users (username, password_hash, role) VALUES (?, ?, ?)";
 
         try (Connection con = DBConnection.getConnection();
@@ -43,9 +90,6 @@ public class UserDAO {
             ps.setString(3, role);
 
             return ps.executeUpdate() == 1;
-        } catch (Exception e) {
-            e.printStackTrace();
-            return false;
         }
     }
 
@@ -1,35 +1,69 @@
 package ba.woodcraft.export;
 
+import ba.woodcraft.model.ShapeRecord;
+import ba.woodcraft.model.ShapeRecords;
 import ba.woodcraft.ui.controller.SelectionOverlay;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
+import javafx.geometry.Bounds;
 import javafx.scene.Node;
+import javafx.scene.canvas.Canvas;
 import javafx.scene.layout.Pane;
 
+/**
+ * What gets exported: the page, grown to take in any shapes drawn outside it on the
+ * infinite canvas, plus the shapes themselves bottom-most first.
+ */
 public class CanvasDocument {
 
-    private final Pane drawingPane;
-    private final Node snapIndicator;
-    private final SelectionOverlay selectionOverlay;
+    private final List<ShapeRecord> records;
+    private final List<Node> nodes;
+    private final double originX;
+    private final double originY;
+    private final double width;
+    private final double height;
 
     public CanvasDocument(Pane drawingPane, Node snapIndicator, SelectionOverlay selectionOverlay) {
-        this.drawingPane = Objects.requireNonNull(drawingPane, "drawingPane");
-        this.snapIndicator = Objects.requireNonNull(snapIndicator, "snapIndicator");
-        this.selectionOverlay = selectionOverlay;
+        this(drawingPane.getPrefWidth(), drawingPane.getPrefHeight(), Collections.emptyList(),
+                collectNodes(Objects.requireNonNull(drawingPane, "drawingPane"),
+                        Objects.requireNonNull(snapIndicator, "snapIndicator"), selectionOverlay));
     }
 
-    public double getWidth() {
-        return drawingPane.getPrefWidth();
-    }
-
-    public double getHeight() {
-        return drawingPane.getPrefHeight();
+    /**
+     * @param records shapes held by the canvas renderer instead of the scene graph,
+     *                bottom-most first; they are exported below the live nodes
+     * @param nodes   live shapes, bottom-most first
+     */
+    public CanvasDocument(double pageWidth, double pageHeight, List<ShapeRecord> records, List<Node> nodes) {
+        this.records = List.copyOf(Objects.requireNonNull(records, "records"));
+        this.nodes = List.copyOf(Objects.requireNonNull(nodes, "nodes"));
+        double minX = 0;
+        double minY = 0;
+        double maxX = pageWidth;
+        double maxY = pageHeight;
+        for (ShapeRecord record : this.records) {
+            minX = Math.min(minX, record.getMinX());
+            minY = Math.min(minY, record.getMinY());
+            maxX = Math.max(maxX, record.getMaxX());
+            maxY = Math.max(maxY, record.getMaxY());
+        }
+        for (Node node : this.nodes) {
+            Bounds bounds = node.getBoundsInParent();
+            minX = Math.min(minX, bounds.getMinX());
+            minY = Math.min(minY, bounds.getMinY());
+            maxX = Math.max(maxX, bounds.getMaxX());
+            maxY = Math.max(maxY, bounds.getMaxY());
+        }
+        originX = minX;
+        originY = minY;
+        width = maxX - minX;
+        height = maxY - minY;
     }
 
-    public List<Node> getExportableNodes() {
-        List<Node> nodes = new ArrayList<>();
+    private static List<Node> collectNodes(Pane drawingPane, Node snapIndicator, SelectionOverlay selectionOverlay) {
+        List<Node> nodes = new ArrayList<>(drawingPane.getChildren().size());
         for (Node node : drawingPane.getChildren()) {
             if (!node.isVisible()) {
                 continue;
@@ -37,6 +71,10 @@ public class CanvasDocument {
             if (node == snapIndicator) {
                 continue;
             }
+            if (node instanceof Canvas) {
+                // raster layers (the retained-mode renderer) are a view of the records
+                continue;
+            }
             if (selectionOverlay != null && selectionOverlay.isOverlayNode(node)) {
                 continue;
             }
@@ -44,4 +82,51 @@ public class CanvasDocument {
         }
         return nodes;
     }
+
+    /**
+     * World x of the left edge of the exported area; negative when shapes lie left of the page.
+     */
+    public double getOriginX() {
+        return originX;
+    }
+
+    public double getOriginY() {
+        return originY;
+    }
+
+    public double getWidth() {
+        return width;
+    }
+
+    public double getHeight() {
+        return height;
+    }
+
+    /**
+     * Everything to export as records, bottom-most first; nodes without a record form are left out.
+     */
+    public List<ShapeRecord> getExportableRecords() {
+        List<ShapeRecord> exportable = new ArrayList<>(records.size() + nodes.size());
+        exportable.addAll(records);
+        for (Node node : nodes) {
+            ShapeRecord record = ShapeRecords.fromNode(node);
+            if (record != null) {
+                exportable.add(record);
+            }
+        }
+        return exportable;
+    }
+
+    /**
+     * Nodes built from the records are new and detached, so exporters may call this off the
+     * FX thread.
+     */
+    public List<Node> getExportableNodes() {
+        List<Node> exportable = new ArrayList<>(records.size() + nodes.size());
+        for (ShapeRecord record : records) {
+            exportable.add(ShapeRecords.toNode(record));
+        }
+        exportable.addAll(nodes);
+        return exportable;
+    }
 }
@@ -0,0 +1,643 @@
+package ba.woodcraft.export;
+
+import ba.woodcraft.model.ShapeRecord;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+
+/**
+ * ASCII DXF (R2000) for CAM. Shapes become LINE, CIRCLE, LWPOLYLINE (rectangles and
+ * straight-segment paths such as freehand strokes) and SPLINE (Bezier curves and curved
+ * paths, as clamped cubic B-splines through the Bezier control points). Each stroke colour
+ * gets its own layer, and entities take their colour from it.
+ *
+ * Transforms are applied to the coordinates, and y is flipped so the drawing reads the right
+ * way up in CAD. Entities are written as they are read; only the layer table and an upper
+ * bound on the entity count (for {@code $HANDSEED}) are collected up front. The file carries
+ * the tables, blocks and objects that strict R2000 readers expect, with fixed handles below
+ * {@link #FIRST_HANDLE}.
+ */
+public class DxfExportService implements ExportService {
+
+    private static final int DECIMALS = 4;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long PROGRESS_MASK = 0xff;
+    private static final double CIRCLE_KAPPA = 0.552284749831;
+
+    // handles of the fixed structure; layers and entities are numbered from FIRST_HANDLE
+    private static final String BLOCK_RECORD_TABLE = "1";
+    private static final String LAYER_TABLE = "2";
+    private static final String STYLE_TABLE = "3";
+    private static final String LTYPE_TABLE = "5";
+    private static final String VIEW_TABLE = "6";
+    private static final String UCS_TABLE = "7";
+    private static final String VPORT_TABLE = "8";
+    private static final String APPID_TABLE = "9";
+    private static final String DIMSTYLE_TABLE = "A";
+    private static final String ROOT_DICTIONARY = "C";
+    private static final String GROUP_DICTIONARY = "D";
+    private static final String LAYER_0 = "10";
+    private static final String STANDARD_STYLE = "11";
+    private static final String ACAD_APPID = "12";
+    private static final String LTYPE_BYBLOCK = "14";
+    private static final String LTYPE_BYLAYER = "15";
+    private static final String LTYPE_CONTINUOUS = "16";
+    private static final String PAPER_SPACE_RECORD = "1B";
+    private static final String PAPER_SPACE_BLOCK = "1C";
+    private static final String PAPER_SPACE_END = "1D";
+    private static final String MODEL_SPACE_RECORD = "1F";
+    private static final String MODEL_SPACE_BLOCK = "20";
+    private static final String MODEL_SPACE_END = "21";
+    private static final String STANDARD_DIMSTYLE = "27";
+    private static final int FIRST_HANDLE = 0x100;
+
+    // RGB of AutoCAD colour indexes 1..255; index 0 is unused (ByBlock)
+    private static final int[] ACI_RGB = aciPalette();
+
+    @Override
+    public void export(CanvasDocument document, File target, ExportProgress progress) throws IOException {
+        progress.beginStage("collect");
+        List<ShapeRecord> records = document.getExportableRecords();
+        progress.setShapeCount(records.size());
+        Set<Integer> colors = new LinkedHashSet<>();
+        long entities = 0;
+        for (ShapeRecord record : records) {
+            colors.add(colorOf(record));
+            entities += maxEntities(record);
+        }
+
+        progress.beginStage("write");
+        boolean finished = false;
+        try (Writer out = new BufferedWriter(
+                Files.newBufferedWriter(target.toPath(), StandardCharsets.US_ASCII), BUFFER_SIZE)) {
+            DxfWriter dxf = new DxfWriter(out, document.getOriginY() + document.getHeight());
+            dxf.header(FIRST_HANDLE + colors.size() + entities);
+            dxf.tables(colors);
+            dxf.blocks();
+            dxf.section("ENTITIES");
+            long total = records.size();
+            long done = 0;
+            for (ShapeRecord record : records) {
+                if ((done & PROGRESS_MASK) == 0) {
+                    if (progress.isCancelled()) {
+                        throw new CancellationException("DXF export cancelled");
+                    }
+                    progress.update(done, total);
+                }
+                dxf.shape(record);
+                done++;
+            }
+            dxf.endSection();
+            dxf.objects();
+            dxf.pair(0, "EOF");
+            progress.update(total, total);
+            finished = true;
+        } finally {
+            if (!finished) {
+                Files.deleteIfExists(target.toPath());
+            }
+        }
+    }
+
+    // the colour a CAM operator sees: stroke, or fill for shapes drawn with a fill only
+    private static int colorOf(ShapeRecord record) {
+        int argb = record.hasStroke() ? record.getStrokeArgb() : record.hasFill() ? record.getFillArgb() : 0xff000000;
+        return argb & 0xffffff;
+    }
+
+    // one per shape, except paths, which get one per subpath
+    private static long maxEntities(ShapeRecord record) {
+        if (record.getKind() != ShapeRecord.Kind.PATH) {
+            return 1;
+        }
+        long moves = 0;
+        for (byte op : record.getPathOps()) {
+            if (op == ShapeRecord.MOVE_TO) {
+                moves++;
+            }
+        }
+        return Math.max(1, moves);
+    }
+
+    /**
+     * Nearest AutoCAD colour index, for readers that ignore true colour. Index 7 draws black
+     * or white against the background, so it stands for both.
+     */
+    static int nearestAci(int rgb) {
+        int r = rgb >> 16 & 0xff;
+        int g = rgb >> 8 & 0xff;
+        int b = rgb & 0xff;
+        int best = 7;
+        long bestDistance = Math.min(distanceSq(r, g, b, 0), distanceSq(r, g, b, 0xffffff));
+        for (int index = 1; index < ACI_RGB.length; index++) {
+            long distance = distanceSq(r, g, b, ACI_RGB[index]);
+            if (distance < bestDistance) {
+                best = index;
+                bestDistance = distance;
+            }
+        }
+        return best;
+    }
+
+    private static long distanceSq(int r, int g, int b, int rgb) {
+        long dr = r - (rgb >> 16 & 0xff);
+        long dg = g - (rgb >> 8 & 0xff);
+        long db = b - (rgb & 0xff);
+        return dr * dr + dg * dg + db * db;
+    }
+
+    // 1-9 fixed; 10-249 are 24 hues in 15 degree steps, each at five brightnesses, full and
+    // half saturated; 250-255 greys
+    private static int[] aciPalette() {
+        int[] palette = new int[256];
+        int[] fixed = {0, 0xff0000, 0xffff00, 0x00ff00, 0x00ffff, 0x0000ff, 0xff00ff, 0xffffff, 0x808080, 0xc0c0c0};
+        System.arraycopy(fixed, 0, palette, 0, fixed.length);
+        int[] values = {255, 165, 127, 76, 38};
+        for (int index = 10; index < 250; index++) {
+            double hue = (index - 10) / 10 * 15.0;
+            double value = values[(index % 10) / 2];
+            boolean pale = index % 2 == 1;
+            int rgb = 0;
+            for (int shift = 16, n = 5; shift >= 0; shift -= 8, n -= 2) {
+                // HSV with full saturation: f(n) = 1 - max(0, min(k, 4 - k, 1)), k = (n + h / 60) mod 6
+                double k = (n + hue / 60) % 6;
+                double channel = 1 - Math.max(0, Math.min(Math.min(k, 4 - k), 1));
+                if (pale) {
+                    channel = 0.5 + channel / 2;
+                }
+                rgb |= (int) (channel * value) << shift;
+            }
+            palette[index] = rgb;
+        }
+        int[] greys = {51, 91, 132, 173, 214, 255};
+        for (int i = 0; i < greys.length; i++) {
+            palette[250 + i] = greys[i] * 0x010101;
+        }
+        return palette;
+    }
+
+    private static String layerName(int rgb) {
+        String hex = Integer.toHexString(rgb).toUpperCase();
+        return "COLOR_" + "000000".substring(hex.length()) + hex;
+    }
+
+    /**
+     * Group code / value writer that keeps its own scratch buffers, so a shape costs no
+     * allocation beyond what the writer buffers.
+     */
+    private static final class DxfWriter {
+
+        private final Writer out;
+        // y of the document's bottom edge; DXF y grows upwards
+        private final double flipY;
+        private final StringBuilder sb = new StringBuilder(64);
+        private int handle = FIRST_HANDLE;
+        // transformed points of the current subpath or Bezier chain
+        private double[] xs = new double[64];
+        private double[] ys = new double[64];
+        private int count;
+
+        DxfWriter(Writer out, double flipY) {
+            this.out = out;
+            this.flipY = flipY;
+        }
+
+        void header(long handleSeed) throws IOException {
+            section("HEADER");
+            pair(9, "$ACADVER");
+            pair(1, "AC1015");
+            pair(9, "$HANDSEED");
+            pair(5, Long.toHexString(handleSeed).toUpperCase());
+            endSection();
+            section("CLASSES");
+            endSection();
+        }
+
+        void tables(Set<Integer> colors) throws IOException {
+            section("TABLES");
+            table("VPORT", VPORT_TABLE, 0);
+            pair(0, "ENDTAB");
+
+            table("LTYPE", LTYPE_TABLE, 3);
+            linetype(LTYPE_BYBLOCK, "ByBlock", "");
+            linetype(LTYPE_BYLAYER, "ByLayer", "");
+            linetype(LTYPE_CONTINUOUS, "Continuous", "Solid line");
+            pair(0, "ENDTAB");
+
+            table("LAYER", LAYER_TABLE, colors.size() + 1);
+            layer(LAYER_0, "0", 7, -1);
+            for (int rgb : colors) {
+                // true colour for R2000 readers, the nearest index for older ones
+                layer(Integer.toHexString(handle++).toUpperCase(), layerName(rgb), nearestAci(rgb), rgb);
+            }
+            pair(0, "ENDTAB");
+
+            table("STYLE", STYLE_TABLE, 1);
+            record("STYLE", STANDARD_STYLE, STYLE_TABLE, "AcDbTextStyleTableRecord");
+            pair(2, "Standard");
+            pair(70, "0");
+            number(40, 0);
+            number(41, 1);
+            number(50, 0);
+            pair(71, "0");
+            number(42, 2.5);
+            pair(3, "txt");
+            pair(4, "");
+            pair(0, "ENDTAB");
+
+            table("VIEW", VIEW_TABLE, 0);
+            pair(0, "ENDTAB");
+
+            table("UCS", UCS_TABLE, 0);
+            pair(0, "ENDTAB");
+
+            table("APPID", APPID_TABLE, 1);
+            record("APPID", ACAD_APPID, APPID_TABLE, "AcDbRegAppTableRecord");
+            pair(2, "ACAD");
+            pair(70, "0");
+            pair(0, "ENDTAB");
+
+            table("DIMSTYLE", DIMSTYLE_TABLE, 1);
+            pair(100, "AcDbDimStyleTable");
+            // DIMSTYLE records carry their handle in 105 instead of 5
+            pair(0, "DIMSTYLE");
+            pair(105, STANDARD_DIMSTYLE);
+            pair(330, DIMSTYLE_TABLE);
+            pair(100, "AcDbSymbolTableRecord");
+            pair(100, "AcDbDimStyleTableRecord");
+            pair(2, "Standard");
+            pair(70, "0");
+            pair(0, "ENDTAB");
+
+            table("BLOCK_RECORD", BLOCK_RECORD_TABLE, 2);
+            record("BLOCK_RECORD", MODEL_SPACE_RECORD, BLOCK_RECORD_TABLE, "AcDbBlockTableRecord");
+            pair(2, "*Model_Space");
+            record("BLOCK_RECORD", PAPER_SPACE_RECORD, BLOCK_RECORD_TABLE, "AcDbBlockTableRecord");
+            pair(2, "*Paper_Space");
+            pair(0, "ENDTAB");
+            endSection();
+        }
+
+        void blocks() throws IOException {
+            section("BLOCKS");
+            block(MODEL_SPACE_BLOCK, MODEL_SPACE_END, MODEL_SPACE_RECORD, "*Model_Space", false);
+            block(PAPER_SPACE_BLOCK, PAPER_SPACE_END, PAPER_SPACE_RECORD, "*Paper_Space", true);
+            endSection();
+        }
+
+        void objects() throws IOException {
+            section("OBJECTS");
+            pair(0, "DICTIONARY");
+            pair(5, ROOT_DICTIONARY);
+            pair(330, "0");
+            pair(100, "AcDbDictionary");
+            pair(281, "1");
+            pair(3, "ACAD_GROUP");
+            pair(350, GROUP_DICTIONARY);
+            pair(0, "DICTIONARY");
+            pair(5, GROUP_DICTIONARY);
+            pair(330, ROOT_DICTIONARY);
+            pair(100, "AcDbDictionary");
+            pair(281, "1");
+            endSection();
+        }
+
+        private void table(String name, String tableHandle, int entries) throws IOException {
+            pair(0, "TABLE");
+            pair(2, name);
+            pair(5, tableHandle);
+            pair(330, "0");
+            pair(100, "AcDbSymbolTable");
+            pair(70, Integer.toString(entries));
+        }
+
+        private void record(String type, String recordHandle, String owner, String subclass) throws IOException {
+            pair(0, type);
+            pair(5, recordHandle);
+            pair(330, owner);
+            pair(100, "AcDbSymbolTableRecord");
+            pair(100, subclass);
+        }
+
+        private void linetype(String recordHandle, String name, String description) throws IOException {
+            record("LTYPE", recordHandle, LTYPE_TABLE, "AcDbLinetypeTableRecord");
+            pair(2, name);
+            pair(70, "0");
+            pair(3, description);
+            pair(72, "65");
+            pair(73, "0");
+            number(40, 0);
+        }
+
+        // rgb < 0: no true colour
+        private void layer(String recordHandle, String name, int aci, int rgb) throws IOException {
+            record("LAYER", recordHandle, LAYER_TABLE, "AcDbLayerTableRecord");
+            pair(2, name);
+            pair(70, "0");
+            pair(62, Integer.toString(aci));
+            if (rgb >= 0) {
+                pair(420, Integer.toString(rgb));
+            }
+            pair(6, "Continuous");
+        }
+
+        private void block(String begin, String end, String owner, String name, boolean paper) throws IOException {
+            pair(0, "BLOCK");
+            pair(5, begin);
+            pair(330, owner);
+            pair(100, "AcDbEntity");
+            if (paper) {
+                pair(67, "1");
+            }
+            pair(8, "0");
+            pair(100, "AcDbBlockBegin");
+            pair(2, name);
+            pair(70, "0");
+            point(10, 20, 0, 0);
+            number(30, 0);
+            pair(3, name);
+            pair(1, "");
+            pair(0, "ENDBLK");
+            pair(5, end);
+            pair(330, owner);
+            pair(100, "AcDbEntity");
+            if (paper) {
+                pair(67, "1");
+            }
+            pair(8, "0");
+            pair(100, "AcDbBlockEnd");
+        }
+
+        void section(String name) throws IOException {
+            pair(0, "SECTION");
+            pair(2, name);
+        }
+
+        void endSection() throws IOException {
+            pair(0, "ENDSEC");
+        }
+
+        void shape(ShapeRecord r) throws IOException {
+            double[] c = r.getCoords();
+            double[] t = r.getTransform();
+            String layer = layerName(colorOf(r));
+            switch (r.getKind()) {
+                case LINE -> {
+                    entity("LINE", layer);
+                    point(10, 20, tx(t, c[0], c[1]), ty(t, c[0], c[1]));
+                    point(11, 21, tx(t, c[2], c[3]), ty(t, c[2], c[3]));
+                }
+                case RECTANGLE -> {
+                    count = 0;
+                    add(t, c[0], c[1]);
+                    add(t, c[0] + c[2], c[1]);
+                    add(t, c[0] + c[2], c[1] + c[3]);
+                    add(t, c[0], c[1] + c[3]);
+                    polyline(layer, true);
+                }
+                case CIRCLE -> circle(layer, t, c[0], c[1], c[2]);
+                case CUBIC -> {
+                    count = 0;
+                    add(t, c[0], c[1]);
+                    for (int i = 2; i < 8; i += 2) {
+                        add(t, c[i], c[i + 1]);
+                    }
+                    spline(layer);
+                }
+                case PATH -> path(layer, t, r.getPathOps(), c);
+            }
+        }
+
+        private void circle(String layer, double[] t, double cx, double cy, double r) throws IOException {
+            double sx = Math.hypot(t[0], t[3]);
+            double sy = Math.hypot(t[1], t[4]);
+            double skew = t[0] * t[1] + t[3] * t[4];
+            if (Math.abs(sx - sy) < 1e-9 && Math.abs(skew) < 1e-9) {
+                // rotation and uniform scale keep it a circle
+                entity("CIRCLE", layer);
+                point(10, 20, tx(t, cx, cy), ty(t, cx, cy));
+                number(40, r * sx);
+                return;
+            }
+            // anything else makes it an ellipse; four Bezier arcs transform exactly
+            double k = r * CIRCLE_KAPPA;
+            count = 0;
+            add(t, cx + r, cy);
+            add(t, cx + r, cy + k);
+            add(t, cx + k, cy + r);
+            add(t, cx, cy + r);
+            add(t, cx - k, cy + r);
+            add(t, cx - r, cy + k);
+            add(t, cx - r, cy);
+            add(t, cx - r, cy - k);
+            add(t, cx - k, cy - r);
+            add(t, cx, cy - r);
+            add(t, cx + k, cy - r);
+            add(t, cx + r, cy - k);
+            add(t, cx + r, cy);
+            spline(layer);
+        }
+
+        /**
+         * Subpaths with straight segments only become LWPOLYLINEs; as soon as a subpath has a
+         * curve, the whole subpath is written as one SPLINE with its lines raised to cubics.
+         */
+        private void path(String layer, double[] t, byte[] ops, double[] c) throws IOException {
+            int i = 0;
+            int start = 0;
+            while (start < ops.length) {
+                // find the subpath [start, end) and whether it is curved or closed
+                int end = start + 1;
+                boolean curved = false;
+                boolean closed = false;
+                for (; end < ops.length && ops[end] != ShapeRecord.MOVE_TO; end++) {
+                    curved |= ops[end] == ShapeRecord.QUAD_TO || ops[end] == ShapeRecord.CUBIC_TO;
+                    closed |= ops[end] == ShapeRecord.CLOSE;
+                }
+                i = curved ? chain(t, ops, c, start, end, i) : points(t, ops, c, start, end, i);
+                if (count > 1) {
+                    if (curved) {
+                        spline(layer);
+                    } else {
+                        polyline(layer, closed);
+                    }
+                }
+                start = end;
+            }
+        }
+
+        private int points(double[] t, byte[] ops, double[] c, int from, int to, int i) {
+            count = 0;
+            for (int k = from; k < to; k++) {
+                byte op = ops[k];
+                if (op == ShapeRecord.MOVE_TO || op == ShapeRecord.LINE_TO) {
+                    add(t, c[i], c[i + 1]);
+                }
+                i += ShapeRecord.opArity(op);
+            }
+            return i;
+        }
+
+        // Bezier control polygon of the subpath: 1 + 3n points for n cubic segments.
+        private int chain(double[] t, byte[] ops, double[] c, int from, int to, int i) {
+            count = 0;
+            double x = 0;
+            double y = 0;
+            double startX = 0;
+            double startY = 0;
+            for (int k = from; k < to; k++) {
+                byte op = ops[k];
+                switch (op) {
+                    case ShapeRecord.MOVE_TO -> {
+                        x = startX = c[i];
+                        y = startY = c[i + 1];
+                        add(t, x, y);
+                    }
+                    case ShapeRecord.LINE_TO -> {
+                        lineAsCubic(t, x, y, c[i], c[i + 1]);
+                        x = c[i];
+                        y = c[i + 1];
+                    }
+                    case ShapeRecord.QUAD_TO -> {
+                        add(t, x + 2.0 / 3.0 * (c[i] - x), y + 2.0 / 3.0 * (c[i + 1] - y));
+                        add(t, c[i + 2] + 2.0 / 3.0 * (c[i] - c[i + 2]), c[i + 3] + 2.0 / 3.0 * (c[i + 1] - c[i + 3]));
+                        x = c[i + 2];
+                        y = c[i + 3];
+                        add(t, x, y);
+                    }
+                    case ShapeRecord.CUBIC_TO -> {
+                        add(t, c[i], c[i + 1]);
+                        add(t, c[i + 2], c[i + 3]);
+                        x = c[i + 4];
+                        y = c[i + 5];
+                        add(t, x, y);
+                    }
+                    case ShapeRecord.CLOSE -> {
+                        if (x != startX || y != startY) {
+                            lineAsCubic(t, x, y, startX, startY);
+                        }
+                        x = startX;
+                        y = startY;
+                    }
+                    default -> {
+                    }
+                }
+                i += ShapeRecord.opArity(op);
+            }
+            return i;
+        }
+
+        private void lineAsCubic(double[] t, double x0, double y0, double x1, double y1) {
+            add(t, x0 + (x1 - x0) / 3.0, y0 + (y1 - y0) / 3.0);
+            add(t, x0 + 2.0 * (x1 - x0) / 3.0, y0 + 2.0 * (y1 - y0) / 3.0);
+            add(t, x1, y1);
+        }
+
+        private void polyline(String layer, boolean closed) throws IOException {
+            entity("LWPOLYLINE", layer);
+            pair(100, "AcDbPolyline");
+            pair(90, Integer.toString(count));
+            pair(70, closed ? "1" : "0");
+            for (int k = 0; k < count; k++) {
+                point(10, 20, xs[k], ys[k]);
+            }
+        }
+
+        /**
+         * Degree-3 clamped B-spline whose control points are the Bezier chain in xs/ys; triple
+         * interior knots make each Bezier segment one span, so the curve is unchanged.
+         */
+        private void spline(String layer) throws IOException {
+            int segments = (count - 1) / 3;
+            entity("SPLINE", layer);
+            pair(100, "AcDbSpline");
+            // planar; a closed subpath already ends on its first point, so it is not flagged
+            // closed, which some readers take to mean periodic
+            pair(70, "8");
+            pair(71, "3");
+            pair(72, Integer.toString(3 * segments + 5));
+            pair(73, Integer.toString(3 * segments + 1));
+            pair(74, "0");
+            for (int k = 0; k < 4; k++) {
+                number(40, 0);
+            }
+            for (int s = 1; s < segments; s++) {
+                for (int k = 0; k < 3; k++) {
+                    number(40, s);
+                }
+            }
+            for (int k = 0; k < 4; k++) {
+                number(40, segments);
+            }
+            for (int k = 0; k < 3 * segments + 1; k++) {
+                point(10, 20, xs[k], ys[k]);
+            }
+        }
+
+        private void entity(String type, String layer) throws IOException {
+            pair(0, type);
+            handle();
+            pair(330, MODEL_SPACE_RECORD);
+            pair(100, "AcDbEntity");
+            pair(8, layer);
+            if (type.equals("LINE")) {
+                pair(100, "AcDbLine");
+            } else if (type.equals("CIRCLE")) {
+                pair(100, "AcDbCircle");
+            }
+        }
+
+        private void add(double[] t, double x, double y) {
+            if (count == xs.length) {
+                xs = Arrays.copyOf(xs, count * 2);
+                ys = Arrays.copyOf(ys, count * 2);
+            }
+            xs[count] = tx(t, x, y);
+            ys[count] = ty(t, x, y);
+            count++;
+        }
+
+        private double tx(double[] t, double x, double y) {
+            return t[0] * x + t[1] * y + t[2];
+        }
+
+        private double ty(double[] t, double x, double y) {
+            return flipY - (t[3] * x + t[4] * y + t[5]);
+        }
+
+        private void handle() throws IOException {
+            pair(5, Integer.toHexString(handle++).toUpperCase());
+        }
+
+        private void point(int xCode, int yCode, double x, double y) throws IOException {
+            number(xCode, x);
+            number(yCode, y);
+        }
+
+        private void number(int code, double value) throws IOException {
+            sb.setLength(0);
+            Numbers.append(sb, value, DECIMALS);
+            writeCode(code);
+            out.append(sb).append('\n');
+        }
+
+        void pair(int code, String value) throws IOException {
+            writeCode(code);
+            out.write(value);
+            out.write('\n');
+        }
+
+        private void writeCode(int code) throws IOException {
+            out.write(Integer.toString(code));
+            out.write('\n');
+        }
+    }
+}
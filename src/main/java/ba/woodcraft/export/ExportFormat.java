@@ -1,7 +1,11 @@
 package ba.woodcraft.export;
 
 public enum ExportFormat {
-    PDF("PDF Files", "*.pdf");
+    PDF("PDF Files", "*.pdf"),
+    SVG("SVG Files", "*.svg"),
+    DXF("DXF Files", "*.dxf"),
+    GCODE("G-code Files", "*.nc"),
+    PNG("PNG Images", "*.png");
 
     private final String description;
     private final String extensionPattern;
@@ -0,0 +1,68 @@
+package ba.woodcraft.export;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Measurements of one export. Allocation is what the exporting thread allocated, or -1 where
+ * the JVM cannot tell; work handed to other threads (PNG tiles) is not included.
+ *
+ * @param shapes number of shapes, or -1 if the service did not report it
+ * @param bytes  size of the written file; 0 unless the export completed
+ */
+public record ExportMetrics(ExportFormat format, Outcome outcome, int shapes, long bytes,
+                            long allocatedBytes, long totalNanos, List<Stage> stages) {
+
+    public enum Outcome {
+        COMPLETED,
+        CANCELLED,
+        FAILED
+    }
+
+    public record Stage(String name, long nanos, long allocatedBytes) {
+    }
+
+    public ExportMetrics {
+        stages = List.copyOf(stages);
+    }
+
+    /**
+     * @return time spent in the named stage, 0 if there was none
+     */
+    public long stageNanos(String name) {
+        long nanos = 0;
+        for (Stage stage : stages) {
+            if (stage.name().equals(name)) {
+                nanos += stage.nanos();
+            }
+        }
+        return nanos;
+    }
+
+    /**
+     * One line of {@code key=value} pairs, for logs and grep.
+     */
+    public String toLogLine() {
+        StringBuilder sb = new StringBuilder(160);
+        sb.append("export format=").append(format)
+                .append(" outcome=").append(outcome.name().toLowerCase(Locale.ROOT));
+        if (shapes >= 0) {
+            sb.append(" shapes=").append(shapes);
+        }
+        sb.append(" bytes=").append(bytes);
+        if (allocatedBytes >= 0) {
+            sb.append(" alloc_bytes=").append(allocatedBytes);
+        }
+        sb.append(" total_ms=");
+        millis(sb, totalNanos);
+        for (Stage stage : stages) {
+            sb.append(' ').append(stage.name()).append("_ms=");
+            millis(sb, stage.nanos());
+        }
+        return sb.toString();
+    }
+
+    private static void millis(StringBuilder sb, long nanos) {
+        sb.append(String.format(Locale.ROOT, "%.3f", nanos / 1_000_000.0));
+    }
+}
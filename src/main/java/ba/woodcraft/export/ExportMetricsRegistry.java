@@ -0,0 +1,81 @@
+package ba.woodcraft.export;
+
+import ba.woodcraft.util.LatencyStats;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Metrics of recent exports, plus total export time per format. Every export is also logged
+ * as one {@link ExportMetrics#toLogLine() key=value line}.
+ *
+ * Thread-safe; batch exports record into one registry from several workers.
+ */
+public class ExportMetricsRegistry {
+
+    private static final Logger LOG = Logger.getLogger(ExportMetricsRegistry.class.getName());
+
+    public static final int DEFAULT_HISTORY = 64;
+
+    private final int history;
+    private final Deque<ExportMetrics> recent = new ArrayDeque<>();
+    private final Map<ExportFormat, ExportMetrics> last = new EnumMap<>(ExportFormat.class);
+    private final Map<ExportFormat, LatencyStats> latency = new EnumMap<>(ExportFormat.class);
+
+    public ExportMetricsRegistry() {
+        this(DEFAULT_HISTORY);
+    }
+
+    public ExportMetricsRegistry(int history) {
+        if (history <= 0) {
+            throw new IllegalArgumentException("history must be positive");
+        }
+        this.history = history;
+    }
+
+    public void record(ExportMetrics metrics) {
+        synchronized (this) {
+            if (recent.size() == history) {
+                recent.removeFirst();
+            }
+            recent.addLast(metrics);
+            last.put(metrics.format(), metrics);
+        }
+        if (metrics.outcome() == ExportMetrics.Outcome.COMPLETED) {
+            getLatency(metrics.format()).record(metrics.totalNanos());
+        }
+        LOG.info(metrics::toLogLine);
+    }
+
+    /**
+     * @return up to the last {@code history} exports, oldest first
+     */
+    public synchronized List<ExportMetrics> getRecent() {
+        return new ArrayList<>(recent);
+    }
+
+    /**
+     * @return the latest export to this format, or {@code null}
+     */
+    public synchronized ExportMetrics getLast(ExportFormat format) {
+        return last.get(format);
+    }
+
+    /**
+     * Total time of completed exports to this format.
+     */
+    public synchronized LatencyStats getLatency(ExportFormat format) {
+        return latency.computeIfAbsent(format, f -> new LatencyStats("export-" + f.name().toLowerCase(Locale.ROOT)));
+    }
+
+    public synchronized void clear() {
+        recent.clear();
+        last.clear();
+        latency.clear();
+    }
+}
@@ -0,0 +1,39 @@
+package ba.woodcraft.export;
+
+/**
+ * Progress and cancellation hook for an export that may run off the FX thread.
+ */
+public interface ExportProgress {
+
+    ExportProgress NONE = new ExportProgress() {
+        @Override
+        public void update(long done, long total) {
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+    };
+
+    void update(long done, long total);
+
+    /**
+     * Polled by the exporter between units of work; once it returns {@code true} the export
+     * stops with a {@link java.util.concurrent.CancellationException} and writes nothing.
+     */
+    boolean isCancelled();
+
+    /**
+     * Marks the start of a named stage, such as collecting shapes or saving; the previous
+     * stage ends here. Called on the exporting thread.
+     */
+    default void beginStage(String name) {
+    }
+
+    /**
+     * Number of shapes the export covers, once it is known.
+     */
+    default void setShapeCount(int count) {
+    }
+}
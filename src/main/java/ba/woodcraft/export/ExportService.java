@@ -4,5 +4,10 @@ import java.io.File;
 import java.io.IOException;
 
 public interface ExportService {
-    void export(CanvasDocument document, File target) throws IOException;
+
+    default void export(CanvasDocument document, File target) throws IOException {
+        export(document, target, ExportProgress.NONE);
+    }
+
+    void export(CanvasDocument document, File target, ExportProgress progress) throws IOException;
 }
@@ -5,16 +5,42 @@ import java.io.IOException;
 import java.util.EnumMap;
 import java.util.Map;
 
+/**
+ * Export services by format. Services are registered behind a meter, so every export made
+ * through the registry ends up in {@link #getMetrics()}.
+ */
 public class ExportServiceRegistry {
 
     private final Map<ExportFormat, ExportService> services = new EnumMap<>(ExportFormat.class);
+    private final ExportMetricsRegistry metrics;
 
     public ExportServiceRegistry() {
+        this(new ExportMetricsRegistry());
+    }
+
+    public ExportServiceRegistry(ExportMetricsRegistry metrics) {
+        this.metrics = metrics;
         register(ExportFormat.PDF, new PdfExportService());
+        register(ExportFormat.SVG, new SvgExportService());
+        register(ExportFormat.DXF, new DxfExportService());
+        register(ExportFormat.GCODE, new GcodeExportService());
+        register(ExportFormat.PNG, new PngExportService());
     }
 
     public void register(ExportFormat format, ExportService service) {
-        services.put(format, service);
+        services.put(format, metered(format, service));
+    }
+
+    /**
+     * Wraps a service configured for one export (say, PNG at a chosen DPI) so that it is
+     * measured like the registered ones.
+     */
+    public ExportService metered(ExportFormat format, ExportService service) {
+        return new MeteredExportService(format, service, metrics);
+    }
+
+    public ExportMetricsRegistry getMetrics() {
+        return metrics;
     }
 
     public ExportService getService(ExportFormat format) {
@@ -28,4 +54,9 @@ public class ExportServiceRegistry {
     public void export(ExportFormat format, CanvasDocument document, File target) throws IOException {
         getService(format).export(document, target);
     }
+
+    public void export(ExportFormat format, CanvasDocument document, File target, ExportProgress progress)
+            throws IOException {
+        getService(format).export(document, target, progress);
+    }
 }
@@ -0,0 +1,175 @@
+package ba.woodcraft.export;
+
+import ba.woodcraft.model.ShapeRecord;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Serialized output of single shapes, kept between exports so that re-exporting after a
+ * small edit only serializes what changed. Entries are keyed by
+ * {@link ShapeRecord#contentHash()} and checked with {@link ShapeRecord#contentEquals} on
+ * every hit.
+ *
+ * Every export runs between {@link #beginPass()} and {@link #endPass}. Once the estimated
+ * size passes the limit, entries not used since the oldest running export began are evicted,
+ * least recently used first; those belong to shapes that were deleted or changed. If every
+ * entry is in use, new fragments are not admitted: exports walk the shapes in the same order
+ * each time, and plain LRU would then evict every fragment just before it is needed again.
+ *
+ * Thread-safe, so exports may overlap; a cache of 0 bytes stores nothing and takes no lock.
+ *
+ * @param <F> fragment type, e.g. PDF operator bytes
+ */
+public final class FragmentCache<F> {
+
+    public static final long DEFAULT_MAX_BYTES = 16L * 1024 * 1024;
+
+    // map entry, key and record header, roughly
+    private static final int ENTRY_OVERHEAD = 160;
+
+    private static final class Entry<F> {
+        final ShapeRecord record;
+        final F fragment;
+        final long weight;
+        long pass;
+
+        Entry(ShapeRecord record, F fragment, long weight, long pass) {
+            this.record = record;
+            this.fragment = fragment;
+            this.weight = weight;
+            this.pass = pass;
+        }
+    }
+
+    private final Map<Long, Entry<F>> entries = new LinkedHashMap<>(1024, 0.75f, true);
+    private final long maxBytes;
+    private long bytes;
+    private long pass;
+    // passes begun and not yet ended
+    private final TreeSet<Long> running = new TreeSet<>();
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public FragmentCache(long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("maxBytes must not be negative");
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * A cache of {@code woodcraft.export.cacheBytes} bytes, {@value #DEFAULT_MAX_BYTES} by default.
+     */
+    public static <F> FragmentCache<F> fromSystemProperties() {
+        return new FragmentCache<>(Long.getLong("woodcraft.export.cacheBytes", DEFAULT_MAX_BYTES));
+    }
+
+    /**
+     * Marks the start of an export; what no running export touches becomes evictable.
+     *
+     * @return the token to hand to {@link #endPass} when the export is over, however it ends
+     */
+    public long beginPass() {
+        if (maxBytes == 0) {
+            return 0;
+        }
+        synchronized (this) {
+            running.add(++pass);
+            return pass;
+        }
+    }
+
+    public void endPass(long token) {
+        if (maxBytes == 0) {
+            return;
+        }
+        synchronized (this) {
+            running.remove(token);
+        }
+    }
+
+    /**
+     * @return the fragment stored for a record with this content, or {@code null}
+     */
+    public F get(ShapeRecord record) {
+        if (maxBytes == 0) {
+            return null;
+        }
+        synchronized (this) {
+            Entry<F> entry = entries.get(record.contentHash());
+            if (entry != null && entry.record.contentEquals(record)) {
+                entry.pass = pass;
+                hits++;
+                return entry.fragment;
+            }
+            misses++;
+            return null;
+        }
+    }
+
+    /**
+     * @param fragmentBytes approximate size of the fragment
+     */
+    public void put(ShapeRecord record, F fragment, int fragmentBytes) {
+        long weight = ENTRY_OVERHEAD + fragmentBytes
+                + 8L * record.getCoords().length + record.getPathOps().length;
+        if (weight > maxBytes) {
+            return;
+        }
+        synchronized (this) {
+            // entries are stamped with the newest pass when touched, so anything stamped before
+            // the oldest running pass was touched by none of them
+            long oldest = running.isEmpty() ? Long.MAX_VALUE : running.first();
+            Iterator<Entry<F>> eldest = entries.values().iterator();
+            while (bytes + weight > maxBytes) {
+                Entry<F> candidate = eldest.hasNext() ? eldest.next() : null;
+                if (candidate == null || candidate.pass >= oldest) {
+                    // everything left is in use by a running export
+                    return;
+                }
+                eldest.remove();
+                bytes -= candidate.weight;
+                evictions++;
+            }
+            Entry<F> old = entries.put(record.contentHash(), new Entry<>(record, fragment, weight, pass));
+            if (old != null) {
+                bytes -= old.weight;
+            }
+            bytes += weight;
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return entries.size() + " fragments, " + bytes / 1024 + " KB, " + hits + " hits, " + misses
+                + " misses, " + evictions + " evictions";
+    }
+}
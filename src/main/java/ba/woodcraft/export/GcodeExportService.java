@@ -0,0 +1,352 @@
+package ba.woodcraft.export;
+
+import ba.woodcraft.geometry.Polyline;
+import ba.woodcraft.model.ShapeFlattener;
+import ba.woodcraft.model.ShapeRecord;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * CNC router program (G-code, millimetres, absolute). Every visible shape is followed along
+ * its outline: curves are flattened to line moves by a {@link ShapeFlattener}, which keeps
+ * them between exports, and each cut is repeated at increasing depth until
+ * {@link Settings#cutDepth()} is reached. Closed contours start every pass at the same point;
+ * open cuts go back and forth.
+ *
+ * The cut order is optimized by {@link ToolpathOptimizer} within the time budget, and the
+ * rapid travel before and after is written at the top of the program and logged.
+ */
+public class GcodeExportService implements ExportService {
+
+    private static final Logger LOG = Logger.getLogger(GcodeExportService.class.getName());
+
+    private static final int DECIMALS = 3;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long PROGRESS_MASK = 0xff;
+
+    /**
+     * Machining parameters. Lengths are in millimetres, rates in millimetres per minute.
+     *
+     * @param unitScale millimetres per drawing unit
+     * @param tolerance largest distance between a curve and its line moves
+     */
+    public record Settings(double cutDepth, double depthPerPass, double feedRate, double plungeRate,
+                           double safeHeight, double unitScale, double tolerance, long optimizeMillis) {
+
+        public static final Settings DEFAULTS = new Settings(3.0, 1.0, 1200, 300, 5.0, 1.0, 0.05, 2000);
+
+        public Settings {
+            if (cutDepth <= 0 || depthPerPass <= 0 || feedRate <= 0 || plungeRate <= 0
+                    || unitScale <= 0 || tolerance <= 0) {
+                throw new IllegalArgumentException("G-code settings must be positive");
+            }
+            // rapids run at this height, so it has to clear the top of the stock (Z = 0)
+            if (!(safeHeight > 0)) {
+                throw new IllegalArgumentException("G-code safe height must be above the stock");
+            }
+        }
+
+        /**
+         * Defaults, each overridable with a {@code woodcraft.gcode.*} system property.
+         */
+        public static Settings fromSystemProperties() {
+            return new Settings(
+                    doubleProperty("woodcraft.gcode.cutDepth", DEFAULTS.cutDepth),
+                    doubleProperty("woodcraft.gcode.depthPerPass", DEFAULTS.depthPerPass),
+                    doubleProperty("woodcraft.gcode.feedRate", DEFAULTS.feedRate),
+                    doubleProperty("woodcraft.gcode.plungeRate", DEFAULTS.plungeRate),
+                    doubleProperty("woodcraft.gcode.safeHeight", DEFAULTS.safeHeight),
+                    doubleProperty("woodcraft.gcode.unitScale", DEFAULTS.unitScale),
+                    doubleProperty("woodcraft.gcode.tolerance", DEFAULTS.tolerance),
+                    Long.getLong("woodcraft.gcode.optimizeMillis", DEFAULTS.optimizeMillis));
+        }
+
+        int passes() {
+            // 3.0 / 1.0 must not become 4 passes through rounding
+            return Math.max(1, (int) Math.ceil(cutDepth / depthPerPass - 1e-9));
+        }
+
+        private static double doubleProperty(String key, double fallback) {
+            String value = System.getProperty(key);
+            return value == null ? fallback : Double.parseDouble(value);
+        }
+    }
+
+    private final Settings settings;
+    private final ShapeFlattener flattener;
+
+    public GcodeExportService() {
+        this(Settings.fromSystemProperties());
+    }
+
+    public GcodeExportService(Settings settings) {
+        this.settings = settings;
+        // the tolerance is in millimetres, the flattener works in drawing units
+        this.flattener = new ShapeFlattener(settings.tolerance() / settings.unitScale());
+    }
+
+    @Override
+    public void export(CanvasDocument document, File target, ExportProgress progress) throws IOException {
+        progress.beginStage("collect");
+        List<ShapeRecord> records = document.getExportableRecords();
+        progress.setShapeCount(records.size());
+        progress.beginStage("flatten");
+        // building the cuts and writing them count as one half each
+        long total = 2L * records.size();
+        Cuts cuts = new Cuts(document, settings.unitScale(), flattener);
+        long done = 0;
+        for (ShapeRecord record : records) {
+            if ((done & PROGRESS_MASK) == 0) {
+                checkCancelled(progress);
+                progress.update(done, total);
+            }
+            if (isVisible(record)) {
+                cuts.add(record);
+            }
+            done++;
+        }
+
+        int count = cuts.size();
+        boolean[] returns = new boolean[count];
+        int passes = settings.passes();
+        for (int c = 0; c < count; c++) {
+            returns[c] = cuts.isClosed(c) || passes % 2 == 0;
+        }
+        progress.beginStage("optimize");
+        ToolpathOptimizer optimizer = new ToolpathOptimizer(cuts.startX(), cuts.startY(), cuts.endX(), cuts.endY(),
+                returns, progress);
+        double before = optimizer.rapidDistance();
+        long t0 = System.nanoTime();
+        optimizer.optimize(TimeUnit.MILLISECONDS.toNanos(settings.optimizeMillis()));
+        long optimizeNanos = System.nanoTime() - t0;
+        double after = optimizer.rapidDistance();
+        LOG.info(() -> String.format(Locale.ROOT,
+                "G-code export: %d cuts, rapid travel %.1f mm in drawing order, %.1f mm nearest-neighbour,"
+                        + " %.1f mm optimized (%.1f%% less) in %d ms",
+                count, before, optimizer.getSeedDistance(), after,
+                before > 0 ? 100 * (before - after) / before : 0.0, optimizeNanos / 1_000_000));
+
+        progress.beginStage("write");
+        boolean finished = false;
+        try (Writer out = new BufferedWriter(
+                Files.newBufferedWriter(target.toPath(), StandardCharsets.US_ASCII), BUFFER_SIZE)) {
+            GcodeWriter gcode = new GcodeWriter(out, settings);
+            gcode.header(count, before, after);
+            for (int p = 0; p < count; p++) {
+                if ((p & PROGRESS_MASK) == 0) {
+                    checkCancelled(progress);
+                    progress.update(records.size() + (long) p * records.size() / count, total);
+                }
+                int c = optimizer.cutAt(p);
+                gcode.cut(cuts, c, optimizer.isReversed(c));
+            }
+            gcode.footer();
+            progress.update(total, total);
+            finished = true;
+        } finally {
+            if (!finished) {
+                Files.deleteIfExists(target.toPath());
+            }
+        }
+    }
+
+    private static boolean isVisible(ShapeRecord record) {
+        return (record.hasStroke() && record.getStrokeArgb() >>> 24 != 0)
+                || (record.hasFill() && record.getFillArgb() >>> 24 != 0);
+    }
+
+    private static void checkCancelled(ExportProgress progress) {
+        if (progress.isCancelled()) {
+            throw new CancellationException("G-code export cancelled");
+        }
+    }
+
+    /**
+     * Flattened cuts in machine coordinates: x to the right and y up from the bottom-left
+     * corner of the document, in millimetres. Points of all cuts share one pool.
+     */
+    static final class Cuts {
+
+        private final double originX;
+        private final double flipY;
+        private final double scale;
+        private final ShapeFlattener flattener;
+
+        private double[] xs = new double[1024];
+        private double[] ys = new double[1024];
+        private int points;
+        // cut c owns points [starts[c], starts[c + 1])
+        private int[] starts = new int[65];
+        private boolean[] closed = new boolean[64];
+        private int count;
+
+        Cuts(CanvasDocument document, double unitScale, ShapeFlattener flattener) {
+            this.originX = document.getOriginX();
+            this.flipY = document.getOriginY() + document.getHeight();
+            this.scale = unitScale;
+            this.flattener = flattener;
+        }
+
+        void add(ShapeRecord record) {
+            Polyline polyline = flattener.flatten(record);
+            for (int s = 0; s < polyline.getSubpathCount(); s++) {
+                if (count + 1 == closed.length) {
+                    closed = Arrays.copyOf(closed, closed.length * 2);
+                    starts = Arrays.copyOf(starts, closed.length + 1);
+                }
+                int end = polyline.getEnd(s);
+                int needed = points + end - polyline.getStart(s);
+                if (needed > xs.length) {
+                    int capacity = Math.max(needed, xs.length * 2);
+                    xs = Arrays.copyOf(xs, capacity);
+                    ys = Arrays.copyOf(ys, capacity);
+                }
+                for (int i = polyline.getStart(s); i < end; i++) {
+                    xs[points] = (polyline.getX(i) - originX) * scale;
+                    ys[points] = (flipY - polyline.getY(i)) * scale;
+                    points++;
+                }
+                closed[count] = polyline.isClosed(s);
+                count++;
+                starts[count] = points;
+            }
+        }
+
+        int size() {
+            return count;
+        }
+
+        boolean isClosed(int c) {
+            return closed[c];
+        }
+
+        double[] startX() {
+            double[] out = new double[count];
+            for (int c = 0; c < count; c++) {
+                out[c] = xs[starts[c]];
+            }
+            return out;
+        }
+
+        double[] startY() {
+            double[] out = new double[count];
+            for (int c = 0; c < count; c++) {
+                out[c] = ys[starts[c]];
+            }
+            return out;
+        }
+
+        double[] endX() {
+            double[] out = new double[count];
+            for (int c = 0; c < count; c++) {
+                out[c] = xs[starts[c + 1] - 1];
+            }
+            return out;
+        }
+
+        double[] endY() {
+            double[] out = new double[count];
+            for (int c = 0; c < count; c++) {
+                out[c] = ys[starts[c + 1] - 1];
+            }
+            return out;
+        }
+    }
+
+    static final class GcodeWriter {
+
+        private final Writer out;
+        private final Settings settings;
+        private final int passes;
+        private final StringBuilder sb = new StringBuilder(64);
+
+        GcodeWriter(Writer out, Settings settings) {
+            this.out = out;
+            this.settings = settings;
+            this.passes = settings.passes();
+        }
+
+        void header(int cuts, double before, double after) throws IOException {
+            line(String.format(Locale.ROOT, "(WoodCraft: %d cuts, %d passes to %.3f mm, feed %.0f mm/min)",
+                    cuts, passes, settings.cutDepth(), settings.feedRate()));
+            line(String.format(Locale.ROOT, "(rapid travel: %.1f mm in drawing order, %.1f mm optimized)",
+                    before, after));
+            line("G21 G90 G17");
+            sb.setLength(0);
+            sb.append("G0 Z");
+            Numbers.append(sb, settings.safeHeight(), DECIMALS);
+            line(sb);
+        }
+
+        /**
+         * Rapid to the cut's entry, then one plunge and one traversal per pass, then retract.
+         * An open cut runs the other way on every second pass, so it never travels back empty.
+         */
+        void cut(Cuts cuts, int c, boolean reversed) throws IOException {
+            int from = cuts.starts[c];
+            int to = cuts.starts[c + 1] - 1;
+            boolean closed = cuts.closed[c];
+            boolean forward = closed || !reversed;
+            int entry = forward ? from : to;
+
+            sb.setLength(0);
+            sb.append("G0 ");
+            xy(cuts, entry);
+            line(sb);
+            for (int pass = 1; pass <= passes; pass++) {
+                sb.setLength(0);
+                sb.append("G1 Z");
+                Numbers.append(sb, -Math.min(pass * settings.depthPerPass(), settings.cutDepth()), DECIMALS);
+                sb.append(" F");
+                Numbers.append(sb, settings.plungeRate(), 0);
+                line(sb);
+                for (int k = 1; k <= to - from; k++) {
+                    int index = forward ? from + k : to - k;
+                    sb.setLength(0);
+                    if (k == 1) {
+                        sb.append("G1 ");
+                    }
+                    xy(cuts, index);
+                    if (k == 1) {
+                        sb.append(" F");
+                        Numbers.append(sb, settings.feedRate(), 0);
+                    }
+                    line(sb);
+                }
+                if (!closed) {
+                    forward = !forward;
+                }
+            }
+            sb.setLength(0);
+            sb.append("G0 Z");
+            Numbers.append(sb, settings.safeHeight(), DECIMALS);
+            line(sb);
+        }
+
+        void footer() throws IOException {
+            line("G0 X0 Y0");
+            line("M2");
+        }
+
+        private void xy(Cuts cuts, int index) {
+            sb.append('X');
+            Numbers.append(sb, cuts.xs[index], DECIMALS);
+            sb.append(" Y");
+            Numbers.append(sb, cuts.ys[index], DECIMALS);
+        }
+
+        private void line(CharSequence text) throws IOException {
+            out.append(text).append('\n');
+        }
+    }
+}
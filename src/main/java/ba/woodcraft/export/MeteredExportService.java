@@ -0,0 +1,123 @@
+package ba.woodcraft.export;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Times an {@link ExportService} stage by stage and hands the result to a
+ * {@link ExportMetricsRegistry}. Stages are the ones the service marks through
+ * {@link ExportProgress#beginStage}; a service that marks none is one "export" stage.
+ */
+final class MeteredExportService implements ExportService {
+
+    private static final com.sun.management.ThreadMXBean THREADS = allocationBean();
+
+    private final ExportFormat format;
+    private final ExportService delegate;
+    private final ExportMetricsRegistry metrics;
+
+    MeteredExportService(ExportFormat format, ExportService delegate, ExportMetricsRegistry metrics) {
+        this.format = format;
+        this.delegate = delegate;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void export(CanvasDocument document, File target, ExportProgress progress) throws IOException {
+        Recorder recorder = new Recorder(progress);
+        ExportMetrics.Outcome outcome = ExportMetrics.Outcome.FAILED;
+        try {
+            delegate.export(document, target, recorder);
+            outcome = ExportMetrics.Outcome.COMPLETED;
+        } catch (CancellationException ex) {
+            outcome = ExportMetrics.Outcome.CANCELLED;
+            throw ex;
+        } finally {
+            long bytes = outcome == ExportMetrics.Outcome.COMPLETED ? target.length() : 0;
+            metrics.record(recorder.finish(format, outcome, bytes));
+        }
+    }
+
+    private static com.sun.management.ThreadMXBean allocationBean() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean bean
+                && bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled()) {
+            return bean;
+        }
+        return null;
+    }
+
+    private static long allocated() {
+        return THREADS != null ? THREADS.getCurrentThreadAllocatedBytes() : -1;
+    }
+
+    // Passes progress through and keeps the clock for the stages.
+    private static final class Recorder implements ExportProgress {
+
+        private final ExportProgress progress;
+        private final List<ExportMetrics.Stage> stages = new ArrayList<>();
+        private final long startNanos;
+        private final long startAllocated;
+        // null until the service marks its first stage
+        private String stage;
+        private long stageNanos;
+        private long stageAllocated;
+        private int shapes = -1;
+
+        Recorder(ExportProgress progress) {
+            this.progress = progress;
+            startNanos = System.nanoTime();
+            startAllocated = allocated();
+            stageNanos = startNanos;
+            stageAllocated = startAllocated;
+        }
+
+        @Override
+        public void update(long done, long total) {
+            progress.update(done, total);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return progress.isCancelled();
+        }
+
+        @Override
+        public void beginStage(String name) {
+            long now = System.nanoTime();
+            long allocatedNow = allocated();
+            if (stage != null) {
+                endStage(now, allocatedNow);
+            }
+            stage = name;
+            stageNanos = now;
+            stageAllocated = allocatedNow;
+            progress.beginStage(name);
+        }
+
+        @Override
+        public void setShapeCount(int count) {
+            shapes = count;
+            progress.setShapeCount(count);
+        }
+
+        ExportMetrics finish(ExportFormat format, ExportMetrics.Outcome outcome, long bytes) {
+            long now = System.nanoTime();
+            long allocatedNow = allocated();
+            if (stage == null) {
+                stage = "export";
+            }
+            endStage(now, allocatedNow);
+            long allocatedBytes = startAllocated < 0 ? -1 : allocatedNow - startAllocated;
+            return new ExportMetrics(format, outcome, shapes, bytes, allocatedBytes, now - startNanos, stages);
+        }
+
+        private void endStage(long now, long allocatedNow) {
+            stages.add(new ExportMetrics.Stage(stage, now - stageNanos,
+                    stageAllocated < 0 ? -1 : allocatedNow - stageAllocated));
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package ba.woodcraft.export;
+
+/**
+ * Compact decimal formatting for text exporters, without going through String.format.
+ */
+final class Numbers {
+
+    private static final long[] POWERS = {1, 10, 100, 1_000, 10_000, 100_000, 1_000_000};
+
+    private Numbers() {
+    }
+
+    /**
+     * Rounds to {@code decimals} places and drops trailing zeros and the leading "0" before
+     * the point: 12, 12.5, .25, -3.
+     */
+    static StringBuilder append(StringBuilder sb, double value, int decimals) {
+        long scale = POWERS[decimals];
+        long scaled = Math.round(value * scale);
+        if (scaled < 0) {
+            sb.append('-');
+            scaled = -scaled;
+        }
+        long whole = scaled / scale;
+        long fraction = scaled % scale;
+        if (whole != 0 || fraction == 0) {
+            sb.append(whole);
+        }
+        if (fraction != 0) {
+            sb.append('.');
+            int digits = decimals;
+            while (fraction % 10 == 0) {
+                fraction /= 10;
+                digits--;
+            }
+            for (long limit = POWERS[digits - 1]; limit > 1 && fraction < limit; limit /= 10) {
+                sb.append('0');
+            }
+            sb.append(fraction);
+        }
+        return sb;
+    }
+}
@@ -0,0 +1,274 @@
+package ba.woodcraft.export;
+
+import ba.woodcraft.model.ShapeRecord;
+import java.io.IOException;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+
+/**
+ * Writes shape records into a PDF content stream, emitting only what changes. The stroke
+ * colour, fill colour and line width last written are remembered and not repeated; shapes
+ * without a transform are drawn without q/cm/Q; and consecutive stroke-only shapes of the
+ * same style are collected into one path with a single stroke operator.
+ *
+ * Fills are not merged: under the nonzero rule, overlapping subpaths of opposite direction
+ * would punch holes into each other.
+ *
+ * The path operators of a shape (and its cm) are cached per shape in a {@link FragmentCache};
+ * only the graphics state and paint operators are decided here on every export.
+ */
+final class PdfContentWriter {
+
+    private static final double CIRCLE_KAPPA = 0.552284749831;
+    private static final int DECIMALS = 3;
+    private static final int MATRIX_DECIMALS = 5;
+
+    private enum Paint {
+        STROKE,
+        FILL,
+        FILL_STROKE
+    }
+
+    private final PDPageContentStream content;
+    private final FragmentCache<byte[]> fragments;
+    private final StringBuilder sb = new StringBuilder(256);
+
+    // graphics state as last written; -1 / NaN until first set
+    private int strokeRgb = -1;
+    private int fillRgb = -1;
+    private float lineWidth = Float.NaN;
+    // a stroke-only path has been built but not yet painted
+    private boolean strokePending;
+
+    private long shapes;
+    private long paintOps;
+    private long stateOps;
+
+    PdfContentWriter(PDPageContentStream content, FragmentCache<byte[]> fragments) {
+        this.content = content;
+        this.fragments = fragments;
+    }
+
+    void draw(ShapeRecord record) throws IOException {
+        boolean stroke = record.hasStroke() && alpha(record.getStrokeArgb()) != 0;
+        // lines and curves are open; like the scene graph export, they are never filled
+        boolean fill = record.hasFill() && alpha(record.getFillArgb()) != 0
+                && record.getKind() != ShapeRecord.Kind.LINE && record.getKind() != ShapeRecord.Kind.CUBIC;
+        if (!stroke && !fill) {
+            return;
+        }
+        Paint paint = fill ? (stroke ? Paint.FILL_STROKE : Paint.FILL) : Paint.STROKE;
+        boolean identity = record.isIdentityTransform();
+        int rgb = record.getStrokeArgb() & 0xffffff;
+        float width = (float) record.getStrokeWidth();
+
+        boolean extendsPending = strokePending && paint == Paint.STROKE && identity
+                && rgb == strokeRgb && width == lineWidth;
+        if (!extendsPending) {
+            flush();
+            if (stroke) {
+                setStroke(rgb, width);
+            }
+            if (fill) {
+                setFill(record.getFillArgb() & 0xffffff);
+            }
+        }
+        shapes++;
+
+        if (!identity) {
+            // colour and width were set outside q/Q, so they survive the restore; the
+            // fragment starts with the cm
+            content.saveGraphicsState();
+            appendFragment(record);
+            paint(paint);
+            content.restoreGraphicsState();
+            return;
+        }
+        appendFragment(record);
+        if (paint == Paint.STROKE) {
+            strokePending = true;
+        } else {
+            paint(paint);
+        }
+    }
+
+    /**
+     * Paints whatever path is still open. Must be called before the stream is closed.
+     */
+    void flush() throws IOException {
+        if (strokePending) {
+            strokePending = false;
+            paint(Paint.STROKE);
+        }
+    }
+
+    long getShapeCount() {
+        return shapes;
+    }
+
+    long getPaintOpCount() {
+        return paintOps;
+    }
+
+    long getStateOpCount() {
+        return stateOps;
+    }
+
+    private void setStroke(int rgb, float width) throws IOException {
+        if (rgb != strokeRgb) {
+            content.setStrokingColor(new java.awt.Color(rgb));
+            strokeRgb = rgb;
+            stateOps++;
+        }
+        if (width != lineWidth) {
+            content.setLineWidth(width);
+            lineWidth = width;
+            stateOps++;
+        }
+    }
+
+    private void setFill(int rgb) throws IOException {
+        if (rgb != fillRgb) {
+            content.setNonStrokingColor(new java.awt.Color(rgb));
+            fillRgb = rgb;
+            stateOps++;
+        }
+    }
+
+    private void paint(Paint paint) throws IOException {
+        switch (paint) {
+            case STROKE -> content.stroke();
+            case FILL -> content.fill();
+            case FILL_STROKE -> content.fillAndStroke();
+        }
+        paintOps++;
+    }
+
+    /**
+     * Writes the record's path operators, from the cache when the same shape was exported
+     * before. They depend on nothing but the record, so they can be spliced in as bytes.
+     */
+    @SuppressWarnings("deprecation")
+    private void appendFragment(ShapeRecord record) throws IOException {
+        byte[] fragment = fragments.get(record);
+        if (fragment == null) {
+            fragment = fragment(record);
+            fragments.put(record, fragment, fragment.length);
+        }
+        content.appendRawCommands(fragment);
+    }
+
+    private byte[] fragment(ShapeRecord record) {
+        StringBuilder sb = this.sb;
+        sb.setLength(0);
+        if (!record.isIdentityTransform()) {
+            double[] t = record.getTransform();
+            // PDF order is (a b c d e f) = (mxx myx mxy myy tx ty); rotation terms need more digits
+            matrix(t[0]).append(' ');
+            matrix(t[3]).append(' ');
+            matrix(t[1]).append(' ');
+            matrix(t[4]).append(' ');
+            number(t[2]).append(' ');
+            number(t[5]).append(" cm\n");
+        }
+        double[] c = record.getCoords();
+        switch (record.getKind()) {
+            case LINE -> {
+                point(c[0], c[1]).append(" m\n");
+                point(c[2], c[3]).append(" l\n");
+            }
+            case RECTANGLE -> {
+                point(c[0], c[1]).append(' ');
+                point(c[2], c[3]).append(" re\n");
+            }
+            case CIRCLE -> appendCircle(c[0], c[1], c[2]);
+            case CUBIC -> {
+                point(c[0], c[1]).append(" m\n");
+                curve(c[2], c[3], c[4], c[5], c[6], c[7]);
+            }
+            case PATH -> appendPath(record.getPathOps(), c);
+        }
+        byte[] bytes = new byte[sb.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) sb.charAt(i);
+        }
+        return bytes;
+    }
+
+    private void appendCircle(double cx, double cy, double r) {
+        double k = r * CIRCLE_KAPPA;
+        point(cx + r, cy).append(" m\n");
+        curve(cx + r, cy + k, cx + k, cy + r, cx, cy + r);
+        curve(cx - k, cy + r, cx - r, cy + k, cx - r, cy);
+        curve(cx - r, cy - k, cx - k, cy - r, cx, cy - r);
+        curve(cx + k, cy - r, cx + r, cy - k, cx + r, cy);
+        sb.append("h\n");
+    }
+
+    private void appendPath(byte[] ops, double[] c) {
+        double x = 0;
+        double y = 0;
+        double startX = 0;
+        double startY = 0;
+        int i = 0;
+        for (byte op : ops) {
+            switch (op) {
+                case ShapeRecord.MOVE_TO -> {
+                    x = startX = c[i];
+                    y = startY = c[i + 1];
+                    point(x, y).append(" m\n");
+                }
+                case ShapeRecord.LINE_TO -> {
+                    x = c[i];
+                    y = c[i + 1];
+                    point(x, y).append(" l\n");
+                }
+                case ShapeRecord.QUAD_TO -> {
+                    // PDF has no quadratic segment; raise it to the equivalent cubic
+                    double c1x = x + 2.0 / 3.0 * (c[i] - x);
+                    double c1y = y + 2.0 / 3.0 * (c[i + 1] - y);
+                    double c2x = c[i + 2] + 2.0 / 3.0 * (c[i] - c[i + 2]);
+                    double c2y = c[i + 3] + 2.0 / 3.0 * (c[i + 1] - c[i + 3]);
+                    x = c[i + 2];
+                    y = c[i + 3];
+                    curve(c1x, c1y, c2x, c2y, x, y);
+                }
+                case ShapeRecord.CUBIC_TO -> {
+                    x = c[i + 4];
+                    y = c[i + 5];
+                    curve(c[i], c[i + 1], c[i + 2], c[i + 3], x, y);
+                }
+                case ShapeRecord.CLOSE -> {
+                    sb.append("h\n");
+                    x = startX;
+                    y = startY;
+                }
+                default -> {
+                }
+            }
+            i += ShapeRecord.opArity(op);
+        }
+    }
+
+    private void curve(double x1, double y1, double x2, double y2, double x3, double y3) {
+        point(x1, y1).append(' ');
+        point(x2, y2).append(' ');
+        point(x3, y3).append(" c\n");
+    }
+
+    private StringBuilder point(double x, double y) {
+        number(x).append(' ');
+        return number(y);
+    }
+
+    private StringBuilder number(double value) {
+        return Numbers.append(sb, value, DECIMALS);
+    }
+
+    private StringBuilder matrix(double value) {
+        return Numbers.append(sb, value, MATRIX_DECIMALS);
+    }
+
+    private static int alpha(int argb) {
+        return argb >>> 24;
+    }
+}
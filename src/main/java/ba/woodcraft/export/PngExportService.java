@@ -0,0 +1,281 @@
+package ba.woodcraft.export;
+
+import ba.woodcraft.geometry.GridIndex;
+import ba.woodcraft.model.ShapeRecord;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.CubicCurve2D;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.logging.Logger;
+
+/**
+ * PNG at a chosen resolution, rasterized with Java2D off the FX thread. The page is cut into
+ * square tiles; one row of tiles is drawn in parallel on the fork/join pool while the row
+ * before it is encoded, so memory holds two rows of tiles however tall the image is.
+ *
+ * Drawing units are points (1/72 in), as in the PDF export.
+ */
+public class PngExportService implements ExportService {
+
+    private static final Logger LOG = Logger.getLogger(PngExportService.class.getName());
+
+    public static final int DEFAULT_DPI = 300;
+    public static final List<Integer> COMMON_DPI = List.of(72, 150, 300, 600);
+
+    private static final int TILE_SIZE = 512;
+    private static final int MAX_SIDE = 100_000;
+    private static final double POINTS_PER_INCH = 72.0;
+    private static final double INDEX_CELL_SIZE = 64;
+    private static final int BACKGROUND = 0xffffff;
+    private static final int CANCEL_MASK = 0xff;
+
+    private final int dpi;
+
+    public PngExportService() {
+        this(Integer.getInteger("woodcraft.png.dpi", DEFAULT_DPI));
+    }
+
+    public PngExportService(int dpi) {
+        if (dpi <= 0) {
+            throw new IllegalArgumentException("dpi must be positive");
+        }
+        this.dpi = dpi;
+    }
+
+    public int getDpi() {
+        return dpi;
+    }
+
+    @Override
+    public void export(CanvasDocument document, File target, ExportProgress progress) throws IOException {
+        double scale = dpi / POINTS_PER_INCH;
+        int width = (int) Math.ceil(document.getWidth() * scale);
+        int height = (int) Math.ceil(document.getHeight() * scale);
+        if (width <= 0 || height <= 0 || width > MAX_SIDE || height > MAX_SIDE) {
+            throw new IOException("Image of " + width + " x " + height + " px at " + dpi
+                    + " dpi is outside 1.." + MAX_SIDE + " px per side");
+        }
+
+        progress.beginStage("collect");
+        List<ShapeRecord> records = document.getExportableRecords();
+        progress.setShapeCount(records.size());
+        GridIndex<ShapeRecord> index = new GridIndex<>(INDEX_CELL_SIZE);
+        for (ShapeRecord record : records) {
+            index.put(record, record.getMinX(), record.getMinY(), record.getMaxX(), record.getMaxY());
+        }
+
+        int columns = (width + TILE_SIZE - 1) / TILE_SIZE;
+        int rows = (height + TILE_SIZE - 1) / TILE_SIZE;
+        TileRow[] buffers = {new TileRow(document, scale, width, columns), new TileRow(document, scale, width, columns)};
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        int[] line = new int[width];
+        long start = System.nanoTime();
+
+        progress.beginStage("raster");
+        ForkJoinTask<?> next = null;
+        boolean finished = false;
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(target.toPath()), 64 * 1024);
+             PngWriter png = new PngWriter(out, width, height, dpi)) {
+            next = pool.submit(buffers[0].prepare(index, 0, height, progress));
+            for (int row = 0; row < rows; row++) {
+                checkCancelled(progress);
+                progress.update(row, rows);
+                TileRow ready = buffers[row & 1];
+                next.join();
+                if (row + 1 < rows) {
+                    // draw the next row while this one is encoded
+                    next = pool.submit(buffers[(row + 1) & 1].prepare(index, row + 1, height, progress));
+                }
+                ready.encode(png, line);
+            }
+            finished = true;
+        } finally {
+            if (!finished) {
+                if (next != null) {
+                    next.cancel(false);
+                }
+                Files.deleteIfExists(target.toPath());
+            }
+        }
+        progress.update(rows, rows);
+        LOG.fine(() -> "PNG export: " + width + " x " + height + " px at " + dpi + " dpi, "
+                + columns * rows + " tiles in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+
+    private static void checkCancelled(ExportProgress progress) {
+        if (progress.isCancelled()) {
+            throw new CancellationException("PNG export cancelled");
+        }
+    }
+
+    /**
+     * The tiles of one row, reused from row to row. {@link #prepare} returns the task that
+     * draws them, one fork/join subtask per tile.
+     */
+    private static final class TileRow {
+
+        private final double originX;
+        private final double originY;
+        private final double scale;
+        private final int width;
+        private final BufferedImage[] tiles;
+        private final List<ShapeRecord> records = new ArrayList<>();
+        private int top;
+        private int rowHeight;
+
+        TileRow(CanvasDocument document, double scale, int width, int columns) {
+            this.originX = document.getOriginX();
+            this.originY = document.getOriginY();
+            this.scale = scale;
+            this.width = width;
+            this.tiles = new BufferedImage[columns];
+            for (int i = 0; i < columns; i++) {
+                int tileWidth = Math.min(TILE_SIZE, width - i * TILE_SIZE);
+                tiles[i] = new BufferedImage(tileWidth, TILE_SIZE, BufferedImage.TYPE_INT_RGB);
+            }
+        }
+
+        // The index query runs here, on the calling thread; GridIndex is not thread-safe.
+        RecursiveAction prepare(GridIndex<ShapeRecord> index, int row, int height, ExportProgress progress) {
+            top = row * TILE_SIZE;
+            rowHeight = Math.min(TILE_SIZE, height - top);
+            records.clear();
+            index.queryInOrder(originX, originY + top / scale,
+                    originX + width / scale, originY + (top + rowHeight) / scale, records);
+            return new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    List<RecursiveAction> work = new ArrayList<>(tiles.length);
+                    for (int i = 0; i < tiles.length; i++) {
+                        int column = i;
+                        work.add(new RecursiveAction() {
+                            @Override
+                            protected void compute() {
+                                drawTile(column, progress);
+                            }
+                        });
+                    }
+                    invokeAll(work);
+                }
+            };
+        }
+
+        void encode(PngWriter png, int[] line) throws IOException {
+            for (int y = 0; y < rowHeight; y++) {
+                for (int i = 0; i < tiles.length; i++) {
+                    BufferedImage tile = tiles[i];
+                    int[] pixels = ((DataBufferInt) tile.getRaster().getDataBuffer()).getData();
+                    System.arraycopy(pixels, y * tile.getWidth(), line, i * TILE_SIZE, tile.getWidth());
+                }
+                png.writeRow(line, 0);
+            }
+        }
+
+        private void drawTile(int column, ExportProgress progress) {
+            BufferedImage tile = tiles[column];
+            int left = column * TILE_SIZE;
+            double minX = originX + left / scale;
+            double maxX = originX + (left + tile.getWidth()) / scale;
+            Graphics2D g = tile.createGraphics();
+            try {
+                g.setColor(new Color(BACKGROUND));
+                g.fillRect(0, 0, tile.getWidth(), TILE_SIZE);
+                g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+                g.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+                // tile pixel (0,0) is page pixel (left, top)
+                g.translate(-left, -top);
+                g.scale(scale, scale);
+                g.translate(-originX, -originY);
+                AffineTransform base = g.getTransform();
+                for (int i = 0, n = records.size(); i < n; i++) {
+                    if ((i & CANCEL_MASK) == 0) {
+                        checkCancelled(progress);
+                    }
+                    ShapeRecord record = records.get(i);
+                    if (record.getMaxX() >= minX && record.getMinX() <= maxX) {
+                        draw(g, base, record);
+                    }
+                }
+            } finally {
+                g.dispose();
+            }
+        }
+    }
+
+    private static void draw(Graphics2D g, AffineTransform base, ShapeRecord record) {
+        boolean stroke = record.hasStroke() && record.getStrokeArgb() >>> 24 != 0;
+        // lines and curves are open; like the PDF export, they are never filled
+        boolean fill = record.hasFill() && record.getFillArgb() >>> 24 != 0
+                && record.getKind() != ShapeRecord.Kind.LINE && record.getKind() != ShapeRecord.Kind.CUBIC;
+        if (!stroke && !fill) {
+            return;
+        }
+        if (!record.isIdentityTransform()) {
+            double[] t = record.getTransform();
+            g.setTransform(base);
+            g.transform(new AffineTransform(t[0], t[3], t[1], t[4], t[2], t[5]));
+        }
+        Shape shape = toShape(record);
+        if (fill) {
+            g.setColor(new Color(record.getFillArgb(), true));
+            g.fill(shape);
+        }
+        if (stroke) {
+            g.setColor(new Color(record.getStrokeArgb(), true));
+            g.setStroke(new BasicStroke((float) record.getStrokeWidth()));
+            g.draw(shape);
+        }
+        if (!record.isIdentityTransform()) {
+            g.setTransform(base);
+        }
+    }
+
+    private static Shape toShape(ShapeRecord record) {
+        double[] c = record.getCoords();
+        return switch (record.getKind()) {
+            case LINE -> new Line2D.Double(c[0], c[1], c[2], c[3]);
+            case RECTANGLE -> new Rectangle2D.Double(c[0], c[1], c[2], c[3]);
+            case CIRCLE -> new Ellipse2D.Double(c[0] - c[2], c[1] - c[2], 2 * c[2], 2 * c[2]);
+            case CUBIC -> new CubicCurve2D.Double(c[0], c[1], c[2], c[3], c[4], c[5], c[6], c[7]);
+            case PATH -> toPath(record.getPathOps(), c);
+        };
+    }
+
+    private static Path2D toPath(byte[] ops, double[] c) {
+        Path2D.Double path = new Path2D.Double(Path2D.WIND_NON_ZERO, ops.length);
+        int i = 0;
+        for (byte op : ops) {
+            switch (op) {
+                case ShapeRecord.MOVE_TO -> path.moveTo(c[i], c[i + 1]);
+                case ShapeRecord.LINE_TO -> path.lineTo(c[i], c[i + 1]);
+                case ShapeRecord.QUAD_TO -> path.quadTo(c[i], c[i + 1], c[i + 2], c[i + 3]);
+                case ShapeRecord.CUBIC_TO -> path.curveTo(c[i], c[i + 1], c[i + 2], c[i + 3], c[i + 4], c[i + 5]);
+                case ShapeRecord.CLOSE -> path.closePath();
+                default -> {
+                }
+            }
+            i += ShapeRecord.opArity(op);
+        }
+        return path;
+    }
+}
@@ -0,0 +1,207 @@
+package ba.woodcraft.export;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Row-by-row PNG encoder for 8-bit RGB. Rows are filtered and deflated as they arrive, and
+ * compressed data goes out in fixed-size IDAT chunks, so only two rows are ever held.
+ * ImageIO needs the whole image up front, which is what a large print must avoid.
+ */
+final class PngWriter implements AutoCloseable {
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final double INCHES_PER_METRE = 39.3700787;
+
+    private final DataOutputStream out;
+    private final int width;
+    private final int height;
+    private final IdatStream idat;
+    private final DeflaterOutputStream deflater;
+    private final Deflater deflate;
+
+    // unfiltered rows and the filtered candidates; [0] is the filter type byte
+    private byte[] previous;
+    private byte[] current;
+    private final byte[] sub;
+    private final byte[] up;
+    private final byte[] paeth;
+    private int rows;
+
+    PngWriter(OutputStream target, int width, int height, int dpi) throws IOException {
+        this.out = new DataOutputStream(target);
+        this.width = width;
+        this.height = height;
+        int stride = width * 3;
+        previous = new byte[stride + 1];
+        current = new byte[stride + 1];
+        sub = new byte[stride + 1];
+        up = new byte[stride + 1];
+        paeth = new byte[stride + 1];
+
+        out.write(SIGNATURE);
+        ByteArrayOutputStream header = new ByteArrayOutputStream(13);
+        DataOutputStream h = new DataOutputStream(header);
+        h.writeInt(width);
+        h.writeInt(height);
+        h.writeByte(8);  // bit depth
+        h.writeByte(2);  // truecolour
+        h.writeByte(0);  // deflate
+        h.writeByte(0);  // adaptive filtering
+        h.writeByte(0);  // no interlace
+        chunk("IHDR", header.toByteArray(), header.size());
+
+        // physical size, so the print comes out at the chosen DPI
+        int perMetre = (int) Math.round(dpi * INCHES_PER_METRE);
+        ByteArrayOutputStream phys = new ByteArrayOutputStream(9);
+        DataOutputStream p = new DataOutputStream(phys);
+        p.writeInt(perMetre);
+        p.writeInt(perMetre);
+        p.writeByte(1);
+        chunk("pHYs", phys.toByteArray(), phys.size());
+
+        idat = new IdatStream();
+        deflate = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        deflater = new DeflaterOutputStream(idat, deflate, CHUNK_SIZE);
+    }
+
+    /**
+     * Appends one row of {@code width} pixels, 0xRRGGBB, starting at {@code offset}.
+     */
+    void writeRow(int[] rgb, int offset) throws IOException {
+        if (rows == height) {
+            throw new IllegalStateException("PNG already has " + height + " rows");
+        }
+        byte[] raw = current;
+        for (int x = 0, i = 1; x < width; x++) {
+            int pixel = rgb[offset + x];
+            raw[i++] = (byte) (pixel >> 16);
+            raw[i++] = (byte) (pixel >> 8);
+            raw[i++] = (byte) pixel;
+        }
+        deflater.write(filter(raw, previous));
+        current = previous;
+        previous = raw;
+        rows++;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (rows != height) {
+            deflate.end();
+            throw new IOException("PNG has " + rows + " of " + height + " rows");
+        }
+        deflater.finish();
+        deflate.end();
+        idat.flushChunk();
+        chunk("IEND", new byte[0], 0);
+        out.flush();
+    }
+
+    /**
+     * Picks the filter with the smallest sum of absolute (signed) bytes, the usual heuristic.
+     * Drawings are mostly flat colour, where Sub and Up turn whole runs into zeros.
+     */
+    private byte[] filter(byte[] raw, byte[] prior) {
+        long sumNone = 0;
+        long sumSub = 0;
+        long sumUp = 0;
+        long sumPaeth = 0;
+        for (int i = 1; i < raw.length; i++) {
+            int x = raw[i] & 0xff;
+            int a = i > 3 ? raw[i - 3] & 0xff : 0;
+            int b = prior[i] & 0xff;
+            int c = i > 3 ? prior[i - 3] & 0xff : 0;
+            byte s = (byte) (x - a);
+            byte u = (byte) (x - b);
+            byte pa = (byte) (x - paethPredictor(a, b, c));
+            sub[i] = s;
+            up[i] = u;
+            paeth[i] = pa;
+            sumNone += Math.abs(raw[i]);
+            sumSub += Math.abs(s);
+            sumUp += Math.abs(u);
+            sumPaeth += Math.abs(pa);
+        }
+        long best = Math.min(Math.min(sumNone, sumSub), Math.min(sumUp, sumPaeth));
+        if (best == sumSub) {
+            sub[0] = 1;
+            return sub;
+        }
+        if (best == sumUp) {
+            up[0] = 2;
+            return up;
+        }
+        if (best == sumPaeth) {
+            paeth[0] = 4;
+            return paeth;
+        }
+        raw[0] = 0;
+        return raw;
+    }
+
+    private static int paethPredictor(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) {
+            return a;
+        }
+        return pb <= pc ? b : c;
+    }
+
+    private void chunk(String type, byte[] data, int length) throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+        out.writeInt(length);
+        out.write(typeBytes);
+        out.write(data, 0, length);
+        out.writeInt((int) crc.getValue());
+    }
+
+    // Collects deflated bytes and emits them as IDAT chunks of CHUNK_SIZE.
+    private final class IdatStream extends OutputStream {
+
+        private final byte[] buffer = new byte[CHUNK_SIZE];
+        private int size;
+
+        @Override
+        public void write(int b) throws IOException {
+            if (size == buffer.length) {
+                flushChunk();
+            }
+            buffer[size++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (size == buffer.length) {
+                    flushChunk();
+                }
+                int n = Math.min(len, buffer.length - size);
+                System.arraycopy(b, off, buffer, size, n);
+                size += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        void flushChunk() throws IOException {
+            if (size > 0) {
+                chunk("IDAT", buffer, size);
+                size = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package ba.woodcraft.export;
+
+import ba.woodcraft.model.ShapeRecord;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Streams the document as SVG with StAX; nothing but the current shape is held in memory.
+ * Consecutive shapes with the same style share one {@code <g>} that carries the style, so
+ * the shapes themselves only carry geometry. Numbers are written with at most
+ * {@value #DECIMALS} decimals and without trailing zeros. Each shape's element is kept in a
+ * {@link FragmentCache}, so a re-export only formats the shapes that changed.
+ */
+public class SvgExportService implements ExportService {
+
+    private static final String SVG_NS = "http://www.w3.org/2000/svg";
+    private static final int DECIMALS = 2;
+    private static final int MATRIX_DECIMALS = 5;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long PROGRESS_MASK = 0xff;
+
+    private static final XMLOutputFactory XML = XMLOutputFactory.newFactory();
+
+    // one shape's element: name and alternating attribute names and values
+    private record Element(String name, String[] attributes) {
+
+        int weight() {
+            int chars = name.length();
+            for (String attribute : attributes) {
+                chars += attribute.length() + 24;
+            }
+            return 2 * chars;
+        }
+    }
+
+    private final FragmentCache<Element> fragments;
+
+    public SvgExportService() {
+        this.fragments = FragmentCache.fromSystemProperties();
+    }
+
+    /**
+     * @param cacheBytes size of the fragment cache kept between exports; 0 for none
+     */
+    public SvgExportService(long cacheBytes) {
+        this.fragments = new FragmentCache<>(cacheBytes);
+    }
+
+    @Override
+    public void export(CanvasDocument document, File target, ExportProgress progress) throws IOException {
+        long pass = fragments.beginPass();
+        boolean finished = false;
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(target.toPath()), BUFFER_SIZE)) {
+            XMLStreamWriter xml = XML.createXMLStreamWriter(out, "UTF-8");
+            write(xml, document, progress);
+            xml.close();
+            finished = true;
+        } catch (XMLStreamException ex) {
+            throw new IOException("SVG export failed: " + ex.getMessage(), ex);
+        } finally {
+            fragments.endPass(pass);
+            if (!finished) {
+                Files.deleteIfExists(target.toPath());
+            }
+        }
+    }
+
+    public FragmentCache<?> getFragmentCache() {
+        return fragments;
+    }
+
+    private void write(XMLStreamWriter xml, CanvasDocument document, ExportProgress progress)
+            throws XMLStreamException {
+        StringBuilder sb = new StringBuilder(256);
+        xml.writeStartDocument("UTF-8", "1.0");
+        xml.writeStartElement("svg");
+        xml.writeDefaultNamespace(SVG_NS);
+        xml.writeAttribute("width", number(sb, document.getWidth()));
+        xml.writeAttribute("height", number(sb, document.getHeight()));
+        sb.setLength(0);
+        appendNumber(sb, document.getOriginX()).append(' ');
+        appendNumber(sb, document.getOriginY()).append(' ');
+        appendNumber(sb, document.getWidth()).append(' ');
+        appendNumber(sb, document.getHeight());
+        xml.writeAttribute("viewBox", sb.toString());
+
+        progress.beginStage("collect");
+        List<ShapeRecord> records = document.getExportableRecords();
+        progress.setShapeCount(records.size());
+        progress.beginStage("write");
+        long total = records.size();
+        long done = 0;
+        ShapeRecord groupStyle = null;
+        for (ShapeRecord record : records) {
+            if ((done & PROGRESS_MASK) == 0) {
+                if (progress.isCancelled()) {
+                    throw new CancellationException("SVG export cancelled");
+                }
+                progress.update(done, total);
+            }
+            done++;
+            if (!isVisible(record)) {
+                continue;
+            }
+            if (groupStyle == null || !sameStyle(groupStyle, record)) {
+                if (groupStyle != null) {
+                    xml.writeEndElement();
+                }
+                writeGroup(xml, sb, record);
+                groupStyle = record;
+            }
+            writeShape(xml, sb, record);
+        }
+        if (groupStyle != null) {
+            xml.writeEndElement();
+        }
+        xml.writeEndElement();
+        xml.writeEndDocument();
+        progress.update(total, total);
+    }
+
+    private void writeGroup(XMLStreamWriter xml, StringBuilder sb, ShapeRecord style) throws XMLStreamException {
+        xml.writeStartElement("g");
+        boolean fill = hasFill(style);
+        xml.writeAttribute("fill", fill ? color(sb, style.getFillArgb()) : "none");
+        if (fill && alpha(style.getFillArgb()) != 255) {
+            xml.writeAttribute("fill-opacity", number(sb, alpha(style.getFillArgb()) / 255.0));
+        }
+        if (hasStroke(style)) {
+            xml.writeAttribute("stroke", color(sb, style.getStrokeArgb()));
+            if (style.getStrokeWidth() != 1.0) {
+                xml.writeAttribute("stroke-width", number(sb, style.getStrokeWidth()));
+            }
+            if (alpha(style.getStrokeArgb()) != 255) {
+                xml.writeAttribute("stroke-opacity", number(sb, alpha(style.getStrokeArgb()) / 255.0));
+            }
+        }
+    }
+
+    private void writeShape(XMLStreamWriter xml, StringBuilder sb, ShapeRecord record) throws XMLStreamException {
+        Element element = fragments.get(record);
+        if (element == null) {
+            element = element(sb, record);
+            fragments.put(record, element, element.weight());
+        }
+        xml.writeEmptyElement(element.name());
+        String[] attributes = element.attributes();
+        for (int i = 0; i < attributes.length; i += 2) {
+            xml.writeAttribute(attributes[i], attributes[i + 1]);
+        }
+    }
+
+    private static Element element(StringBuilder sb, ShapeRecord record) {
+        double[] c = record.getCoords();
+        List<String> a = new ArrayList<>(14);
+        String name;
+        switch (record.getKind()) {
+            case LINE -> {
+                name = "line";
+                attribute(a, "x1", number(sb, c[0]));
+                attribute(a, "y1", number(sb, c[1]));
+                attribute(a, "x2", number(sb, c[2]));
+                attribute(a, "y2", number(sb, c[3]));
+            }
+            case RECTANGLE -> {
+                name = "rect";
+                if (c[0] != 0) attribute(a, "x", number(sb, c[0]));
+                if (c[1] != 0) attribute(a, "y", number(sb, c[1]));
+                attribute(a, "width", number(sb, c[2]));
+                attribute(a, "height", number(sb, c[3]));
+            }
+            case CIRCLE -> {
+                name = "circle";
+                if (c[0] != 0) attribute(a, "cx", number(sb, c[0]));
+                if (c[1] != 0) attribute(a, "cy", number(sb, c[1]));
+                attribute(a, "r", number(sb, c[2]));
+            }
+            case CUBIC -> {
+                name = "path";
+                sb.setLength(0);
+                sb.append('M');
+                appendPoints(sb, c, 0, 2);
+                sb.append('C');
+                appendPoints(sb, c, 2, 6);
+                attribute(a, "d", sb.toString());
+            }
+            default -> {
+                name = "path";
+                attribute(a, "d", pathData(sb, record.getPathOps(), c));
+            }
+        }
+        if (!record.isIdentityTransform()) {
+            double[] t = record.getTransform();
+            sb.setLength(0);
+            sb.append("matrix(");
+            // SVG order is (a b c d e f) = (mxx myx mxy myy tx ty); rotation terms need more digits
+            Numbers.append(sb, t[0], MATRIX_DECIMALS).append(' ');
+            Numbers.append(sb, t[3], MATRIX_DECIMALS).append(' ');
+            Numbers.append(sb, t[1], MATRIX_DECIMALS).append(' ');
+            Numbers.append(sb, t[4], MATRIX_DECIMALS).append(' ');
+            appendNumber(sb, t[2]).append(' ');
+            appendNumber(sb, t[5]).append(')');
+            attribute(a, "transform", sb.toString());
+        }
+        return new Element(name, a.toArray(new String[0]));
+    }
+
+    private static void attribute(List<String> attributes, String name, String value) {
+        attributes.add(name);
+        attributes.add(value);
+    }
+
+    private static String pathData(StringBuilder sb, byte[] ops, double[] c) {
+        sb.setLength(0);
+        int i = 0;
+        for (byte op : ops) {
+            switch (op) {
+                case ShapeRecord.MOVE_TO -> sb.append('M');
+                case ShapeRecord.LINE_TO -> sb.append('L');
+                case ShapeRecord.QUAD_TO -> sb.append('Q');
+                case ShapeRecord.CUBIC_TO -> sb.append('C');
+                case ShapeRecord.CLOSE -> sb.append('Z');
+                default -> {
+                }
+            }
+            int arity = ShapeRecord.opArity(op);
+            appendPoints(sb, c, i, arity);
+            i += arity;
+        }
+        return sb.toString();
+    }
+
+    private static void appendPoints(StringBuilder sb, double[] c, int from, int count) {
+        for (int k = 0; k < count; k++) {
+            if (k > 0) {
+                sb.append(' ');
+            }
+            appendNumber(sb, c[from + k]);
+        }
+    }
+
+    private static String number(StringBuilder sb, double value) {
+        sb.setLength(0);
+        return appendNumber(sb, value).toString();
+    }
+
+    private static StringBuilder appendNumber(StringBuilder sb, double value) {
+        return Numbers.append(sb, value, DECIMALS);
+    }
+
+    private static String color(StringBuilder sb, int argb) {
+        sb.setLength(0);
+        int r = (argb >> 16) & 0xff;
+        int g = (argb >> 8) & 0xff;
+        int b = argb & 0xff;
+        sb.append('#');
+        if ((r >> 4) == (r & 0xf) && (g >> 4) == (g & 0xf) && (b >> 4) == (b & 0xf)) {
+            // #rrggbb -> #rgb when every channel repeats its digit
+            sb.append(Character.forDigit(r & 0xf, 16))
+                    .append(Character.forDigit(g & 0xf, 16))
+                    .append(Character.forDigit(b & 0xf, 16));
+        } else {
+            String hex = Integer.toHexString(argb & 0xffffff);
+            for (int pad = hex.length(); pad < 6; pad++) {
+                sb.append('0');
+            }
+            sb.append(hex);
+        }
+        return sb.toString();
+    }
+
+    private static boolean isVisible(ShapeRecord record) {
+        return hasStroke(record) || hasFill(record);
+    }
+
+    private static boolean hasStroke(ShapeRecord record) {
+        return record.hasStroke() && alpha(record.getStrokeArgb()) != 0;
+    }
+
+    // lines and curves are open; like the PDF export, they are never filled
+    private static boolean hasFill(ShapeRecord record) {
+        return record.hasFill() && alpha(record.getFillArgb()) != 0
+                && record.getKind() != ShapeRecord.Kind.LINE && record.getKind() != ShapeRecord.Kind.CUBIC;
+    }
+
+    private static boolean sameStyle(ShapeRecord a, ShapeRecord b) {
+        boolean stroke = hasStroke(a);
+        boolean fill = hasFill(a);
+        if (stroke != hasStroke(b) || fill != hasFill(b)) {
+            return false;
+        }
+        if (stroke && (a.getStrokeArgb() != b.getStrokeArgb() || a.getStrokeWidth() != b.getStrokeWidth())) {
+            return false;
+        }
+        return !fill || a.getFillArgb() == b.getFillArgb();
+    }
+
+    private static int alpha(int argb) {
+        return argb >>> 24;
+    }
+}
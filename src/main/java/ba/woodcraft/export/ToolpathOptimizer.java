@@ -0,0 +1,523 @@
+package ba.woodcraft.export;
+
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Orders cuts to shorten rapid travel between them: a nearest-neighbour tour as the seed,
+ * then 2-opt and Or-opt moves restricted to each cut's nearest neighbours, until nothing
+ * improves or the deadline passes.
+ *
+ * A cut has two end points. It is entered at one of them (the other one if reversed) and,
+ * unless it returns to its entry (closed contours, open cuts with an even number of passes),
+ * left at the other. The tour starts at the machine origin and does not return to it.
+ */
+final class ToolpathOptimizer {
+
+    private static final int NEIGHBOURS = 8;
+    private static final int MAX_SEGMENT = 3;
+    private static final double EPSILON = 1e-9;
+    // poll the deadline and cancellation every 256 moves tried
+    private static final int CHECK_MASK = 0xff;
+
+    private final int n;
+    private final double[] x0;
+    private final double[] y0;
+    private final double[] x1;
+    private final double[] y1;
+    private final boolean[] returns;
+
+    private final int[] order;
+    private final int[] pos;
+    private final boolean[] reversed;
+    private int[] neighbours;
+
+    // end point grid: cell -> end points (2 * cut + end) in cellItems[cellStart[cell] ..]
+    private double gridMinX;
+    private double gridMinY;
+    private double cellSize;
+    private int gridWidth;
+    private int gridHeight;
+    private int[] cellStart;
+    private int[] cellItems;
+
+    private final ExportProgress progress;
+    private long deadline;
+    private int checks;
+    private double seedDistance = Double.NaN;
+
+    /**
+     * @param returns per cut, whether it ends where it was entered
+     */
+    ToolpathOptimizer(double[] x0, double[] y0, double[] x1, double[] y1, boolean[] returns, ExportProgress progress) {
+        this.n = returns.length;
+        this.x0 = x0;
+        this.y0 = y0;
+        this.x1 = x1;
+        this.y1 = y1;
+        this.returns = returns;
+        this.progress = progress;
+        this.order = new int[n];
+        this.pos = new int[n];
+        this.reversed = new boolean[n];
+        for (int c = 0; c < n; c++) {
+            order[c] = c;
+            pos[c] = c;
+        }
+    }
+
+    /**
+     * Builds the seed tour and improves it until {@code budgetNanos} has passed. The
+     * nearest-neighbour seed is always completed; only the improvement is cut short.
+     */
+    void optimize(long budgetNanos) {
+        deadline = System.nanoTime() + budgetNanos;
+        if (n < 2) {
+            return;
+        }
+        buildGrid();
+        nearestNeighbourTour();
+        seedDistance = rapidDistance();
+        buildNeighbours();
+        boolean improved = true;
+        while (improved && !expired()) {
+            improved = twoOptPass();
+            improved |= orOptPass();
+        }
+    }
+
+    int cutAt(int position) {
+        return order[position];
+    }
+
+    boolean isReversed(int cut) {
+        return reversed[cut];
+    }
+
+    /**
+     * Rapid distance of the nearest-neighbour tour, or NaN before {@link #optimize}.
+     */
+    double getSeedDistance() {
+        return seedDistance;
+    }
+
+    /**
+     * Rapid distance of the current tour, from the origin to the last cut's exit.
+     */
+    double rapidDistance() {
+        double total = 0;
+        for (int p = 0; p < n; p++) {
+            total += link(p);
+        }
+        return total;
+    }
+
+    // --- seed
+
+    private void buildGrid() {
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for (int c = 0; c < n; c++) {
+            minX = Math.min(minX, Math.min(x0[c], x1[c]));
+            minY = Math.min(minY, Math.min(y0[c], y1[c]));
+            maxX = Math.max(maxX, Math.max(x0[c], x1[c]));
+            maxY = Math.max(maxY, Math.max(y0[c], y1[c]));
+        }
+        double w = Math.max(maxX - minX, EPSILON);
+        double h = Math.max(maxY - minY, EPSILON);
+        // about two end points per cell
+        cellSize = Math.max(Math.sqrt(w * h / n), Math.max(w, h) / 4096);
+        gridMinX = minX;
+        gridMinY = minY;
+        gridWidth = (int) (w / cellSize) + 1;
+        gridHeight = (int) (h / cellSize) + 1;
+
+        int cells = gridWidth * gridHeight;
+        cellStart = new int[cells + 1];
+        for (int e = 0; e < 2 * n; e++) {
+            cellStart[cellOf(e) + 1]++;
+        }
+        for (int i = 0; i < cells; i++) {
+            cellStart[i + 1] += cellStart[i];
+        }
+        cellItems = new int[2 * n];
+        int[] fill = new int[cells];
+        for (int e = 0; e < 2 * n; e++) {
+            int cell = cellOf(e);
+            cellItems[cellStart[cell] + fill[cell]++] = e;
+        }
+    }
+
+    private void nearestNeighbourTour() {
+        int cells = gridWidth * gridHeight;
+        // live end points per cell; taken ones are swapped past the live count
+        int[] live = new int[cells];
+        int[] items = cellItems.clone();
+        for (int i = 0; i < cells; i++) {
+            live[i] = cellStart[i + 1] - cellStart[i];
+        }
+        double px = 0;
+        double py = 0;
+        for (int p = 0; p < n; p++) {
+            checkCancelled(p);
+            int best = nearestEnd(px, py, items, live);
+            int c = best >> 1;
+            take(2 * c, items, live);
+            take(2 * c + 1, items, live);
+            order[p] = c;
+            pos[c] = p;
+            reversed[c] = (best & 1) == 1;
+            px = exitX(c);
+            py = exitY(c);
+        }
+    }
+
+    private int nearestEnd(double px, double py, int[] items, int[] live) {
+        int cx = clamp((int) Math.floor((px - gridMinX) / cellSize), gridWidth);
+        int cy = clamp((int) Math.floor((py - gridMinY) / cellSize), gridHeight);
+        // a point outside the grid is further from every ring than the ring radius says
+        double outside = Math.hypot(Math.max(0, Math.abs(px - (gridMinX + (cx + 0.5) * cellSize)) - cellSize / 2),
+                Math.max(0, Math.abs(py - (gridMinY + (cy + 0.5) * cellSize)) - cellSize / 2));
+        int maxRing = Math.max(gridWidth, gridHeight);
+        int best = -1;
+        double bestDistance = Double.POSITIVE_INFINITY;
+        for (int r = 0; r <= maxRing; r++) {
+            for (int gy = cy - r; gy <= cy + r; gy++) {
+                if (gy < 0 || gy >= gridHeight) {
+                    continue;
+                }
+                boolean edgeRow = gy == cy - r || gy == cy + r;
+                for (int gx = cx - r; gx <= cx + r; gx += edgeRow ? 1 : 2 * r) {
+                    if (gx >= 0 && gx < gridWidth) {
+                        int cell = gy * gridWidth + gx;
+                        int from = cellStart[cell];
+                        for (int k = from, end = from + live[cell]; k < end; k++) {
+                            int e = items[k];
+                            double d = distance(px, py, endX(e), endY(e));
+                            if (d < bestDistance) {
+                                bestDistance = d;
+                                best = e;
+                            }
+                        }
+                    }
+                    if (r == 0) {
+                        break;
+                    }
+                }
+            }
+            // everything in ring r + 1 is at least r cells away
+            if (best >= 0 && bestDistance <= outside + r * cellSize) {
+                break;
+            }
+        }
+        return best;
+    }
+
+    private void take(int e, int[] items, int[] live) {
+        int cell = cellOf(e);
+        int from = cellStart[cell];
+        int last = from + live[cell] - 1;
+        for (int k = from; k <= last; k++) {
+            if (items[k] == e) {
+                items[k] = items[last];
+                items[last] = e;
+                live[cell]--;
+                return;
+            }
+        }
+    }
+
+    /**
+     * For every cut, the {@value #NEIGHBOURS} cuts with the closest end points, searched in
+     * the grid rings around its own two end points.
+     */
+    private void buildNeighbours() {
+        neighbours = new int[n * NEIGHBOURS];
+        Arrays.fill(neighbours, -1);
+        int[] seen = new int[n];
+        double[] bestDistance = new double[NEIGHBOURS];
+        for (int c = 0; c < n; c++) {
+            checkCancelled(c);
+            int found = 0;
+            int stamp = c + 1;
+            seen[c] = stamp;
+            for (int r = 1; r <= 3 && found < NEIGHBOURS; r++) {
+                for (int end = 0; end < 2; end++) {
+                    int e = 2 * c + end;
+                    int cx = (int) ((endX(e) - gridMinX) / cellSize);
+                    int cy = (int) ((endY(e) - gridMinY) / cellSize);
+                    for (int gy = Math.max(0, cy - r); gy <= Math.min(gridHeight - 1, cy + r); gy++) {
+                        for (int gx = Math.max(0, cx - r); gx <= Math.min(gridWidth - 1, cx + r); gx++) {
+                            int cell = gy * gridWidth + gx;
+                            for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+                                int other = cellItems[k] >> 1;
+                                if (seen[other] == stamp) {
+                                    continue;
+                                }
+                                seen[other] = stamp;
+                                found = insertNeighbour(c, other, endDistance(c, other), found, bestDistance);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    // keeps the row sorted by distance and at most NEIGHBOURS long
+    private int insertNeighbour(int c, int other, double d, int found, double[] bestDistance) {
+        int base = c * NEIGHBOURS;
+        int i = Math.min(found, NEIGHBOURS - 1);
+        if (found == NEIGHBOURS && d >= bestDistance[i]) {
+            return found;
+        }
+        while (i > 0 && bestDistance[i - 1] > d) {
+            bestDistance[i] = bestDistance[i - 1];
+            neighbours[base + i] = neighbours[base + i - 1];
+            i--;
+        }
+        bestDistance[i] = d;
+        neighbours[base + i] = other;
+        return Math.min(found + 1, NEIGHBOURS);
+    }
+
+    private double endDistance(int a, int b) {
+        return Math.min(Math.min(distance(x0[a], y0[a], x0[b], y0[b]), distance(x0[a], y0[a], x1[b], y1[b])),
+                Math.min(distance(x1[a], y1[a], x0[b], y0[b]), distance(x1[a], y1[a], x1[b], y1[b])));
+    }
+
+    // --- improvement
+
+    /**
+     * Reverses a stretch of the tour [i..j] when that shortens it. Reversal flips the cuts that
+     * do not return, so the travel inside the stretch stays the same and only the two links at
+     * its ends change.
+     */
+    private boolean twoOptPass() {
+        boolean improved = false;
+        for (int i = 1; i < n && !expired(); i++) {
+            int a = order[i - 1];
+            int b = order[i];
+            for (int k = 0; k < NEIGHBOURS; k++) {
+                // a's exit next to c's exit: reverse [i..pos c]
+                int c = neighbours[a * NEIGHBOURS + k];
+                if (c >= 0 && pos[c] >= i) {
+                    int j = pos[c];
+                    double delta = distance(exitX(a), exitY(a), exitX(c), exitY(c))
+                            + nextLink(entryX(b), entryY(b), j + 1) - link(i) - link(j + 1);
+                    if (delta < -EPSILON) {
+                        reverse(i, j);
+                        improved = true;
+                        a = order[i - 1];
+                        b = order[i];
+                    }
+                }
+                // b's entry next to c's entry: reverse [pos c..i-1]
+                c = neighbours[b * NEIGHBOURS + k];
+                if (c >= 0 && pos[c] < i) {
+                    int j = pos[c];
+                    int before = order[i - 1];
+                    double fromX = j > 0 ? exitX(order[j - 1]) : 0;
+                    double fromY = j > 0 ? exitY(order[j - 1]) : 0;
+                    double delta = distance(fromX, fromY, exitX(before), exitY(before))
+                            + distance(entryX(c), entryY(c), entryX(b), entryY(b)) - link(j) - link(i);
+                    if (delta < -EPSILON) {
+                        reverse(j, i - 1);
+                        improved = true;
+                        a = order[i - 1];
+                        b = order[i];
+                    }
+                }
+            }
+        }
+        return improved;
+    }
+
+    /**
+     * Moves a run of up to {@value #MAX_SEGMENT} cuts, either way round, next to one of its
+     * neighbours; and turns round single cuts that return to their entry.
+     */
+    private boolean orOptPass() {
+        boolean improved = false;
+        for (int i = 0; i < n && !expired(); i++) {
+            improved |= flip(i);
+            for (int length = 1; length <= MAX_SEGMENT && i + length <= n; length++) {
+                if (moveSegment(i, length)) {
+                    improved = true;
+                    break;
+                }
+            }
+        }
+        return improved;
+    }
+
+    private boolean flip(int p) {
+        int c = order[p];
+        if (!returns[c] || (x0[c] == x1[c] && y0[c] == y1[c])) {
+            // reversing a cut that does not return is covered by 2-opt
+            return false;
+        }
+        double before = link(p) + link(p + 1);
+        reversed[c] = !reversed[c];
+        if (link(p) + link(p + 1) < before - EPSILON) {
+            return true;
+        }
+        reversed[c] = !reversed[c];
+        return false;
+    }
+
+    private boolean moveSegment(int i, int length) {
+        int last = i + length - 1;
+        int first = order[i];
+        int end = order[last];
+        double prevX = i > 0 ? exitX(order[i - 1]) : 0;
+        double prevY = i > 0 ? exitY(order[i - 1]) : 0;
+        double removed = link(i) + link(last + 1) - nextLink(prevX, prevY, last + 1);
+        if (removed <= EPSILON) {
+            return false;
+        }
+        for (int k = 0; k < 2 * NEIGHBOURS; k++) {
+            int c = neighbours[(k < NEIGHBOURS ? first : end) * NEIGHBOURS + k % NEIGHBOURS];
+            if (c < 0 || (pos[c] >= i && pos[c] <= last)) {
+                continue;
+            }
+            // gap g lies between positions g and g + 1; try both sides of c
+            for (int g = pos[c] - 1; g <= pos[c]; g++) {
+                if (g >= i - 1 && g <= last) {
+                    continue;
+                }
+                double fromX = g >= 0 ? exitX(order[g]) : 0;
+                double fromY = g >= 0 ? exitY(order[g]) : 0;
+                double closing = nextLink(fromX, fromY, g + 1);
+                double forward = distance(fromX, fromY, entryX(first), entryY(first))
+                        + nextLink(exitX(end), exitY(end), g + 1) - closing;
+                double backward = distance(fromX, fromY, exitX(end), exitY(end))
+                        + nextLink(entryX(first), entryY(first), g + 1) - closing;
+                boolean flipSegment = backward < forward;
+                if (Math.min(forward, backward) - removed < -EPSILON) {
+                    move(i, length, g, flipSegment);
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void move(int i, int length, int gap, boolean flipSegment) {
+        int[] segment = new int[length];
+        System.arraycopy(order, i, segment, 0, length);
+        int target;
+        if (gap > i) {
+            System.arraycopy(order, i + length, order, i, gap - i - length + 1);
+            target = gap - length + 1;
+        } else {
+            System.arraycopy(order, gap + 1, order, gap + 1 + length, i - gap - 1);
+            target = gap + 1;
+        }
+        for (int k = 0; k < length; k++) {
+            int c = flipSegment ? segment[length - 1 - k] : segment[k];
+            if (flipSegment && !returns[c]) {
+                reversed[c] = !reversed[c];
+            }
+            order[target + k] = c;
+        }
+        int from = Math.min(i, target);
+        int to = Math.max(i, target) + length;
+        for (int p = from; p < to; p++) {
+            pos[order[p]] = p;
+        }
+    }
+
+    private void reverse(int i, int j) {
+        for (int p = i; p <= j; p++) {
+            int c = order[p];
+            if (!returns[c]) {
+                reversed[c] = !reversed[c];
+            }
+        }
+        while (i < j) {
+            int t = order[i];
+            order[i] = order[j];
+            order[j] = t;
+            pos[order[i]] = i;
+            pos[order[j]] = j;
+            i++;
+            j--;
+        }
+        if (i == j) {
+            pos[order[i]] = i;
+        }
+    }
+
+    // --- geometry
+
+    // rapid travel into position p; nothing after the last cut
+    private double link(int p) {
+        if (p >= n) {
+            return 0;
+        }
+        int c = order[p];
+        if (p == 0) {
+            return distance(0, 0, entryX(c), entryY(c));
+        }
+        int prev = order[p - 1];
+        return distance(exitX(prev), exitY(prev), entryX(c), entryY(c));
+    }
+
+    private double nextLink(double x, double y, int p) {
+        return p < n ? distance(x, y, entryX(order[p]), entryY(order[p])) : 0;
+    }
+
+    private double entryX(int c) {
+        return reversed[c] ? x1[c] : x0[c];
+    }
+
+    private double entryY(int c) {
+        return reversed[c] ? y1[c] : y0[c];
+    }
+
+    private double exitX(int c) {
+        return returns[c] == reversed[c] ? x1[c] : x0[c];
+    }
+
+    private double exitY(int c) {
+        return returns[c] == reversed[c] ? y1[c] : y0[c];
+    }
+
+    private double endX(int e) {
+        return (e & 1) == 0 ? x0[e >> 1] : x1[e >> 1];
+    }
+
+    private double endY(int e) {
+        return (e & 1) == 0 ? y0[e >> 1] : y1[e >> 1];
+    }
+
+    private int cellOf(int e) {
+        int gx = clamp((int) ((endX(e) - gridMinX) / cellSize), gridWidth);
+        int gy = clamp((int) ((endY(e) - gridMinY) / cellSize), gridHeight);
+        return gy * gridWidth + gx;
+    }
+
+    private static int clamp(int v, int size) {
+        return v < 0 ? 0 : Math.min(v, size - 1);
+    }
+
+    private static double distance(double ax, double ay, double bx, double by) {
+        double dx = bx - ax;
+        double dy = by - ay;
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    private boolean expired() {
+        checkCancelled(checks++);
+        return System.nanoTime() - deadline > 0;
+    }
+
+    private void checkCancelled(int step) {
+        if ((step & CHECK_MASK) == 0 && progress.isCancelled()) {
+            throw new CancellationException("G-code export cancelled");
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package ba.woodcraft.geometry;
+
+import java.util.Arrays;
+
+/**
+ * Turns path geometry into a {@link Polyline} within a chord-error tolerance. Curves are
+ * split in half until each piece lies within the tolerance of its chord, so gentle arcs get a
+ * few segments and tight bends get many; circles use the segment count whose sagitta just
+ * fits.
+ *
+ * Like {@link SnapEngine}, coordinates are local to the shape and are mapped through the
+ * current transform (see {@link #setTransform}); the tolerance holds after mapping. A
+ * flattener is reused across shapes but is not thread-safe.
+ */
+public class CurveFlattener {
+
+    // a split halves the error roughly fourfold; 16 levels is 65536 pieces per curve
+    private static final int MAX_DEPTH = 16;
+    private static final int MIN_CIRCLE_SEGMENTS = 8;
+    private static final int MAX_CIRCLE_SEGMENTS = 4096;
+
+    private final double tolerance;
+
+    private double mxx = 1;
+    private double mxy;
+    private double tx;
+    private double myx;
+    private double myy = 1;
+    private double ty;
+    // tolerance in local units, and 16 times its square for the flatness tests
+    private double localTolerance;
+    private double flatness;
+
+    private double[] points = new double[64];
+    private int size;
+    private int[] starts = new int[9];
+    private boolean[] closed = new boolean[8];
+    private int count;
+
+    private boolean open;
+    private double startX;
+    private double startY;
+    private double lastX;
+    private double lastY;
+
+    public CurveFlattener(double tolerance) {
+        if (!(tolerance > 0)) {
+            throw new IllegalArgumentException("tolerance must be positive");
+        }
+        this.tolerance = tolerance;
+        setLocalTolerance(tolerance);
+    }
+
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    public void setTransform(double mxx, double mxy, double tx, double myx, double myy, double ty) {
+        this.mxx = mxx;
+        this.mxy = mxy;
+        this.tx = tx;
+        this.myx = myx;
+        this.myy = myy;
+        this.ty = ty;
+        // largest singular value: how far the transform can stretch a local error
+        double sum = mxx * mxx + mxy * mxy + myx * myx + myy * myy;
+        double det = mxx * myy - mxy * myx;
+        double stretch = Math.sqrt((sum + Math.sqrt(Math.max(0, sum * sum - 4 * det * det))) / 2);
+        setLocalTolerance(tolerance / Math.max(stretch, 1e-9));
+    }
+
+    public void resetTransform() {
+        setTransform(1, 0, 0, 0, 1, 0);
+    }
+
+    private void setLocalTolerance(double value) {
+        localTolerance = value;
+        flatness = 16 * value * value;
+    }
+
+    public void moveTo(double x, double y) {
+        if (open) {
+            end(false);
+        }
+        if (count + 1 == closed.length) {
+            closed = Arrays.copyOf(closed, closed.length * 2);
+            starts = Arrays.copyOf(starts, closed.length + 1);
+        }
+        starts[count] = size / 2;
+        open = true;
+        startX = x;
+        startY = y;
+        point(x, y);
+    }
+
+    public void lineTo(double x, double y) {
+        ensureOpen();
+        point(x, y);
+    }
+
+    public void quadTo(double cx, double cy, double x, double y) {
+        ensureOpen();
+        quad(lastX, lastY, cx, cy, x, y, 0);
+    }
+
+    public void cubicTo(double c1x, double c1y, double c2x, double c2y, double x, double y) {
+        ensureOpen();
+        cubic(lastX, lastY, c1x, c1y, c2x, c2y, x, y, 0);
+    }
+
+    public void closePath() {
+        if (!open) {
+            return;
+        }
+        if (lastX != startX || lastY != startY) {
+            point(startX, startY);
+        }
+        end(true);
+    }
+
+    /**
+     * A closed subpath around the circle, starting at its rightmost point.
+     */
+    public void circle(double cx, double cy, double r) {
+        int n = MIN_CIRCLE_SEGMENTS;
+        if (localTolerance < r) {
+            // sagitta r * (1 - cos(pi / n)) within tolerance
+            double needed = Math.ceil(Math.PI / Math.acos(1 - localTolerance / r));
+            n = (int) Math.max(MIN_CIRCLE_SEGMENTS, Math.min(needed, MAX_CIRCLE_SEGMENTS));
+        }
+        double step = 2 * Math.PI / n;
+        double cos = Math.cos(step);
+        double sin = Math.sin(step);
+        double dx = r;
+        double dy = 0;
+        moveTo(cx + r, cy);
+        for (int i = 1; i < n; i++) {
+            double nx = dx * cos - dy * sin;
+            dy = dx * sin + dy * cos;
+            dx = nx;
+            point(cx + dx, cy + dy);
+        }
+        closePath();
+    }
+
+    /**
+     * @return everything added since the last call; the flattener is then empty again
+     */
+    public Polyline finish() {
+        if (open) {
+            end(false);
+        }
+        Polyline result = new Polyline(Arrays.copyOf(points, size),
+                Arrays.copyOf(starts, count + 1), Arrays.copyOf(closed, count));
+        size = 0;
+        count = 0;
+        starts[0] = 0;
+        return result;
+    }
+
+    // drawing on after a close starts a new subpath where the last one ended
+    private void ensureOpen() {
+        if (!open) {
+            moveTo(lastX, lastY);
+        }
+    }
+
+    private void end(boolean isClosed) {
+        open = false;
+        if (size / 2 - starts[count] < 2) {
+            // a lone move draws nothing
+            size = starts[count] * 2;
+            return;
+        }
+        closed[count] = isClosed;
+        count++;
+        starts[count] = size / 2;
+    }
+
+    // within tolerance when the midpoint deviation |p0 - 2c + p2| / 4 is
+    private void quad(double x0, double y0, double cx, double cy, double x2, double y2, int depth) {
+        double dx = x0 - 2 * cx + x2;
+        double dy = y0 - 2 * cy + y2;
+        if (depth == MAX_DEPTH || dx * dx + dy * dy <= flatness) {
+            point(x2, y2);
+            return;
+        }
+        double ax = (x0 + cx) / 2;
+        double ay = (y0 + cy) / 2;
+        double bx = (cx + x2) / 2;
+        double by = (cy + y2) / 2;
+        double mx = (ax + bx) / 2;
+        double my = (ay + by) / 2;
+        quad(x0, y0, ax, ay, mx, my, depth + 1);
+        quad(mx, my, bx, by, x2, y2, depth + 1);
+    }
+
+    // Willcocks' bound: the curve stays within sqrt(max(ux², vx²) + max(uy², vy²)) / 4 of its chord
+    private void cubic(double x0, double y0, double x1, double y1, double x2, double y2,
+                       double x3, double y3, int depth) {
+        double ux = 3 * x1 - 2 * x0 - x3;
+        double uy = 3 * y1 - 2 * y0 - y3;
+        double vx = 3 * x2 - x0 - 2 * x3;
+        double vy = 3 * y2 - y0 - 2 * y3;
+        if (depth == MAX_DEPTH || Math.max(ux * ux, vx * vx) + Math.max(uy * uy, vy * vy) <= flatness) {
+            point(x3, y3);
+            return;
+        }
+        double ax = (x0 + x1) / 2;
+        double ay = (y0 + y1) / 2;
+        double bx = (x1 + x2) / 2;
+        double by = (y1 + y2) / 2;
+        double cx = (x2 + x3) / 2;
+        double cy = (y2 + y3) / 2;
+        double abx = (ax + bx) / 2;
+        double aby = (ay + by) / 2;
+        double bcx = (bx + cx) / 2;
+        double bcy = (by + cy) / 2;
+        double mx = (abx + bcx) / 2;
+        double my = (aby + bcy) / 2;
+        cubic(x0, y0, ax, ay, abx, aby, mx, my, depth + 1);
+        cubic(mx, my, bcx, bcy, cx, cy, x3, y3, depth + 1);
+    }
+
+    private void point(double x, double y) {
+        lastX = x;
+        lastY = y;
+        if (size == points.length) {
+            points = Arrays.copyOf(points, size * 2);
+        }
+        points[size++] = mxx * x + mxy * y + tx;
+        points[size++] = myx * x + myy * y + ty;
+    }
+}
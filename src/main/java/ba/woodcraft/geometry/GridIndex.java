@@ -0,0 +1,295 @@
+package ba.woodcraft.geometry;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Uniform grid over axis-aligned bounds. Items are bucketed into every cell their
+ * bounds overlap, so a query only touches the cells under the query rectangle.
+ */
+public class GridIndex<T> {
+
+    // Items spanning more cells than this are kept in a flat list instead of the grid.
+    private static final int MAX_CELLS_PER_ITEM = 256;
+    private static final Comparator<Entry<?>> TOPMOST_FIRST = (a, b) -> Long.compare(b.order, a.order);
+    private static final Comparator<Entry<?>> BOTTOM_FIRST = (a, b) -> Long.compare(a.order, b.order);
+
+    private final double cellSize;
+    private final Map<Long, List<Entry<T>>> cells = new HashMap<>();
+    private final Map<T, Entry<T>> entries = new IdentityHashMap<>();
+    private final List<Entry<T>> oversized = new ArrayList<>();
+    private final List<Entry<T>> pointHits = new ArrayList<>();
+    private final List<Entry<T>> ordered = new ArrayList<>();
+    private int queryStamp;
+    private long nextOrder;
+
+    public GridIndex(double cellSize) {
+        if (cellSize <= 0) {
+            throw new IllegalArgumentException("cellSize must be positive");
+        }
+        this.cellSize = cellSize;
+    }
+
+    public void put(T item, double minX, double minY, double maxX, double maxY) {
+        Entry<T> entry = entries.get(item);
+        if (entry == null) {
+            entry = new Entry<>(item, nextOrder++);
+            entries.put(item, entry);
+        } else {
+            if (entry.minX == minX && entry.minY == minY && entry.maxX == maxX && entry.maxY == maxY) {
+                return;
+            }
+            unlink(entry);
+        }
+        entry.minX = minX;
+        entry.minY = minY;
+        entry.maxX = maxX;
+        entry.maxY = maxY;
+        link(entry);
+    }
+
+    /**
+     * Swaps {@code oldItem} for {@code newItem} while keeping its place in the insertion order.
+     */
+    public void replace(T oldItem, T newItem, double minX, double minY, double maxX, double maxY) {
+        Entry<T> old = entries.remove(oldItem);
+        if (old == null) {
+            put(newItem, minX, minY, maxX, maxY);
+            return;
+        }
+        unlink(old);
+        remove(newItem);
+        Entry<T> entry = new Entry<>(newItem, old.order);
+        entry.minX = minX;
+        entry.minY = minY;
+        entry.maxX = maxX;
+        entry.maxY = maxY;
+        entries.put(newItem, entry);
+        link(entry);
+    }
+
+    public boolean remove(T item) {
+        Entry<T> entry = entries.remove(item);
+        if (entry == null) {
+            return false;
+        }
+        unlink(entry);
+        return true;
+    }
+
+    public boolean contains(T item) {
+        return entries.containsKey(item);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public void clear() {
+        cells.clear();
+        entries.clear();
+        oversized.clear();
+        nextOrder = 0;
+    }
+
+    /**
+     * Adds every item whose bounds intersect the rectangle to {@code out}, each at most once.
+     */
+    public void query(double minX, double minY, double maxX, double maxY, List<? super T> out) {
+        int stamp = ++queryStamp;
+        for (Entry<T> entry : oversized) {
+            if (entry.intersects(minX, minY, maxX, maxY)) {
+                out.add(entry.item);
+            }
+        }
+        if (cells.isEmpty()) {
+            return;
+        }
+        int x0 = cell(minX);
+        int y0 = cell(minY);
+        int x1 = cell(maxX);
+        int y1 = cell(maxY);
+        for (int cx = x0; cx <= x1; cx++) {
+            for (int cy = y0; cy <= y1; cy++) {
+                List<Entry<T>> bucket = cells.get(key(cx, cy));
+                if (bucket == null) {
+                    continue;
+                }
+                for (int i = 0, n = bucket.size(); i < n; i++) {
+                    Entry<T> entry = bucket.get(i);
+                    if (entry.stamp == stamp || !entry.intersects(minX, minY, maxX, maxY)) {
+                        continue;
+                    }
+                    entry.stamp = stamp;
+                    out.add(entry.item);
+                }
+            }
+        }
+    }
+
+    /**
+     * Like {@link #query} but adds the items bottom-most (earliest inserted) first.
+     */
+    public void queryInOrder(double minX, double minY, double maxX, double maxY, List<? super T> out) {
+        int stamp = ++queryStamp;
+        ordered.clear();
+        for (Entry<T> entry : oversized) {
+            if (entry.intersects(minX, minY, maxX, maxY)) {
+                ordered.add(entry);
+            }
+        }
+        if (!cells.isEmpty()) {
+            int x0 = cell(minX);
+            int y0 = cell(minY);
+            int x1 = cell(maxX);
+            int y1 = cell(maxY);
+            for (int cx = x0; cx <= x1; cx++) {
+                for (int cy = y0; cy <= y1; cy++) {
+                    List<Entry<T>> bucket = cells.get(key(cx, cy));
+                    if (bucket == null) {
+                        continue;
+                    }
+                    for (int i = 0, n = bucket.size(); i < n; i++) {
+                        Entry<T> entry = bucket.get(i);
+                        if (entry.stamp != stamp && !entry.oversized && entry.intersects(minX, minY, maxX, maxY)) {
+                            entry.stamp = stamp;
+                            ordered.add(entry);
+                        }
+                    }
+                }
+            }
+        }
+        ordered.sort(BOTTOM_FIRST);
+        for (Entry<T> entry : ordered) {
+            out.add(entry.item);
+        }
+        ordered.clear();
+    }
+
+    /**
+     * All items, bottom-most first.
+     */
+    public List<T> itemsInOrder() {
+        List<Entry<T>> all = new ArrayList<>(entries.values());
+        all.sort(BOTTOM_FIRST);
+        List<T> items = new ArrayList<>(all.size());
+        for (Entry<T> entry : all) {
+            items.add(entry.item);
+        }
+        return items;
+    }
+
+    /**
+     * Returns the most recently inserted item whose bounds contain the point and which
+     * passes {@code exactHit}. Items keep their insertion order when their bounds change,
+     * so this follows the z-order of a pane that only ever appends children.
+     */
+    public T findTopmost(double x, double y, Predicate<? super T> exactHit) {
+        pointHits.clear();
+        for (Entry<T> entry : oversized) {
+            if (entry.contains(x, y)) {
+                pointHits.add(entry);
+            }
+        }
+        List<Entry<T>> bucket = cells.get(key(cell(x), cell(y)));
+        if (bucket != null) {
+            for (int i = 0, n = bucket.size(); i < n; i++) {
+                Entry<T> entry = bucket.get(i);
+                if (entry.contains(x, y)) {
+                    pointHits.add(entry);
+                }
+            }
+        }
+        pointHits.sort(TOPMOST_FIRST);
+        try {
+            for (Entry<T> entry : pointHits) {
+                if (exactHit.test(entry.item)) {
+                    return entry.item;
+                }
+            }
+            return null;
+        } finally {
+            pointHits.clear();
+        }
+    }
+
+    private void link(Entry<T> entry) {
+        int x0 = cell(entry.minX);
+        int y0 = cell(entry.minY);
+        int x1 = cell(entry.maxX);
+        int y1 = cell(entry.maxY);
+        long span = (long) (x1 - x0 + 1) * (y1 - y0 + 1);
+        if (span > MAX_CELLS_PER_ITEM) {
+            entry.oversized = true;
+            oversized.add(entry);
+            return;
+        }
+        entry.oversized = false;
+        for (int cx = x0; cx <= x1; cx++) {
+            for (int cy = y0; cy <= y1; cy++) {
+                cells.computeIfAbsent(key(cx, cy), k -> new ArrayList<>()).add(entry);
+            }
+        }
+    }
+
+    private void unlink(Entry<T> entry) {
+        if (entry.oversized) {
+            oversized.remove(entry);
+            return;
+        }
+        int x0 = cell(entry.minX);
+        int y0 = cell(entry.minY);
+        int x1 = cell(entry.maxX);
+        int y1 = cell(entry.maxY);
+        for (int cx = x0; cx <= x1; cx++) {
+            for (int cy = y0; cy <= y1; cy++) {
+                Long key = key(cx, cy);
+                List<Entry<T>> bucket = cells.get(key);
+                if (bucket == null) {
+                    continue;
+                }
+                bucket.remove(entry);
+                if (bucket.isEmpty()) {
+                    cells.remove(key);
+                }
+            }
+        }
+    }
+
+    private int cell(double value) {
+        return (int) Math.floor(value / cellSize);
+    }
+
+    private static long key(int cx, int cy) {
+        return ((long) cx << 32) | (cy & 0xffffffffL);
+    }
+
+    private static final class Entry<T> {
+        private final T item;
+        private final long order;
+        private double minX;
+        private double minY;
+        private double maxX;
+        private double maxY;
+        private boolean oversized;
+        private int stamp;
+
+        private Entry(T item, long order) {
+            this.item = item;
+            this.order = order;
+        }
+
+        private boolean contains(double x, double y) {
+            return x >= minX && x <= maxX && y >= minY && y <= maxY;
+        }
+
+        private boolean intersects(double qMinX, double qMinY, double qMaxX, double qMaxY) {
+            return minX <= qMaxX && maxX >= qMinX && minY <= qMaxY && maxY >= qMinY;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package ba.woodcraft.geometry;
+
+/**
+ * A shape flattened to straight segments, as made by {@link CurveFlattener}. Points of all
+ * subpaths share one interleaved array; a closed subpath ends on its first point.
+ *
+ * Immutable, and so shared freely between threads and callers.
+ */
+public final class Polyline {
+
+    // x0, y0, x1, y1, ...
+    private final double[] points;
+    // subpath s owns points [starts[s], starts[s + 1])
+    private final int[] starts;
+    private final boolean[] closed;
+
+    Polyline(double[] points, int[] starts, boolean[] closed) {
+        this.points = points;
+        this.starts = starts;
+        this.closed = closed;
+    }
+
+    public int getPointCount() {
+        return points.length / 2;
+    }
+
+    public int getSubpathCount() {
+        return closed.length;
+    }
+
+    /**
+     * @return index of the first point of subpath {@code s}
+     */
+    public int getStart(int s) {
+        return starts[s];
+    }
+
+    /**
+     * @return index one past the last point of subpath {@code s}
+     */
+    public int getEnd(int s) {
+        return starts[s + 1];
+    }
+
+    public boolean isClosed(int s) {
+        return closed[s];
+    }
+
+    public double getX(int point) {
+        return points[2 * point];
+    }
+
+    public double getY(int point) {
+        return points[2 * point + 1];
+    }
+
+    /**
+     * Total length of all subpaths.
+     */
+    public double length() {
+        double length = 0;
+        for (int s = 0; s < closed.length; s++) {
+            for (int i = 2 * starts[s] + 2, end = 2 * starts[s + 1]; i < end; i += 2) {
+                length += Math.hypot(points[i] - points[i - 2], points[i + 1] - points[i - 1]);
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Enclosed area, every subpath taken as closed. Subpaths wound the other way subtract,
+     * so a hole drawn against its outline is left out.
+     */
+    public double area() {
+        double twice = 0;
+        for (int s = 0; s < closed.length; s++) {
+            int first = 2 * starts[s];
+            int end = 2 * starts[s + 1];
+            for (int i = first; i < end; i += 2) {
+                int j = i + 2 < end ? i + 2 : first;
+                twice += points[i] * points[j + 1] - points[j] * points[i + 1];
+            }
+        }
+        return Math.abs(twice) / 2;
+    }
+
+    /**
+     * Squared distance from (x, y) to the nearest segment, or to the only point of a
+     * one-point subpath; {@link Double#POSITIVE_INFINITY} when empty.
+     */
+    public double distanceSq(double x, double y) {
+        double best = Double.POSITIVE_INFINITY;
+        for (int s = 0; s < closed.length; s++) {
+            int first = 2 * starts[s];
+            int end = 2 * starts[s + 1];
+            if (end - first == 2) {
+                double dx = x - points[first];
+                double dy = y - points[first + 1];
+                best = Math.min(best, dx * dx + dy * dy);
+                continue;
+            }
+            for (int i = first + 2; i < end; i += 2) {
+                best = Math.min(best, segmentDistanceSq(x, y,
+                        points[i - 2], points[i - 1], points[i], points[i + 1]));
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Non-zero winding rule, every subpath taken as closed, as fills are drawn.
+     */
+    public boolean contains(double x, double y) {
+        int winding = 0;
+        for (int s = 0; s < closed.length; s++) {
+            int first = 2 * starts[s];
+            int end = 2 * starts[s + 1];
+            for (int i = first; i < end; i += 2) {
+                int j = i + 2 < end ? i + 2 : first;
+                double x0 = points[i];
+                double y0 = points[i + 1];
+                double x1 = points[j];
+                double y1 = points[j + 1];
+                if (y0 <= y) {
+                    if (y1 > y && cross(x0, y0, x1, y1, x, y) > 0) {
+                        winding++;
+                    }
+                } else if (y1 <= y && cross(x0, y0, x1, y1, x, y) < 0) {
+                    winding--;
+                }
+            }
+        }
+        return winding != 0;
+    }
+
+    private static double cross(double x0, double y0, double x1, double y1, double x, double y) {
+        return (x1 - x0) * (y - y0) - (x - x0) * (y1 - y0);
+    }
+
+    private static double segmentDistanceSq(double x, double y, double x0, double y0, double x1, double y1) {
+        double dx = x1 - x0;
+        double dy = y1 - y0;
+        double lengthSq = dx * dx + dy * dy;
+        double u = lengthSq > 0 ? ((x - x0) * dx + (y - y0) * dy) / lengthSq : 0;
+        u = Math.max(0, Math.min(1, u));
+        double ex = x - (x0 + u * dx);
+        double ey = y - (y0 + u * dy);
+        return ex * ex + ey * ey;
+    }
+}
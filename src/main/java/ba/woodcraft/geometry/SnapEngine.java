@@ -0,0 +1,368 @@
+package ba.woodcraft.geometry;
+
+/**
+ * Snapping math on plain coordinates. A query is {@link #begin(double, double)} followed by
+ * any number of target calls; the best candidate is then read back from the engine. Nothing
+ * is allocated per query, so the engine can run on every mouse move.
+ *
+ * Target coordinates are local to the shape and are mapped through the current affine
+ * transform (see {@link #setTransform}) before they are measured against the cursor.
+ */
+public class SnapEngine {
+
+    public enum Kind {
+        ENDPOINT,
+        MIDPOINT,
+        CENTER,
+        QUADRANT,
+        PERPENDICULAR,
+        TANGENT,
+        NEAREST,
+        BOUNDS
+    }
+
+    private static final double KAPPA = 0.552284749831;
+    private static final int CURVE_SAMPLES = 16;
+    private static final int NEWTON_STEPS = 4;
+
+    private final double radius;
+
+    private double mxx = 1;
+    private double mxy;
+    private double tx;
+    private double myx;
+    private double myy = 1;
+    private double ty;
+
+    private boolean hasReference;
+    private double refX;
+    private double refY;
+
+    private double cursorX;
+    private double cursorY;
+    private boolean found;
+    private double bestX;
+    private double bestY;
+    private double bestDistanceSq;
+    private int bestRank;
+    private Kind bestKind;
+
+    public SnapEngine(double radius) {
+        if (radius <= 0) {
+            throw new IllegalArgumentException("radius must be positive");
+        }
+        this.radius = radius;
+    }
+
+    public double getRadius() {
+        return radius;
+    }
+
+    public void begin(double cursorX, double cursorY) {
+        this.cursorX = cursorX;
+        this.cursorY = cursorY;
+        found = false;
+        bestDistanceSq = radius * radius;
+        bestRank = Integer.MAX_VALUE;
+        bestKind = null;
+        resetTransform();
+    }
+
+    /**
+     * Point that perpendicular and tangent snaps are measured from, usually where the last
+     * shape ended. Given in the same space as the cursor.
+     */
+    public void setReference(double x, double y) {
+        hasReference = true;
+        refX = x;
+        refY = y;
+    }
+
+    public void clearReference() {
+        hasReference = false;
+    }
+
+    public void setTransform(double mxx, double mxy, double tx, double myx, double myy, double ty) {
+        this.mxx = mxx;
+        this.mxy = mxy;
+        this.tx = tx;
+        this.myx = myx;
+        this.myy = myy;
+        this.ty = ty;
+    }
+
+    public void resetTransform() {
+        setTransform(1, 0, 0, 0, 1, 0);
+    }
+
+    public boolean hasSnap() {
+        return found;
+    }
+
+    public double getX() {
+        return bestX;
+    }
+
+    public double getY() {
+        return bestY;
+    }
+
+    public Kind getKind() {
+        return bestKind;
+    }
+
+    public double getDistance() {
+        return found ? Math.sqrt(bestDistanceSq) : Double.NaN;
+    }
+
+    public void point(double x, double y, Kind kind) {
+        offer(mapX(x, y), mapY(x, y), kind);
+    }
+
+    /**
+     * Endpoints, midpoint, perpendicular foot from the reference point and nearest point.
+     */
+    public void line(double x1, double y1, double x2, double y2) {
+        double ax = mapX(x1, y1);
+        double ay = mapY(x1, y1);
+        double bx = mapX(x2, y2);
+        double by = mapY(x2, y2);
+        offer(ax, ay, Kind.ENDPOINT);
+        offer(bx, by, Kind.ENDPOINT);
+        offer((ax + bx) / 2.0, (ay + by) / 2.0, Kind.MIDPOINT);
+        if (hasReference) {
+            double t = projection(ax, ay, bx, by, refX, refY);
+            if (t > 0 && t < 1) {
+                offer(ax + t * (bx - ax), ay + t * (by - ay), Kind.PERPENDICULAR);
+            }
+        }
+        mappedNearestOnSegment(ax, ay, bx, by);
+    }
+
+    public void nearestOnSegment(double x1, double y1, double x2, double y2) {
+        mappedNearestOnSegment(mapX(x1, y1), mapY(x1, y1), mapX(x2, y2), mapY(x2, y2));
+    }
+
+    /**
+     * Center, quadrants, tangent points from the reference point and nearest point. Under a
+     * non-uniform transform the circle becomes an ellipse; its axis points stand in for the
+     * quadrants and the outline is approximated by four cubic arcs.
+     */
+    public void circle(double cx, double cy, double r) {
+        double ccx = mapX(cx, cy);
+        double ccy = mapY(cx, cy);
+        offer(ccx, ccy, Kind.CENTER);
+        if (r <= 0) {
+            return;
+        }
+        if (isConformal()) {
+            double mr = r * Math.sqrt(Math.abs(mxx * myy - mxy * myx));
+            offer(ccx + mr, ccy, Kind.QUADRANT);
+            offer(ccx - mr, ccy, Kind.QUADRANT);
+            offer(ccx, ccy + mr, Kind.QUADRANT);
+            offer(ccx, ccy - mr, Kind.QUADRANT);
+            if (hasReference) {
+                offerTangents(ccx, ccy, mr);
+            }
+            double dx = cursorX - ccx;
+            double dy = cursorY - ccy;
+            double d = Math.sqrt(dx * dx + dy * dy);
+            if (d > 0) {
+                offer(ccx + dx / d * mr, ccy + dy / d * mr, Kind.NEAREST);
+            }
+            return;
+        }
+        point(cx + r, cy, Kind.QUADRANT);
+        point(cx - r, cy, Kind.QUADRANT);
+        point(cx, cy + r, Kind.QUADRANT);
+        point(cx, cy - r, Kind.QUADRANT);
+        double c = r * KAPPA;
+        nearestOnCubic(cx + r, cy, cx + r, cy + c, cx + c, cy + r, cx, cy + r);
+        nearestOnCubic(cx, cy + r, cx - c, cy + r, cx - r, cy + c, cx - r, cy);
+        nearestOnCubic(cx - r, cy, cx - r, cy - c, cx - c, cy - r, cx, cy - r);
+        nearestOnCubic(cx, cy - r, cx + c, cy - r, cx + r, cy - c, cx + r, cy);
+    }
+
+    /**
+     * Endpoints, curve midpoint (t = 0.5) and nearest point of a cubic Bezier.
+     */
+    public void cubic(double x0, double y0, double x1, double y1, double x2, double y2, double x3, double y3) {
+        point(x0, y0, Kind.ENDPOINT);
+        point(x3, y3, Kind.ENDPOINT);
+        point(cubicAt(x0, x1, x2, x3, 0.5), cubicAt(y0, y1, y2, y3, 0.5), Kind.MIDPOINT);
+        nearestOnCubic(x0, y0, x1, y1, x2, y2, x3, y3);
+    }
+
+    public void nearestOnCubic(double x0, double y0, double x1, double y1, double x2, double y2, double x3, double y3) {
+        // Affine maps are exact on Bezier control points, so map once and work in cursor space.
+        double ax = mapX(x0, y0);
+        double ay = mapY(x0, y0);
+        double bx = mapX(x1, y1);
+        double by = mapY(x1, y1);
+        double cx = mapX(x2, y2);
+        double cy = mapY(x2, y2);
+        double dx = mapX(x3, y3);
+        double dy = mapY(x3, y3);
+
+        if (!mayReach(Math.min(Math.min(ax, bx), Math.min(cx, dx)), Math.min(Math.min(ay, by), Math.min(cy, dy)),
+                Math.max(Math.max(ax, bx), Math.max(cx, dx)), Math.max(Math.max(ay, by), Math.max(cy, dy)))) {
+            return;
+        }
+
+        double bestT = 0;
+        double bestD = Double.MAX_VALUE;
+        for (int i = 0; i <= CURVE_SAMPLES; i++) {
+            double t = (double) i / CURVE_SAMPLES;
+            double ex = cubicAt(ax, bx, cx, dx, t) - cursorX;
+            double ey = cubicAt(ay, by, cy, dy, t) - cursorY;
+            double d = ex * ex + ey * ey;
+            if (d < bestD) {
+                bestD = d;
+                bestT = t;
+            }
+        }
+        double t = bestT;
+        for (int i = 0; i < NEWTON_STEPS; i++) {
+            double ex = cubicAt(ax, bx, cx, dx, t) - cursorX;
+            double ey = cubicAt(ay, by, cy, dy, t) - cursorY;
+            double d1x = cubicDerivative(ax, bx, cx, dx, t);
+            double d1y = cubicDerivative(ay, by, cy, dy, t);
+            double d2x = cubicSecondDerivative(ax, bx, cx, dx, t);
+            double d2y = cubicSecondDerivative(ay, by, cy, dy, t);
+            double numerator = ex * d1x + ey * d1y;
+            double denominator = d1x * d1x + d1y * d1y + ex * d2x + ey * d2y;
+            if (denominator == 0) {
+                break;
+            }
+            t = Math.max(0, Math.min(1, t - numerator / denominator));
+        }
+        offer(cubicAt(ax, bx, cx, dx, t), cubicAt(ay, by, cy, dy, t), Kind.NEAREST);
+    }
+
+    public void nearestOnQuad(double x0, double y0, double qx, double qy, double x1, double y1) {
+        nearestOnCubic(
+                x0, y0,
+                x0 + 2.0 / 3.0 * (qx - x0), y0 + 2.0 / 3.0 * (qy - y0),
+                x1 + 2.0 / 3.0 * (qx - x1), y1 + 2.0 / 3.0 * (qy - y1),
+                x1, y1
+        );
+    }
+
+    /**
+     * Nearest point on the edge of an axis-aligned box already in cursor space; the current
+     * transform is ignored. Used for shapes without a more specific target.
+     */
+    public void bounds(double minX, double minY, double maxX, double maxY) {
+        double x = Math.max(minX, Math.min(cursorX, maxX));
+        double y = Math.max(minY, Math.min(cursorY, maxY));
+        boolean insideX = cursorX >= minX && cursorX <= maxX;
+        boolean insideY = cursorY >= minY && cursorY <= maxY;
+        if (insideX && insideY) {
+            double leftDist = cursorX - minX;
+            double rightDist = maxX - cursorX;
+            double topDist = cursorY - minY;
+            double bottomDist = maxY - cursorY;
+            double minDist = Math.min(Math.min(leftDist, rightDist), Math.min(topDist, bottomDist));
+            if (minDist == leftDist) {
+                x = minX;
+            } else if (minDist == rightDist) {
+                x = maxX;
+            } else if (minDist == topDist) {
+                y = minY;
+            } else {
+                y = maxY;
+            }
+        }
+        offer(x, y, Kind.BOUNDS);
+    }
+
+    private void mappedNearestOnSegment(double ax, double ay, double bx, double by) {
+        double t = Math.max(0, Math.min(1, projection(ax, ay, bx, by, cursorX, cursorY)));
+        offer(ax + t * (bx - ax), ay + t * (by - ay), Kind.NEAREST);
+    }
+
+    private void offerTangents(double cx, double cy, double r) {
+        double dx = refX - cx;
+        double dy = refY - cy;
+        double d = Math.sqrt(dx * dx + dy * dy);
+        if (d <= r) {
+            return;
+        }
+        double base = Math.atan2(dy, dx);
+        double spread = Math.acos(r / d);
+        offer(cx + r * Math.cos(base + spread), cy + r * Math.sin(base + spread), Kind.TANGENT);
+        offer(cx + r * Math.cos(base - spread), cy + r * Math.sin(base - spread), Kind.TANGENT);
+    }
+
+    // Point targets beat nearest-on-outline targets, which beat bounding boxes; within a
+    // rank the closer candidate wins.
+    private void offer(double x, double y, Kind kind) {
+        double dx = x - cursorX;
+        double dy = y - cursorY;
+        double distanceSq = dx * dx + dy * dy;
+        if (distanceSq > radius * radius) {
+            return;
+        }
+        int rank = rank(kind);
+        if (rank > bestRank || (rank == bestRank && distanceSq > bestDistanceSq)) {
+            return;
+        }
+        found = true;
+        bestX = x;
+        bestY = y;
+        bestDistanceSq = distanceSq;
+        bestRank = rank;
+        bestKind = kind;
+    }
+
+    private boolean mayReach(double minX, double minY, double maxX, double maxY) {
+        return cursorX >= minX - radius && cursorX <= maxX + radius
+                && cursorY >= minY - radius && cursorY <= maxY + radius;
+    }
+
+    private boolean isConformal() {
+        double eps = 1e-9;
+        return (Math.abs(mxx - myy) < eps && Math.abs(mxy + myx) < eps)
+                || (Math.abs(mxx + myy) < eps && Math.abs(mxy - myx) < eps);
+    }
+
+    private double mapX(double x, double y) {
+        return mxx * x + mxy * y + tx;
+    }
+
+    private double mapY(double x, double y) {
+        return myx * x + myy * y + ty;
+    }
+
+    private static int rank(Kind kind) {
+        return switch (kind) {
+            case NEAREST -> 1;
+            case BOUNDS -> 2;
+            default -> 0;
+        };
+    }
+
+    private static double projection(double ax, double ay, double bx, double by, double px, double py) {
+        double dx = bx - ax;
+        double dy = by - ay;
+        double lengthSquared = dx * dx + dy * dy;
+        if (lengthSquared == 0) {
+            return 0;
+        }
+        return ((px - ax) * dx + (py - ay) * dy) / lengthSquared;
+    }
+
+    static double cubicAt(double p0, double p1, double p2, double p3, double t) {
+        double u = 1 - t;
+        return u * u * u * p0 + 3 * u * u * t * p1 + 3 * u * t * t * p2 + t * t * t * p3;
+    }
+
+    private static double cubicDerivative(double p0, double p1, double p2, double p3, double t) {
+        double u = 1 - t;
+        return 3 * u * u * (p1 - p0) + 6 * u * t * (p2 - p1) + 3 * t * t * (p3 - p2);
+    }
+
+    private static double cubicSecondDerivative(double p0, double p1, double p2, double p3, double t) {
+        return 6 * (1 - t) * (p2 - 2 * p1 + p0) + 6 * t * (p3 - 2 * p2 + p1);
+    }
+}
@@ -0,0 +1,100 @@
+package ba.woodcraft.geometry;
+
+import java.util.Arrays;
+
+/**
+ * Online polyline simplification for strokes that arrive one point at a time.
+ *
+ * The output is a run of fixed vertices followed by one movable tail vertex. A new point
+ * either drags the tail along (when every raw point since the last fixed vertex stays within
+ * {@code tolerance} of the straightened segment) or fixes the tail and starts a new one.
+ * The result never deviates from the raw stroke by more than the tolerance.
+ */
+public class StrokeSimplifier {
+
+    public static final double DEFAULT_TOLERANCE = 0.75;
+
+    // Bounds the per-point cost on long, nearly straight drags.
+    private static final int MAX_PENDING = 256;
+
+    private final double toleranceSq;
+    private double anchorX;
+    private double anchorY;
+    private double[] pending = new double[64];
+    private int pendingCount;
+    private int inputCount;
+    private int outputCount;
+
+    public StrokeSimplifier(double tolerance) {
+        if (tolerance < 0) {
+            throw new IllegalArgumentException("tolerance must not be negative");
+        }
+        this.toleranceSq = tolerance * tolerance;
+    }
+
+    public void begin(double x, double y) {
+        anchorX = x;
+        anchorY = y;
+        pendingCount = 0;
+        inputCount = 1;
+        outputCount = 1;
+    }
+
+    /**
+     * @return {@code true} if the last emitted vertex should be moved to (x, y),
+     *         {@code false} if (x, y) must be appended as a new vertex
+     */
+    public boolean add(double x, double y) {
+        inputCount++;
+        if (pendingCount > 0) {
+            int last = (pendingCount - 1) * 2;
+            if (pending[last] == x && pending[last + 1] == y) {
+                return true;
+            }
+            if (pendingCount < MAX_PENDING && fits(x, y)) {
+                push(x, y);
+                return true;
+            }
+            anchorX = pending[last];
+            anchorY = pending[last + 1];
+            pendingCount = 0;
+        }
+        push(x, y);
+        outputCount++;
+        return false;
+    }
+
+    public int getInputCount() {
+        return inputCount;
+    }
+
+    public int getOutputCount() {
+        return outputCount;
+    }
+
+    private boolean fits(double x, double y) {
+        double dx = x - anchorX;
+        double dy = y - anchorY;
+        double lengthSq = dx * dx + dy * dy;
+        for (int i = 0; i < pendingCount; i++) {
+            double px = pending[i * 2] - anchorX;
+            double py = pending[i * 2 + 1] - anchorY;
+            double t = lengthSq == 0 ? 0 : Math.max(0, Math.min(1, (px * dx + py * dy) / lengthSq));
+            double ex = px - t * dx;
+            double ey = py - t * dy;
+            if (ex * ex + ey * ey > toleranceSq) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void push(double x, double y) {
+        if (pendingCount * 2 + 2 > pending.length) {
+            pending = Arrays.copyOf(pending, pending.length * 2);
+        }
+        pending[pendingCount * 2] = x;
+        pending[pendingCount * 2 + 1] = y;
+        pendingCount++;
+    }
+}
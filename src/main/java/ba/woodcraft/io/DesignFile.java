@@ -0,0 +1,141 @@
+package ba.woodcraft.io;
+
+import ba.woodcraft.model.ShapeDocument;
+import ba.woodcraft.model.ShapeRecord;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * Saved designs ({@code .wcd}): UTF-8 text, one shape per line, bottom-most first.
+ *
+ * <pre>
+ * woodcraft-design 1
+ * page 600.0 600.0
+ * LINE ff374151 2.0 - - 10.0,10.0,80.0,40.0
+ * PATH ff374151 2.0 - 1.0,0.0,5.0,0.0,1.0,5.0 0.0,0.0,4.0,3.0 0,1
+ * </pre>
+ *
+ * Fields: kind, stroke ARGB or {@code -}, stroke width, fill ARGB or {@code -},
+ * transform {mxx,mxy,tx,myx,myy,ty} or {@code -}, coordinates, and path ops for PATH.
+ *
+ * The editor and batch export still open these, but save designs as {@link ProjectFile}s.
+ */
+public final class DesignFile {
+
+    public static final String EXTENSION = ".wcd";
+    private static final String MAGIC = "woodcraft-design";
+    private static final int VERSION = 1;
+
+    public record Design(double pageWidth, double pageHeight, ShapeDocument document) {}
+
+    private DesignFile() {
+    }
+
+    public static Design read(Path file) throws IOException {
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String header = in.readLine();
+            if (header == null || !header.equals(MAGIC + " " + VERSION)) {
+                throw new IOException(file + ": not a WoodCraft design (version " + VERSION + ")");
+            }
+            double pageWidth = 0;
+            double pageHeight = 0;
+            ShapeDocument document = new ShapeDocument();
+            String line;
+            int lineNumber = 1;
+            while ((line = in.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] f = line.trim().split("\\s+");
+                try {
+                    if (f[0].equals("page")) {
+                        pageWidth = Double.parseDouble(f[1]);
+                        pageHeight = Double.parseDouble(f[2]);
+                    } else {
+                        document.add(parseShape(f));
+                    }
+                } catch (RuntimeException ex) {
+                    throw new IOException(file + ":" + lineNumber + ": " + ex.getMessage(), ex);
+                }
+            }
+            return new Design(pageWidth, pageHeight, document);
+        }
+    }
+
+    public static void write(Path file, double pageWidth, double pageHeight, Iterable<ShapeRecord> records)
+            throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            out.write(MAGIC + " " + VERSION);
+            out.newLine();
+            out.write("page " + pageWidth + " " + pageHeight);
+            out.newLine();
+            StringBuilder sb = new StringBuilder(128);
+            for (ShapeRecord record : records) {
+                sb.setLength(0);
+                sb.append(record.getKind().name()).append(' ');
+                sb.append(record.hasStroke() ? Integer.toHexString(record.getStrokeArgb()) : "-").append(' ');
+                sb.append(record.getStrokeWidth()).append(' ');
+                sb.append(record.hasFill() ? Integer.toHexString(record.getFillArgb()) : "-").append(' ');
+                if (record.isIdentityTransform()) {
+                    sb.append('-');
+                } else {
+                    appendList(sb, record.getTransform());
+                }
+                sb.append(' ');
+                appendList(sb, record.getCoords());
+                if (record.getKind() == ShapeRecord.Kind.PATH) {
+                    sb.append(' ');
+                    byte[] ops = record.getPathOps();
+                    for (int i = 0; i < ops.length; i++) {
+                        if (i > 0) sb.append(',');
+                        sb.append(ops[i]);
+                    }
+                }
+                out.write(sb.toString());
+                out.newLine();
+            }
+        }
+    }
+
+    private static ShapeRecord parseShape(String[] f) {
+        ShapeRecord.Kind kind = ShapeRecord.Kind.valueOf(f[0].toUpperCase(Locale.ROOT));
+        boolean hasStroke = !f[1].equals("-");
+        int strokeArgb = hasStroke ? Integer.parseUnsignedInt(f[1], 16) : 0;
+        double strokeWidth = Double.parseDouble(f[2]);
+        boolean hasFill = !f[3].equals("-");
+        int fillArgb = hasFill ? Integer.parseUnsignedInt(f[3], 16) : 0;
+        double[] transform = f[4].equals("-") ? null : parseList(f[4]);
+        double[] coords = parseList(f[5]);
+        byte[] ops = null;
+        if (kind == ShapeRecord.Kind.PATH) {
+            String[] parts = f[6].split(",");
+            ops = new byte[parts.length];
+            for (int i = 0; i < parts.length; i++) {
+                ops[i] = Byte.parseByte(parts[i]);
+            }
+        }
+        return new ShapeRecord(kind, coords, ops, hasStroke, strokeArgb, strokeWidth, hasFill, fillArgb, transform);
+    }
+
+    private static void appendList(StringBuilder sb, double[] values) {
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) sb.append(',');
+            sb.append(values[i]);
+        }
+    }
+
+    private static double[] parseList(String field) {
+        String[] parts = field.split(",");
+        double[] values = new double[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            values[i] = Double.parseDouble(parts[i]);
+        }
+        return values;
+    }
+}
@@ -0,0 +1,553 @@
+package ba.woodcraft.io;
+
+import ba.woodcraft.model.ShapeDocument;
+import ba.woodcraft.model.ShapeRecord;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+import java.util.function.DoubleSupplier;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Autosave: every change to a {@link ShapeDocument} is appended to a journal file, so that
+ * a crash or power cut loses at most the last moments of work.
+ *
+ * The document's thread only queues the change. A background writer takes whatever has
+ * queued up, appends it in one write and syncs once for the batch (group commit); while it
+ * waits on the disk the next batch gathers.
+ *
+ * Once the journal has grown by {@code woodcraft.autosave.compactBytes} (4 MB by default)
+ * it is compacted: the document is saved as a {@link ProjectFile} snapshot with the shape
+ * ids, and a new, empty journal takes over. Both carry a generation number, so a journal
+ * that the snapshot has already absorbed is recognised and skipped.
+ *
+ * <pre>
+ * journal  "WCJ" 0x1a, u32 version, u64 generation, then entries
+ * entry    u32 payload length, u32 CRC-32 of the payload, payload:
+ *          u8 1 insert, u64 id, u32 slot, shape | u8 2 update, u64 id, shape
+ *          u8 3 remove, u64 id                   | u8 4 clear
+ * shape    u8 kind, u8 flags (1 stroke, 2 fill, 4 transform), u32 stroke ARGB, u32 fill ARGB,
+ *          f64 stroke width, u32 coords, u32 ops, [f64 x 6 transform], f64 coords..., u8 ops...
+ * </pre>
+ *
+ * Replay stops at the first incomplete or damaged entry, which is where the power went.
+ *
+ * If the disk refuses a write, journaling stops for good and the failure handler is told;
+ * the document carries on without autosave.
+ */
+public final class EditJournal implements ShapeDocument.Listener, AutoCloseable {
+
+    private static final Logger LOG = Logger.getLogger(EditJournal.class.getName());
+
+    public static final long DEFAULT_COMPACT_BYTES = 4L * 1024 * 1024;
+
+    private static final String SNAPSHOT_NAME = "autosave" + ProjectFile.EXTENSION;
+    private static final String JOURNAL_NAME = "autosave.wcj";
+    private static final String GENERATION_KEY = "journal.generation";
+
+    private static final int MAGIC = 'W' | 'C' << 8 | 'J' << 16 | 0x1a << 24;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int ENTRY_HEADER_SIZE = 8;
+
+    private static final byte INSERT = 1;
+    private static final byte UPDATE = 2;
+    private static final byte REMOVE = 3;
+    private static final byte CLEAR = 4;
+
+    private static final int FLAG_STROKE = 1;
+    private static final int FLAG_FILL = 2;
+    private static final int FLAG_TRANSFORM = 4;
+
+    private static final ShapeRecord.Kind[] KINDS = ShapeRecord.Kind.values();
+
+    // queued work: a change, a snapshot to compact into, or the end
+    private record Change(byte type, long id, int slot, ShapeRecord record) {}
+
+    private record Snapshot(double pageWidth, double pageHeight, List<ShapeRecord> records, long[] ids) {}
+
+    private static final Object STOP = new Object();
+
+    /**
+     * What {@link #recover} put back into the document.
+     *
+     * @param pageWidth 0 if there was no snapshot
+     * @param replayed  journal entries applied on top of the snapshot
+     */
+    public record Recovery(double pageWidth, double pageHeight, int shapes, int replayed) {}
+
+    private final Path snapshotFile;
+    private final Path journalFile;
+    private final long compactBytes;
+    private final BlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private final Thread shutdownHook;
+
+    private ShapeDocument document;
+    private DoubleSupplier pageWidth;
+    private DoubleSupplier pageHeight;
+    // estimated journal growth since the last compaction, counted on the document's thread
+    private long pendingBytes;
+    private boolean paused;
+    private volatile boolean closed;
+    private volatile Consumer<IOException> onFailure;
+
+    // writer thread only
+    private FileChannel channel;
+    private long generation;
+    private ByteBuffer buffer = ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+    private final CRC32 crc = new CRC32();
+    private volatile boolean failed;
+
+    private EditJournal(Path directory, long compactBytes) {
+        this.snapshotFile = directory.resolve(SNAPSHOT_NAME);
+        this.journalFile = directory.resolve(JOURNAL_NAME);
+        this.compactBytes = compactBytes;
+        this.writer = new Thread(this::run, "autosave-journal");
+        writer.setDaemon(true);
+        this.shutdownHook = new Thread(this::close, "autosave-shutdown");
+    }
+
+    /**
+     * A journal in {@code woodcraft.autosave.dir}, by default {@code ~/.woodcraft/autosave}.
+     */
+    public static EditJournal open() throws IOException {
+        String dir = System.getProperty("woodcraft.autosave.dir",
+                Path.of(System.getProperty("user.home"), ".woodcraft", "autosave").toString());
+        return open(Path.of(dir), Long.getLong("woodcraft.autosave.compactBytes", DEFAULT_COMPACT_BYTES));
+    }
+
+    public static EditJournal open(Path directory, long compactBytes) throws IOException {
+        Files.createDirectories(directory);
+        return new EditJournal(directory, compactBytes);
+    }
+
+    /**
+     * Loads the last snapshot and replays the journal on top of it. Call on an empty
+     * document before {@link #attach}.
+     */
+    public Recovery recover(ShapeDocument target) throws IOException {
+        long snapshotGeneration = 0;
+        double width = 0;
+        double height = 0;
+        if (Files.exists(snapshotFile)) {
+            // read, not mapped: compaction replaces this file while the app runs
+            ProjectFile.Project project = ProjectFile.read(snapshotFile);
+            width = project.pageWidth();
+            height = project.pageHeight();
+            snapshotGeneration = Long.parseLong(project.metadata().getOrDefault(GENERATION_KEY, "0"));
+            for (int i = 0; i < project.shapeCount(); i++) {
+                long id = project.shapeId(i);
+                if (id > 0) {
+                    target.insert(id, i, project.shape(i));
+                } else {
+                    target.add(project.shape(i));
+                }
+            }
+        }
+        generation = snapshotGeneration;
+        int replayed = 0;
+        if (Files.exists(journalFile)) {
+            replayed = replay(target, snapshotGeneration);
+        }
+        return new Recovery(width, height, target.size(), replayed);
+    }
+
+    /**
+     * Moves the snapshot and the journal aside as {@code *.bad}, e.g. when {@link #recover}
+     * could not read them, so that they can still be rescued by hand but do not trip up the
+     * next start. Call before {@link #attach}.
+     *
+     * @return where the files went
+     */
+    public List<Path> setAside() throws IOException {
+        List<Path> moved = new ArrayList<>();
+        for (Path file : List.of(snapshotFile, journalFile)) {
+            if (Files.exists(file)) {
+                Path bad = file.resolveSibling(file.getFileName() + ".bad");
+                Files.move(file, bad, StandardCopyOption.REPLACE_EXISTING);
+                moved.add(bad);
+            }
+        }
+        generation = 0;
+        return moved;
+    }
+
+    private int replay(ShapeDocument target, long snapshotGeneration) throws IOException {
+        byte[] bytes = Files.readAllBytes(journalFile);
+        ByteBuffer in = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        if (bytes.length < HEADER_SIZE || in.getInt(0) != MAGIC || in.getInt(4) != VERSION) {
+            LOG.warning(journalFile + ": not a journal, ignored");
+            return 0;
+        }
+        long journalGeneration = in.getLong(8);
+        if (journalGeneration != snapshotGeneration) {
+            // compaction got as far as the snapshot; everything here is already in it
+            LOG.info(() -> journalFile + ": generation " + journalGeneration + " is older than the snapshot, skipped");
+            return 0;
+        }
+        int p = HEADER_SIZE;
+        int replayed = 0;
+        CRC32 check = new CRC32();
+        while (p + ENTRY_HEADER_SIZE <= bytes.length) {
+            int length = in.getInt(p);
+            int expected = in.getInt(p + 4);
+            if (length <= 0 || length > bytes.length - p - ENTRY_HEADER_SIZE) {
+                break;
+            }
+            check.reset();
+            check.update(bytes, p + ENTRY_HEADER_SIZE, length);
+            if ((int) check.getValue() != expected) {
+                break;
+            }
+            try {
+                apply(target, in.slice(p + ENTRY_HEADER_SIZE, length).order(ByteOrder.LITTLE_ENDIAN));
+            } catch (RuntimeException ex) {
+                LOG.warning(journalFile + ": entry " + replayed + " does not apply, replay stopped: " + ex);
+                break;
+            }
+            replayed++;
+            p += ENTRY_HEADER_SIZE + length;
+        }
+        if (p < bytes.length) {
+            int dropped = bytes.length - p;
+            LOG.info(() -> journalFile + ": " + dropped + " bytes of incomplete entries dropped");
+        }
+        return replayed;
+    }
+
+    private static void apply(ShapeDocument target, ByteBuffer entry) {
+        byte type = entry.get();
+        switch (type) {
+            case INSERT -> {
+                long id = entry.getLong();
+                int slot = entry.getInt();
+                target.insert(id, slot, readShape(entry));
+            }
+            case UPDATE -> {
+                long id = entry.getLong();
+                target.update(id, readShape(entry));
+            }
+            case REMOVE -> target.remove(entry.getLong());
+            case CLEAR -> target.clear();
+            default -> throw new IllegalStateException("unknown entry type " + type);
+        }
+    }
+
+    /**
+     * @param onFailure told on the writer thread, once, when a write fails and autosave stops
+     */
+    public void setOnFailure(Consumer<IOException> onFailure) {
+        this.onFailure = onFailure;
+    }
+
+    /**
+     * Starts journaling the document's changes. Its current state is compacted into a fresh
+     * snapshot first, which also drops whatever incomplete tail recovery found.
+     */
+    public void attach(ShapeDocument document, DoubleSupplier pageWidth, DoubleSupplier pageHeight) {
+        if (this.document != null) {
+            throw new IllegalStateException("journal is already attached");
+        }
+        this.document = document;
+        this.pageWidth = pageWidth;
+        this.pageHeight = pageHeight;
+        compact();
+        document.setListener(this);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    /**
+     * Folds everything so far into a new snapshot, e.g. after a whole design was loaded.
+     * Call on the document's thread.
+     */
+    public void compact() {
+        if (failed) {
+            return;
+        }
+        int size = document.size();
+        long[] ids = new long[size];
+        for (int slot = 0; slot < size; slot++) {
+            ids[slot] = document.idAt(slot);
+        }
+        queue.add(new Snapshot(pageWidth.getAsDouble(), pageHeight.getAsDouble(), document.snapshot(), ids));
+        pendingBytes = 0;
+    }
+
+    /**
+     * Stops journaling changes one by one, e.g. while a whole design is loaded into the
+     * document; {@link #resume} then saves the result as one snapshot.
+     */
+    public void pause() {
+        if (document != null && !paused && !closed) {
+            paused = true;
+            document.setListener(null);
+        }
+    }
+
+    /**
+     * Compacts whatever the document now holds and journals its changes again.
+     */
+    public void resume() {
+        if (!paused || closed) {
+            return;
+        }
+        paused = false;
+        compact();
+        document.setListener(this);
+    }
+
+    @Override
+    public void inserted(long id, int slot, ShapeRecord record) {
+        enqueue(new Change(INSERT, id, slot, record), 64 + 8L * record.getCoords().length);
+    }
+
+    @Override
+    public void updated(long id, ShapeRecord record) {
+        enqueue(new Change(UPDATE, id, 0, record), 64 + 8L * record.getCoords().length);
+    }
+
+    @Override
+    public void removed(long id) {
+        enqueue(new Change(REMOVE, id, 0, null), 20);
+    }
+
+    @Override
+    public void cleared() {
+        enqueue(new Change(CLEAR, 0, 0, null), 12);
+    }
+
+    private void enqueue(Change change, long bytes) {
+        if (failed) {
+            return;
+        }
+        queue.add(change);
+        pendingBytes += bytes;
+        if (pendingBytes > compactBytes) {
+            compact();
+        }
+    }
+
+    /**
+     * Writes what is queued, stops the writer and detaches from the document.
+     */
+    @Override
+    public void close() {
+        if (document == null || closed) {
+            return;
+        }
+        closed = true;
+        if (Thread.currentThread() != shutdownHook) {
+            document.setListener(null);
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException ex) {
+                // already shutting down
+            }
+        }
+        if (!writer.isAlive()) {
+            return;
+        }
+        queue.add(STOP);
+        try {
+            writer.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public boolean isFailed() {
+        return failed;
+    }
+
+    private void run() {
+        List<Object> batch = new ArrayList<>();
+        try {
+            while (true) {
+                batch.add(queue.take());
+                queue.drainTo(batch);
+                boolean stop = false;
+                for (Object item : batch) {
+                    if (item == STOP) {
+                        stop = true;
+                    } else if (item instanceof Snapshot snapshot) {
+                        commit();
+                        writeSnapshot(snapshot);
+                    } else {
+                        encode((Change) item);
+                    }
+                }
+                batch.clear();
+                commit();
+                if (stop) {
+                    break;
+                }
+            }
+        } catch (IOException ex) {
+            failed = true;
+            queue.clear();
+            ex.printStackTrace();
+            Consumer<IOException> handler = onFailure;
+            if (handler != null) {
+                handler.accept(ex);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            closeChannel();
+        }
+    }
+
+    // one write and one sync for everything encoded since the last commit
+    private void commit() throws IOException {
+        if (buffer.position() == 0) {
+            return;
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+        channel.force(false);
+    }
+
+    private void writeSnapshot(Snapshot snapshot) throws IOException {
+        long next = generation + 1;
+        ProjectFile.write(snapshotFile, snapshot.pageWidth(), snapshot.pageHeight(), snapshot.records(),
+                Map.of("generator", "WoodCraft", GENERATION_KEY, Long.toString(next)), snapshot.ids());
+
+        closeChannel();
+        Path temp = journalFile.resolveSibling(JOURNAL_NAME + ".tmp");
+        try (FileChannel fresh = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putLong(next).flip();
+            while (header.hasRemaining()) {
+                fresh.write(header);
+            }
+            fresh.force(true);
+        }
+        try {
+            Files.move(temp, journalFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(temp, journalFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+        generation = next;
+        channel = FileChannel.open(journalFile, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        LOG.fine(() -> "Autosave compacted: " + snapshot.records().size() + " shapes, generation " + next);
+    }
+
+    private void closeChannel() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+            channel = null;
+        }
+    }
+
+    private void encode(Change change) {
+        ShapeRecord record = change.record();
+        int size = 1 + 8 + 4 + (record == null ? 0 : shapeSize(record));
+        ensure(ENTRY_HEADER_SIZE + size);
+        int start = buffer.position();
+        buffer.position(start + ENTRY_HEADER_SIZE);
+        buffer.put(change.type());
+        switch (change.type()) {
+            case INSERT -> {
+                buffer.putLong(change.id());
+                buffer.putInt(change.slot());
+                writeShape(record);
+            }
+            case UPDATE -> {
+                buffer.putLong(change.id());
+                writeShape(record);
+            }
+            case REMOVE -> buffer.putLong(change.id());
+            default -> {
+            }
+        }
+        int length = buffer.position() - start - ENTRY_HEADER_SIZE;
+        crc.reset();
+        crc.update(buffer.array(), start + ENTRY_HEADER_SIZE, length);
+        buffer.putInt(start, length);
+        buffer.putInt(start + 4, (int) crc.getValue());
+    }
+
+    private void ensure(int bytes) {
+        if (buffer.remaining() < bytes) {
+            int capacity = Math.max(buffer.capacity() * 2, buffer.position() + bytes);
+            ByteBuffer grown = ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.flip();
+            grown.put(buffer);
+            buffer = grown;
+        }
+    }
+
+    private static int shapeSize(ShapeRecord record) {
+        return 26 + (record.isIdentityTransform() ? 0 : 48) + 8 * record.getCoords().length
+                + record.getPathOps().length;
+    }
+
+    private void writeShape(ShapeRecord record) {
+        boolean transformed = !record.isIdentityTransform();
+        buffer.put((byte) record.getKind().ordinal());
+        buffer.put((byte) ((record.hasStroke() ? FLAG_STROKE : 0) | (record.hasFill() ? FLAG_FILL : 0)
+                | (transformed ? FLAG_TRANSFORM : 0)));
+        buffer.putInt(record.getStrokeArgb());
+        buffer.putInt(record.getFillArgb());
+        buffer.putDouble(record.getStrokeWidth());
+        double[] coords = record.getCoords();
+        byte[] ops = record.getPathOps();
+        buffer.putInt(coords.length);
+        buffer.putInt(ops.length);
+        if (transformed) {
+            for (double value : record.getTransform()) {
+                buffer.putDouble(value);
+            }
+        }
+        for (double value : coords) {
+            buffer.putDouble(value);
+        }
+        buffer.put(ops);
+    }
+
+    private static ShapeRecord readShape(ByteBuffer in) {
+        ShapeRecord.Kind kind = KINDS[in.get()];
+        int flags = in.get();
+        int strokeArgb = in.getInt();
+        int fillArgb = in.getInt();
+        double strokeWidth = in.getDouble();
+        double[] coords = new double[in.getInt()];
+        byte[] ops = new byte[in.getInt()];
+        double[] transform = null;
+        if ((flags & FLAG_TRANSFORM) != 0) {
+            transform = new double[6];
+            for (int i = 0; i < 6; i++) {
+                transform[i] = in.getDouble();
+            }
+        }
+        for (int i = 0; i < coords.length; i++) {
+            coords[i] = in.getDouble();
+        }
+        in.get(ops);
+        return new ShapeRecord(kind, coords, ops, (flags & FLAG_STROKE) != 0, strokeArgb, strokeWidth,
+                (flags & FLAG_FILL) != 0, fillArgb, transform);
+    }
+}
@@ -0,0 +1,622 @@
+package ba.woodcraft.io;
+
+import ba.woodcraft.model.ShapeRecord;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * WoodCraft projects ({@code .wcf}): binary, little-endian, every block 8-byte aligned.
+ *
+ * <pre>
+ * header   "WCF" 0x1a, u16 major, u16 minor, u32 section count, u32 reserved, u64 index offset
+ * PAGE     f64 width, f64 height
+ * SHAP     shape blocks, bottom-most first:
+ *          u8 kind, u8 flags (1 = transform), u16 reserved, u32 style, u32 coords, u32 ops,
+ *          [f64 x 6 transform], f64 coords..., u8 ops..., padding
+ * SIDX     u32 count, u32 reserved, u64 offset of each shape block within SHAP
+ * STYL     u32 count, u32 reserved; per style u8 flags (1 = stroke, 2 = fill), u8 x 3 reserved,
+ *          u32 stroke ARGB, u32 fill ARGB, u32 reserved, f64 stroke width
+ * STRS     u32 count, u32 reserved; per entry u32 key length, u32 value length, UTF-8 bytes, padding
+ * SIDS     optional (1.1): u32 count, u32 reserved, u64 document id of each shape
+ * index    per section: u32 tag, u32 reserved, u64 offset, u64 length
+ * </pre>
+ *
+ * Readers skip sections they do not know, so a newer minor version still opens. Files are
+ * memory-mapped on open and shapes are decoded when first asked for. Saving streams to a
+ * temporary file next to the target and renames it over the target once complete, so a
+ * crash mid-save leaves the previous file intact.
+ */
+public final class ProjectFile {
+
+    public static final String EXTENSION = ".wcf";
+
+    private static final int MAGIC = 'W' | 'C' << 8 | 'F' << 16 | 0x1a << 24;
+    private static final int MAJOR = 1;
+    private static final int MINOR = 1;
+    private static final int HEADER_SIZE = 24;
+    private static final int INDEX_ENTRY_SIZE = 24;
+    private static final int SHAPE_HEADER_SIZE = 16;
+    private static final int STYLE_SIZE = 24;
+
+    private static final int PAGE = tag("PAGE");
+    private static final int SHAPES = tag("SHAP");
+    private static final int SHAPE_INDEX = tag("SIDX");
+    private static final int STYLES = tag("STYL");
+    private static final int STRINGS = tag("STRS");
+    private static final int SHAPE_IDS = tag("SIDS");
+
+    private static final int FLAG_TRANSFORM = 1;
+    private static final int FLAG_STROKE = 1;
+    private static final int FLAG_FILL = 2;
+
+    // smaller files are read onto the heap; mapping only pays off for large ones
+    private static final long MAP_THRESHOLD = 1024 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final ShapeRecord.Kind[] KINDS = ShapeRecord.Kind.values();
+
+    private ProjectFile() {
+    }
+
+    private static int tag(String name) {
+        byte[] b = name.getBytes(StandardCharsets.US_ASCII);
+        return (b[0] & 0xff) | (b[1] & 0xff) << 8 | (b[2] & 0xff) << 16 | (b[3] & 0xff) << 24;
+    }
+
+    private record Style(boolean hasStroke, int strokeArgb, double strokeWidth, boolean hasFill, int fillArgb) {
+
+        static Style of(ShapeRecord record) {
+            return new Style(record.hasStroke(), record.getStrokeArgb(), record.getStrokeWidth(),
+                    record.hasFill(), record.getFillArgb());
+        }
+    }
+
+    /**
+     * An opened project. Page size, styles and metadata are read on open; shapes are decoded
+     * from the mapped file on first access and kept.
+     */
+    public static final class Project {
+
+        private final Path file;
+        private final ByteBuffer data;
+        private final double pageWidth;
+        private final double pageHeight;
+        private final Style[] styles;
+        private final Map<String, String> metadata;
+        private final int shapesStart;
+        private final int shapesEnd;
+        private final long[] offsets;
+        private final long[] ids;
+        private final ShapeRecord[] decoded;
+
+        private Project(Path file, ByteBuffer data, double pageWidth, double pageHeight, Style[] styles,
+                        Map<String, String> metadata, int shapesStart, int shapesEnd, long[] offsets, long[] ids) {
+            this.file = file;
+            this.data = data;
+            this.pageWidth = pageWidth;
+            this.pageHeight = pageHeight;
+            this.styles = styles;
+            this.metadata = metadata;
+            this.shapesStart = shapesStart;
+            this.shapesEnd = shapesEnd;
+            this.offsets = offsets;
+            this.ids = ids;
+            this.decoded = new ShapeRecord[offsets.length];
+        }
+
+        public double pageWidth() {
+            return pageWidth;
+        }
+
+        public double pageHeight() {
+            return pageHeight;
+        }
+
+        public Map<String, String> metadata() {
+            return metadata;
+        }
+
+        public int shapeCount() {
+            return offsets.length;
+        }
+
+        /**
+         * @return the document id the shape had when saved, or 0 if the file has no ids
+         */
+        public long shapeId(int index) {
+            return ids == null ? 0 : ids[index];
+        }
+
+        /**
+         * @throws UncheckedIOException if the shape's block is damaged
+         */
+        public synchronized ShapeRecord shape(int index) {
+            ShapeRecord record = decoded[index];
+            if (record == null) {
+                try {
+                    record = decode(index);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+                decoded[index] = record;
+            }
+            return record;
+        }
+
+        /**
+         * All shapes, bottom-most first, decoded as the list is read.
+         */
+        public List<ShapeRecord> shapes() {
+            return new Shapes();
+        }
+
+        private final class Shapes extends AbstractList<ShapeRecord> implements RandomAccess {
+
+            @Override
+            public ShapeRecord get(int index) {
+                return shape(index);
+            }
+
+            @Override
+            public int size() {
+                return offsets.length;
+            }
+        }
+
+        private ShapeRecord decode(int index) throws IOException {
+            int p = (int) (shapesStart + offsets[index]);
+            if (p + SHAPE_HEADER_SIZE > shapesEnd) {
+                throw corrupt("shape " + index + " lies outside its section");
+            }
+            int kindIndex = data.get(p) & 0xff;
+            int flags = data.get(p + 1) & 0xff;
+            int styleIndex = data.getInt(p + 4);
+            int coordCount = data.getInt(p + 8);
+            int opCount = data.getInt(p + 12);
+            boolean transformed = (flags & FLAG_TRANSFORM) != 0;
+            long size = blockSize(transformed, coordCount, opCount);
+            if (kindIndex >= KINDS.length || styleIndex < 0 || styleIndex >= styles.length
+                    || coordCount < 0 || opCount < 0 || p + size > shapesEnd) {
+                throw corrupt("shape " + index + " is damaged");
+            }
+            p += SHAPE_HEADER_SIZE;
+            double[] transform = null;
+            if (transformed) {
+                transform = new double[6];
+                data.slice(p, 48).order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().get(transform);
+                p += 48;
+            }
+            double[] coords = new double[coordCount];
+            data.slice(p, coordCount * 8).order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().get(coords);
+            p += coordCount * 8;
+            byte[] ops = new byte[opCount];
+            data.get(p, ops);
+            Style style = styles[styleIndex];
+            try {
+                return new ShapeRecord(KINDS[kindIndex], coords, ops, style.hasStroke(), style.strokeArgb(),
+                        style.strokeWidth(), style.hasFill(), style.fillArgb(), transform);
+            } catch (RuntimeException ex) {
+                throw corrupt("shape " + index + ": " + ex.getMessage());
+            }
+        }
+
+        private IOException corrupt(String message) {
+            return new IOException(file + ": " + message);
+        }
+    }
+
+    public static Project open(Path file) throws IOException {
+        return open(file, true);
+    }
+
+    /**
+     * Like {@link #open(Path)}, but always reads the file onto the heap. A mapping keeps the
+     * file in use until it is garbage collected, and on Windows that blocks replacing it.
+     */
+    public static Project read(Path file) throws IOException {
+        return open(file, false);
+    }
+
+    private static Project open(Path file, boolean map) throws IOException {
+        ByteBuffer data;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(file + ": larger than 2 GB");
+            }
+            if (map && size >= MAP_THRESHOLD) {
+                // the mapping stays valid after the channel is closed
+                data = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            } else {
+                data = ByteBuffer.allocate((int) size);
+                while (data.hasRemaining() && channel.read(data) >= 0) {
+                    // keep reading
+                }
+                data.flip();
+            }
+        }
+        data.order(ByteOrder.LITTLE_ENDIAN);
+        return parse(file, data);
+    }
+
+    private static Project parse(Path file, ByteBuffer data) throws IOException {
+        int limit = data.limit();
+        if (limit < HEADER_SIZE || data.getInt(0) != MAGIC) {
+            throw new IOException(file + ": not a WoodCraft project");
+        }
+        int major = data.getShort(4) & 0xffff;
+        if (major != MAJOR) {
+            throw new IOException(file + ": project version " + major + " is not supported (expected " + MAJOR + ")");
+        }
+        int sectionCount = data.getInt(8);
+        long indexOffset = data.getLong(16);
+        if (sectionCount < 0 || indexOffset < HEADER_SIZE
+                || indexOffset + (long) sectionCount * INDEX_ENTRY_SIZE > limit) {
+            throw new IOException(file + ": damaged section index");
+        }
+
+        Map<Integer, int[]> sections = new HashMap<>();
+        for (int i = 0; i < sectionCount; i++) {
+            int entry = (int) indexOffset + i * INDEX_ENTRY_SIZE;
+            long offset = data.getLong(entry + 8);
+            long length = data.getLong(entry + 16);
+            if (offset < HEADER_SIZE || length < 0 || offset + length > indexOffset) {
+                throw new IOException(file + ": section " + i + " lies outside the file");
+            }
+            sections.put(data.getInt(entry), new int[]{(int) offset, (int) (offset + length)});
+        }
+
+        int[] page = require(file, sections, PAGE, "PAGE");
+        if (page[1] - page[0] < 16) {
+            throw new IOException(file + ": damaged PAGE section");
+        }
+        double pageWidth = data.getDouble(page[0]);
+        double pageHeight = data.getDouble(page[0] + 8);
+
+        Style[] styles = readStyles(file, data, require(file, sections, STYLES, "STYL"));
+        int[] shapes = require(file, sections, SHAPES, "SHAP");
+        long[] offsets = readShapeIndex(file, data, require(file, sections, SHAPE_INDEX, "SIDX"), shapes);
+        int[] strings = sections.get(STRINGS);
+        Map<String, String> metadata = strings == null ? Map.of() : readStrings(file, data, strings);
+        int[] idSection = sections.get(SHAPE_IDS);
+        long[] ids = idSection == null ? null : readIds(file, data, idSection, offsets.length);
+        return new Project(file, data, pageWidth, pageHeight, styles, metadata, shapes[0], shapes[1], offsets, ids);
+    }
+
+    private static int[] require(Path file, Map<Integer, int[]> sections, int tag, String name) throws IOException {
+        int[] section = sections.get(tag);
+        if (section == null) {
+            throw new IOException(file + ": missing " + name + " section");
+        }
+        return section;
+    }
+
+    private static Style[] readStyles(Path file, ByteBuffer data, int[] section) throws IOException {
+        int count = data.getInt(section[0]);
+        if (count < 0 || section[0] + 8 + (long) count * STYLE_SIZE > section[1]) {
+            throw new IOException(file + ": damaged STYL section");
+        }
+        Style[] styles = new Style[count];
+        for (int i = 0, p = section[0] + 8; i < count; i++, p += STYLE_SIZE) {
+            int flags = data.get(p) & 0xff;
+            styles[i] = new Style((flags & FLAG_STROKE) != 0, data.getInt(p + 4), data.getDouble(p + 16),
+                    (flags & FLAG_FILL) != 0, data.getInt(p + 8));
+        }
+        return styles;
+    }
+
+    private static long[] readShapeIndex(Path file, ByteBuffer data, int[] section, int[] shapes) throws IOException {
+        int count = data.getInt(section[0]);
+        if (count < 0 || section[0] + 8 + (long) count * 8 > section[1]) {
+            throw new IOException(file + ": damaged SIDX section");
+        }
+        long[] offsets = new long[count];
+        data.slice(section[0] + 8, count * 8).order(ByteOrder.LITTLE_ENDIAN).asLongBuffer().get(offsets);
+        long length = shapes[1] - shapes[0];
+        for (int i = 0; i < count; i++) {
+            if (offsets[i] < 0 || offsets[i] + SHAPE_HEADER_SIZE > length || (offsets[i] & 7) != 0) {
+                throw new IOException(file + ": shape " + i + " lies outside its section");
+            }
+        }
+        return offsets;
+    }
+
+    private static long[] readIds(Path file, ByteBuffer data, int[] section, int shapeCount) throws IOException {
+        int count = data.getInt(section[0]);
+        if (count != shapeCount || section[0] + 8 + (long) count * 8 > section[1]) {
+            throw new IOException(file + ": damaged SIDS section");
+        }
+        long[] ids = new long[count];
+        data.slice(section[0] + 8, count * 8).order(ByteOrder.LITTLE_ENDIAN).asLongBuffer().get(ids);
+        return ids;
+    }
+
+    private static Map<String, String> readStrings(Path file, ByteBuffer data, int[] section) throws IOException {
+        int count = data.getInt(section[0]);
+        Map<String, String> strings = new LinkedHashMap<>();
+        int p = section[0] + 8;
+        for (int i = 0; i < count; i++) {
+            if (p + 8 > section[1]) {
+                throw new IOException(file + ": damaged STRS section");
+            }
+            int keyLength = data.getInt(p);
+            int valueLength = data.getInt(p + 4);
+            long end = p + 8L + keyLength + valueLength;
+            if (keyLength < 0 || valueLength < 0 || end > section[1]) {
+                throw new IOException(file + ": damaged STRS section");
+            }
+            strings.put(utf8(data, p + 8, keyLength), utf8(data, p + 8 + keyLength, valueLength));
+            p = (int) align(end);
+        }
+        return Collections.unmodifiableMap(strings);
+    }
+
+    private static String utf8(ByteBuffer data, int offset, int length) {
+        byte[] bytes = new byte[length];
+        data.get(offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public static void write(Path file, double pageWidth, double pageHeight, Iterable<ShapeRecord> records)
+            throws IOException {
+        write(file, pageWidth, pageHeight, records, Map.of("generator", "WoodCraft"));
+    }
+
+    public static void write(Path file, double pageWidth, double pageHeight, Iterable<ShapeRecord> records,
+                             Map<String, String> metadata) throws IOException {
+        write(file, pageWidth, pageHeight, records, metadata, null);
+    }
+
+    /**
+     * @param ids document id of each shape, kept so that later edits can refer to them;
+     *            {@code null} to leave them out
+     */
+    public static void write(Path file, double pageWidth, double pageHeight, Iterable<ShapeRecord> records,
+                             Map<String, String> metadata, long[] ids) throws IOException {
+        Path target = file.toAbsolutePath();
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        boolean finished = false;
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                BlockWriter out = new BlockWriter(channel);
+                writeSections(out, pageWidth, pageHeight, records, metadata, ids);
+                channel.force(true);
+            }
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            finished = true;
+        } finally {
+            if (!finished) {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    private static void writeSections(BlockWriter out, double pageWidth, double pageHeight,
+                                      Iterable<ShapeRecord> records, Map<String, String> metadata, long[] ids)
+            throws IOException {
+        // header, patched with the index offset at the end
+        out.putInt(MAGIC);
+        out.putShort(MAJOR);
+        out.putShort(MINOR);
+        int sectionCount = ids == null ? 5 : 6;
+        out.putInt(sectionCount);
+        out.putInt(0);
+        out.putLong(0);
+        List<long[]> index = new ArrayList<>(sectionCount);
+
+        long start = out.position();
+        out.putDouble(pageWidth);
+        out.putDouble(pageHeight);
+        index.add(new long[]{PAGE, start, out.position() - start});
+
+        Map<Style, Integer> styleIds = new HashMap<>();
+        List<Style> styles = new ArrayList<>();
+        long[] offsets = new long[256];
+        int count = 0;
+        start = out.position();
+        for (ShapeRecord record : records) {
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, count * 2);
+            }
+            offsets[count++] = out.position() - start;
+            Style style = Style.of(record);
+            Integer styleId = styleIds.get(style);
+            if (styleId == null) {
+                styleId = styles.size();
+                styleIds.put(style, styleId);
+                styles.add(style);
+            }
+            boolean transformed = !record.isIdentityTransform();
+            double[] coords = record.getCoords();
+            byte[] ops = record.getPathOps();
+            out.putByte(record.getKind().ordinal());
+            out.putByte(transformed ? FLAG_TRANSFORM : 0);
+            out.putShort(0);
+            out.putInt(styleId);
+            out.putInt(coords.length);
+            out.putInt(ops.length);
+            if (transformed) {
+                out.putDoubles(record.getTransform());
+            }
+            out.putDoubles(coords);
+            out.putBytes(ops);
+            out.pad();
+        }
+        index.add(new long[]{SHAPES, start, out.position() - start});
+
+        start = out.position();
+        out.putInt(count);
+        out.putInt(0);
+        for (int i = 0; i < count; i++) {
+            out.putLong(offsets[i]);
+        }
+        index.add(new long[]{SHAPE_INDEX, start, out.position() - start});
+
+        start = out.position();
+        out.putInt(styles.size());
+        out.putInt(0);
+        for (Style style : styles) {
+            out.putByte((style.hasStroke() ? FLAG_STROKE : 0) | (style.hasFill() ? FLAG_FILL : 0));
+            out.putByte(0);
+            out.putShort(0);
+            out.putInt(style.strokeArgb());
+            out.putInt(style.fillArgb());
+            out.putInt(0);
+            out.putDouble(style.strokeWidth());
+        }
+        index.add(new long[]{STYLES, start, out.position() - start});
+
+        start = out.position();
+        out.putInt(metadata.size());
+        out.putInt(0);
+        for (Map.Entry<String, String> entry : metadata.entrySet()) {
+            byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            byte[] value = entry.getValue().getBytes(StandardCharsets.UTF_8);
+            out.putInt(key.length);
+            out.putInt(value.length);
+            out.putBytes(key);
+            out.putBytes(value);
+            out.pad();
+        }
+        index.add(new long[]{STRINGS, start, out.position() - start});
+
+        if (ids != null) {
+            if (ids.length != count) {
+                throw new IllegalArgumentException(ids.length + " ids for " + count + " shapes");
+            }
+            start = out.position();
+            out.putInt(count);
+            out.putInt(0);
+            for (long id : ids) {
+                out.putLong(id);
+            }
+            index.add(new long[]{SHAPE_IDS, start, out.position() - start});
+        }
+
+        long indexOffset = out.position();
+        for (long[] entry : index) {
+            out.putInt((int) entry[0]);
+            out.putInt(0);
+            out.putLong(entry[1]);
+            out.putLong(entry[2]);
+        }
+        out.flush();
+        out.patchLong(16, indexOffset);
+    }
+
+    private static long align(long position) {
+        return (position + 7) & ~7L;
+    }
+
+    private static long blockSize(boolean transformed, int coordCount, int opCount) {
+        return align(SHAPE_HEADER_SIZE + (transformed ? 48L : 0) + 8L * coordCount + opCount);
+    }
+
+    // Buffered little-endian writes to a channel, with the absolute position for the index.
+    private static final class BlockWriter {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        private long flushed;
+
+        BlockWriter(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        long position() {
+            return flushed + buffer.position();
+        }
+
+        void putByte(int value) throws IOException {
+            ensure(1);
+            buffer.put((byte) value);
+        }
+
+        void putShort(int value) throws IOException {
+            ensure(2);
+            buffer.putShort((short) value);
+        }
+
+        void putInt(int value) throws IOException {
+            ensure(4);
+            buffer.putInt(value);
+        }
+
+        void putLong(long value) throws IOException {
+            ensure(8);
+            buffer.putLong(value);
+        }
+
+        void putDouble(double value) throws IOException {
+            ensure(8);
+            buffer.putDouble(value);
+        }
+
+        void putDoubles(double[] values) throws IOException {
+            for (double value : values) {
+                putDouble(value);
+            }
+        }
+
+        void putBytes(byte[] bytes) throws IOException {
+            int offset = 0;
+            while (offset < bytes.length) {
+                ensure(1);
+                int n = Math.min(bytes.length - offset, buffer.remaining());
+                buffer.put(bytes, offset, n);
+                offset += n;
+            }
+        }
+
+        void pad() throws IOException {
+            long position = position();
+            for (long i = position; i < align(position); i++) {
+                putByte(0);
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                flushed += channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        void patchLong(long position, long value) throws IOException {
+            ByteBuffer patch = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putLong(value).flip();
+            while (patch.hasRemaining()) {
+                channel.write(patch, position + patch.position());
+            }
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package ba.woodcraft.model;
 
+import ba.woodcraft.geometry.StrokeSimplifier;
 import javafx.scene.Node;
 import javafx.scene.paint.Color;
 import javafx.scene.shape.LineTo;
@@ -9,8 +10,16 @@ import javafx.scene.shape.Path;
 public class FreehandShape implements Drawable {
 
     private final Path path = new Path();
+    private final StrokeSimplifier simplifier;
+    private LineTo tail;
 
     public FreehandShape(double x, double y) {
+        this(x, y, StrokeSimplifier.DEFAULT_TOLERANCE);
+    }
+
+    public FreehandShape(double x, double y, double tolerance) {
+        simplifier = new StrokeSimplifier(tolerance);
+        simplifier.begin(x, y);
         path.getElements().add(new MoveTo(x, y));
         path.setStroke(Color.BLACK);
         path.setStrokeWidth(2.0);
@@ -20,7 +29,22 @@ public class FreehandShape implements Drawable {
 
     @Override
     public void update(double x, double y) {
-        path.getElements().add(new LineTo(x, y));
+        if (simplifier.add(x, y) && tail != null) {
+            // point lies on the current straight run: move its end instead of adding a vertex
+            tail.setX(x);
+            tail.setY(y);
+        } else {
+            tail = new LineTo(x, y);
+            path.getElements().add(tail);
+        }
+    }
+
+    public int getRawPointCount() {
+        return simplifier.getInputCount();
+    }
+
+    public int getElementCount() {
+        return path.getElements().size();
     }
 
     @Override
@@ -0,0 +1,367 @@
+package ba.woodcraft.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The drawing as plain data, independent of JavaFX. Shapes are stored column-wise
+ * (struct of arrays) in z-order, bottom-most first, with the geometry of all shapes packed
+ * into shared coordinate and path-op pools. Every shape has a stable id, and every change
+ * bumps the document version and stamps the shape with it, so views can detect changes by
+ * comparing numbers.
+ *
+ * Not thread-safe; mutate it from one thread. {@link #snapshot()} hands out immutable
+ * records that can be used from any thread. A record, once built, is handed out again until
+ * its shape changes, so consumers can cache work per record instance.
+ */
+public final class ShapeDocument {
+
+    /**
+     * Told about every change after it is made, on the thread that made it.
+     */
+    public interface Listener {
+
+        void inserted(long id, int slot, ShapeRecord record);
+
+        void updated(long id, ShapeRecord record);
+
+        void removed(long id);
+
+        void cleared();
+    }
+
+    private static final int INITIAL_CAPACITY = 64;
+    private static final byte HAS_STROKE = 1;
+    private static final byte HAS_FILL = 2;
+    private static final byte HAS_TRANSFORM = 4;
+    private static final ShapeRecord.Kind[] KINDS = ShapeRecord.Kind.values();
+
+    private long[] ids = new long[INITIAL_CAPACITY];
+    private long[] versions = new long[INITIAL_CAPACITY];
+    private byte[] kinds = new byte[INITIAL_CAPACITY];
+    private byte[] flags = new byte[INITIAL_CAPACITY];
+    private int[] strokeArgb = new int[INITIAL_CAPACITY];
+    private double[] strokeWidth = new double[INITIAL_CAPACITY];
+    private int[] fillArgb = new int[INITIAL_CAPACITY];
+    private double[] transforms = new double[INITIAL_CAPACITY * 6];
+    private int[] coordStart = new int[INITIAL_CAPACITY];
+    private int[] coordLength = new int[INITIAL_CAPACITY];
+    private int[] opStart = new int[INITIAL_CAPACITY];
+    private int[] opLength = new int[INITIAL_CAPACITY];
+    // records already built from the columns; null until asked for, dropped on change
+    private ShapeRecord[] records = new ShapeRecord[INITIAL_CAPACITY];
+
+    // geometry of all shapes; updates append and leave the old range behind as garbage
+    private double[] coordPool = new double[INITIAL_CAPACITY * 8];
+    private int coordPoolSize;
+    private int coordGarbage;
+    private byte[] opPool = new byte[INITIAL_CAPACITY * 4];
+    private int opPoolSize;
+    private int opGarbage;
+
+    private final Map<Long, Integer> slots = new HashMap<>();
+    private int size;
+    private long nextId = 1;
+    private long version;
+    private Listener listener;
+
+    /**
+     * Appends a shape on top of the others.
+     *
+     * @return the new shape's id
+     */
+    public long add(ShapeRecord record) {
+        long id = nextId++;
+        insert(id, size, record);
+        return id;
+    }
+
+    /**
+     * Puts a shape back under its old id at a z-order position, e.g. when undoing its removal.
+     */
+    public void insert(long id, int slot, ShapeRecord record) {
+        if (slots.containsKey(id)) {
+            throw new IllegalArgumentException("shape " + id + " already exists");
+        }
+        if (slot < 0 || slot > size) {
+            throw new IndexOutOfBoundsException("slot " + slot + ", size " + size);
+        }
+        ensureCapacity(size + 1);
+        int tail = size - slot;
+        if (tail > 0) {
+            System.arraycopy(ids, slot, ids, slot + 1, tail);
+            System.arraycopy(versions, slot, versions, slot + 1, tail);
+            System.arraycopy(kinds, slot, kinds, slot + 1, tail);
+            System.arraycopy(flags, slot, flags, slot + 1, tail);
+            System.arraycopy(strokeArgb, slot, strokeArgb, slot + 1, tail);
+            System.arraycopy(strokeWidth, slot, strokeWidth, slot + 1, tail);
+            System.arraycopy(fillArgb, slot, fillArgb, slot + 1, tail);
+            System.arraycopy(transforms, slot * 6, transforms, (slot + 1) * 6, tail * 6);
+            System.arraycopy(coordStart, slot, coordStart, slot + 1, tail);
+            System.arraycopy(coordLength, slot, coordLength, slot + 1, tail);
+            System.arraycopy(opStart, slot, opStart, slot + 1, tail);
+            System.arraycopy(opLength, slot, opLength, slot + 1, tail);
+            System.arraycopy(records, slot, records, slot + 1, tail);
+            for (int i = slot + 1; i <= size; i++) {
+                slots.put(ids[i], i);
+            }
+        }
+        size++;
+        ids[slot] = id;
+        slots.put(id, slot);
+        nextId = Math.max(nextId, id + 1);
+        write(slot, record);
+        if (listener != null) {
+            listener.inserted(id, slot, record);
+        }
+    }
+
+    /**
+     * Replaces the geometry and style of a shape, keeping its id and z-order.
+     *
+     * @return {@code false} if there is no shape with that id
+     */
+    public boolean update(long id, ShapeRecord record) {
+        Integer slot = slots.get(id);
+        if (slot == null) {
+            return false;
+        }
+        coordGarbage += coordLength[slot];
+        opGarbage += opLength[slot];
+        write(slot, record);
+        compactIfSparse();
+        if (listener != null) {
+            listener.updated(id, record);
+        }
+        return true;
+    }
+
+    public boolean remove(long id) {
+        Integer boxed = slots.remove(id);
+        if (boxed == null) {
+            return false;
+        }
+        int slot = boxed;
+        coordGarbage += coordLength[slot];
+        opGarbage += opLength[slot];
+        int tail = size - slot - 1;
+        if (tail > 0) {
+            // shift down to keep z-order
+            System.arraycopy(ids, slot + 1, ids, slot, tail);
+            System.arraycopy(versions, slot + 1, versions, slot, tail);
+            System.arraycopy(kinds, slot + 1, kinds, slot, tail);
+            System.arraycopy(flags, slot + 1, flags, slot, tail);
+            System.arraycopy(strokeArgb, slot + 1, strokeArgb, slot, tail);
+            System.arraycopy(strokeWidth, slot + 1, strokeWidth, slot, tail);
+            System.arraycopy(fillArgb, slot + 1, fillArgb, slot, tail);
+            System.arraycopy(transforms, (slot + 1) * 6, transforms, slot * 6, tail * 6);
+            System.arraycopy(coordStart, slot + 1, coordStart, slot, tail);
+            System.arraycopy(coordLength, slot + 1, coordLength, slot, tail);
+            System.arraycopy(opStart, slot + 1, opStart, slot, tail);
+            System.arraycopy(opLength, slot + 1, opLength, slot, tail);
+            System.arraycopy(records, slot + 1, records, slot, tail);
+            for (int i = slot; i < size - 1; i++) {
+                slots.put(ids[i], i);
+            }
+        }
+        size--;
+        records[size] = null;
+        version++;
+        compactIfSparse();
+        if (listener != null) {
+            listener.removed(id);
+        }
+        return true;
+    }
+
+    public void clear() {
+        slots.clear();
+        Arrays.fill(records, 0, size, null);
+        size = 0;
+        coordPoolSize = 0;
+        coordGarbage = 0;
+        opPoolSize = 0;
+        opGarbage = 0;
+        version++;
+        if (listener != null) {
+            listener.cleared();
+        }
+    }
+
+    /**
+     * @param listener told about every change from now on, or {@code null} for none
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public boolean contains(long id) {
+        return slots.containsKey(id);
+    }
+
+    /**
+     * z-order position of a shape, or -1 if there is no shape with that id.
+     */
+    public int slotOf(long id) {
+        Integer slot = slots.get(id);
+        return slot == null ? -1 : slot;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Incremented by every change to the document.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * The document version of the last change to this shape, or -1 if there is no such shape.
+     */
+    public long getShapeVersion(long id) {
+        Integer slot = slots.get(id);
+        return slot == null ? -1 : versions[slot];
+    }
+
+    /**
+     * Id of the shape at a z-order position, 0 being the bottom-most.
+     */
+    public long idAt(int slot) {
+        checkSlot(slot);
+        return ids[slot];
+    }
+
+    /**
+     * @return the shape as a record, or {@code null} if there is no shape with that id
+     */
+    public ShapeRecord get(long id) {
+        Integer slot = slots.get(id);
+        return slot == null ? null : recordAt(slot);
+    }
+
+    public ShapeRecord recordAt(int slot) {
+        checkSlot(slot);
+        ShapeRecord cached = records[slot];
+        if (cached != null) {
+            return cached;
+        }
+        int cs = coordStart[slot];
+        double[] coords = Arrays.copyOfRange(coordPool, cs, cs + coordLength[slot]);
+        int os = opStart[slot];
+        byte[] ops = opLength[slot] == 0 ? null : Arrays.copyOfRange(opPool, os, os + opLength[slot]);
+        byte f = flags[slot];
+        double[] transform = (f & HAS_TRANSFORM) == 0
+                ? ShapeRecord.IDENTITY
+                : Arrays.copyOfRange(transforms, slot * 6, slot * 6 + 6);
+        ShapeRecord record = new ShapeRecord(KINDS[kinds[slot]], coords, ops,
+                (f & HAS_STROKE) != 0, strokeArgb[slot], strokeWidth[slot],
+                (f & HAS_FILL) != 0, fillArgb[slot], transform);
+        records[slot] = record;
+        return record;
+    }
+
+    /**
+     * All shapes, bottom-most first, as records that stay valid whatever happens to the document.
+     */
+    public List<ShapeRecord> snapshot() {
+        List<ShapeRecord> result = new ArrayList<>(size);
+        for (int slot = 0; slot < size; slot++) {
+            result.add(recordAt(slot));
+        }
+        return result;
+    }
+
+    private void write(int slot, ShapeRecord record) {
+        kinds[slot] = (byte) record.getKind().ordinal();
+        byte f = 0;
+        if (record.hasStroke()) f |= HAS_STROKE;
+        if (record.hasFill()) f |= HAS_FILL;
+        if (!record.isIdentityTransform()) f |= HAS_TRANSFORM;
+        flags[slot] = f;
+        strokeArgb[slot] = record.getStrokeArgb();
+        strokeWidth[slot] = record.getStrokeWidth();
+        fillArgb[slot] = record.getFillArgb();
+        System.arraycopy(record.getTransform(), 0, transforms, slot * 6, 6);
+
+        double[] coords = record.getCoords();
+        if (coordPoolSize + coords.length > coordPool.length) {
+            coordPool = Arrays.copyOf(coordPool, Math.max(coordPool.length * 2, coordPoolSize + coords.length));
+        }
+        System.arraycopy(coords, 0, coordPool, coordPoolSize, coords.length);
+        coordStart[slot] = coordPoolSize;
+        coordLength[slot] = coords.length;
+        coordPoolSize += coords.length;
+
+        byte[] ops = record.getPathOps();
+        if (opPoolSize + ops.length > opPool.length) {
+            opPool = Arrays.copyOf(opPool, Math.max(opPool.length * 2, opPoolSize + ops.length));
+        }
+        System.arraycopy(ops, 0, opPool, opPoolSize, ops.length);
+        opStart[slot] = opPoolSize;
+        opLength[slot] = ops.length;
+        opPoolSize += ops.length;
+
+        versions[slot] = ++version;
+        records[slot] = null;
+    }
+
+    // Rewrites the pools in slot order once more than half of them is dead ranges.
+    private void compactIfSparse() {
+        if (coordGarbage > coordPoolSize / 2 && coordGarbage > 0) {
+            double[] packed = new double[Math.max(INITIAL_CAPACITY * 8, coordPoolSize - coordGarbage)];
+            int at = 0;
+            for (int slot = 0; slot < size; slot++) {
+                System.arraycopy(coordPool, coordStart[slot], packed, at, coordLength[slot]);
+                coordStart[slot] = at;
+                at += coordLength[slot];
+            }
+            coordPool = packed;
+            coordPoolSize = at;
+            coordGarbage = 0;
+        }
+        if (opGarbage > opPoolSize / 2 && opGarbage > 0) {
+            byte[] packed = new byte[Math.max(INITIAL_CAPACITY * 4, opPoolSize - opGarbage)];
+            int at = 0;
+            for (int slot = 0; slot < size; slot++) {
+                System.arraycopy(opPool, opStart[slot], packed, at, opLength[slot]);
+                opStart[slot] = at;
+                at += opLength[slot];
+            }
+            opPool = packed;
+            opPoolSize = at;
+            opGarbage = 0;
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= ids.length) {
+            return;
+        }
+        int n = Math.max(capacity, ids.length * 2);
+        ids = Arrays.copyOf(ids, n);
+        versions = Arrays.copyOf(versions, n);
+        kinds = Arrays.copyOf(kinds, n);
+        flags = Arrays.copyOf(flags, n);
+        strokeArgb = Arrays.copyOf(strokeArgb, n);
+        strokeWidth = Arrays.copyOf(strokeWidth, n);
+        fillArgb = Arrays.copyOf(fillArgb, n);
+        transforms = Arrays.copyOf(transforms, n * 6);
+        coordStart = Arrays.copyOf(coordStart, n);
+        coordLength = Arrays.copyOf(coordLength, n);
+        opStart = Arrays.copyOf(opStart, n);
+        opLength = Arrays.copyOf(opLength, n);
+        records = Arrays.copyOf(records, n);
+    }
+
+    private void checkSlot(int slot) {
+        if (slot < 0 || slot >= size) {
+            throw new IndexOutOfBoundsException("slot " + slot + ", size " + size);
+        }
+    }
+}
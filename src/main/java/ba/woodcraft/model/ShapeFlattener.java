@@ -0,0 +1,132 @@
+package ba.woodcraft.model;
+
+import ba.woodcraft.geometry.CurveFlattener;
+import ba.woodcraft.geometry.Polyline;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Flattened outlines of {@link ShapeRecord}s in parent coordinates, at a fixed tolerance.
+ * A record is one version of a shape, and the document hands out the same record until the
+ * shape changes, so results are cached per record and dropped together with it.
+ *
+ * Thread-safe.
+ */
+public final class ShapeFlattener {
+
+    public static final double DEFAULT_TOLERANCE = 0.1;
+
+    private final double tolerance;
+    private final Map<ShapeRecord, Polyline> cache = new WeakHashMap<>();
+    private long hits;
+    private long misses;
+
+    public ShapeFlattener(double tolerance) {
+        if (!(tolerance > 0)) {
+            throw new IllegalArgumentException("tolerance must be positive");
+        }
+        this.tolerance = tolerance;
+    }
+
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    public Polyline flatten(ShapeRecord record) {
+        synchronized (this) {
+            Polyline cached = cache.get(record);
+            if (cached != null) {
+                hits++;
+                return cached;
+            }
+            misses++;
+        }
+        Polyline polyline = compute(record);
+        synchronized (this) {
+            cache.put(record, polyline);
+        }
+        return polyline;
+    }
+
+    private Polyline compute(ShapeRecord record) {
+        CurveFlattener flattener = new CurveFlattener(tolerance);
+        double[] t = record.getTransform();
+        flattener.setTransform(t[0], t[1], t[2], t[3], t[4], t[5]);
+        double[] c = record.getCoords();
+        switch (record.getKind()) {
+            case LINE -> {
+                flattener.moveTo(c[0], c[1]);
+                flattener.lineTo(c[2], c[3]);
+            }
+            case RECTANGLE -> {
+                flattener.moveTo(c[0], c[1]);
+                flattener.lineTo(c[0] + c[2], c[1]);
+                flattener.lineTo(c[0] + c[2], c[1] + c[3]);
+                flattener.lineTo(c[0], c[1] + c[3]);
+                flattener.closePath();
+            }
+            case CIRCLE -> flattener.circle(c[0], c[1], c[2]);
+            case CUBIC -> {
+                flattener.moveTo(c[0], c[1]);
+                flattener.cubicTo(c[2], c[3], c[4], c[5], c[6], c[7]);
+            }
+            case PATH -> {
+                int i = 0;
+                for (byte op : record.getPathOps()) {
+                    switch (op) {
+                        case ShapeRecord.MOVE_TO -> flattener.moveTo(c[i], c[i + 1]);
+                        case ShapeRecord.LINE_TO -> flattener.lineTo(c[i], c[i + 1]);
+                        case ShapeRecord.QUAD_TO -> flattener.quadTo(c[i], c[i + 1], c[i + 2], c[i + 3]);
+                        case ShapeRecord.CUBIC_TO -> flattener.cubicTo(c[i], c[i + 1], c[i + 2], c[i + 3],
+                                c[i + 4], c[i + 5]);
+                        case ShapeRecord.CLOSE -> flattener.closePath();
+                        default -> {
+                        }
+                    }
+                    i += ShapeRecord.opArity(op);
+                }
+            }
+        }
+        return flattener.finish();
+    }
+
+    /**
+     * Whether (x, y) in parent coordinates lies on the drawn shape: inside its fill, or
+     * within half the stroke width of its outline. Open outlines fill as if closed, as the
+     * scene graph and the canvas renderer draw them.
+     */
+    public boolean hits(ShapeRecord record, double x, double y) {
+        if (x < record.getMinX() || x > record.getMaxX() || y < record.getMinY() || y > record.getMaxY()) {
+            return false;
+        }
+        Polyline polyline = flatten(record);
+        if (record.hasFill() && polyline.contains(x, y)) {
+            return true;
+        }
+        if (!record.hasStroke()) {
+            return false;
+        }
+        // the stroke is scaled with the shape; the mean axis scale is exact for uniform scaling
+        double[] t = record.getTransform();
+        double scale = Math.sqrt(Math.abs(t[0] * t[4] - t[1] * t[3]));
+        double reach = record.getStrokeWidth() * scale / 2 + tolerance;
+        return polyline.distanceSq(x, y) <= reach * reach;
+    }
+
+    public synchronized int size() {
+        return cache.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return cache.size() + " outlines, " + hits + " hits, " + misses + " misses";
+    }
+}
@@ -0,0 +1,235 @@
+package ba.woodcraft.model;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Immutable, toolkit-free description of one committed shape: geometry in local coordinates,
+ * stroke/fill style as ARGB and the local-to-parent affine transform.
+ *
+ * Geometry layout per kind:
+ * LINE {x1, y1, x2, y2}, RECTANGLE {x, y, w, h}, CIRCLE {cx, cy, r},
+ * CUBIC {sx, sy, c1x, c1y, c2x, c2y, ex, ey}; PATH uses {@link #getPathOps()} with the
+ * coordinates of each op stored consecutively.
+ */
+public final class ShapeRecord {
+
+    public enum Kind {
+        LINE,
+        RECTANGLE,
+        CIRCLE,
+        CUBIC,
+        PATH
+    }
+
+    public static final byte MOVE_TO = 0;
+    public static final byte LINE_TO = 1;
+    public static final byte QUAD_TO = 2;
+    public static final byte CUBIC_TO = 3;
+    public static final byte CLOSE = 4;
+
+    public static final double[] IDENTITY = {1, 0, 0, 0, 1, 0};
+
+    private final Kind kind;
+    private final double[] coords;
+    private final byte[] pathOps;
+    private final boolean hasStroke;
+    private final int strokeArgb;
+    private final double strokeWidth;
+    private final boolean hasFill;
+    private final int fillArgb;
+    private final double[] transform;
+
+    private final double minX;
+    private final double minY;
+    private final double maxX;
+    private final double maxY;
+
+    // content hash, computed on first use; 0 means not yet
+    private long hash;
+
+    public ShapeRecord(Kind kind, double[] coords, byte[] pathOps,
+                       boolean hasStroke, int strokeArgb, double strokeWidth,
+                       boolean hasFill, int fillArgb, double[] transform) {
+        this.kind = Objects.requireNonNull(kind, "kind");
+        this.coords = Objects.requireNonNull(coords, "coords");
+        this.pathOps = pathOps == null ? new byte[0] : pathOps;
+        this.hasStroke = hasStroke;
+        this.strokeArgb = strokeArgb;
+        this.strokeWidth = strokeWidth;
+        this.hasFill = hasFill;
+        this.fillArgb = fillArgb;
+        this.transform = transform == null ? IDENTITY : transform;
+        if (this.transform.length != 6) {
+            throw new IllegalArgumentException("transform must be {mxx, mxy, tx, myx, myy, ty}");
+        }
+
+        double[] box = localBox();
+        double[] t = this.transform;
+        double lo0 = Double.POSITIVE_INFINITY;
+        double lo1 = Double.POSITIVE_INFINITY;
+        double hi0 = Double.NEGATIVE_INFINITY;
+        double hi1 = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < 4; i++) {
+            double x = (i & 1) == 0 ? box[0] : box[2];
+            double y = (i & 2) == 0 ? box[1] : box[3];
+            double px = t[0] * x + t[1] * y + t[2];
+            double py = t[3] * x + t[4] * y + t[5];
+            lo0 = Math.min(lo0, px);
+            lo1 = Math.min(lo1, py);
+            hi0 = Math.max(hi0, px);
+            hi1 = Math.max(hi1, py);
+        }
+        double scale = Math.max(Math.hypot(t[0], t[3]), Math.hypot(t[1], t[4]));
+        double pad = hasStroke ? strokeWidth / 2.0 * scale : 0;
+        this.minX = lo0 - pad;
+        this.minY = lo1 - pad;
+        this.maxX = hi0 + pad;
+        this.maxY = hi1 + pad;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * Backing array, not a copy; callers must not modify it.
+     */
+    public double[] getCoords() {
+        return coords;
+    }
+
+    public byte[] getPathOps() {
+        return pathOps;
+    }
+
+    public boolean hasStroke() {
+        return hasStroke;
+    }
+
+    public int getStrokeArgb() {
+        return strokeArgb;
+    }
+
+    public double getStrokeWidth() {
+        return strokeWidth;
+    }
+
+    public boolean hasFill() {
+        return hasFill;
+    }
+
+    public int getFillArgb() {
+        return fillArgb;
+    }
+
+    /**
+     * {mxx, mxy, tx, myx, myy, ty}; backing array, not a copy.
+     */
+    public double[] getTransform() {
+        return transform;
+    }
+
+    public boolean isIdentityTransform() {
+        return transform == IDENTITY || Arrays.equals(transform, IDENTITY);
+    }
+
+    /**
+     * Conservative bounds in parent coordinates, stroke included.
+     */
+    public double getMinX() {
+        return minX;
+    }
+
+    public double getMinY() {
+        return minY;
+    }
+
+    public double getMaxX() {
+        return maxX;
+    }
+
+    public double getMaxY() {
+        return maxY;
+    }
+
+    /**
+     * 64-bit hash of kind, geometry, style and transform. Records with equal content have
+     * equal hashes; use {@link #contentEquals} to rule out a collision.
+     */
+    public long contentHash() {
+        long h = hash;
+        if (h == 0) {
+            h = kind.ordinal();
+            for (double c : coords) {
+                h = mix(h, Double.doubleToLongBits(c));
+            }
+            for (byte op : pathOps) {
+                h = mix(h, op);
+            }
+            h = mix(h, hasStroke ? strokeArgb : 1L << 32);
+            h = mix(h, Double.doubleToLongBits(strokeWidth));
+            h = mix(h, hasFill ? fillArgb : 1L << 32);
+            for (double t : transform) {
+                h = mix(h, Double.doubleToLongBits(t));
+            }
+            h = h == 0 ? 1 : h;
+            hash = h;
+        }
+        return h;
+    }
+
+    public boolean contentEquals(ShapeRecord other) {
+        return this == other || (other != null
+                && kind == other.kind
+                && hasStroke == other.hasStroke && (!hasStroke || strokeArgb == other.strokeArgb)
+                && Double.compare(strokeWidth, other.strokeWidth) == 0
+                && hasFill == other.hasFill && (!hasFill || fillArgb == other.fillArgb)
+                && Arrays.equals(coords, other.coords)
+                && Arrays.equals(pathOps, other.pathOps)
+                && Arrays.equals(transform, other.transform));
+    }
+
+    // one round of a 64-bit multiply-xorshift mix
+    private static long mix(long h, long value) {
+        h = (h ^ value) * 0x9e3779b97f4a7c15L;
+        return h ^ (h >>> 29);
+    }
+
+    public static int opArity(byte op) {
+        return switch (op) {
+            case MOVE_TO, LINE_TO -> 2;
+            case QUAD_TO -> 4;
+            case CUBIC_TO -> 6;
+            default -> 0;
+        };
+    }
+
+    // Local bounding box of the geometry; for curves the control polygon, which contains the curve.
+    private double[] localBox() {
+        return switch (kind) {
+            case LINE -> new double[]{
+                    Math.min(coords[0], coords[2]), Math.min(coords[1], coords[3]),
+                    Math.max(coords[0], coords[2]), Math.max(coords[1], coords[3])};
+            case RECTANGLE -> new double[]{coords[0], coords[1], coords[0] + coords[2], coords[1] + coords[3]};
+            case CIRCLE -> new double[]{
+                    coords[0] - coords[2], coords[1] - coords[2],
+                    coords[0] + coords[2], coords[1] + coords[2]};
+            case CUBIC, PATH -> pointsBox();
+        };
+    }
+
+    private double[] pointsBox() {
+        if (coords.length < 2) {
+            return new double[]{0, 0, 0, 0};
+        }
+        double[] box = {coords[0], coords[1], coords[0], coords[1]};
+        for (int i = 2; i + 1 < coords.length; i += 2) {
+            box[0] = Math.min(box[0], coords[i]);
+            box[1] = Math.min(box[1], coords[i + 1]);
+            box[2] = Math.max(box[2], coords[i]);
+            box[3] = Math.max(box[3], coords[i + 1]);
+        }
+        return box;
+    }
+}
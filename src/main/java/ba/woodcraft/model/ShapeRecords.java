@@ -0,0 +1,163 @@
+package ba.woodcraft.model;
+
+import javafx.scene.Node;
+import javafx.scene.paint.Color;
+import javafx.scene.paint.Paint;
+import javafx.scene.shape.Circle;
+import javafx.scene.shape.ClosePath;
+import javafx.scene.shape.CubicCurve;
+import javafx.scene.shape.CubicCurveTo;
+import javafx.scene.shape.Line;
+import javafx.scene.shape.LineTo;
+import javafx.scene.shape.MoveTo;
+import javafx.scene.shape.Path;
+import javafx.scene.shape.PathElement;
+import javafx.scene.shape.QuadCurveTo;
+import javafx.scene.shape.Rectangle;
+import javafx.scene.shape.Shape;
+import javafx.scene.transform.Affine;
+import javafx.scene.transform.Transform;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Conversion between scene-graph shapes and {@link ShapeRecord}s.
+ */
+public final class ShapeRecords {
+
+    private ShapeRecords() {
+    }
+
+    /**
+     * @return the record for {@code node}, or {@code null} if the node type has no record form
+     */
+    public static ShapeRecord fromNode(Node node) {
+        if (!(node instanceof Shape shape)) {
+            return null;
+        }
+        ShapeRecord.Kind kind;
+        double[] coords;
+        byte[] ops = null;
+        if (shape instanceof Line line) {
+            kind = ShapeRecord.Kind.LINE;
+            coords = new double[]{line.getStartX(), line.getStartY(), line.getEndX(), line.getEndY()};
+        } else if (shape instanceof Rectangle rect) {
+            kind = ShapeRecord.Kind.RECTANGLE;
+            coords = new double[]{rect.getX(), rect.getY(), rect.getWidth(), rect.getHeight()};
+        } else if (shape instanceof Circle circle) {
+            kind = ShapeRecord.Kind.CIRCLE;
+            coords = new double[]{circle.getCenterX(), circle.getCenterY(), circle.getRadius()};
+        } else if (shape instanceof CubicCurve curve) {
+            kind = ShapeRecord.Kind.CUBIC;
+            coords = new double[]{
+                    curve.getStartX(), curve.getStartY(),
+                    curve.getControlX1(), curve.getControlY1(),
+                    curve.getControlX2(), curve.getControlY2(),
+                    curve.getEndX(), curve.getEndY()};
+        } else if (shape instanceof Path path) {
+            kind = ShapeRecord.Kind.PATH;
+            List<PathElement> elements = path.getElements();
+            ops = new byte[elements.size()];
+            coords = new double[elements.size() * 6];
+            int opCount = 0;
+            int c = 0;
+            for (PathElement element : elements) {
+                if (element instanceof MoveTo moveTo) {
+                    ops[opCount++] = ShapeRecord.MOVE_TO;
+                    coords[c++] = moveTo.getX();
+                    coords[c++] = moveTo.getY();
+                } else if (element instanceof LineTo lineTo) {
+                    ops[opCount++] = ShapeRecord.LINE_TO;
+                    coords[c++] = lineTo.getX();
+                    coords[c++] = lineTo.getY();
+                } else if (element instanceof QuadCurveTo quadTo) {
+                    ops[opCount++] = ShapeRecord.QUAD_TO;
+                    coords[c++] = quadTo.getControlX();
+                    coords[c++] = quadTo.getControlY();
+                    coords[c++] = quadTo.getX();
+                    coords[c++] = quadTo.getY();
+                } else if (element instanceof CubicCurveTo curveTo) {
+                    ops[opCount++] = ShapeRecord.CUBIC_TO;
+                    coords[c++] = curveTo.getControlX1();
+                    coords[c++] = curveTo.getControlY1();
+                    coords[c++] = curveTo.getControlX2();
+                    coords[c++] = curveTo.getControlY2();
+                    coords[c++] = curveTo.getX();
+                    coords[c++] = curveTo.getY();
+                } else if (element instanceof ClosePath) {
+                    ops[opCount++] = ShapeRecord.CLOSE;
+                }
+            }
+            ops = Arrays.copyOf(ops, opCount);
+            coords = Arrays.copyOf(coords, c);
+        } else {
+            return null;
+        }
+
+        Paint stroke = shape.getStroke();
+        Paint fill = shape.getFill();
+        Transform t = shape.getLocalToParentTransform();
+        double[] transform = t.isIdentity()
+                ? ShapeRecord.IDENTITY
+                : new double[]{t.getMxx(), t.getMxy(), t.getTx(), t.getMyx(), t.getMyy(), t.getTy()};
+        return new ShapeRecord(kind, coords, ops,
+                stroke != null, toArgb(stroke), shape.getStrokeWidth(),
+                fill != null, toArgb(fill), transform);
+    }
+
+    public static Shape toNode(ShapeRecord record) {
+        double[] c = record.getCoords();
+        Shape shape = switch (record.getKind()) {
+            case LINE -> new Line(c[0], c[1], c[2], c[3]);
+            case RECTANGLE -> new Rectangle(c[0], c[1], c[2], c[3]);
+            case CIRCLE -> new Circle(c[0], c[1], c[2]);
+            case CUBIC -> new CubicCurve(c[0], c[1], c[2], c[3], c[4], c[5], c[6], c[7]);
+            case PATH -> toPath(record);
+        };
+        shape.setStroke(record.hasStroke() ? toColor(record.getStrokeArgb()) : null);
+        shape.setStrokeWidth(record.getStrokeWidth());
+        shape.setFill(record.hasFill() ? toColor(record.getFillArgb()) : null);
+        if (!record.isIdentityTransform()) {
+            double[] t = record.getTransform();
+            shape.getTransforms().add(new Affine(t[0], t[1], t[2], t[3], t[4], t[5]));
+        }
+        return shape;
+    }
+
+    public static int toArgb(Paint paint) {
+        if (!(paint instanceof Color color)) {
+            return 0;
+        }
+        int a = (int) Math.round(color.getOpacity() * 255);
+        int r = (int) Math.round(color.getRed() * 255);
+        int g = (int) Math.round(color.getGreen() * 255);
+        int b = (int) Math.round(color.getBlue() * 255);
+        return (a << 24) | (r << 16) | (g << 8) | b;
+    }
+
+    public static Color toColor(int argb) {
+        return Color.rgb((argb >> 16) & 0xff, (argb >> 8) & 0xff, argb & 0xff, ((argb >>> 24) & 0xff) / 255.0);
+    }
+
+    private static Path toPath(ShapeRecord record) {
+        Path path = new Path();
+        byte[] ops = record.getPathOps();
+        double[] c = record.getCoords();
+        int i = 0;
+        for (byte op : ops) {
+            switch (op) {
+                case ShapeRecord.MOVE_TO -> path.getElements().add(new MoveTo(c[i], c[i + 1]));
+                case ShapeRecord.LINE_TO -> path.getElements().add(new LineTo(c[i], c[i + 1]));
+                case ShapeRecord.QUAD_TO -> path.getElements().add(new QuadCurveTo(c[i], c[i + 1], c[i + 2], c[i + 3]));
+                case ShapeRecord.CUBIC_TO -> path.getElements().add(
+                        new CubicCurveTo(c[i], c[i + 1], c[i + 2], c[i + 3], c[i + 4], c[i + 5]));
+                case ShapeRecord.CLOSE -> path.getElements().add(new ClosePath());
+                default -> {
+                }
+            }
+            i += ShapeRecord.opArity(op);
+        }
+        return path;
+    }
+}
@@ -0,0 +1,313 @@
+package ba.woodcraft.model;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Undo/redo for a {@link ShapeDocument}. Changes go through this class, which records each
+ * one as a command holding only the state it would swap back in: an added shape costs
+ * nothing until it is undone, an edit keeps the one record it replaced. Records are
+ * immutable, so nothing is copied when they move between the document and the history.
+ *
+ * History is bounded by a byte budget and a step count; the oldest steps go first. The
+ * newest step is always kept, even when it alone is over the budget, so the last thing the
+ * user did (say, clearing a large drawing) can always be undone.
+ */
+public final class UndoHistory {
+
+    public static final long DEFAULT_MAX_BYTES = 8L * 1024 * 1024;
+    public static final int DEFAULT_MAX_STEPS = 1000;
+
+    // rough per-object costs for the estimate; headers plus the record's own fields
+    private static final long COMMAND_BYTES = 32;
+    private static final long RECORD_BYTES = 96;
+    private static final long ARRAY_BYTES = 16;
+
+    private final ShapeDocument document;
+    private final Deque<Command> undoStack = new ArrayDeque<>();
+    private final Deque<Command> redoStack = new ArrayDeque<>();
+    private long maxBytes;
+    private int maxSteps;
+    private long usedBytes;
+
+    public UndoHistory(ShapeDocument document) {
+        this(document, DEFAULT_MAX_BYTES, DEFAULT_MAX_STEPS);
+    }
+
+    public UndoHistory(ShapeDocument document, long maxBytes, int maxSteps) {
+        this.document = document;
+        setLimits(maxBytes, maxSteps);
+    }
+
+    public ShapeDocument getDocument() {
+        return document;
+    }
+
+    public long add(ShapeRecord record) {
+        long id = document.add(record);
+        push(new Presence(id, document.slotOf(id), null));
+        return id;
+    }
+
+    public boolean update(long id, ShapeRecord record) {
+        ShapeRecord before = document.get(id);
+        if (before == null) {
+            return false;
+        }
+        document.update(id, record);
+        push(new Update(id, before));
+        return true;
+    }
+
+    public boolean remove(long id) {
+        int slot = document.slotOf(id);
+        if (slot < 0) {
+            return false;
+        }
+        ShapeRecord before = document.recordAt(slot);
+        document.remove(id);
+        push(new Presence(id, slot, before));
+        return true;
+    }
+
+    public void clear() {
+        if (document.size() == 0) {
+            return;
+        }
+        int n = document.size();
+        long[] ids = new long[n];
+        ShapeRecord[] records = new ShapeRecord[n];
+        for (int slot = 0; slot < n; slot++) {
+            ids[slot] = document.idAt(slot);
+            records[slot] = document.recordAt(slot);
+        }
+        document.clear();
+        push(new Clear(ids, records));
+    }
+
+    /**
+     * @return the ids of the shapes the step touched, or {@code null} if there was nothing to undo
+     */
+    public long[] undo() {
+        return move(undoStack, redoStack);
+    }
+
+    /**
+     * @return the ids of the shapes the step touched, or {@code null} if there was nothing to redo
+     */
+    public long[] redo() {
+        return move(redoStack, undoStack);
+    }
+
+    public boolean canUndo() {
+        return !undoStack.isEmpty();
+    }
+
+    public boolean canRedo() {
+        return !redoStack.isEmpty();
+    }
+
+    public int getUndoCount() {
+        return undoStack.size();
+    }
+
+    public int getRedoCount() {
+        return redoStack.size();
+    }
+
+    /**
+     * Estimated heap held by undo and redo steps.
+     */
+    public long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public int getMaxSteps() {
+        return maxSteps;
+    }
+
+    public void setLimits(long maxBytes, int maxSteps) {
+        if (maxBytes <= 0 || maxSteps <= 0) {
+            throw new IllegalArgumentException("history limits must be positive");
+        }
+        this.maxBytes = maxBytes;
+        this.maxSteps = maxSteps;
+        trim();
+    }
+
+    public void reset() {
+        undoStack.clear();
+        redoStack.clear();
+        usedBytes = 0;
+    }
+
+    private void push(Command command) {
+        for (Command dropped : redoStack) {
+            usedBytes -= dropped.bytes();
+        }
+        redoStack.clear();
+        undoStack.push(command);
+        usedBytes += command.bytes();
+        trim();
+    }
+
+    private long[] move(Deque<Command> from, Deque<Command> to) {
+        Command command = from.poll();
+        if (command == null) {
+            return null;
+        }
+        usedBytes -= command.bytes();
+        command.swap(document);
+        usedBytes += command.bytes();
+        to.push(command);
+        return command.ids();
+    }
+
+    // Oldest undo steps go first, never the newest; redo steps are only dropped by new edits.
+    private void trim() {
+        while (undoStack.size() > 1 && (usedBytes > maxBytes || undoStack.size() > maxSteps)) {
+            usedBytes -= undoStack.removeLast().bytes();
+        }
+    }
+
+    static long bytesOf(ShapeRecord record) {
+        if (record == null) {
+            return 0;
+        }
+        long bytes = RECORD_BYTES + ARRAY_BYTES + record.getCoords().length * 8L;
+        if (record.getPathOps().length > 0) {
+            bytes += ARRAY_BYTES + record.getPathOps().length;
+        }
+        if (!record.isIdentityTransform()) {
+            bytes += ARRAY_BYTES + 6 * 8L;
+        }
+        return bytes;
+    }
+
+    /**
+     * A reversible step. {@link #swap} toggles the document between the states before and
+     * after the step, keeping whatever it takes out so that the next swap can put it back.
+     */
+    private interface Command {
+        void swap(ShapeDocument document);
+
+        long[] ids();
+
+        long bytes();
+    }
+
+    // Adding and removing are the same toggle, starting from opposite ends.
+    private static final class Presence implements Command {
+        private final long id;
+        private final int slot;
+        // null while the shape is in the document
+        private ShapeRecord removed;
+
+        Presence(long id, int slot, ShapeRecord removed) {
+            this.id = id;
+            this.slot = slot;
+            this.removed = removed;
+        }
+
+        @Override
+        public void swap(ShapeDocument document) {
+            if (removed == null) {
+                removed = document.get(id);
+                document.remove(id);
+            } else {
+                document.insert(id, slot, removed);
+                removed = null;
+            }
+        }
+
+        @Override
+        public long[] ids() {
+            return new long[]{id};
+        }
+
+        @Override
+        public long bytes() {
+            return COMMAND_BYTES + bytesOf(removed);
+        }
+    }
+
+    private static final class Update implements Command {
+        private final long id;
+        private ShapeRecord other;
+
+        Update(long id, ShapeRecord other) {
+            this.id = id;
+            this.other = other;
+        }
+
+        @Override
+        public void swap(ShapeDocument document) {
+            ShapeRecord current = document.get(id);
+            document.update(id, other);
+            other = current;
+        }
+
+        @Override
+        public long[] ids() {
+            return new long[]{id};
+        }
+
+        @Override
+        public long bytes() {
+            return COMMAND_BYTES + bytesOf(other);
+        }
+    }
+
+    private static final class Clear implements Command {
+        private final long[] ids;
+        // the cleared shapes while they are out of the document, null after undo
+        private ShapeRecord[] removed;
+        private long removedBytes;
+
+        Clear(long[] ids, ShapeRecord[] removed) {
+            this.ids = ids;
+            setRemoved(removed);
+        }
+
+        @Override
+        public void swap(ShapeDocument document) {
+            if (removed != null) {
+                for (int i = 0; i < ids.length; i++) {
+                    document.insert(ids[i], i, removed[i]);
+                }
+                setRemoved(null);
+            } else {
+                ShapeRecord[] records = new ShapeRecord[ids.length];
+                for (int i = 0; i < ids.length; i++) {
+                    records[i] = document.get(ids[i]);
+                }
+                document.clear();
+                setRemoved(records);
+            }
+        }
+
+        private void setRemoved(ShapeRecord[] records) {
+            removed = records;
+            removedBytes = 0;
+            if (records != null) {
+                for (ShapeRecord record : records) {
+                    removedBytes += bytesOf(record);
+                }
+            }
+        }
+
+        @Override
+        public long[] ids() {
+            return ids;
+        }
+
+        @Override
+        public long bytes() {
+            return COMMAND_BYTES + ids.length * 8L + (removed == null ? 0 : ARRAY_BYTES + removed.length * 8L + removedBytes);
+        }
+    }
+}
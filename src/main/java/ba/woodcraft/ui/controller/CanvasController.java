@@ -3,42 +3,82 @@ package ba.woodcraft.ui.controller;
 
 import ba.woodcraft.export.CanvasDocument;
 import ba.woodcraft.export.ExportFormat;
+import ba.woodcraft.export.ExportProgress;
+import ba.woodcraft.export.ExportService;
 import ba.woodcraft.export.ExportServiceRegistry;
+import ba.woodcraft.export.PngExportService;
+import ba.woodcraft.geometry.GridIndex;
+import ba.woodcraft.io.DesignFile;
+import ba.woodcraft.io.EditJournal;
+import ba.woodcraft.io.ProjectFile;
+import ba.woodcraft.geometry.SnapEngine;
 import ba.woodcraft.model.BezierCurveShape;
 import ba.woodcraft.model.CircleShape;
 import ba.woodcraft.model.Drawable;
 import ba.woodcraft.model.FreehandShape;
 import ba.woodcraft.model.LineShape;
 import ba.woodcraft.model.RectangleShape;
+import ba.woodcraft.model.ShapeDocument;
+import ba.woodcraft.model.ShapeFlattener;
+import ba.woodcraft.model.ShapeRecord;
+import ba.woodcraft.model.ShapeRecords;
+import ba.woodcraft.model.UndoHistory;
+import ba.woodcraft.util.LatencyStats;
+import javafx.application.Platform;
+import javafx.concurrent.Task;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
+import javafx.geometry.Bounds;
 import javafx.geometry.Point2D;
 import javafx.scene.Group;
 import javafx.scene.Node;
 import javafx.scene.canvas.Canvas;
-import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.control.Alert;
+import javafx.scene.control.Button;
 import javafx.scene.control.ButtonType;
+import javafx.scene.control.ChoiceDialog;
 import javafx.scene.control.ColorPicker;
+import javafx.scene.control.Label;
+import javafx.scene.control.ProgressBar;
 import javafx.scene.control.ToggleButton;
 import javafx.scene.control.ToggleGroup;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyCodeCombination;
+import javafx.scene.input.KeyCombination;
+import javafx.scene.input.MouseButton;
 import javafx.scene.input.MouseEvent;
+import javafx.scene.input.ScrollEvent;
 import javafx.scene.layout.Pane;
-import javafx.scene.layout.StackPane;
 import javafx.scene.paint.Color;
 import javafx.scene.shape.Circle;
-import javafx.scene.shape.CubicCurve;
-import javafx.scene.shape.Line;
 import javafx.scene.shape.Rectangle;
 import javafx.scene.shape.Shape;
-import javafx.geometry.Pos;
+import javafx.scene.transform.Scale;
+import javafx.scene.transform.Translate;
 import javafx.stage.FileChooser;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.stream.Collectors;
+import java.util.logging.Logger;
 
 public class CanvasController {
 
+    private static final Logger LOG = Logger.getLogger(CanvasController.class.getName());
+
     private enum Tool {
         SELECT,
         FREEHAND,
@@ -54,7 +94,15 @@ public class CanvasController {
         CONTROL
     }
 
-    @FXML private StackPane canvasHost;
+    private enum RenderMode {
+        // every committed shape is a live node in drawingPane
+        NODES,
+        // committed shapes are records painted by CanvasRenderer; only the shape being
+        // drawn and the selected shape are live nodes
+        CANVAS
+    }
+
+    @FXML private Pane canvasHost;
     @FXML private Group zoomGroup;
     @FXML private Pane drawingPane;
     @FXML private Canvas topRuler;
@@ -65,6 +113,11 @@ public class CanvasController {
     @FXML private ToggleButton circleTool;
     @FXML private ToggleButton bezierTool;
     @FXML private ToggleButton selectTool;
+    @FXML private ToggleButton canvasModeToggle;
+    @FXML private Label historyLabel;
+    @FXML private Button exportButton;
+    @FXML private ProgressBar exportProgress;
+    @FXML private Button cancelExportButton;
 
     //  ColorPicker iz FXML-a
     @FXML private ColorPicker colorPicker;
@@ -75,15 +128,62 @@ public class CanvasController {
     private BezierStage bezierStage = BezierStage.NONE;
     private Node selectedNode;
     private SelectionOverlay selectionOverlay;
+    // null when autosave is off or could not start
+    private EditJournal autosave;
     private Circle snapIndicator;
     private Point2D snapPoint;
     private final ExportServiceRegistry exportServiceRegistry = new ExportServiceRegistry();
+    private ExportTask exportTask;
+    private final GridIndex<Node> shapeIndex = new GridIndex<>(INDEX_CELL_SIZE);
+    private final List<Node> snapCandidates = new ArrayList<>();
+    private final LatencyStats hitTestLatency = new LatencyStats("hit-test");
+    private final ShapeFlattener hitOutlines = new ShapeFlattener(ShapeFlattener.DEFAULT_TOLERANCE);
+    private final SnapEngine snapEngine = new SnapEngine(SNAP_RADIUS);
+    private final LatencyStats inputLatency = new LatencyStats("pointer-input");
+    private final PulseCoalescer moveInput = new PulseCoalescer(this::applyMouseMove, inputLatency);
+    private final PulseCoalescer dragInput = new PulseCoalescer(this::applyMouseDrag, inputLatency);
+    private final List<ShapeRecord> snapRecords = new ArrayList<>();
+    private RenderMode renderMode = RenderMode.NODES;
+    private CanvasRenderer renderer;
+    private ShapeRecord promotedRecord;
+    private Node promotedNode;
+    private final PulseCoalescer panInput = new PulseCoalescer(this::applyPan, inputLatency);
+    private final Scale viewScale = new Scale(1, 1, 0, 0);
+    private final Translate viewTranslate = new Translate();
+    private RulerStrip topRulerStrip;
+    private RulerStrip leftRulerStrip;
+    // world coordinate shown at the top-left corner of canvasHost
+    private double originX;
+    private double originY;
+    private boolean viewCentered;
+    private double panStartX;
+    private double panStartY;
+    private double panStartOriginX;
+    private double panStartOriginY;
+    // world rectangle whose shapes are currently attached to drawingPane (node mode)
+    private boolean attachedValid;
+    private double attachedMinX;
+    private double attachedMinY;
+    private double attachedMaxX;
+    private double attachedMaxY;
+    private final List<Node> attachedNodes = new ArrayList<>();
+    // the drawing itself; nodes and renderer records are views of it, mapped to shape ids
+    private final ShapeDocument document = new ShapeDocument();
+    private final Map<Node, Long> nodeIds = new IdentityHashMap<>();
+    private final Map<ShapeRecord, Long> recordIds = new IdentityHashMap<>();
+    // every change to the document goes through the history
+    private final UndoHistory history = new UndoHistory(document,
+            Long.getLong("woodcraft.history.maxBytes", UndoHistory.DEFAULT_MAX_BYTES),
+            Integer.getInteger("woodcraft.history.maxSteps", UndoHistory.DEFAULT_MAX_STEPS));
 
     private static final double SNAP_RADIUS = 10.0;
+    private static final double INDEX_CELL_SIZE = 64.0;
     private static final double SNAP_INDICATOR_RADIUS = 4.0;
     private static final double RULER_SIZE = 24.0;
     private static final double RULER_MAJOR_TICK = 50.0;
     private static final double RULER_MINOR_TICK = 10.0;
+    // screen pixels of shapes kept attached around the viewport, so small pans do not re-cull
+    private static final double CULL_MARGIN = 256.0;
 
     private double zoom = 1.0;
     private static final double ZOOM_STEP = 1.1;
@@ -141,17 +241,21 @@ public class CanvasController {
 
         zoomGroup.setPickOnBounds(false);
         drawingPane.setPickOnBounds(true);
-        canvasHost.setAlignment(Pos.CENTER);
-        StackPane.setAlignment(zoomGroup, Pos.CENTER);
+        // view transform: world -> canvasHost pixels
+        zoomGroup.getTransforms().setAll(viewScale, viewTranslate);
 
         Rectangle clip = new Rectangle();
         clip.widthProperty().bind(canvasHost.widthProperty());
         clip.heightProperty().bind(canvasHost.heightProperty());
         canvasHost.setClip(clip);
 
+        renderer = new CanvasRenderer();
+        drawingPane.getChildren().add(renderer.getCanvas());
+
         selectionOverlay = new SelectionOverlay();
         selectionOverlay.attachTo(drawingPane);
         selectionOverlay.setActive(false);
+        selectionOverlay.setOnTargetChanged(this::onNodeEdited);
 
         snapIndicator = new Circle(SNAP_INDICATOR_RADIUS);
         snapIndicator.setFill(Color.WHITE);
@@ -164,12 +268,17 @@ public class CanvasController {
 
         topRuler.setHeight(RULER_SIZE);
         leftRuler.setWidth(RULER_SIZE);
-        topRuler.widthProperty().bind(canvasHost.widthProperty());
+        // the top ruler also spans the left ruler's column
+        topRuler.widthProperty().bind(canvasHost.widthProperty().add(RULER_SIZE));
         leftRuler.heightProperty().bind(canvasHost.heightProperty());
+        topRulerStrip = new RulerStrip(topRuler, RulerStrip.Orientation.HORIZONTAL, RULER_MAJOR_TICK, RULER_MINOR_TICK);
+        leftRulerStrip = new RulerStrip(leftRuler, RulerStrip.Orientation.VERTICAL, RULER_MAJOR_TICK, RULER_MINOR_TICK);
         topRuler.heightProperty().addListener((obs, oldValue, newValue) -> drawRulers());
         topRuler.widthProperty().addListener((obs, oldValue, newValue) -> drawRulers());
         leftRuler.heightProperty().addListener((obs, oldValue, newValue) -> drawRulers());
         leftRuler.widthProperty().addListener((obs, oldValue, newValue) -> drawRulers());
+        canvasHost.widthProperty().addListener((obs, oldValue, newValue) -> updateViewport());
+        canvasHost.heightProperty().addListener((obs, oldValue, newValue) -> updateViewport());
 
         //  inicijalizacija ColorPickera
         if (colorPicker != null) {
@@ -180,12 +289,132 @@ public class CanvasController {
                     // ako je nešto selektovano, odmah mu promijeni boju
                     if (selectedNode != null) {
                         applyColorToNode(selectedNode, activeColor);
+                        syncToDocument(selectedNode);
                     }
                 }
             });
         }
 
-        applyZoom();
+        if (canvasModeToggle != null) {
+            canvasModeToggle.selectedProperty().addListener((obs, wasCanvas, isCanvas) ->
+                    setRenderMode(isCanvas ? RenderMode.CANVAS : RenderMode.NODES));
+        }
+
+        canvasHost.sceneProperty().addListener((obs, oldScene, scene) -> {
+            if (scene != null) {
+                scene.getAccelerators().put(
+                        new KeyCodeCombination(KeyCode.Z, KeyCombination.SHORTCUT_DOWN), this::onUndo);
+                scene.getAccelerators().put(
+                        new KeyCodeCombination(KeyCode.Z, KeyCombination.SHORTCUT_DOWN, KeyCombination.SHIFT_DOWN), this::onRedo);
+                scene.getAccelerators().put(
+                        new KeyCodeCombination(KeyCode.Y, KeyCombination.SHORTCUT_DOWN), this::onRedo);
+            }
+        });
+
+        startAutosave();
+        updateViewport();
+        updateHistoryLabel();
+    }
+
+    // Puts back what the last session left in the autosave, then journals every change.
+    private void startAutosave() {
+        if (!Boolean.parseBoolean(System.getProperty("woodcraft.autosave", "true"))) {
+            return;
+        }
+        EditJournal journal = null;
+        try {
+            journal = EditJournal.open();
+            EditJournal.Recovery recovery = journal.recover(document);
+            if (recovery.shapes() > 0) {
+                if (recovery.pageWidth() > 0 && recovery.pageHeight() > 0) {
+                    drawingPane.setPrefSize(recovery.pageWidth(), recovery.pageHeight());
+                }
+                rebuildViews(new long[0]);
+                LOG.info(() -> "Autosave recovered " + recovery.shapes() + " shapes ("
+                        + recovery.replayed() + " journal entries)");
+            }
+            attachAutosave(journal);
+        } catch (IOException | RuntimeException ex) {
+            ex.printStackTrace();
+            document.clear();
+            rebuildViews(new long[0]);
+            restartAutosave(journal, ex);
+        }
+    }
+
+    private void attachAutosave(EditJournal journal) {
+        journal.setOnFailure(ex -> Platform.runLater(() -> autosaveFailed(journal, ex)));
+        journal.attach(document, drawingPane::getPrefWidth, drawingPane::getPrefHeight);
+        autosave = journal;
+    }
+
+    // The journal could not write (disk full, permission lost): say so rather than let the
+    // user go on believing their work is being kept.
+    private void autosaveFailed(EditJournal journal, IOException cause) {
+        if (autosave != journal) {
+            return;
+        }
+        journal.close();
+        autosave = null;
+        Alert alert = new Alert(Alert.AlertType.WARNING, "Autosave could not write to disk ("
+                + cause.getMessage() + ") and is off for the rest of this session.\n"
+                + "Save your design to keep your work.", ButtonType.OK);
+        alert.setHeaderText("Autosave stopped");
+        alert.show();
+    }
+
+    // The last session's autosave is unreadable: keep it aside as *.bad, so that it neither
+    // blocks every later start nor gets overwritten, and journal from scratch.
+    private void restartAutosave(EditJournal damaged, Exception cause) {
+        String message;
+        try {
+            if (damaged == null) {
+                throw new IOException("cannot open the autosave directory", cause);
+            }
+            List<Path> kept = damaged.setAside();
+            EditJournal journal = EditJournal.open();
+            attachAutosave(journal);
+            message = "The autosave of the last session could not be read (" + cause.getMessage()
+                    + ") and was not restored.\nIt was kept as:\n"
+                    + kept.stream().map(Path::toString).collect(Collectors.joining("\n"))
+                    + "\nAutosave continues with a new file.";
+        } catch (IOException | RuntimeException ex) {
+            ex.printStackTrace();
+            message = "Autosave is off for this session: " + ex.getMessage();
+        }
+        Alert alert = new Alert(Alert.AlertType.WARNING, message, ButtonType.OK);
+        alert.setHeaderText("Autosave not restored");
+        // initialize() runs before the canvas is on screen
+        Platform.runLater(alert::show);
+    }
+
+    private void setRenderMode(RenderMode mode) {
+        if (mode == renderMode) {
+            return;
+        }
+        resetBezierState();
+        clearSelection();
+        if (mode == RenderMode.CANVAS) {
+            // from the index, not the pane: culled shapes are not attached
+            for (Node node : shapeIndex.itemsInOrder()) {
+                retainAsRecord(node);
+            }
+        } else {
+            for (ShapeRecord record : renderer.getRecords()) {
+                Long id = recordIds.get(record);
+                Node node = ShapeRecords.toNode(record);
+                drawingPane.getChildren().add(node);
+                indexNode(node);
+                if (id != null) {
+                    nodeIds.put(node, id);
+                }
+            }
+            renderer.clear();
+            recordIds.clear();
+        }
+        renderMode = mode;
+        attachedValid = false;
+        updateCulling();
     }
 
     private void allowDeselectToFreehand(ToggleButton btn, ToggleGroup group) {
@@ -200,82 +429,469 @@ public class CanvasController {
 
     @FXML
     public void onZoomIn(ActionEvent event) {
-        zoom = Math.min(ZOOM_MAX, zoom * ZOOM_STEP);
-        applyZoom();
+        applyZoom(Math.min(ZOOM_MAX, zoom * ZOOM_STEP));
     }
 
     @FXML
     public void onZoomOut(ActionEvent event) {
-        zoom = Math.max(ZOOM_MIN, zoom / ZOOM_STEP);
-        applyZoom();
+        applyZoom(Math.max(ZOOM_MIN, zoom / ZOOM_STEP));
     }
 
     @FXML
     public void onZoomReset(ActionEvent event) {
         zoom = 1.0;
-        applyZoom();
+        centerOnPage();
+        updateViewport();
+    }
+
+    // zooms around the centre of the view
+    private void applyZoom(double newZoom) {
+        double centerX = originX + canvasHost.getWidth() / (2 * zoom);
+        double centerY = originY + canvasHost.getHeight() / (2 * zoom);
+        zoom = newZoom;
+        originX = centerX - canvasHost.getWidth() / (2 * zoom);
+        originY = centerY - canvasHost.getHeight() / (2 * zoom);
+        updateViewport();
     }
 
-    private void applyZoom() {
-        zoomGroup.setScaleX(zoom);
-        zoomGroup.setScaleY(zoom);
+    @FXML
+    public void onScroll(ScrollEvent event) {
+        originX -= event.getDeltaX() / zoom;
+        originY -= event.getDeltaY() / zoom;
+        updateViewport();
+        event.consume();
+    }
+
+    private void applyPan(double sceneX, double sceneY) {
+        originX = panStartOriginX - (sceneX - panStartX) / zoom;
+        originY = panStartOriginY - (sceneY - panStartY) / zoom;
+        updateViewport();
+    }
+
+    private void centerOnPage() {
+        originX = (drawingPane.getPrefWidth() - canvasHost.getWidth() / zoom) / 2.0;
+        originY = (drawingPane.getPrefHeight() - canvasHost.getHeight() / zoom) / 2.0;
+    }
+
+    private void updateViewport() {
+        double width = canvasHost.getWidth();
+        double height = canvasHost.getHeight();
+        if (!viewCentered && width > 0 && height > 0) {
+            centerOnPage();
+            viewCentered = true;
+        }
+        viewScale.setX(zoom);
+        viewScale.setY(zoom);
+        viewTranslate.setX(-originX);
+        viewTranslate.setY(-originY);
+        renderer.setViewport(originX, originY, zoom, width, height);
+        updateCulling();
         drawRulers();
     }
 
+    /**
+     * In node mode only shapes near the viewport stay attached to the scene graph. The
+     * attached region is padded so that panning within the margin touches nothing; leaving
+     * it re-attaches from the shape index in z-order.
+     */
+    private void updateCulling() {
+        if (renderMode != RenderMode.NODES) {
+            return;
+        }
+        double minX = originX;
+        double minY = originY;
+        double maxX = originX + canvasHost.getWidth() / zoom;
+        double maxY = originY + canvasHost.getHeight() / zoom;
+        if (attachedValid && minX >= attachedMinX && minY >= attachedMinY
+                && maxX <= attachedMaxX && maxY <= attachedMaxY) {
+            return;
+        }
+        double margin = CULL_MARGIN / zoom;
+        attachedMinX = minX - margin;
+        attachedMinY = minY - margin;
+        attachedMaxX = maxX + margin;
+        attachedMaxY = maxY + margin;
+        attachedValid = true;
+
+        attachedNodes.clear();
+        attachedNodes.add(renderer.getCanvas());
+        shapeIndex.queryInOrder(attachedMinX, attachedMinY, attachedMaxX, attachedMaxY, attachedNodes);
+        if (selectedNode != null && shapeIndex.contains(selectedNode) && !attachedNodes.contains(selectedNode)) {
+            attachedNodes.add(selectedNode);
+        }
+        // shapes being drawn, the selection overlay and the snap indicator stay on top
+        for (Node child : drawingPane.getChildren()) {
+            if (child != renderer.getCanvas() && !shapeIndex.contains(child)) {
+                attachedNodes.add(child);
+            }
+        }
+        drawingPane.getChildren().setAll(attachedNodes);
+        attachedNodes.clear();
+    }
+
+    @FXML
+    public void onUndo() {
+        finishEditing();
+        long[] changed = history.undo();
+        if (changed != null) {
+            rebuildViews(changed);
+        }
+        updateHistoryLabel();
+    }
+
+    @FXML
+    public void onRedo() {
+        finishEditing();
+        long[] changed = history.redo();
+        if (changed != null) {
+            rebuildViews(changed);
+        }
+        updateHistoryLabel();
+    }
+
+    // Commits whatever is in progress so that it becomes a step of its own before undo/redo.
+    private void finishEditing() {
+        moveInput.cancel();
+        dragInput.cancel();
+        if (activeShape != null) {
+            commitShape(activeShape.getNode());
+            activeShape = null;
+        }
+        resetBezierState();
+        clearSelection();
+        hideSnapIndicator();
+    }
+
+    /**
+     * Re-creates the views in document order after an undo/redo step. Shapes the step did
+     * not touch keep their node or record, so only the changed ones are rebuilt.
+     */
+    private void rebuildViews(long[] changed) {
+        Set<Long> touched = new HashSet<>();
+        for (long id : changed) {
+            touched.add(id);
+        }
+        Map<Long, Node> keptNodes = new HashMap<>();
+        for (Map.Entry<Node, Long> entry : nodeIds.entrySet()) {
+            if (!touched.contains(entry.getValue())) {
+                keptNodes.put(entry.getValue(), entry.getKey());
+            }
+        }
+        Map<Long, ShapeRecord> keptRecords = new HashMap<>();
+        for (Map.Entry<ShapeRecord, Long> entry : recordIds.entrySet()) {
+            if (!touched.contains(entry.getValue())) {
+                keptRecords.put(entry.getValue(), entry.getKey());
+            }
+        }
+
+        Set<Node> oldNodes = Collections.newSetFromMap(new IdentityHashMap<>());
+        oldNodes.addAll(nodeIds.keySet());
+        for (Node node : oldNodes) {
+            shapeIndex.remove(node);
+        }
+        drawingPane.getChildren().removeAll(oldNodes);
+        nodeIds.clear();
+        recordIds.clear();
+        renderer.clear();
+
+        for (int slot = 0; slot < document.size(); slot++) {
+            long id = document.idAt(slot);
+            if (renderMode == RenderMode.CANVAS) {
+                ShapeRecord record = keptRecords.get(id);
+                if (record == null) {
+                    record = document.recordAt(slot);
+                }
+                renderer.add(record);
+                recordIds.put(record, id);
+            } else {
+                Node node = keptNodes.get(id);
+                if (node == null) {
+                    node = ShapeRecords.toNode(document.recordAt(slot));
+                }
+                // attached later by culling
+                Bounds bounds = node.getBoundsInParent();
+                shapeIndex.put(node, bounds.getMinX(), bounds.getMinY(), bounds.getMaxX(), bounds.getMaxY());
+                nodeIds.put(node, id);
+            }
+        }
+        attachedValid = false;
+        updateCulling();
+    }
+
+    private void updateHistoryLabel() {
+        if (historyLabel == null) {
+            return;
+        }
+        historyLabel.setText(String.format(Locale.ROOT, "History: %d/%d steps, %.1f KB",
+                history.getUndoCount(), history.getMaxSteps(), history.getUsedBytes() / 1024.0));
+    }
+
     @FXML
     public void onClear() {
+        // anything half-drawn is committed first, so undoing the clear brings it back too
+        finishEditing();
+        panInput.cancel();
         drawingPane.getChildren().clear();
+        shapeIndex.clear();
+        renderer.clear();
+        history.clear();
+        nodeIds.clear();
+        recordIds.clear();
+        promotedRecord = null;
+        promotedNode = null;
+        attachedValid = false;
+        snapEngine.clearReference();
+        drawingPane.getChildren().add(renderer.getCanvas());
         selectionOverlay.attachTo(drawingPane);
         drawingPane.getChildren().add(snapIndicator);
         clearSelection();
         selectionOverlay.setActive(activeTool == Tool.SELECT);
         hideSnapIndicator();
         resetBezierState();
+        updateHistoryLabel();
     }
 
     @FXML
     public void onLogout() {
+        finishEditing();
+        if (autosave != null) {
+            autosave.close();
+            autosave = null;
+        }
         SceneNavigator.show("view/login.fxml");
     }
 
     @FXML
-    public void onExportPdf() {
+    public void onSaveDesign() {
+        File file = chooseDesignFile(true);
+        if (file == null) {
+            return;
+        }
+        finishEditing();
+        try {
+            ProjectFile.write(projectPath(file), drawingPane.getPrefWidth(), drawingPane.getPrefHeight(),
+                    document.snapshot());
+        } catch (IOException ex) {
+            Alert alert = new Alert(Alert.AlertType.ERROR, "Failed to save design: " + ex.getMessage(), ButtonType.OK);
+            alert.setHeaderText("Save failed");
+            alert.show();
+        }
+    }
+
+    @FXML
+    public void onOpenDesign() {
+        File file = chooseDesignFile(false);
+        if (file == null) {
+            return;
+        }
+        double pageWidth;
+        double pageHeight;
+        List<ShapeRecord> records;
+        try {
+            if (isTextDesign(file)) {
+                DesignFile.Design design = DesignFile.read(file.toPath());
+                pageWidth = design.pageWidth();
+                pageHeight = design.pageHeight();
+                records = design.document().snapshot();
+            } else {
+                // read, not mapped: a live mapping would block saving back over this file
+                ProjectFile.Project project = ProjectFile.read(file.toPath());
+                pageWidth = project.pageWidth();
+                pageHeight = project.pageHeight();
+                // decode here, so a damaged shape fails the open before the canvas is cleared
+                records = new ArrayList<>(project.shapes());
+            }
+        } catch (IOException | UncheckedIOException ex) {
+            Alert alert = new Alert(Alert.AlertType.ERROR, "Failed to open design: " + ex.getMessage(), ButtonType.OK);
+            alert.setHeaderText("Open failed");
+            alert.show();
+            return;
+        }
+        // journaled as one snapshot of the loaded design, not shape by shape
+        if (autosave != null) {
+            autosave.pause();
+        }
+        try {
+            onClear();
+            history.reset();
+            document.clear();
+            for (ShapeRecord record : records) {
+                document.add(record);
+            }
+            if (pageWidth > 0 && pageHeight > 0) {
+                drawingPane.setPrefSize(pageWidth, pageHeight);
+            }
+        } finally {
+            if (autosave != null) {
+                autosave.resume();
+            }
+        }
+        rebuildViews(new long[0]);
+        centerOnPage();
+        updateViewport();
+        updateHistoryLabel();
+    }
+
+    private static boolean isTextDesign(File file) {
+        return file.getName().toLowerCase(Locale.ROOT).endsWith(DesignFile.EXTENSION);
+    }
+
+    // designs are only saved as projects; a typed .wcd name (or none) becomes .wcf
+    private static Path projectPath(File file) {
+        String name = file.getName();
+        if (name.toLowerCase(Locale.ROOT).endsWith(ProjectFile.EXTENSION)) {
+            return file.toPath();
+        }
+        if (isTextDesign(file)) {
+            name = name.substring(0, name.length() - DesignFile.EXTENSION.length());
+        }
+        return file.toPath().resolveSibling(name + ProjectFile.EXTENSION);
+    }
+
+    private File chooseDesignFile(boolean save) {
         FileChooser chooser = new FileChooser();
-        chooser.setTitle("Export PDF");
+        chooser.setTitle(save ? "Save design" : "Open design");
         chooser.getExtensionFilters().add(new FileChooser.ExtensionFilter(
-                ExportFormat.PDF.getDescription(),
-                ExportFormat.PDF.getExtensionPattern()
-        ));
+                "WoodCraft projects", "*" + ProjectFile.EXTENSION));
+        if (!save) {
+            // text designs are still read, but no longer written
+            chooser.getExtensionFilters().add(new FileChooser.ExtensionFilter(
+                    "WoodCraft text designs", "*" + DesignFile.EXTENSION));
+        }
+        return save
+                ? chooser.showSaveDialog(canvasHost.getScene().getWindow())
+                : chooser.showOpenDialog(canvasHost.getScene().getWindow());
+    }
+
+    @FXML
+    public void onExport() {
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle("Export");
+        Map<FileChooser.ExtensionFilter, ExportFormat> formats = new IdentityHashMap<>();
+        for (ExportFormat format : ExportFormat.values()) {
+            FileChooser.ExtensionFilter filter = new FileChooser.ExtensionFilter(
+                    format.getDescription(), format.getExtensionPattern());
+            chooser.getExtensionFilters().add(filter);
+            formats.put(filter, format);
+        }
         File file = chooser.showSaveDialog(canvasHost.getScene().getWindow());
         if (file == null) {
             return;
         }
-        try {
-            CanvasDocument document = new CanvasDocument(drawingPane, snapIndicator, selectionOverlay);
-            exportServiceRegistry.export(ExportFormat.PDF, document, file);
-        } catch (IOException | IllegalStateException ex) {
-            Alert alert = new Alert(Alert.AlertType.ERROR, "Failed to export PDF: " + ex.getMessage(), ButtonType.OK);
+        ExportFormat format = formats.getOrDefault(chooser.getSelectedExtensionFilter(), ExportFormat.PDF);
+        ExportService service = exportServiceRegistry.getService(format);
+        if (format == ExportFormat.PNG) {
+            ChoiceDialog<Integer> dpiDialog = new ChoiceDialog<>(PngExportService.DEFAULT_DPI, PngExportService.COMMON_DPI);
+            dpiDialog.setTitle("Export");
+            dpiDialog.setHeaderText("Resolution for " + file.getName());
+            dpiDialog.setContentText("DPI:");
+            Optional<Integer> dpi = dpiDialog.showAndWait();
+            if (dpi.isEmpty()) {
+                return;
+            }
+            service = exportServiceRegistry.metered(format, new PngExportService(dpi.get()));
+        }
+        // the snapshot is taken here, on the FX thread; the worker only sees immutable records
+        CanvasDocument document = snapshotDocument();
+        ExportTask task = new ExportTask(service, document, file);
+        task.setOnSucceeded(e -> {
+            exportFinished();
+            Alert alert = new Alert(Alert.AlertType.INFORMATION, "Exported to " + file.getName(), ButtonType.OK);
+            alert.setHeaderText("Export finished");
+            alert.show();
+        });
+        task.setOnCancelled(e -> exportFinished());
+        task.setOnFailed(e -> {
+            exportFinished();
+            Throwable ex = task.getException();
+            if (ex instanceof CancellationException) {
+                return;
+            }
+            Alert alert = new Alert(Alert.AlertType.ERROR, "Failed to export " + format + ": " + ex.getMessage(), ButtonType.OK);
             alert.setHeaderText("Export failed");
-            alert.showAndWait();
+            alert.show();
+        });
+
+        exportTask = task;
+        exportProgress.progressProperty().bind(task.progressProperty());
+        setExportControlsVisible(true);
+        Thread.ofVirtual().name("export").start(task);
+    }
+
+    // Runs one export on a worker; progress and cancellation go through the Task.
+    private final class ExportTask extends Task<Void> implements ExportProgress {
+
+        private final ExportService service;
+        private final CanvasDocument document;
+        private final File target;
+
+        ExportTask(ExportService service, CanvasDocument document, File target) {
+            this.service = service;
+            this.document = document;
+            this.target = target;
+        }
+
+        @Override
+        protected Void call() throws IOException {
+            service.export(document, target, this);
+            return null;
+        }
+
+        @Override
+        public void update(long done, long total) {
+            updateProgress(done, total);
+        }
+    }
+
+    @FXML
+    public void onCancelExport() {
+        if (exportTask != null) {
+            exportTask.cancel();
         }
     }
 
-    private double clamp(double v, double min, double max) {
-        return Math.max(min, Math.min(v, max));
+    private void exportFinished() {
+        exportTask = null;
+        exportProgress.progressProperty().unbind();
+        setExportControlsVisible(false);
+    }
+
+    private void setExportControlsVisible(boolean running) {
+        exportButton.setDisable(running);
+        exportProgress.setVisible(running);
+        exportProgress.setManaged(running);
+        cancelExportButton.setVisible(running);
+        cancelExportButton.setManaged(running);
+    }
+
+    // Export reads the document, not the scene graph; only shapes without a record form
+    // (groups) are still passed as nodes.
+    private CanvasDocument snapshotDocument() {
+        List<Node> nodes = new ArrayList<>();
+        for (Node node : shapeIndex.itemsInOrder()) {
+            if (!nodeIds.containsKey(node)) {
+                nodes.add(node);
+            }
+        }
+        return new CanvasDocument(drawingPane.getPrefWidth(), drawingPane.getPrefHeight(),
+                document.snapshot(), nodes);
     }
 
     private Point2D getCanvasPoint(MouseEvent event) {
-        Point2D local = drawingPane.sceneToLocal(event.getSceneX(), event.getSceneY());
-        double w = drawingPane.getPrefWidth();
-        double h = drawingPane.getPrefHeight();
-        return new Point2D(
-                clamp(local.getX(), 0, w),
-                clamp(local.getY(), 0, h)
-        );
+        return drawingPane.sceneToLocal(event.getSceneX(), event.getSceneY());
     }
 
     @FXML
     public void onMousePressed(MouseEvent event) {
+        if (event.getButton() == MouseButton.MIDDLE) {
+            panStartX = event.getSceneX();
+            panStartY = event.getSceneY();
+            panStartOriginX = originX;
+            panStartOriginY = originY;
+            return;
+        }
+        // apply the last hover position first so the press sees the current snap point
+        moveInput.flush();
         if (activeTool == Tool.SELECT) {
             Node picked = findSelectableNode(event);
             if (picked == null) clearSelection();
@@ -290,6 +906,7 @@ public class CanvasController {
         } else {
             activeShape = createShape(p.getX(), p.getY());
             if (activeShape != null) {
+                dragInput.setKeepIntermediate(activeShape instanceof FreehandShape);
                 drawingPane.getChildren().add(activeShape.getNode());
                 //  odmah primijeni trenutnu boju na novi oblik
                 applyActiveColor(activeShape);
@@ -300,6 +917,10 @@ public class CanvasController {
 
     @FXML
     public void onMouseDragged(MouseEvent event) {
+        if (event.isMiddleButtonDown()) {
+            panInput.submit(event.getSceneX(), event.getSceneY());
+            return;
+        }
         if (activeTool == Tool.SELECT) {
             return;
         }
@@ -308,12 +929,22 @@ public class CanvasController {
         }
         if (activeShape != null) {
             Point2D p = getCanvasPoint(event);
-            activeShape.update(p.getX(), p.getY());
+            dragInput.submit(p.getX(), p.getY());
+        }
+    }
+
+    private void applyMouseDrag(double x, double y) {
+        if (activeShape != null) {
+            activeShape.update(x, y);
         }
     }
 
     @FXML
     public void onMouseReleased(MouseEvent event) {
+        if (event.getButton() == MouseButton.MIDDLE) {
+            panInput.flush();
+            return;
+        }
         if (activeTool == Tool.SELECT) {
             return;
         }
@@ -321,8 +952,15 @@ public class CanvasController {
             return;
         }
         if (activeShape != null) {
+            dragInput.flush();
             Point2D p = getCanvasPoint(event);
             activeShape.update(p.getX(), p.getY());
+            commitShape(activeShape.getNode());
+            snapEngine.setReference(p.getX(), p.getY());
+            if (activeShape instanceof FreehandShape freehand) {
+                LOG.fine(() -> "freehand stroke simplified: " + freehand.getRawPointCount()
+                        + " points -> " + freehand.getElementCount() + " path elements");
+            }
             activeShape = null;
         }
         hideSnapIndicator();
@@ -330,8 +968,13 @@ public class CanvasController {
 
     @FXML
     public void onMouseMoved(MouseEvent event) {
+        Point2D p = getCanvasPoint(event);
+        moveInput.submit(p.getX(), p.getY());
+    }
+
+    private void applyMouseMove(double x, double y) {
         if (activeTool == Tool.BEZIER && bezierStage != BezierStage.NONE) {
-            updateBezierPreview(getCanvasPoint(event));
+            updateBezierPreview(x, y);
             hideSnapIndicator();
             return;
         }
@@ -339,8 +982,7 @@ public class CanvasController {
             hideSnapIndicator();
             return;
         }
-        Point2D cursor = getCanvasPoint(event);
-        Point2D point = findSnapPoint(cursor);
+        Point2D point = findSnapPoint(x, y);
         if (point != null) {
             showSnapIndicator(point);
         } else {
@@ -350,10 +992,18 @@ public class CanvasController {
 
     @FXML
     public void onMouseExited(MouseEvent event) {
+        moveInput.cancel();
         hideSnapIndicator();
     }
 
+    public LatencyStats getInputLatency() {
+        return inputLatency;
+    }
+
     private void setSelectedNode(Node node) {
+        if (node != promotedNode) {
+            demoteSelected();
+        }
         selectedNode = node;
         selectionOverlay.setTarget(node);
     }
@@ -361,25 +1011,109 @@ public class CanvasController {
     private void clearSelection() {
         selectedNode = null;
         selectionOverlay.clear();
+        demoteSelected();
+    }
+
+    // A finished shape: indexed as a live node, or handed to the renderer in canvas mode.
+    private void commitShape(Node node) {
+        ShapeRecord record = ShapeRecords.fromNode(node);
+        if (record != null) {
+            nodeIds.put(node, history.add(record));
+            updateHistoryLabel();
+        }
+        if (renderMode == RenderMode.CANVAS) {
+            retainAsRecord(node);
+        } else {
+            indexNode(node);
+        }
+    }
+
+    private void retainAsRecord(Node node) {
+        Long id = nodeIds.remove(node);
+        if (id == null) {
+            // no record form (e.g. groups); keep it as a node
+            indexNode(node);
+            return;
+        }
+        ShapeRecord record = document.get(id);
+        shapeIndex.remove(node);
+        drawingPane.getChildren().remove(node);
+        renderer.add(record);
+        recordIds.put(record, id);
+    }
+
+    // End of an edit on a live node (move, resize, rotate).
+    private void onNodeEdited(Node node) {
+        indexNode(node);
+        syncToDocument(node);
+    }
+
+    private void syncToDocument(Node node) {
+        Long id = nodeIds.get(node);
+        if (id != null) {
+            history.update(id, ShapeRecords.fromNode(node));
+            updateHistoryLabel();
+        }
+    }
+
+    // Turns a painted record into a live node for editing; the record keeps its slot.
+    private Node promote(ShapeRecord record) {
+        demoteSelected();
+        Node node = ShapeRecords.toNode(record);
+        drawingPane.getChildren().add(node);
+        indexNode(node);
+        Long id = recordIds.get(record);
+        if (id != null) {
+            nodeIds.put(node, id);
+        }
+        renderer.setHidden(record, true);
+        promotedRecord = record;
+        promotedNode = node;
+        return node;
+    }
+
+    private void demoteSelected() {
+        if (promotedNode == null) {
+            return;
+        }
+        Long id = nodeIds.remove(promotedNode);
+        ShapeRecord edited = id != null ? document.get(id) : ShapeRecords.fromNode(promotedNode);
+        shapeIndex.remove(promotedNode);
+        drawingPane.getChildren().remove(promotedNode);
+        renderer.replace(promotedRecord, edited);
+        recordIds.remove(promotedRecord);
+        if (id != null) {
+            recordIds.put(edited, id);
+        }
+        promotedRecord = null;
+        promotedNode = null;
     }
 
     private boolean isSnapToolActive() {
         return activeTool != Tool.SELECT && activeTool != Tool.FREEHAND;
     }
 
+    public LatencyStats getHitTestLatency() {
+        return hitTestLatency;
+    }
+
     private Node findSelectableNode(MouseEvent event) {
-        Point2D scenePoint = new Point2D(event.getSceneX(), event.getSceneY());
-        for (int i = drawingPane.getChildren().size() - 1; i >= 0; i--) {
-            Node node = drawingPane.getChildren().get(i);
-            if (!node.isVisible() || selectionOverlay.isOverlayNode(node) || node == snapIndicator) {
-                continue;
-            }
-            Point2D localPoint = node.sceneToLocal(scenePoint);
-            if (node.contains(localPoint)) {
-                return node;
+        long start = System.nanoTime();
+        Point2D point = drawingPane.sceneToLocal(event.getSceneX(), event.getSceneY());
+        // the index narrows the click to shapes whose bounds contain it, topmost first;
+        // Shape.contains then does the exact, stroke-aware test on those few
+        Node hit = shapeIndex.findTopmost(point.getX(), point.getY(),
+                node -> node.isVisible() && node.contains(node.parentToLocal(point)));
+        if (hit == null && renderMode == RenderMode.CANVAS) {
+            // records are tested on their cached outlines rather than a throwaway node each
+            ShapeRecord record = renderer.findTopmost(point.getX(), point.getY(),
+                    candidate -> hitOutlines.hits(candidate, point.getX(), point.getY()));
+            if (record != null) {
+                hit = promote(record);
             }
         }
-        return null;
+        hitTestLatency.record(System.nanoTime() - start);
+        return hit;
     }
 
     private Drawable createShape(double x, double y) {
@@ -404,28 +1138,34 @@ public class CanvasController {
         }
         if (bezierStage == BezierStage.END && activeBezier != null) {
             activeBezier.setEnd(point.getX(), point.getY());
+            snapEngine.setReference(point.getX(), point.getY());
             bezierStage = BezierStage.CONTROL;
             return;
         }
         if (bezierStage == BezierStage.CONTROL && activeBezier != null) {
             activeBezier.setControlPoints(point.getX(), point.getY());
+            commitShape(activeBezier.getNode());
             activeBezier = null;
             bezierStage = BezierStage.NONE;
         }
     }
 
-    private void updateBezierPreview(Point2D point) {
+    private void updateBezierPreview(double x, double y) {
         if (activeBezier == null) {
             return;
         }
         if (bezierStage == BezierStage.END) {
-            activeBezier.setEnd(point.getX(), point.getY());
+            activeBezier.setEnd(x, y);
         } else if (bezierStage == BezierStage.CONTROL) {
-            activeBezier.setControlPoints(point.getX(), point.getY());
+            activeBezier.setControlPoints(x, y);
         }
     }
 
     private void resetBezierState() {
+        if (activeBezier != null) {
+            // an unfinished curve stays on the canvas, so it has to be snappable too
+            commitShape(activeBezier.getNode());
+        }
         activeBezier = null;
         bezierStage = BezierStage.NONE;
     }
@@ -443,95 +1183,31 @@ public class CanvasController {
         snapIndicator.setVisible(false);
     }
 
-    private Point2D findSnapPoint(Point2D cursor) {
-        double bestDistance = SNAP_RADIUS;
-        Point2D best = null;
-        for (Node node : drawingPane.getChildren()) {
-            if (!node.isVisible() || node == snapIndicator || selectionOverlay.isOverlayNode(node)) {
-                continue;
-            }
+    private void indexNode(Node node) {
+        if (node == null || node.getParent() != drawingPane) {
+            return;
+        }
+        Bounds bounds = node.getBoundsInParent();
+        shapeIndex.put(node, bounds.getMinX(), bounds.getMinY(), bounds.getMaxX(), bounds.getMaxY());
+    }
 
-            if (node instanceof Line line) {
-                Point2D start = line.localToParent(line.getStartX(), line.getStartY());
-                Point2D end = line.localToParent(line.getEndX(), line.getEndY());
-                best = updateBestPoint(cursor, start, best, bestDistance);
-                bestDistance = best == null ? bestDistance : cursor.distance(best);
-                best = updateBestPoint(cursor, end, best, bestDistance);
-                bestDistance = best == null ? bestDistance : cursor.distance(best);
-                Point2D nearest = nearestPointOnSegment(start, end, cursor);
-                best = updateBestPoint(cursor, nearest, best, bestDistance);
-                bestDistance = best == null ? bestDistance : cursor.distance(best);
-            } else if (node instanceof CubicCurve curve) {
-                Point2D start = curve.localToParent(curve.getStartX(), curve.getStartY());
-                Point2D end = curve.localToParent(curve.getEndX(), curve.getEndY());
-                best = updateBestPoint(cursor, start, best, bestDistance);
-                bestDistance = best == null ? bestDistance : cursor.distance(best);
-                best = updateBestPoint(cursor, end, best, bestDistance);
-                bestDistance = best == null ? bestDistance : cursor.distance(best);
+    private Point2D findSnapPoint(double x, double y) {
+        snapCandidates.clear();
+        shapeIndex.query(x - SNAP_RADIUS, y - SNAP_RADIUS, x + SNAP_RADIUS, y + SNAP_RADIUS, snapCandidates);
+        snapEngine.begin(x, y);
+        for (Node node : snapCandidates) {
+            if (node.isVisible()) {
+                NodeSnapTargets.feed(snapEngine, node);
             }
-
-            Point2D boundsPoint = nearestPointOnBounds(node.getBoundsInParent(), cursor);
-            best = updateBestPoint(cursor, boundsPoint, best, bestDistance);
-            bestDistance = best == null ? bestDistance : cursor.distance(best);
-        }
-        return best;
-    }
-
-    private Point2D updateBestPoint(Point2D cursor, Point2D candidate, Point2D currentBest, double currentDistance) {
-        if (candidate == null) {
-            return currentBest;
-        }
-        double distance = cursor.distance(candidate);
-        if (distance <= currentDistance) {
-            return candidate;
-        }
-        return currentBest;
-    }
-
-    private Point2D nearestPointOnSegment(Point2D start, Point2D end, Point2D point) {
-        double dx = end.getX() - start.getX();
-        double dy = end.getY() - start.getY();
-        double lengthSquared = dx * dx + dy * dy;
-        if (lengthSquared == 0) {
-            return start;
-        }
-        double t = ((point.getX() - start.getX()) * dx + (point.getY() - start.getY()) * dy) / lengthSquared;
-        t = Math.max(0, Math.min(1, t));
-        return new Point2D(start.getX() + t * dx, start.getY() + t * dy);
-    }
-
-    private Point2D nearestPointOnBounds(javafx.geometry.Bounds bounds, Point2D point) {
-        double minX = bounds.getMinX();
-        double maxX = bounds.getMaxX();
-        double minY = bounds.getMinY();
-        double maxY = bounds.getMaxY();
-
-        double x = clamp(point.getX(), minX, maxX);
-        double y = clamp(point.getY(), minY, maxY);
-
-        boolean insideX = point.getX() >= minX && point.getX() <= maxX;
-        boolean insideY = point.getY() >= minY && point.getY() <= maxY;
-        if (insideX && insideY) {
-            double leftDist = point.getX() - minX;
-            double rightDist = maxX - point.getX();
-            double topDist = point.getY() - minY;
-            double bottomDist = maxY - point.getY();
-            double minDist = Math.min(Math.min(leftDist, rightDist), Math.min(topDist, bottomDist));
-            if (minDist == leftDist) {
-                x = minX;
-                y = point.getY();
-            } else if (minDist == rightDist) {
-                x = maxX;
-                y = point.getY();
-            } else if (minDist == topDist) {
-                x = point.getX();
-                y = minY;
-            } else {
-                x = point.getX();
-                y = maxY;
+        }
+        if (renderMode == RenderMode.CANVAS) {
+            snapRecords.clear();
+            renderer.query(x - SNAP_RADIUS, y - SNAP_RADIUS, x + SNAP_RADIUS, y + SNAP_RADIUS, snapRecords);
+            for (ShapeRecord record : snapRecords) {
+                RecordSnapTargets.feed(snapEngine, record);
             }
         }
-        return new Point2D(x, y);
+        return snapEngine.hasSnap() ? new Point2D(snapEngine.getX(), snapEngine.getY()) : null;
     }
 
     private void drawRulers() {
@@ -540,60 +1216,15 @@ public class CanvasController {
     }
 
     private void drawTopRuler() {
-        if (topRuler == null) {
-            return;
-        }
-        GraphicsContext gc = topRuler.getGraphicsContext2D();
-        double width = topRuler.getWidth();
-        double height = topRuler.getHeight();
-        gc.clearRect(0, 0, width, height);
-        gc.setFill(Color.web("#f3f4f6"));
-        gc.fillRect(0, 0, width, height);
-        gc.setStroke(Color.web("#6b7280"));
-        gc.setLineWidth(1.0);
-        gc.setFill(Color.web("#374151"));
-
-        double maxUnits = width / zoom;
-        for (double unit = 0; unit <= maxUnits; unit += RULER_MINOR_TICK) {
-            double x = unit * zoom;
-            if (x > width) {
-                break;
-            }
-            boolean major = unit % RULER_MAJOR_TICK == 0;
-            double tickHeight = major ? height : height * 0.6;
-            gc.strokeLine(x + 0.5, height, x + 0.5, height - tickHeight);
-            if (major) {
-                gc.fillText(String.valueOf((int) unit), x + 2, height - tickHeight - 2);
-            }
+        if (topRulerStrip != null) {
+            // the strip starts RULER_SIZE left of canvasHost
+            topRulerStrip.draw(originX, zoom, RULER_SIZE);
         }
     }
 
     private void drawLeftRuler() {
-        if (leftRuler == null) {
-            return;
-        }
-        GraphicsContext gc = leftRuler.getGraphicsContext2D();
-        double width = leftRuler.getWidth();
-        double height = leftRuler.getHeight();
-        gc.clearRect(0, 0, width, height);
-        gc.setFill(Color.web("#f3f4f6"));
-        gc.fillRect(0, 0, width, height);
-        gc.setStroke(Color.web("#6b7280"));
-        gc.setLineWidth(1.0);
-        gc.setFill(Color.web("#374151"));
-
-        double maxUnits = height / zoom;
-        for (double unit = 0; unit <= maxUnits; unit += RULER_MINOR_TICK) {
-            double y = unit * zoom;
-            if (y > height) {
-                break;
-            }
-            boolean major = unit % RULER_MAJOR_TICK == 0;
-            double tickWidth = major ? width : width * 0.6;
-            gc.strokeLine(width, y + 0.5, width - tickWidth, y + 0.5);
-            if (major) {
-                gc.fillText(String.valueOf((int) unit), 2, y - 2);
-            }
+        if (leftRulerStrip != null) {
+            leftRulerStrip.draw(originY, zoom, 0);
         }
     }
 
@@ -0,0 +1,348 @@
+package ba.woodcraft.ui.controller;
+
+import ba.woodcraft.geometry.GridIndex;
+import ba.woodcraft.model.ShapeRecord;
+import ba.woodcraft.model.ShapeRecords;
+import javafx.application.Platform;
+import javafx.scene.SnapshotParameters;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.Image;
+import javafx.scene.paint.Color;
+import javafx.scene.transform.Scale;
+import javafx.scene.transform.Translate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Retained-mode layer for committed shapes. Shapes are kept as {@link ShapeRecord}s and
+ * rasterized into {@link TileCache} tiles at the current zoom, which are composited onto a
+ * viewport-sized {@link Canvas} at screen resolution. Edits drop the tiles they touch and
+ * repaint the union of the touched regions once per pulse; panning, and zooming back to a
+ * level that is still cached, only blit tiles.
+ */
+final class CanvasRenderer {
+
+    private static final double INDEX_CELL_SIZE = 64.0;
+    private static final long TILE_CACHE_BUDGET_BYTES = 64L * 1024 * 1024;
+
+    private final Canvas canvas;
+    private final Canvas tileCanvas = new Canvas(TileCache.TILE_SIZE, TileCache.TILE_SIZE);
+    private final SnapshotParameters tileSnapshot = new SnapshotParameters();
+    private final Translate canvasOrigin = new Translate();
+    private final Scale canvasScale = new Scale(1, 1, 0, 0);
+    private final TileCache tiles = new TileCache(TILE_CACHE_BUDGET_BYTES);
+    private final GridIndex<ShapeRecord> index = new GridIndex<>(INDEX_CELL_SIZE);
+    private final Set<ShapeRecord> hidden = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final List<ShapeRecord> paintList = new ArrayList<>();
+    private final Map<Integer, Color> colors = new HashMap<>();
+
+    private double zoom = 1.0;
+    private double originX;
+    private double originY;
+    // viewport origin in whole screen pixels; tiles are blitted relative to it
+    private double pixelOriginX;
+    private double pixelOriginY;
+    private double viewWidth;
+    private double viewHeight;
+    private boolean dirty;
+    private boolean repaintScheduled;
+    private double dirtyMinX;
+    private double dirtyMinY;
+    private double dirtyMaxX;
+    private double dirtyMaxY;
+
+    CanvasRenderer() {
+        canvas = new Canvas();
+        canvas.setManaged(false);
+        canvas.setMouseTransparent(true);
+        // the canvas holds screen pixels of the viewport; this places them back in world units
+        canvas.getTransforms().addAll(canvasOrigin, canvasScale);
+        tileSnapshot.setFill(Color.TRANSPARENT);
+    }
+
+    /**
+     * Re-targets the layer at the visible part of the world. Cached tiles of other zoom levels
+     * are kept, so stepping back and forth between levels does not re-rasterize anything.
+     *
+     * @param width  viewport width in screen pixels
+     * @param height viewport height in screen pixels
+     */
+    void setViewport(double originX, double originY, double zoom, double width, double height) {
+        if (originX == this.originX && originY == this.originY && zoom == this.zoom
+                && width == viewWidth && height == viewHeight) {
+            return;
+        }
+        this.originX = originX;
+        this.originY = originY;
+        this.zoom = zoom;
+        viewWidth = width;
+        viewHeight = height;
+        pixelOriginX = Math.floor(originX * zoom);
+        pixelOriginY = Math.floor(originY * zoom);
+        canvas.setWidth(Math.ceil(width) + 1);
+        canvas.setHeight(Math.ceil(height) + 1);
+        canvasOrigin.setX(pixelOriginX / zoom);
+        canvasOrigin.setY(pixelOriginY / zoom);
+        canvasScale.setX(1.0 / zoom);
+        canvasScale.setY(1.0 / zoom);
+        GraphicsContext gc = canvas.getGraphicsContext2D();
+        gc.clearRect(0, 0, canvas.getWidth(), canvas.getHeight());
+        requestRepaint(originX, originY, originX + width / zoom, originY + height / zoom);
+    }
+
+    TileCache getTileCache() {
+        return tiles;
+    }
+
+    Canvas getCanvas() {
+        return canvas;
+    }
+
+    void add(ShapeRecord record) {
+        index.put(record, record.getMinX(), record.getMinY(), record.getMaxX(), record.getMaxY());
+        invalidate(record);
+    }
+
+    /**
+     * Swaps a record for its edited version, keeping its z-order; also un-hides it.
+     */
+    void replace(ShapeRecord oldRecord, ShapeRecord newRecord) {
+        hidden.remove(oldRecord);
+        index.replace(oldRecord, newRecord,
+                newRecord.getMinX(), newRecord.getMinY(), newRecord.getMaxX(), newRecord.getMaxY());
+        invalidate(oldRecord);
+        invalidate(newRecord);
+    }
+
+    boolean remove(ShapeRecord record) {
+        hidden.remove(record);
+        if (!index.remove(record)) {
+            return false;
+        }
+        invalidate(record);
+        return true;
+    }
+
+    /**
+     * Hidden records stay in place (and keep their z-order) but are neither painted nor
+     * returned by queries; used while a record is being edited as a live node.
+     */
+    void setHidden(ShapeRecord record, boolean hide) {
+        boolean changed = hide ? hidden.add(record) : hidden.remove(record);
+        if (changed) {
+            invalidate(record);
+        }
+    }
+
+    void clear() {
+        index.clear();
+        hidden.clear();
+        tiles.clear();
+        requestRepaint(originX, originY, originX + viewWidth / zoom, originY + viewHeight / zoom);
+    }
+
+    int size() {
+        return index.size() - hidden.size();
+    }
+
+    void query(double minX, double minY, double maxX, double maxY, List<ShapeRecord> out) {
+        int from = out.size();
+        index.query(minX, minY, maxX, maxY, out);
+        if (!hidden.isEmpty()) {
+            out.subList(from, out.size()).removeIf(hidden::contains);
+        }
+    }
+
+    ShapeRecord findTopmost(double x, double y, Predicate<ShapeRecord> exactHit) {
+        return index.findTopmost(x, y, record -> !hidden.contains(record) && exactHit.test(record));
+    }
+
+    /**
+     * Visible records, bottom-most first.
+     */
+    List<ShapeRecord> getRecords() {
+        List<ShapeRecord> records = index.itemsInOrder();
+        if (!hidden.isEmpty()) {
+            records.removeIf(hidden::contains);
+        }
+        return records;
+    }
+
+    void invalidate(ShapeRecord record) {
+        invalidate(record.getMinX(), record.getMinY(), record.getMaxX(), record.getMaxY());
+    }
+
+    /**
+     * Content in the world-space rectangle changed: drops its tiles and repaints it.
+     */
+    void invalidate(double minX, double minY, double maxX, double maxY) {
+        // pad by a world unit so antialiasing bleed into neighbouring tiles is dropped too
+        tiles.invalidate(minX - 1, minY - 1, maxX + 1, maxY + 1);
+        requestRepaint(minX, minY, maxX, maxY);
+    }
+
+    private void requestRepaint(double minX, double minY, double maxX, double maxY) {
+        if (!dirty) {
+            dirty = true;
+            dirtyMinX = minX;
+            dirtyMinY = minY;
+            dirtyMaxX = maxX;
+            dirtyMaxY = maxY;
+        } else {
+            dirtyMinX = Math.min(dirtyMinX, minX);
+            dirtyMinY = Math.min(dirtyMinY, minY);
+            dirtyMaxX = Math.max(dirtyMaxX, maxX);
+            dirtyMaxY = Math.max(dirtyMaxY, maxY);
+        }
+        if (!repaintScheduled) {
+            repaintScheduled = true;
+            Platform.runLater(this::repaint);
+        }
+    }
+
+    void repaint() {
+        repaintScheduled = false;
+        if (!dirty) {
+            return;
+        }
+        dirty = false;
+        // only tiles that are both dirty and inside the viewport
+        double viewMaxX = originX + viewWidth / zoom;
+        double viewMaxY = originY + viewHeight / zoom;
+        int x0 = TileCache.tileIndex(Math.max(dirtyMinX - 1, originX), zoom);
+        int y0 = TileCache.tileIndex(Math.max(dirtyMinY - 1, originY), zoom);
+        int x1 = TileCache.tileIndex(Math.min(dirtyMaxX + 1, viewMaxX), zoom);
+        int y1 = TileCache.tileIndex(Math.min(dirtyMaxY + 1, viewMaxY), zoom);
+
+        GraphicsContext gc = canvas.getGraphicsContext2D();
+        for (int tx = x0; tx <= x1; tx++) {
+            for (int ty = y0; ty <= y1; ty++) {
+                double px = tx * (double) TileCache.TILE_SIZE - pixelOriginX;
+                double py = ty * (double) TileCache.TILE_SIZE - pixelOriginY;
+                gc.clearRect(px, py, TileCache.TILE_SIZE, TileCache.TILE_SIZE);
+                Image tile = tile(tx, ty);
+                if (tile != null) {
+                    gc.drawImage(tile, px, py);
+                }
+            }
+        }
+    }
+
+    // Cached tile, or a freshly rasterized one; null when no record touches the tile.
+    private Image tile(int tx, int ty) {
+        Image cached = tiles.get(zoom, tx, ty);
+        if (cached != null) {
+            return cached;
+        }
+        double size = TileCache.TILE_SIZE / zoom;
+        double minX = tx * size;
+        double minY = ty * size;
+        paintList.clear();
+        index.queryInOrder(minX, minY, minX + size, minY + size, paintList);
+        paintList.removeIf(hidden::contains);
+        if (paintList.isEmpty()) {
+            return null;
+        }
+        GraphicsContext gc = tileCanvas.getGraphicsContext2D();
+        gc.setTransform(1, 0, 0, 1, 0, 0);
+        gc.clearRect(0, 0, TileCache.TILE_SIZE, TileCache.TILE_SIZE);
+        gc.setTransform(zoom, 0, 0, zoom, -tx * (double) TileCache.TILE_SIZE, -ty * (double) TileCache.TILE_SIZE);
+        for (ShapeRecord record : paintList) {
+            paint(gc, record);
+        }
+        paintList.clear();
+        Image image = tileCanvas.snapshot(tileSnapshot, null);
+        tiles.put(zoom, tx, ty, image);
+        return image;
+    }
+
+    void paint(GraphicsContext gc, ShapeRecord record) {
+        boolean fill = record.hasFill() && (record.getFillArgb() >>> 24) != 0;
+        boolean stroke = record.hasStroke() && (record.getStrokeArgb() >>> 24) != 0;
+        if (!fill && !stroke) {
+            return;
+        }
+        gc.save();
+        if (!record.isIdentityTransform()) {
+            double[] t = record.getTransform();
+            gc.transform(t[0], t[3], t[1], t[4], t[2], t[5]);
+        }
+        if (fill) {
+            gc.setFill(color(record.getFillArgb()));
+        }
+        if (stroke) {
+            gc.setStroke(color(record.getStrokeArgb()));
+            gc.setLineWidth(record.getStrokeWidth());
+        }
+        double[] c = record.getCoords();
+        switch (record.getKind()) {
+            case LINE -> {
+                if (stroke) {
+                    gc.strokeLine(c[0], c[1], c[2], c[3]);
+                }
+            }
+            case RECTANGLE -> {
+                if (fill) {
+                    gc.fillRect(c[0], c[1], c[2], c[3]);
+                }
+                if (stroke) {
+                    gc.strokeRect(c[0], c[1], c[2], c[3]);
+                }
+            }
+            case CIRCLE -> {
+                double d = c[2] * 2;
+                if (fill) {
+                    gc.fillOval(c[0] - c[2], c[1] - c[2], d, d);
+                }
+                if (stroke) {
+                    gc.strokeOval(c[0] - c[2], c[1] - c[2], d, d);
+                }
+            }
+            case CUBIC -> {
+                gc.beginPath();
+                gc.moveTo(c[0], c[1]);
+                gc.bezierCurveTo(c[2], c[3], c[4], c[5], c[6], c[7]);
+                finishPath(gc, fill, stroke);
+            }
+            case PATH -> {
+                gc.beginPath();
+                int i = 0;
+                for (byte op : record.getPathOps()) {
+                    switch (op) {
+                        case ShapeRecord.MOVE_TO -> gc.moveTo(c[i], c[i + 1]);
+                        case ShapeRecord.LINE_TO -> gc.lineTo(c[i], c[i + 1]);
+                        case ShapeRecord.QUAD_TO -> gc.quadraticCurveTo(c[i], c[i + 1], c[i + 2], c[i + 3]);
+                        case ShapeRecord.CUBIC_TO -> gc.bezierCurveTo(c[i], c[i + 1], c[i + 2], c[i + 3], c[i + 4], c[i + 5]);
+                        case ShapeRecord.CLOSE -> gc.closePath();
+                        default -> {
+                        }
+                    }
+                    i += ShapeRecord.opArity(op);
+                }
+                finishPath(gc, fill, stroke);
+            }
+        }
+        gc.restore();
+    }
+
+    private void finishPath(GraphicsContext gc, boolean fill, boolean stroke) {
+        if (fill) {
+            gc.fill();
+        }
+        if (stroke) {
+            gc.stroke();
+        }
+    }
+
+    private Color color(int argb) {
+        return colors.computeIfAbsent(argb, ShapeRecords::toColor);
+    }
+}
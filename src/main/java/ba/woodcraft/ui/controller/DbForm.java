@@ -0,0 +1,38 @@
+package ba.woodcraft.ui.controller;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
+import javafx.scene.Cursor;
+import javafx.scene.Node;
+import javafx.scene.control.ProgressIndicator;
+
+/**
+ * What the login and register forms share while they wait for the database.
+ */
+final class DbForm {
+
+    private DbForm() {
+    }
+
+    // dok se čeka baza, forma je zaključana
+    static void setBusy(boolean busy, Node root, ProgressIndicator busyIndicator, Node... controls) {
+        for (Node control : controls) {
+            control.setDisable(busy);
+        }
+        busyIndicator.setVisible(busy);
+        busyIndicator.setManaged(busy);
+        root.setCursor(busy ? Cursor.WAIT : null);
+    }
+
+    /**
+     * The message for a database call that completed exceptionally.
+     */
+    static String porukaGreske(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof TimeoutException) {
+            return "Server ne odgovara. Pokušajte ponovo.";
+        }
+        cause.printStackTrace();
+        return "Baza podataka nije dostupna.";
+    }
+}
@@ -1,11 +1,16 @@
 package ba.woodcraft.ui.controller;
 
+import ba.woodcraft.dao.DaoExecutor;
 import ba.woodcraft.dao.UserDAO;
 import ba.woodcraft.util.PasswordUtil;
+import javafx.application.Platform;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
 import javafx.scene.control.Alert;
+import javafx.scene.control.Button;
+import javafx.scene.control.Hyperlink;
 import javafx.scene.control.PasswordField;
+import javafx.scene.control.ProgressIndicator;
 import javafx.scene.control.TextField;
 import javafx.scene.image.ImageView;
 import javafx.scene.layout.VBox;
@@ -17,9 +22,15 @@ public class LoginController {
 
     @FXML private TextField usernameField;
     @FXML private PasswordField passwordField;
+    @FXML private Button loginButton;
+    @FXML private Hyperlink registerLink;
+    @FXML private ProgressIndicator busyIndicator;
 
     private final UserDAO userDAO = new UserDAO();
 
+    // the user, and whether the password matched; worked out off the FX thread
+    private record Attempt(UserDAO.DbUser user, boolean passwordOk) {}
+
     @FXML
     public void initialize() {
         // povećava smanjuje logo u odnosu na veličinu prozora
@@ -39,14 +50,30 @@ public class LoginController {
             return;
         }
 
-        UserDAO.DbUser user = userDAO.findByUsername(username);
+        setBusy(true);
+        userDAO.findByUsernameAsync(username)
+                .thenApplyAsync(user -> new Attempt(user,
+                        user != null && PasswordUtil.provjeriLozinku(password, user.passwordHash())),
+                        DaoExecutor.executor())
+                .whenCompleteAsync((attempt, error) -> {
+                    setBusy(false);
+                    if (error != null) {
+                        prikazi("Greška", DbForm.porukaGreske(error));
+                    } else {
+                        zavrsiPrijavu(attempt);
+                    }
+                }, Platform::runLater);
+    }
+
+    private void zavrsiPrijavu(Attempt attempt) {
+        UserDAO.DbUser user = attempt.user();
 
         if (user == null) {
             prikazi("Greška", "Korisnik ne postoji.");
             return;
         }
 
-        if (!PasswordUtil.provjeriLozinku(password, user.passwordHash())) {
+        if (!attempt.passwordOk()) {
             prikazi("Greška", "Pogrešna lozinka.");
             return;
         }
@@ -62,6 +89,10 @@ public class LoginController {
         }
     }
 
+    private void setBusy(boolean busy) {
+        DbForm.setBusy(busy, root, busyIndicator, usernameField, passwordField, loginButton, registerLink);
+    }
+
     @FXML
     public void onOpenRegister(ActionEvent event) {
         SceneNavigator.show("view/register.fxml");
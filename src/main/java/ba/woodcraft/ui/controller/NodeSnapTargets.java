@@ -0,0 +1,107 @@
+package ba.woodcraft.ui.controller;
+
+import ba.woodcraft.geometry.SnapEngine;
+import javafx.geometry.Bounds;
+import javafx.scene.Node;
+import javafx.scene.shape.Circle;
+import javafx.scene.shape.ClosePath;
+import javafx.scene.shape.CubicCurve;
+import javafx.scene.shape.CubicCurveTo;
+import javafx.scene.shape.Line;
+import javafx.scene.shape.LineTo;
+import javafx.scene.shape.MoveTo;
+import javafx.scene.shape.Path;
+import javafx.scene.shape.PathElement;
+import javafx.scene.shape.QuadCurve;
+import javafx.scene.shape.QuadCurveTo;
+import javafx.scene.shape.Rectangle;
+import javafx.scene.transform.Transform;
+
+import java.util.List;
+
+final class NodeSnapTargets {
+
+    private NodeSnapTargets() {
+    }
+
+    static void feed(SnapEngine engine, Node node) {
+        Transform t = node.getLocalToParentTransform();
+        engine.setTransform(t.getMxx(), t.getMxy(), t.getTx(), t.getMyx(), t.getMyy(), t.getTy());
+
+        if (node instanceof Line line) {
+            engine.line(line.getStartX(), line.getStartY(), line.getEndX(), line.getEndY());
+        } else if (node instanceof Rectangle rect) {
+            double x0 = rect.getX();
+            double y0 = rect.getY();
+            double x1 = x0 + rect.getWidth();
+            double y1 = y0 + rect.getHeight();
+            engine.line(x0, y0, x1, y0);
+            engine.line(x1, y0, x1, y1);
+            engine.line(x1, y1, x0, y1);
+            engine.line(x0, y1, x0, y0);
+            engine.point((x0 + x1) / 2.0, (y0 + y1) / 2.0, SnapEngine.Kind.CENTER);
+        } else if (node instanceof Circle circle) {
+            engine.circle(circle.getCenterX(), circle.getCenterY(), circle.getRadius());
+        } else if (node instanceof CubicCurve curve) {
+            engine.cubic(
+                    curve.getStartX(), curve.getStartY(),
+                    curve.getControlX1(), curve.getControlY1(),
+                    curve.getControlX2(), curve.getControlY2(),
+                    curve.getEndX(), curve.getEndY()
+            );
+        } else if (node instanceof QuadCurve quad) {
+            engine.point(quad.getStartX(), quad.getStartY(), SnapEngine.Kind.ENDPOINT);
+            engine.point(quad.getEndX(), quad.getEndY(), SnapEngine.Kind.ENDPOINT);
+            engine.nearestOnQuad(quad.getStartX(), quad.getStartY(),
+                    quad.getControlX(), quad.getControlY(),
+                    quad.getEndX(), quad.getEndY());
+        } else if (node instanceof Path path) {
+            feedPath(engine, path.getElements());
+        } else {
+            Bounds bounds = node.getBoundsInParent();
+            engine.bounds(bounds.getMinX(), bounds.getMinY(), bounds.getMaxX(), bounds.getMaxY());
+        }
+    }
+
+    // Only the ends of a path are endpoints; interior vertices of a freehand stroke would
+    // otherwise turn the whole stroke into a row of magnets.
+    private static void feedPath(SnapEngine engine, List<PathElement> elements) {
+        double startX = 0;
+        double startY = 0;
+        double x = 0;
+        double y = 0;
+        boolean first = true;
+        for (PathElement element : elements) {
+            if (element instanceof MoveTo moveTo) {
+                x = startX = moveTo.getX();
+                y = startY = moveTo.getY();
+                if (first) {
+                    engine.point(x, y, SnapEngine.Kind.ENDPOINT);
+                    first = false;
+                }
+            } else if (element instanceof LineTo lineTo) {
+                engine.nearestOnSegment(x, y, lineTo.getX(), lineTo.getY());
+                x = lineTo.getX();
+                y = lineTo.getY();
+            } else if (element instanceof CubicCurveTo curveTo) {
+                engine.nearestOnCubic(x, y,
+                        curveTo.getControlX1(), curveTo.getControlY1(),
+                        curveTo.getControlX2(), curveTo.getControlY2(),
+                        curveTo.getX(), curveTo.getY());
+                x = curveTo.getX();
+                y = curveTo.getY();
+            } else if (element instanceof QuadCurveTo quadTo) {
+                engine.nearestOnQuad(x, y, quadTo.getControlX(), quadTo.getControlY(), quadTo.getX(), quadTo.getY());
+                x = quadTo.getX();
+                y = quadTo.getY();
+            } else if (element instanceof ClosePath) {
+                engine.nearestOnSegment(x, y, startX, startY);
+                x = startX;
+                y = startY;
+            }
+        }
+        if (!first) {
+            engine.point(x, y, SnapEngine.Kind.ENDPOINT);
+        }
+    }
+}
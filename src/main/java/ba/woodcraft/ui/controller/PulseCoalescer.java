@@ -0,0 +1,93 @@
+package ba.woodcraft.ui.controller;
+
+import ba.woodcraft.util.LatencyStats;
+import javafx.animation.AnimationTimer;
+
+import java.util.Arrays;
+
+/**
+ * Collects pointer positions between JavaFX pulses and hands them to the sink once per
+ * pulse, so a high-rate mouse causes one round of node mutations per frame instead of one
+ * per event. By default only the latest position is kept; with {@code keepIntermediate}
+ * every point is delivered in order (still within a single pulse), which strokes need.
+ */
+final class PulseCoalescer {
+
+    interface PointSink {
+        void apply(double x, double y);
+    }
+
+    private final PointSink sink;
+    private final LatencyStats latency;
+    private final AnimationTimer timer;
+    private double[] points = new double[64];
+    private int count;
+    private long firstEventNanos;
+    private boolean keepIntermediate;
+    private boolean running;
+
+    PulseCoalescer(PointSink sink, LatencyStats latency) {
+        this.sink = sink;
+        this.latency = latency;
+        this.timer = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                flush();
+            }
+        };
+    }
+
+    void setKeepIntermediate(boolean keepIntermediate) {
+        this.keepIntermediate = keepIntermediate;
+    }
+
+    void submit(double x, double y) {
+        if (count == 0) {
+            firstEventNanos = System.nanoTime();
+        } else if (!keepIntermediate) {
+            count = 0;
+        }
+        if (count * 2 + 2 > points.length) {
+            points = Arrays.copyOf(points, points.length * 2);
+        }
+        points[count * 2] = x;
+        points[count * 2 + 1] = y;
+        count++;
+        if (!running) {
+            running = true;
+            timer.start();
+        }
+    }
+
+    /**
+     * Delivers whatever is pending right now; used before a press or release so the
+     * handler sees the final position.
+     */
+    void flush() {
+        if (running) {
+            running = false;
+            timer.stop();
+        }
+        if (count == 0) {
+            return;
+        }
+        int n = count;
+        count = 0;
+        for (int i = 0; i < n; i++) {
+            sink.apply(points[i * 2], points[i * 2 + 1]);
+        }
+        latency.record(System.nanoTime() - firstEventNanos);
+    }
+
+    void cancel() {
+        count = 0;
+        if (running) {
+            running = false;
+            timer.stop();
+        }
+    }
+
+    LatencyStats getLatency() {
+        return latency;
+    }
+}
@@ -0,0 +1,81 @@
+package ba.woodcraft.ui.controller;
+
+import ba.woodcraft.geometry.SnapEngine;
+import ba.woodcraft.model.ShapeRecord;
+
+final class RecordSnapTargets {
+
+    private RecordSnapTargets() {
+    }
+
+    static void feed(SnapEngine engine, ShapeRecord record) {
+        double[] t = record.getTransform();
+        engine.setTransform(t[0], t[1], t[2], t[3], t[4], t[5]);
+        double[] c = record.getCoords();
+        switch (record.getKind()) {
+            case LINE -> engine.line(c[0], c[1], c[2], c[3]);
+            case RECTANGLE -> {
+                double x0 = c[0];
+                double y0 = c[1];
+                double x1 = x0 + c[2];
+                double y1 = y0 + c[3];
+                engine.line(x0, y0, x1, y0);
+                engine.line(x1, y0, x1, y1);
+                engine.line(x1, y1, x0, y1);
+                engine.line(x0, y1, x0, y0);
+                engine.point((x0 + x1) / 2.0, (y0 + y1) / 2.0, SnapEngine.Kind.CENTER);
+            }
+            case CIRCLE -> engine.circle(c[0], c[1], c[2]);
+            case CUBIC -> engine.cubic(c[0], c[1], c[2], c[3], c[4], c[5], c[6], c[7]);
+            case PATH -> feedPath(engine, record.getPathOps(), c);
+        }
+    }
+
+    // Same rules as NodeSnapTargets: only the two ends of a path are endpoints.
+    private static void feedPath(SnapEngine engine, byte[] ops, double[] c) {
+        double startX = 0;
+        double startY = 0;
+        double x = 0;
+        double y = 0;
+        boolean first = true;
+        int i = 0;
+        for (byte op : ops) {
+            switch (op) {
+                case ShapeRecord.MOVE_TO -> {
+                    x = startX = c[i];
+                    y = startY = c[i + 1];
+                    if (first) {
+                        engine.point(x, y, SnapEngine.Kind.ENDPOINT);
+                        first = false;
+                    }
+                }
+                case ShapeRecord.LINE_TO -> {
+                    engine.nearestOnSegment(x, y, c[i], c[i + 1]);
+                    x = c[i];
+                    y = c[i + 1];
+                }
+                case ShapeRecord.QUAD_TO -> {
+                    engine.nearestOnQuad(x, y, c[i], c[i + 1], c[i + 2], c[i + 3]);
+                    x = c[i + 2];
+                    y = c[i + 3];
+                }
+                case ShapeRecord.CUBIC_TO -> {
+                    engine.nearestOnCubic(x, y, c[i], c[i + 1], c[i + 2], c[i + 3], c[i + 4], c[i + 5]);
+                    x = c[i + 4];
+                    y = c[i + 5];
+                }
+                case ShapeRecord.CLOSE -> {
+                    engine.nearestOnSegment(x, y, startX, startY);
+                    x = startX;
+                    y = startY;
+                }
+                default -> {
+                }
+            }
+            i += ShapeRecord.opArity(op);
+        }
+        if (!first) {
+            engine.point(x, y, SnapEngine.Kind.ENDPOINT);
+        }
+    }
+}
@@ -1,11 +1,18 @@
 package ba.woodcraft.ui.controller;
 
+import ba.woodcraft.dao.DaoExecutor;
 import ba.woodcraft.dao.UserDAO;
 import ba.woodcraft.util.PasswordUtil;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import javafx.application.Platform;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
 import javafx.scene.control.Alert;
+import javafx.scene.control.Button;
+import javafx.scene.control.Hyperlink;
 import javafx.scene.control.PasswordField;
+import javafx.scene.control.ProgressIndicator;
 import javafx.scene.control.TextField;
 import javafx.scene.image.ImageView;
 import javafx.scene.layout.VBox;
@@ -18,9 +25,14 @@ public class RegisterController {
     @FXML private TextField usernameField;
     @FXML private PasswordField passwordField;
     @FXML private PasswordField confirmField;
+    @FXML private Button registerButton;
+    @FXML private Hyperlink loginLink;
+    @FXML private ProgressIndicator busyIndicator;
 
     private final UserDAO userDAO = new UserDAO();
 
+    private enum Outcome { CREATED, TAKEN, FAILED }
+
     @FXML
     public void initialize() {
         if (root != null && logoImage != null) {
@@ -46,20 +58,40 @@ public class RegisterController {
             info("Greška", "Passwordi se ne podudaraju.");
             return;
         }
-        if (userDAO.findByUsername(username) != null) {
-            info("Greška", "Username već postoji.");
-            return;
-        }
-
-        String hash = PasswordUtil.hashLozinke(password);
-        boolean ok = userDAO.insertUser(username, hash, "USER"); // default USER
+        setBusy(true);
+        userDAO.findByUsernameAsync(username)
+                .thenComposeAsync(existing -> existing != null
+                        ? CompletableFuture.completedFuture(Outcome.TAKEN)
+                        : userDAO.insertUserAsync(username, PasswordUtil.hashLozinke(password), "USER") // default USER
+                                .handle((ok, error) -> {
+                                    if (error == null) {
+                                        return ok ? Outcome.CREATED : Outcome.FAILED;
+                                    }
+                                    // neko drugi je u međuvremenu uzeo isti username
+                                    if (UserDAO.isDuplicateKey(error)) {
+                                        return Outcome.TAKEN;
+                                    }
+                                    throw error instanceof CompletionException ce ? ce : new CompletionException(error);
+                                }),
+                        DaoExecutor.executor())
+                .whenCompleteAsync((outcome, error) -> {
+                    setBusy(false);
+                    if (error != null) {
+                        info("Greška", DbForm.porukaGreske(error));
+                    } else if (outcome == Outcome.TAKEN) {
+                        info("Greška", "Username već postoji.");
+                    } else if (outcome == Outcome.CREATED) {
+                        info("Uspjeh", "Račun je kreiran. Možete se prijaviti.");
+                        SceneNavigator.show("view/login.fxml");
+                    } else {
+                        info("Greška", "Registracija nije uspjela.");
+                    }
+                }, Platform::runLater);
+    }
 
-        if (ok) {
-            info("Uspjeh", "Račun je kreiran. Možete se prijaviti.");
-            SceneNavigator.show("view/login.fxml");
-        } else {
-            info("Greška", "Registracija nije uspjela.");
-        }
+    private void setBusy(boolean busy) {
+        DbForm.setBusy(busy, root, busyIndicator, usernameField, passwordField, confirmField, registerButton,
+                loginLink);
     }
 
     @FXML
@@ -0,0 +1,125 @@
+package ba.woodcraft.ui.controller;
+
+import javafx.scene.SnapshotParameters;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.Image;
+import javafx.scene.paint.Color;
+
+/**
+ * One ruler. Tick marks are rasterized in fixed-length segments per zoom level and cached,
+ * so panning only renders the segments that scroll into view and blits the rest.
+ */
+final class RulerStrip {
+
+    enum Orientation {
+        HORIZONTAL,
+        VERTICAL
+    }
+
+    private static final int SEGMENT = 256;
+    private static final double LABEL_OVERHANG = 40.0;
+    private static final long CACHE_BUDGET_BYTES = 4L * 1024 * 1024;
+    private static final Color BACKGROUND = Color.web("#f3f4f6");
+    private static final Color TICK = Color.web("#6b7280");
+    private static final Color LABEL = Color.web("#374151");
+
+    private final Canvas target;
+    private final Orientation orientation;
+    private final double majorTick;
+    private final double minorTick;
+    private final Canvas segmentCanvas;
+    private final SnapshotParameters snapshot = new SnapshotParameters();
+    private final TileCache segments = new TileCache(CACHE_BUDGET_BYTES);
+
+    private double drawnStart = Double.NaN;
+    private double drawnZoom = Double.NaN;
+    private double drawnLength = -1;
+    private double drawnThickness = -1;
+
+    RulerStrip(Canvas target, Orientation orientation, double majorTick, double minorTick) {
+        this.target = target;
+        this.orientation = orientation;
+        this.majorTick = majorTick;
+        this.minorTick = minorTick;
+        this.segmentCanvas = orientation == Orientation.HORIZONTAL ? new Canvas(SEGMENT, 1) : new Canvas(1, SEGMENT);
+        snapshot.setFill(BACKGROUND);
+    }
+
+    /**
+     * @param origin world coordinate shown at {@code offset} pixels along the ruler
+     */
+    void draw(double origin, double zoom, double offset) {
+        boolean horizontal = orientation == Orientation.HORIZONTAL;
+        double length = horizontal ? target.getWidth() : target.getHeight();
+        double thickness = horizontal ? target.getHeight() : target.getWidth();
+        double start = origin * zoom - offset;
+        if (start == drawnStart && zoom == drawnZoom && length == drawnLength && thickness == drawnThickness) {
+            return;
+        }
+        if (thickness != drawnThickness) {
+            segments.clear();
+            if (horizontal) {
+                segmentCanvas.setHeight(thickness);
+            } else {
+                segmentCanvas.setWidth(thickness);
+            }
+        }
+        drawnStart = start;
+        drawnZoom = zoom;
+        drawnLength = length;
+        drawnThickness = thickness;
+
+        GraphicsContext gc = target.getGraphicsContext2D();
+        gc.clearRect(0, 0, target.getWidth(), target.getHeight());
+        int first = (int) Math.floor(start / SEGMENT);
+        int last = (int) Math.floor((start + length) / SEGMENT);
+        for (int s = first; s <= last; s++) {
+            Image image = segments.get(zoom, s, 0);
+            if (image == null) {
+                image = renderSegment(s, zoom, thickness);
+                segments.put(zoom, s, 0, image);
+            }
+            double at = s * (double) SEGMENT - start;
+            if (horizontal) {
+                gc.drawImage(image, at, 0);
+            } else {
+                gc.drawImage(image, 0, at);
+            }
+        }
+    }
+
+    private Image renderSegment(int segment, double zoom, double thickness) {
+        boolean horizontal = orientation == Orientation.HORIZONTAL;
+        GraphicsContext gc = segmentCanvas.getGraphicsContext2D();
+        double segmentStart = segment * (double) SEGMENT;
+        gc.setFill(BACKGROUND);
+        gc.fillRect(0, 0, segmentCanvas.getWidth(), segmentCanvas.getHeight());
+        gc.setStroke(TICK);
+        gc.setLineWidth(1.0);
+        gc.setFill(LABEL);
+
+        // labels of ticks just outside the segment can reach into it, so start a bit earlier/later
+        long firstTick = (long) Math.floor((segmentStart - (horizontal ? LABEL_OVERHANG : 0)) / zoom / minorTick);
+        long lastTick = (long) Math.ceil((segmentStart + SEGMENT + (horizontal ? 0 : LABEL_OVERHANG)) / zoom / minorTick);
+        long ticksPerMajor = Math.round(majorTick / minorTick);
+        for (long tick = firstTick; tick <= lastTick; tick++) {
+            double unit = tick * minorTick;
+            double p = unit * zoom - segmentStart;
+            boolean major = Math.floorMod(tick, ticksPerMajor) == 0;
+            double tickLength = major ? thickness : thickness * 0.6;
+            if (horizontal) {
+                gc.strokeLine(p + 0.5, thickness, p + 0.5, thickness - tickLength);
+                if (major) {
+                    gc.fillText(String.valueOf(Math.round(unit)), p + 2, thickness - tickLength - 2);
+                }
+            } else {
+                gc.strokeLine(thickness, p + 0.5, thickness - tickLength, p + 0.5);
+                if (major) {
+                    gc.fillText(String.valueOf(Math.round(unit)), 2, p - 2);
+                }
+            }
+        }
+        return segmentCanvas.snapshot(snapshot, null);
+    }
+}
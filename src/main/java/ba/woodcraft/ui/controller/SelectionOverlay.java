@@ -11,7 +11,11 @@ import javafx.scene.shape.Circle;
 import javafx.scene.shape.Line;
 import javafx.scene.shape.QuadCurve;
 import javafx.scene.shape.Rectangle;
-import javafx.scene.transform.Affine;
+import ba.woodcraft.util.LatencyStats;
+import javafx.scene.transform.Rotate;
+import javafx.scene.transform.Transform;
+
+import java.util.function.Consumer;
 
 public class SelectionOverlay {
 
@@ -22,6 +26,8 @@ public class SelectionOverlay {
     private final Rectangle outline = new Rectangle();
     private final Circle rotateHandle = new Circle(HANDLE_SIZE / 2.0);
     private final Rectangle[] handles = new Rectangle[8];
+    private final Rotate overlayRotate = new Rotate();
+    private final PulseCoalescer dragInput;
 
     private Node target;
     private Pane host;
@@ -43,6 +49,7 @@ public class SelectionOverlay {
     private Point2D quadStartParent;
     private Point2D quadEndParent;
     private Point2D quadControlParent;
+    private Consumer<Node> onTargetChanged;
 
     private enum DragMode {
         NONE,
@@ -80,7 +87,9 @@ public class SelectionOverlay {
         overlayGroup.getChildren().add(outline);
         overlayGroup.getChildren().add(rotateHandle);
         overlayGroup.getChildren().addAll(handles);
+        overlayGroup.getTransforms().add(overlayRotate);
 
+        dragInput = new PulseCoalescer(this::applyDrag, new LatencyStats("selection-drag"));
         registerHandlers();
         setVisible(false);
     }
@@ -110,12 +119,21 @@ public class SelectionOverlay {
     }
 
     public void clear() {
+        dragInput.cancel();
         target = null;
         dragMode = DragMode.NONE;
-        overlayGroup.getTransforms().clear();
+        overlayRotate.setAngle(0);
         setVisible(false);
     }
 
+    public LatencyStats getDragLatency() {
+        return dragInput.getLatency();
+    }
+
+    public void setOnTargetChanged(Consumer<Node> onTargetChanged) {
+        this.onTargetChanged = onTargetChanged;
+    }
+
     public boolean isOverlayNode(Node node) {
         return node == overlayGroup || overlayGroup.getChildren().contains(node);
     }
@@ -127,11 +145,11 @@ public class SelectionOverlay {
 
     private void registerHandlers() {
         rotateHandle.addEventHandler(MouseEvent.MOUSE_PRESSED, event -> beginRotate(event));
-        rotateHandle.addEventHandler(MouseEvent.MOUSE_DRAGGED, event -> updateRotate(event));
+        rotateHandle.addEventHandler(MouseEvent.MOUSE_DRAGGED, this::queueDrag);
         rotateHandle.addEventHandler(MouseEvent.MOUSE_RELEASED, event -> endDrag());
 
         outline.addEventHandler(MouseEvent.MOUSE_PRESSED, event -> beginMove(event));
-        outline.addEventHandler(MouseEvent.MOUSE_DRAGGED, event -> updateMove(event));
+        outline.addEventHandler(MouseEvent.MOUSE_DRAGGED, this::queueDrag);
         outline.addEventHandler(MouseEvent.MOUSE_RELEASED, event -> endDrag());
 
         DragMode[] modes = {
@@ -149,11 +167,30 @@ public class SelectionOverlay {
             Rectangle handle = handles[i];
             DragMode mode = modes[i];
             handle.addEventHandler(MouseEvent.MOUSE_PRESSED, event -> beginResize(event, mode));
-            handle.addEventHandler(MouseEvent.MOUSE_DRAGGED, event -> updateResize(event));
+            handle.addEventHandler(MouseEvent.MOUSE_DRAGGED, this::queueDrag);
             handle.addEventHandler(MouseEvent.MOUSE_RELEASED, event -> endDrag());
         }
     }
 
+    // Drag events only record the pointer; the transform is applied once per pulse.
+    private void queueDrag(MouseEvent event) {
+        if (target == null || dragMode == DragMode.NONE) return;
+        dragInput.submit(event.getSceneX(), event.getSceneY());
+        event.consume();
+    }
+
+    private void applyDrag(double sceneX, double sceneY) {
+        if (target == null) return;
+        Point2D current = toParentPoint(sceneX, sceneY);
+        switch (dragMode) {
+            case MOVE -> updateMove(current);
+            case ROTATE -> updateRotate(current);
+            case NONE -> {
+            }
+            default -> updateResize(current);
+        }
+    }
+
     private void beginMove(MouseEvent event) {
         if (target == null) return;
         dragMode = DragMode.MOVE;
@@ -165,16 +202,13 @@ public class SelectionOverlay {
         event.consume();
     }
 
-    private void updateMove(MouseEvent event) {
-        if (target == null || dragMode != DragMode.MOVE) return;
-        Point2D current = toParentPoint(event);
+    private void updateMove(Point2D current) {
         Point2D delta = current.subtract(dragStartParent);
         target.setLayoutX(startLayoutX);
         target.setLayoutY(startLayoutY);
         target.setTranslateX(startTranslateX + delta.getX());
         target.setTranslateY(startTranslateY + delta.getY());
         update();
-        event.consume();
     }
 
     private void beginResize(MouseEvent event, DragMode mode) {
@@ -191,9 +225,7 @@ public class SelectionOverlay {
         event.consume();
     }
 
-    private void updateResize(MouseEvent event) {
-        if (target == null || !dragMode.name().startsWith("RESIZE")) return;
-        Point2D current = toParentPoint(event);
+    private void updateResize(Point2D current) {
         Point2D delta = current.subtract(dragStartParent);
         double width = Math.max(1.0, dragStartBounds.getWidth());
         double height = Math.max(1.0, dragStartBounds.getHeight());
@@ -234,7 +266,6 @@ public class SelectionOverlay {
             target.setScaleY(scaleY);
         }
         update();
-        event.consume();
     }
 
     private void beginRotate(MouseEvent event) {
@@ -248,9 +279,7 @@ public class SelectionOverlay {
         event.consume();
     }
 
-    private void updateRotate(MouseEvent event) {
-        if (target == null || dragMode != DragMode.ROTATE) return;
-        Point2D current = toParentPoint(event);
+    private void updateRotate(Point2D current) {
         double startAngle = Math.toDegrees(Math.atan2(
                 dragStartParent.getY() - anchorY,
                 dragStartParent.getX() - anchorX
@@ -261,7 +290,6 @@ public class SelectionOverlay {
         ));
         target.setRotate(startRotate + (currentAngle - startAngle));
         update();
-        event.consume();
     }
 
     private void normalizeScaleForPointGeometry() {
@@ -355,36 +383,50 @@ public class SelectionOverlay {
     }
 
     private Point2D toParentPoint(MouseEvent event) {
+        return toParentPoint(event.getSceneX(), event.getSceneY());
+    }
+
+    private Point2D toParentPoint(double sceneX, double sceneY) {
         if (host == null) {
-            return new Point2D(event.getSceneX(), event.getSceneY());
+            return new Point2D(sceneX, sceneY);
         }
-        return host.sceneToLocal(event.getSceneX(), event.getSceneY());
+        return host.sceneToLocal(sceneX, sceneY);
     }
 
     private void endDrag() {
+        dragInput.flush();
+        boolean changed = dragMode != DragMode.NONE;
         dragMode = DragMode.NONE;
+        if (changed && target != null && onTargetChanged != null) {
+            onTargetChanged.accept(target);
+        }
     }
 
     public void update() {
         if (target == null || host == null) return;
-        overlayGroup.toFront();
+        if (host.getChildren().get(host.getChildren().size() - 1) != overlayGroup) {
+            overlayGroup.toFront();
+        }
         Bounds localBounds = target.getBoundsInLocal();
-        Affine transform = new Affine(target.getLocalToParentTransform());
+        // read the cached local-to-parent transform directly; no Affine/Rotate/Point2D per update
+        Transform transform = target.getLocalToParentTransform();
         double scaleX = Math.hypot(transform.getMxx(), transform.getMyx());
         double scaleY = Math.hypot(transform.getMxy(), transform.getMyy());
         double rotation = Math.toDegrees(Math.atan2(transform.getMyx(), transform.getMxx()));
 
-        Point2D center = target.localToParent(
-                localBounds.getMinX() + localBounds.getWidth() / 2.0,
-                localBounds.getMinY() + localBounds.getHeight() / 2.0
-        );
+        double localCenterX = localBounds.getMinX() + localBounds.getWidth() / 2.0;
+        double localCenterY = localBounds.getMinY() + localBounds.getHeight() / 2.0;
+        double pivotX = transform.getMxx() * localCenterX + transform.getMxy() * localCenterY + transform.getTx();
+        double pivotY = transform.getMyx() * localCenterX + transform.getMyy() * localCenterY + transform.getTy();
         double width = localBounds.getWidth() * scaleX;
         double height = localBounds.getHeight() * scaleY;
 
-        overlayGroup.getTransforms().setAll(new javafx.scene.transform.Rotate(rotation, center.getX(), center.getY()));
+        overlayRotate.setAngle(rotation);
+        overlayRotate.setPivotX(pivotX);
+        overlayRotate.setPivotY(pivotY);
         outline.setStrokeWidth(1.5);
-        outline.setX(center.getX() - width / 2.0);
-        outline.setY(center.getY() - height / 2.0);
+        outline.setX(pivotX - width / 2.0);
+        outline.setY(pivotY - height / 2.0);
         outline.setWidth(width);
         outline.setHeight(height);
 
@@ -0,0 +1,153 @@
+package ba.woodcraft.ui.controller;
+
+import javafx.scene.image.Image;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Rasterized tiles of committed content, keyed by zoom level and tile coordinates.
+ * Least recently used tiles are evicted once the pixel memory passes the budget; edits
+ * drop only the tiles (at every cached zoom level) that overlap the edited region.
+ */
+final class TileCache {
+
+    static final int TILE_SIZE = 256;
+
+    private static final long BYTES_PER_PIXEL = 4;
+    private static final double ZOOM_KEY_SCALE = 10_000.0;
+
+    private final long budgetBytes;
+    private final LinkedHashMap<TileKey, Image> tiles = new LinkedHashMap<>(64, 0.75f, true);
+    private final Map<Long, Integer> tilesPerZoom = new HashMap<>();
+    private long usedBytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    private record TileKey(long zoomKey, int x, int y) {
+    }
+
+    TileCache(long budgetBytes) {
+        if (budgetBytes <= 0) {
+            throw new IllegalArgumentException("budgetBytes must be positive");
+        }
+        this.budgetBytes = budgetBytes;
+    }
+
+    Image get(double zoom, int x, int y) {
+        Image image = tiles.get(new TileKey(zoomKey(zoom), x, y));
+        if (image == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return image;
+    }
+
+    void put(double zoom, int x, int y, Image image) {
+        TileKey key = new TileKey(zoomKey(zoom), x, y);
+        Image previous = tiles.put(key, image);
+        if (previous != null) {
+            usedBytes -= bytes(previous);
+        } else {
+            tilesPerZoom.merge(key.zoomKey(), 1, Integer::sum);
+        }
+        usedBytes += bytes(image);
+        evictOverBudget();
+    }
+
+    /**
+     * Drops every cached tile, at any zoom level, that overlaps the world-space rectangle.
+     */
+    void invalidate(double minX, double minY, double maxX, double maxY) {
+        if (tiles.isEmpty()) {
+            return;
+        }
+        for (Long zoomKey : tilesPerZoom.keySet().toArray(new Long[0])) {
+            double zoom = zoomKey / ZOOM_KEY_SCALE;
+            int x0 = tileIndex(minX, zoom);
+            int y0 = tileIndex(minY, zoom);
+            int x1 = tileIndex(maxX, zoom);
+            int y1 = tileIndex(maxY, zoom);
+            long span = (long) (x1 - x0 + 1) * (y1 - y0 + 1);
+            if (span > tiles.size()) {
+                // cheaper to scan what is cached than to probe every tile in the range
+                Iterator<Map.Entry<TileKey, Image>> it = tiles.entrySet().iterator();
+                while (it.hasNext()) {
+                    Map.Entry<TileKey, Image> entry = it.next();
+                    TileKey key = entry.getKey();
+                    if (key.zoomKey() == zoomKey && key.x() >= x0 && key.x() <= x1 && key.y() >= y0 && key.y() <= y1) {
+                        it.remove();
+                        forget(key, entry.getValue());
+                    }
+                }
+                continue;
+            }
+            for (int x = x0; x <= x1; x++) {
+                for (int y = y0; y <= y1; y++) {
+                    TileKey key = new TileKey(zoomKey, x, y);
+                    Image removed = tiles.remove(key);
+                    if (removed != null) {
+                        forget(key, removed);
+                    }
+                }
+            }
+        }
+    }
+
+    void clear() {
+        tiles.clear();
+        tilesPerZoom.clear();
+        usedBytes = 0;
+    }
+
+    static int tileIndex(double world, double zoom) {
+        return (int) Math.floor(world * zoom / TILE_SIZE);
+    }
+
+    int size() {
+        return tiles.size();
+    }
+
+    long getUsedBytes() {
+        return usedBytes;
+    }
+
+    long getHits() {
+        return hits;
+    }
+
+    long getMisses() {
+        return misses;
+    }
+
+    long getEvictions() {
+        return evictions;
+    }
+
+    private static long zoomKey(double zoom) {
+        return Math.round(zoom * ZOOM_KEY_SCALE);
+    }
+
+    private void evictOverBudget() {
+        Iterator<Map.Entry<TileKey, Image>> it = tiles.entrySet().iterator();
+        while (usedBytes > budgetBytes && it.hasNext()) {
+            Map.Entry<TileKey, Image> eldest = it.next();
+            it.remove();
+            forget(eldest.getKey(), eldest.getValue());
+            evictions++;
+        }
+    }
+
+    private void forget(TileKey key, Image image) {
+        usedBytes -= bytes(image);
+        tilesPerZoom.computeIfPresent(key.zoomKey(), (k, count) -> count == 1 ? null : count - 1);
+    }
+
+    private static long bytes(Image image) {
+        return (long) image.getWidth() * (long) image.getHeight() * BYTES_PER_PIXEL;
+    }
+}
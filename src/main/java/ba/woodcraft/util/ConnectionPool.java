@@ -0,0 +1,509 @@
+package ba.woodcraft.util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Keeps database connections open between queries, so a query does not pay for a TCP
+ * connect and a MySQL login each time. {@link #getConnection()} lends a connection whose
+ * {@code close()} gives it back; prepared statements closed on it are kept and handed out
+ * again for the same SQL.
+ *
+ * A connection that sat idle for longer than {@code validateAfterIdleMillis} is checked with
+ * {@link Connection#isValid} before it is lent. A background thread closes connections idle
+ * for longer than {@code idleTimeoutMillis}, down to {@code minSize}, and opens new ones up
+ * to it. At most {@code maxSize} connections are lent at once; further callers wait up to
+ * {@code maxWaitMillis}.
+ */
+public final class ConnectionPool implements AutoCloseable {
+
+    private static final Logger LOG = Logger.getLogger(ConnectionPool.class.getName());
+
+    public record Config(String url, String user, String password, int minSize, int maxSize,
+                         long maxWaitMillis, long idleTimeoutMillis, long validateAfterIdleMillis,
+                         int validationTimeoutSeconds, int statementCacheSize) {
+
+        public Config {
+            if (url == null || url.isBlank()) {
+                throw new IllegalArgumentException("db.url is not set");
+            }
+            if (minSize < 0 || maxSize < 1 || minSize > maxSize) {
+                throw new IllegalArgumentException("pool sizes must satisfy 0 <= min <= max, max >= 1");
+            }
+        }
+
+        /**
+         * Reads {@code db.url}, {@code db.user}, {@code db.password} and the {@code pool.*}
+         * settings; every pool setting has a default.
+         */
+        public static Config from(Properties p) {
+            return new Config(
+                    p.getProperty("db.url"),
+                    p.getProperty("db.user"),
+                    p.getProperty("db.password"),
+                    Integer.parseInt(p.getProperty("pool.minSize", "1")),
+                    Integer.parseInt(p.getProperty("pool.maxSize", "8")),
+                    Long.parseLong(p.getProperty("pool.maxWaitMillis", "5000")),
+                    Long.parseLong(p.getProperty("pool.idleTimeoutMillis", "300000")),
+                    Long.parseLong(p.getProperty("pool.validateAfterIdleMillis", "500")),
+                    Integer.parseInt(p.getProperty("pool.validationTimeoutSeconds", "2")),
+                    Integer.parseInt(p.getProperty("pool.statementCacheSize", "32"))
+            );
+        }
+    }
+
+    /**
+     * @param total   open connections, lent or idle
+     * @param waiting callers blocked in {@link #getConnection()}
+     * @param broken  connections dropped because validation or a connection error failed
+     */
+    public record Stats(int total, int active, int idle, int waiting, long borrowed, long created,
+                        long evicted, long broken, long timeouts, long statementHits, long statementMisses) {}
+
+    private final Config config;
+    private final Semaphore permits;
+    // most recently returned first, so the ones at the tail are those idle the longest
+    private final Deque<PooledConnection> idle = new ArrayDeque<>();
+    private int total;
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicLong borrowed = new AtomicLong();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+    private final AtomicLong broken = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong statementHits = new AtomicLong();
+    private final AtomicLong statementMisses = new AtomicLong();
+    private final LatencyStats waits = new LatencyStats("db-pool-wait");
+    private final ScheduledExecutorService maintenance;
+    private volatile boolean closed;
+
+    public ConnectionPool(Config config) {
+        this.config = config;
+        this.permits = new Semaphore(config.maxSize(), true);
+        this.maintenance = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "db-pool-maintenance");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1000, config.idleTimeoutMillis() / 2);
+        maintenance.scheduleWithFixedDelay(this::maintain, 0, period, TimeUnit.MILLISECONDS);
+    }
+
+    public Config getConfig() {
+        return config;
+    }
+
+    /**
+     * Lends a connection; close it to give it back.
+     *
+     * @throws SQLTimeoutException if none came free within {@code maxWaitMillis}
+     */
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("connection pool is closed");
+        }
+        long start = System.nanoTime();
+        boolean acquired;
+        waiting.incrementAndGet();
+        try {
+            acquired = permits.tryAcquire(config.maxWaitMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("interrupted while waiting for a connection", e);
+        } finally {
+            waiting.decrementAndGet();
+        }
+        waits.record(System.nanoTime() - start);
+        if (!acquired) {
+            timeouts.incrementAndGet();
+            throw new SQLTimeoutException("no connection came free within " + config.maxWaitMillis()
+                    + " ms: " + getStats());
+        }
+        try {
+            PooledConnection pooled = take();
+            borrowed.incrementAndGet();
+            return pooled.lend();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    // an idle connection that still works, or else a new one
+    private PooledConnection take() throws SQLException {
+        long validateAfter = TimeUnit.MILLISECONDS.toNanos(config.validateAfterIdleMillis());
+        while (true) {
+            PooledConnection pooled;
+            synchronized (this) {
+                pooled = idle.pollFirst();
+            }
+            if (pooled == null) {
+                return open();
+            }
+            if (pooled.idleNanos() < validateAfter || pooled.raw.isValid(config.validationTimeoutSeconds())) {
+                return pooled;
+            }
+            broken.incrementAndGet();
+            discard(pooled);
+        }
+    }
+
+    private PooledConnection open() throws SQLException {
+        Connection raw = DriverManager.getConnection(config.url(), config.user(), config.password());
+        synchronized (this) {
+            total++;
+        }
+        created.incrementAndGet();
+        return new PooledConnection(raw);
+    }
+
+    private void giveBack(PooledConnection pooled) {
+        try {
+            boolean keep = !closed && !pooled.broken && pooled.reset();
+            if (keep) {
+                synchronized (this) {
+                    idle.addFirst(pooled);
+                }
+            } else {
+                if (pooled.broken) {
+                    broken.incrementAndGet();
+                }
+                discard(pooled);
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void discard(PooledConnection pooled) {
+        synchronized (this) {
+            total--;
+        }
+        pooled.closeQuietly();
+    }
+
+    // closes connections idle for too long, then tops up to the minimum
+    private void maintain() {
+        if (closed) {
+            return;
+        }
+        long timeout = TimeUnit.MILLISECONDS.toNanos(config.idleTimeoutMillis());
+        List<PooledConnection> expired = new ArrayList<>();
+        synchronized (this) {
+            Iterator<PooledConnection> oldest = idle.descendingIterator();
+            while (oldest.hasNext() && total - expired.size() > config.minSize()) {
+                PooledConnection pooled = oldest.next();
+                if (pooled.idleNanos() <= timeout) {
+                    break;
+                }
+                oldest.remove();
+                expired.add(pooled);
+            }
+        }
+        for (PooledConnection pooled : expired) {
+            evicted.incrementAndGet();
+            discard(pooled);
+        }
+        try {
+            while (!closed) {
+                synchronized (this) {
+                    if (total >= config.minSize()) {
+                        break;
+                    }
+                }
+                PooledConnection pooled = open();
+                synchronized (this) {
+                    idle.addLast(pooled);
+                }
+            }
+        } catch (SQLException e) {
+            LOG.warning("Could not open a pooled connection: " + e.getMessage());
+        }
+        if (!expired.isEmpty()) {
+            LOG.fine(() -> "Closed " + expired.size() + " idle connections: " + getStats());
+        }
+    }
+
+    public Stats getStats() {
+        int totalNow;
+        int idleNow;
+        synchronized (this) {
+            totalNow = total;
+            idleNow = idle.size();
+        }
+        return new Stats(totalNow, totalNow - idleNow, idleNow, waiting.get(), borrowed.get(), created.get(),
+                evicted.get(), broken.get(), timeouts.get(), statementHits.get(), statementMisses.get());
+    }
+
+    /**
+     * Time spent in {@link #getConnection()} waiting for a free connection.
+     */
+    public LatencyStats getWaitStats() {
+        return waits;
+    }
+
+    /**
+     * Closes the idle connections now and the lent ones as they come back.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        maintenance.shutdownNow();
+        List<PooledConnection> all;
+        synchronized (this) {
+            all = new ArrayList<>(idle);
+            idle.clear();
+        }
+        all.forEach(this::discard);
+    }
+
+    /**
+     * One physical connection. It is lent out through a fresh proxy each time, so a handle
+     * closed twice, or used after closing, cannot touch the next borrower's work.
+     */
+    private final class PooledConnection {
+
+        private final Connection raw;
+        private final Map<String, PreparedStatement> statements;
+        private long idleSince = System.nanoTime();
+        private boolean broken;
+
+        PooledConnection(Connection raw) {
+            this.raw = raw;
+            this.statements = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                    if (size() <= config.statementCacheSize()) {
+                        return false;
+                    }
+                    closeStatement(eldest.getValue());
+                    return true;
+                }
+            };
+        }
+
+        long idleNanos() {
+            return System.nanoTime() - idleSince;
+        }
+
+        Connection lend() {
+            Handle handle = new Handle(this);
+            handle.proxy = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, handle);
+            return handle.proxy;
+        }
+
+        // undo what a borrower may have left behind; false if the connection is unusable
+        boolean reset() {
+            try {
+                if (!raw.getAutoCommit()) {
+                    raw.rollback();
+                    raw.setAutoCommit(true);
+                }
+                idleSince = System.nanoTime();
+                return true;
+            } catch (SQLException e) {
+                broken = true;
+                return false;
+            }
+        }
+
+        PreparedStatement prepare(Handle handle, String sql) throws SQLException {
+            if (config.statementCacheSize() <= 0) {
+                return raw.prepareStatement(sql);
+            }
+            // taken out while in use, so preparing the same SQL again meanwhile gets its own
+            PreparedStatement statement = statements.remove(sql);
+            if (statement != null && !statement.isClosed()) {
+                statementHits.incrementAndGet();
+            } else {
+                statementMisses.incrementAndGet();
+                statement = raw.prepareStatement(sql);
+            }
+            CachedStatement cached = new CachedStatement(this, handle, sql, statement);
+            return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class}, cached);
+        }
+
+        void keep(String sql, PreparedStatement statement) {
+            if (statements.putIfAbsent(sql, statement) != null) {
+                closeStatement(statement);
+            }
+        }
+
+        void failed(Throwable error) {
+            // SQLSTATE class 08: the connection itself is gone
+            if (error instanceof SQLException e && e.getSQLState() != null && e.getSQLState().startsWith("08")) {
+                broken = true;
+            }
+        }
+
+        void closeQuietly() {
+            statements.values().forEach(ConnectionPool::closeStatement);
+            statements.clear();
+            try {
+                raw.close();
+            } catch (SQLException e) {
+                // already gone
+            }
+        }
+    }
+
+    private final class Handle implements InvocationHandler {
+
+        private final PooledConnection pooled;
+        private Connection proxy;
+        private boolean closed;
+
+        Handle(PooledConnection pooled) {
+            this.pooled = pooled;
+        }
+
+        @Override
+        public Object invoke(Object self, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close" -> {
+                    if (!closed) {
+                        closed = true;
+                        giveBack(pooled);
+                    }
+                    return null;
+                }
+                case "isClosed" -> {
+                    return closed;
+                }
+                case "equals" -> {
+                    return self == args[0];
+                }
+                case "hashCode" -> {
+                    return System.identityHashCode(self);
+                }
+                case "toString" -> {
+                    return "pooled " + pooled.raw;
+                }
+                default -> {
+                }
+            }
+            if (closed) {
+                throw new SQLException("connection was given back to the pool");
+            }
+            if (method.getName().equals("prepareStatement") && args.length == 1) {
+                return pooled.prepare(this, (String) args[0]);
+            }
+            return forward(pooled, pooled.raw, method, args);
+        }
+    }
+
+    /**
+     * A prepared statement that goes back into its connection's cache when closed, with its
+     * parameters cleared and its result sets closed.
+     */
+    private static final class CachedStatement implements InvocationHandler {
+
+        private final PooledConnection pooled;
+        private final Handle handle;
+        private final String sql;
+        private final PreparedStatement statement;
+        private final List<ResultSet> results = new ArrayList<>(1);
+        private boolean closed;
+
+        CachedStatement(PooledConnection pooled, Handle handle, String sql, PreparedStatement statement) {
+            this.pooled = pooled;
+            this.handle = handle;
+            this.sql = sql;
+            this.statement = statement;
+        }
+
+        @Override
+        public Object invoke(Object self, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close" -> {
+                    if (!closed) {
+                        closed = true;
+                        recycle();
+                    }
+                    return null;
+                }
+                case "isClosed" -> {
+                    return closed;
+                }
+                case "getConnection" -> {
+                    return handle.proxy;
+                }
+                case "equals" -> {
+                    return self == args[0];
+                }
+                case "hashCode" -> {
+                    return System.identityHashCode(self);
+                }
+                case "toString" -> {
+                    return statement.toString();
+                }
+                default -> {
+                }
+            }
+            if (closed) {
+                throw new SQLException("statement is closed");
+            }
+            Object result = forward(pooled, statement, method, args);
+            if (result instanceof ResultSet rs) {
+                results.add(rs);
+            }
+            return result;
+        }
+
+        private void recycle() {
+            try {
+                for (ResultSet rs : results) {
+                    rs.close();
+                }
+                statement.clearParameters();
+                statement.clearBatch();
+                pooled.keep(sql, statement);
+            } catch (SQLException e) {
+                closeStatement(statement);
+            }
+        }
+    }
+
+    private static Object forward(PooledConnection pooled, Object target, Method method, Object[] args)
+            throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            pooled.failed(e.getCause());
+            throw e.getCause();
+        }
+    }
+
+    private static void closeStatement(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            // nothing to do
+        }
+    }
+}
@@ -1,16 +1,67 @@
 package ba.woodcraft.util;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.Properties;
 
+/**
+ * Connections to the WoodCraft database, lent from a {@link ConnectionPool}. Settings come
+ * from {@code db.properties} on the classpath, overridden by the file named in the
+ * {@code woodcraft.db.config} system property, if any.
+ */
 public class DBConnection {
-    private static final String URL =
-            "jdbc:mysql://localhost:3306/woodcraft?useSSL=false&serverTimezone=UTC";
-    private static final String USER = "root";
-    private static final String PASSWORD = "root";
+    private static final String CONFIG_RESOURCE = "/db.properties";
+
+    private static volatile ConnectionPool pool;
 
     public static Connection getConnection() throws SQLException {
-        return DriverManager.getConnection(URL, USER, PASSWORD);
+        return getPool().getConnection();
+    }
+
+    public static ConnectionPool getPool() {
+        ConnectionPool current = pool;
+        if (current == null) {
+            synchronized (DBConnection.class) {
+                current = pool;
+                if (current == null) {
+                    current = new ConnectionPool(ConnectionPool.Config.from(loadProperties()));
+                    pool = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Closes the pool, if it was ever opened.
+     */
+    public static synchronized void shutdown() {
+        if (pool != null) {
+            pool.close();
+            pool = null;
+        }
+    }
+
+    static Properties loadProperties() {
+        Properties properties = new Properties();
+        try (InputStream in = DBConnection.class.getResourceAsStream(CONFIG_RESOURCE)) {
+            if (in != null) {
+                properties.load(in);
+            }
+            String override = System.getProperty("woodcraft.db.config");
+            if (override != null) {
+                try (InputStream file = Files.newInputStream(Path.of(override))) {
+                    properties.load(file);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read database settings", e);
+        }
+        return properties;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,94 @@
+package ba.woodcraft.util;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Rolling latency samples in nanoseconds. Keeps the last {@code capacity} samples for
+ * percentiles plus lifetime count, mean and max.
+ */
+public class LatencyStats {
+
+    private final String name;
+    private final long[] samples;
+    private int next;
+    private int filled;
+    private long count;
+    private long totalNanos;
+    private long maxNanos;
+    private long lastNanos;
+
+    public LatencyStats(String name) {
+        this(name, 1024);
+    }
+
+    public LatencyStats(String name, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.name = name;
+        this.samples = new long[capacity];
+    }
+
+    public synchronized void record(long nanos) {
+        samples[next] = nanos;
+        next = (next + 1) % samples.length;
+        filled = Math.min(filled + 1, samples.length);
+        count++;
+        totalNanos += nanos;
+        lastNanos = nanos;
+        maxNanos = Math.max(maxNanos, nanos);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized long getLastNanos() {
+        return lastNanos;
+    }
+
+    public synchronized long getMaxNanos() {
+        return maxNanos;
+    }
+
+    public synchronized double getMeanNanos() {
+        return count == 0 ? 0 : (double) totalNanos / count;
+    }
+
+    /**
+     * Percentile over the retained window, {@code p} in [0, 100].
+     */
+    public synchronized long getPercentileNanos(double p) {
+        if (filled == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(samples, filled);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(p / 100.0 * filled) - 1;
+        return sorted[Math.max(0, Math.min(filled - 1, index))];
+    }
+
+    public synchronized void reset() {
+        next = 0;
+        filled = 0;
+        count = 0;
+        totalNanos = 0;
+        maxNanos = 0;
+        lastNanos = 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "%s: n=%d mean=%.3fms p99=%.3fms max=%.3fms",
+                name,
+                getCount(),
+                getMeanNanos() / 1_000_000.0,
+                getPercentileNanos(99) / 1_000_000.0,
+                getMaxNanos() / 1_000_000.0);
+    }
+}
@@ -0,0 +1,36 @@
+-- Designs stored per user, next to the existing `users` table.
+-- Shapes are keyed by their document id, so a save only touches the rows that changed.
+
+CREATE TABLE IF NOT EXISTS projects (
+    id          INT AUTO_INCREMENT PRIMARY KEY,
+    owner_id    INT          NOT NULL,
+    name        VARCHAR(200) NOT NULL,
+    page_width  DOUBLE       NOT NULL,
+    page_height DOUBLE       NOT NULL,
+    created_at  TIMESTAMP    NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    updated_at  TIMESTAMP    NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+    UNIQUE KEY uq_projects_owner_name (owner_id, name),
+    CONSTRAINT fk_projects_owner FOREIGN KEY (owner_id) REFERENCES users (id) ON DELETE CASCADE
+) ENGINE = InnoDB;
+
+-- z orders shapes bottom-most first; values are sparse and only their order matters.
+-- bounds is the shape's bounding box in page coordinates, for loading a region at a time.
+-- coords and transform are little-endian f64 arrays, ops one byte per path op.
+CREATE TABLE IF NOT EXISTS shapes (
+    project_id   INT      NOT NULL,
+    shape_id     BIGINT   NOT NULL,
+    z            BIGINT   NOT NULL,
+    kind         TINYINT  NOT NULL,
+    flags        TINYINT  NOT NULL,
+    stroke_argb  INT      NOT NULL,
+    stroke_width DOUBLE   NOT NULL,
+    fill_argb    INT      NOT NULL,
+    transform    BINARY(48) NULL,
+    coords       MEDIUMBLOB NOT NULL,
+    ops          BLOB     NULL,
+    bounds       GEOMETRY NOT NULL SRID 0,
+    PRIMARY KEY (project_id, shape_id),
+    KEY ix_shapes_z (project_id, z, shape_id),
+    SPATIAL KEY ix_shapes_bounds (bounds),
+    CONSTRAINT fk_shapes_project FOREIGN KEY (project_id) REFERENCES projects (id) ON DELETE CASCADE
+) ENGINE = InnoDB;
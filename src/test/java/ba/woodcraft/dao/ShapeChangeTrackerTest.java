@@ -0,0 +1,126 @@
+package ba.woodcraft.dao;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import ba.woodcraft.model.ShapeDocument;
+import ba.woodcraft.model.ShapeRecord;
+import ba.woodcraft.model.UndoHistory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class ShapeChangeTrackerTest {
+
+    private final ShapeDocument document = new ShapeDocument();
+    private final UndoHistory history = new UndoHistory(document);
+    private final ShapeChangeTracker tracker = new ShapeChangeTracker(7, document);
+
+    private static ShapeRecord line(double x) {
+        return new ShapeRecord(ShapeRecord.Kind.LINE, new double[]{x, 0, x + 10, 10}, null,
+                true, 0xff000000, 1, false, 0, null);
+    }
+
+    private static long[] ids(List<ShapeDAO.StoredShape> shapes) {
+        return shapes.stream().mapToLong(ShapeDAO.StoredShape::id).toArray();
+    }
+
+    // what ShapeDAO does once the rows are committed
+    private ShapeChangeTracker.Changes save() {
+        ShapeChangeTracker.Changes changes = tracker.changes();
+        tracker.saved(changes);
+        assertFalse(tracker.hasChanges());
+        assertTrue(tracker.changes().isEmpty());
+        return changes;
+    }
+
+    @Test
+    void firstSaveWritesEveryShapeInOrder() {
+        long a = history.add(line(0));
+        long b = history.add(line(1));
+        long c = history.add(line(2));
+        assertTrue(tracker.hasChanges());
+
+        ShapeChangeTracker.Changes changes = save();
+
+        assertArrayEquals(new long[]{a, b, c}, ids(changes.writes()));
+        assertEquals(0, changes.deletes().length);
+        long previous = 0;
+        for (ShapeDAO.StoredShape shape : changes.writes()) {
+            assertTrue(shape.z() > previous);
+            previous = shape.z();
+        }
+    }
+
+    @Test
+    void anEditWritesOnlyThatShape() {
+        history.add(line(0));
+        long b = history.add(line(1));
+        history.add(line(2));
+        long z = save().writes().get(1).z();
+
+        history.update(b, line(5));
+        ShapeChangeTracker.Changes changes = tracker.changes();
+
+        assertArrayEquals(new long[]{b}, ids(changes.writes()));
+        assertEquals(z, changes.writes().get(0).z());
+        assertTrue(line(5).contentEquals(changes.writes().get(0).record()));
+        assertEquals(document.getShapeVersion(b), changes.versions()[0]);
+        assertEquals(0, changes.deletes().length);
+    }
+
+    @Test
+    void removingTheBottomShapeOnlyDeletesIt() {
+        long a = history.add(line(0));
+        history.add(line(1));
+        history.add(line(2));
+        long z = save().writes().get(0).z();
+
+        history.remove(a);
+        ShapeChangeTracker.Changes removed = save();
+
+        assertEquals(0, removed.writes().size());
+        assertArrayEquals(new long[]{a}, removed.deletes());
+
+        // put back under the others, in the gap below them
+        history.undo();
+        ShapeChangeTracker.Changes restored = save();
+
+        assertArrayEquals(new long[]{a}, ids(restored.writes()));
+        assertEquals(z, restored.writes().get(0).z());
+        assertEquals(0, restored.deletes().length);
+    }
+
+    @Test
+    void adoptRestoresZOrderFromShuffledPages() {
+        Random random = new Random(3);
+        List<ShapeDAO.StoredShape> stored = new ArrayList<>();
+        long z = 0;
+        for (int i = 0; i < 60; i++) {
+            z += 1 + random.nextInt((int) ShapeChangeTracker.Z_GAP);
+            stored.add(new ShapeDAO.StoredShape(100 + i, z, line(i)));
+        }
+        List<ShapeDAO.StoredShape> shuffled = new ArrayList<>(stored);
+        Collections.shuffle(shuffled, random);
+
+        int added = 0;
+        for (int from = 0; from < shuffled.size(); from += 8) {
+            List<ShapeDAO.StoredShape> page = shuffled.subList(from, Math.min(from + 8, shuffled.size()));
+            added += tracker.adopt(page);
+        }
+        // a shape loaded twice, e.g. by overlapping regions, is kept once
+        assertEquals(0, tracker.adopt(stored.subList(10, 20)));
+
+        assertEquals(stored.size(), added);
+        assertEquals(stored.size(), document.size());
+        for (int slot = 0; slot < stored.size(); slot++) {
+            assertEquals(stored.get(slot).id(), document.idAt(slot));
+        }
+        assertFalse(tracker.hasChanges());
+        assertTrue(tracker.changes().isEmpty());
+    }
+}
@@ -0,0 +1,97 @@
+package ba.woodcraft.export;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import ba.woodcraft.model.ShapeRecord;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class DxfExportServiceTest {
+
+    @TempDir
+    Path dir;
+
+    private record Pair(int code, String value) {}
+
+    @Test
+    void nearestColourIndex() {
+        assertEquals(7, DxfExportService.nearestAci(0x000000));
+        assertEquals(7, DxfExportService.nearestAci(0xffffff));
+        assertEquals(1, DxfExportService.nearestAci(0xff0000));
+        assertEquals(5, DxfExportService.nearestAci(0x0000ff));
+        assertEquals(11, DxfExportService.nearestAci(0xff7f7f));
+        assertEquals(12, DxfExportService.nearestAci(0xa50000));
+        assertEquals(20, DxfExportService.nearestAci(0xff3f00));
+        assertEquals(8, DxfExportService.nearestAci(0x808080));
+    }
+
+    @Test
+    void writesTheStructureStrictReadersExpect() throws IOException {
+        List<ShapeRecord> records = List.of(
+                new ShapeRecord(ShapeRecord.Kind.LINE, new double[]{0, 0, 10, 10}, null,
+                        true, 0xffff0000, 1, false, 0, null),
+                new ShapeRecord(ShapeRecord.Kind.PATH, new double[]{0, 0, 5, 5, 10, 0, 20, 20, 30, 20},
+                        new byte[]{ShapeRecord.MOVE_TO, ShapeRecord.LINE_TO, ShapeRecord.LINE_TO,
+                                ShapeRecord.MOVE_TO, ShapeRecord.LINE_TO},
+                        true, 0xff000000, 1, false, 0, null));
+        Path file = dir.resolve("out.dxf");
+        new DxfExportService().export(new CanvasDocument(100, 100, records, List.of()), file.toFile(),
+                ExportProgress.NONE);
+        List<Pair> pairs = read(file);
+
+        List<String> sections = new ArrayList<>();
+        for (int i = 0; i + 1 < pairs.size(); i++) {
+            if (pairs.get(i).equals(new Pair(0, "SECTION"))) {
+                sections.add(pairs.get(i + 1).value());
+            }
+        }
+        assertEquals(List.of("HEADER", "CLASSES", "TABLES", "BLOCKS", "ENTITIES", "OBJECTS"), sections);
+        assertEquals(new Pair(0, "EOF"), pairs.get(pairs.size() - 1));
+
+        long seed = -1;
+        long maxHandle = 0;
+        for (int i = 0; i < pairs.size(); i++) {
+            Pair pair = pairs.get(i);
+            if (pair.equals(new Pair(9, "$HANDSEED"))) {
+                seed = Long.parseLong(pairs.get(i + 1).value(), 16);
+            } else if ((pair.code() == 5 || pair.code() == 105) && !pairs.get(i - 1).value().equals("$HANDSEED")) {
+                maxHandle = Math.max(maxHandle, Long.parseLong(pair.value(), 16));
+            }
+        }
+        assertTrue(seed > maxHandle, "$HANDSEED " + seed + " must be above every handle, max " + maxHandle);
+
+        for (String table : List.of("VPORT", "LTYPE", "LAYER", "STYLE", "VIEW", "UCS", "APPID", "DIMSTYLE",
+                "BLOCK_RECORD")) {
+            int at = pairs.indexOf(new Pair(2, table));
+            assertEquals(new Pair(0, "TABLE"), pairs.get(at - 1), table);
+            assertTrue(pairs.subList(at, at + 5).contains(new Pair(100, "AcDbSymbolTable")), table);
+        }
+        int layers = 0;
+        for (int i = 0; i < pairs.size(); i++) {
+            if (pairs.get(i).equals(new Pair(0, "LAYER"))) {
+                layers++;
+                assertTrue(pairs.subList(i, i + 6).contains(new Pair(100, "AcDbLayerTableRecord")));
+            }
+        }
+        assertEquals(3, layers);
+        int red = pairs.indexOf(new Pair(2, "COLOR_FF0000"));
+        assertEquals(new Pair(62, "1"), pairs.get(red + 2));
+        assertTrue(pairs.contains(new Pair(2, "*Model_Space")));
+        assertTrue(pairs.contains(new Pair(3, "ACAD_GROUP")));
+    }
+
+    private static List<Pair> read(Path file) throws IOException {
+        List<String> lines = Files.readAllLines(file);
+        List<Pair> pairs = new ArrayList<>();
+        for (int i = 0; i + 1 < lines.size(); i += 2) {
+            pairs.add(new Pair(Integer.parseInt(lines.get(i).trim()), lines.get(i + 1)));
+        }
+        return pairs;
+    }
+}
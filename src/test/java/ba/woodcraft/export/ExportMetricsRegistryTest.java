@@ -0,0 +1,141 @@
+package ba.woodcraft.export;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ExportMetricsRegistryTest {
+
+    private static final long COLLECT_NANOS = TimeUnit.MILLISECONDS.toNanos(30);
+    private static final long WRITE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    @TempDir
+    Path dir;
+
+    private final CanvasDocument document = new CanvasDocument(100, 100, List.of(), List.of());
+
+    // marks two stages of known length and writes a small file
+    private static final ExportService STAGED = (document, target, progress) -> {
+        progress.beginStage("collect");
+        progress.setShapeCount(12);
+        sleep(COLLECT_NANOS);
+        progress.beginStage("write");
+        Files.writeString(target.toPath(), "0123456789");
+        sleep(WRITE_NANOS);
+    };
+
+    private static void sleep(long nanos) {
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Test
+    void recordsEachStageOfACompletedExport() throws IOException {
+        ExportMetricsRegistry registry = new ExportMetricsRegistry();
+        File target = dir.resolve("out.svg").toFile();
+
+        new MeteredExportService(ExportFormat.SVG, STAGED, registry).export(document, target);
+
+        ExportMetrics metrics = registry.getLast(ExportFormat.SVG);
+        assertEquals(ExportMetrics.Outcome.COMPLETED, metrics.outcome());
+        assertEquals(12, metrics.shapes());
+        assertEquals(10, metrics.bytes());
+        assertEquals(List.of("collect", "write"), metrics.stages().stream().map(ExportMetrics.Stage::name).toList());
+        assertTrue(metrics.stageNanos("collect") >= COLLECT_NANOS);
+        assertTrue(metrics.stageNanos("write") >= WRITE_NANOS);
+        assertEquals(0, metrics.stageNanos("upload"));
+        assertTrue(metrics.totalNanos() >= metrics.stageNanos("collect") + metrics.stageNanos("write"));
+        assertEquals(List.of(metrics), registry.getRecent());
+    }
+
+    @Test
+    void completedExportsFeedTheFormatLatency() throws IOException {
+        ExportMetricsRegistry registry = new ExportMetricsRegistry();
+        ExportService service = new MeteredExportService(ExportFormat.PDF, STAGED, registry);
+        for (int i = 0; i < 3; i++) {
+            service.export(document, dir.resolve("out" + i + ".pdf").toFile());
+        }
+
+        assertEquals("export-pdf", registry.getLatency(ExportFormat.PDF).getName());
+        assertEquals(3, registry.getLatency(ExportFormat.PDF).getCount());
+        assertTrue(registry.getLatency(ExportFormat.PDF).getMeanNanos() >= COLLECT_NANOS + WRITE_NANOS);
+        assertEquals(registry.getLast(ExportFormat.PDF).totalNanos(),
+                registry.getLatency(ExportFormat.PDF).getLastNanos());
+        assertEquals(0, registry.getLatency(ExportFormat.SVG).getCount());
+    }
+
+    @Test
+    void serviceWithoutStagesIsOneExportStage() throws IOException {
+        ExportMetricsRegistry registry = new ExportMetricsRegistry();
+        ExportService plain = (document, target, progress) -> Files.writeString(target.toPath(), "x");
+
+        new MeteredExportService(ExportFormat.DXF, plain, registry).export(document, dir.resolve("a.dxf").toFile());
+
+        ExportMetrics metrics = registry.getLast(ExportFormat.DXF);
+        assertEquals(1, metrics.stages().size());
+        assertEquals("export", metrics.stages().get(0).name());
+        assertEquals(-1, metrics.shapes());
+        assertEquals(metrics.totalNanos(), metrics.stageNanos("export"));
+    }
+
+    @Test
+    void failedAndCancelledExportsAreRecordedButNotTimed() {
+        ExportMetricsRegistry registry = new ExportMetricsRegistry();
+        File target = dir.resolve("out.nc").toFile();
+        ExportService failing = (document, file, progress) -> {
+            progress.beginStage("collect");
+            throw new IOException("disk full");
+        };
+        ExportService cancelled = (document, file, progress) -> {
+            throw new CancellationException();
+        };
+
+        assertThrows(IOException.class,
+                () -> new MeteredExportService(ExportFormat.GCODE, failing, registry).export(document, target));
+        assertEquals(ExportMetrics.Outcome.FAILED, registry.getLast(ExportFormat.GCODE).outcome());
+        assertEquals(0, registry.getLast(ExportFormat.GCODE).bytes());
+
+        assertThrows(CancellationException.class,
+                () -> new MeteredExportService(ExportFormat.GCODE, cancelled, registry).export(document, target));
+        assertEquals(ExportMetrics.Outcome.CANCELLED, registry.getLast(ExportFormat.GCODE).outcome());
+
+        assertEquals(2, registry.getRecent().size());
+        assertEquals(0, registry.getLatency(ExportFormat.GCODE).getCount());
+    }
+
+    @Test
+    void keepsOnlyTheLatestHistory() {
+        ExportMetricsRegistry registry = new ExportMetricsRegistry(2);
+        ExportMetrics[] all = new ExportMetrics[3];
+        for (int i = 0; i < all.length; i++) {
+            all[i] = new ExportMetrics(ExportFormat.PNG, ExportMetrics.Outcome.COMPLETED, i, 0, -1, 1000 + i,
+                    List.of());
+            registry.record(all[i]);
+        }
+
+        assertEquals(List.of(all[1], all[2]), registry.getRecent());
+        assertSame(all[2], registry.getLast(ExportFormat.PNG));
+        assertEquals(3, registry.getLatency(ExportFormat.PNG).getCount());
+        assertEquals(1002, registry.getLatency(ExportFormat.PNG).getMaxNanos());
+
+        registry.clear();
+        assertTrue(registry.getRecent().isEmpty());
+        assertNull(registry.getLast(ExportFormat.PNG));
+        assertEquals(0, registry.getLatency(ExportFormat.PNG).getCount());
+    }
+}
@@ -0,0 +1,86 @@
+package ba.woodcraft.export;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import ba.woodcraft.model.ShapeRecord;
+import org.junit.jupiter.api.Test;
+
+class FragmentCacheTest {
+
+    // room for two entries of line(x) with an 8 byte fragment
+    private static final long TWO_ENTRIES = 2 * (160 + 8 + 8 * 4);
+
+    private static ShapeRecord line(double x) {
+        return new ShapeRecord(ShapeRecord.Kind.LINE, new double[]{x, 0, x + 10, 10}, null,
+                true, 0xff000000, 1, false, 0, null);
+    }
+
+    @Test
+    void hitsNeedEqualContent() {
+        FragmentCache<String> cache = new FragmentCache<>(TWO_ENTRIES);
+        long pass = cache.beginPass();
+        cache.put(line(1), "a", 8);
+
+        assertEquals("a", cache.get(line(1)));
+        assertNull(cache.get(line(2)));
+        cache.endPass(pass);
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    void aNewExportDoesNotEvictWhatARunningOneUses() {
+        FragmentCache<String> cache = new FragmentCache<>(TWO_ENTRIES);
+        long first = cache.beginPass();
+        cache.put(line(1), "a", 8);
+        cache.put(line(2), "b", 8);
+
+        long second = cache.beginPass();
+        cache.put(line(3), "c", 8);
+        assertEquals(2, cache.size());
+        assertEquals(0, cache.getEvictions());
+
+        // once the first export is over, what only it used can go
+        cache.endPass(first);
+        cache.put(line(3), "c", 8);
+        cache.endPass(second);
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertNotNull(cache.get(line(3)));
+    }
+
+    @Test
+    void entriesOfAFinishedExportMakeRoom() {
+        FragmentCache<String> cache = new FragmentCache<>(TWO_ENTRIES);
+        long pass = cache.beginPass();
+        cache.put(line(1), "a", 8);
+        cache.put(line(2), "b", 8);
+        cache.endPass(pass);
+
+        pass = cache.beginPass();
+        cache.put(line(3), "c", 8);
+        cache.put(line(4), "d", 8);
+        cache.put(line(5), "e", 8);
+        cache.endPass(pass);
+
+        assertNull(cache.get(line(1)));
+        assertNull(cache.get(line(2)));
+        assertEquals("c", cache.get(line(3)));
+        assertEquals("d", cache.get(line(4)));
+        assertNull(cache.get(line(5)));
+    }
+
+    @Test
+    void zeroBytesStoresNothing() {
+        FragmentCache<String> cache = new FragmentCache<>(0);
+        long pass = cache.beginPass();
+        cache.put(line(1), "a", 8);
+
+        assertNull(cache.get(line(1)));
+        cache.endPass(pass);
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getBytes());
+    }
+}
@@ -0,0 +1,213 @@
+package ba.woodcraft.export;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import ba.woodcraft.export.GcodeExportService.Settings;
+import ba.woodcraft.model.ShapeFlattener;
+import ba.woodcraft.model.ShapeRecord;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class GcodeExportServiceTest {
+
+    private static final Pattern XY = Pattern.compile("X(-?[0-9.]+) Y(-?[0-9.]+)");
+    private static final Pattern OPTIMIZED = Pattern.compile("([0-9.]+) mm optimized");
+
+    @TempDir
+    Path dir;
+
+    private static Settings settings(double cutDepth, double depthPerPass) {
+        return new Settings(cutDepth, depthPerPass, 1200, 300, 5, 1, 0.05, 2000);
+    }
+
+    private static ShapeRecord line(double x1, double y1, double x2, double y2) {
+        return new ShapeRecord(ShapeRecord.Kind.LINE, new double[]{x1, y1, x2, y2}, null,
+                true, 0xff000000, 1, false, 0, null);
+    }
+
+    private static ShapeRecord square(double x, double y, double size) {
+        return new ShapeRecord(ShapeRecord.Kind.RECTANGLE, new double[]{x, y, size, size}, null,
+                true, 0xff000000, 1, false, 0, null);
+    }
+
+    @Test
+    void passesRoundUpWithoutAnExtraOne() {
+        assertEquals(3, settings(3.0, 1.0).passes());
+        assertEquals(3, settings(0.3, 0.1).passes());
+        assertEquals(2, settings(2.0, 1.0).passes());
+        assertEquals(5, settings(3.0, 0.7).passes());
+        assertEquals(4, settings(3.01, 1.0).passes());
+        assertEquals(1, settings(1.0, 3.0).passes());
+    }
+
+    @Test
+    void rejectsASafeHeightAtOrBelowTheStock() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new Settings(3, 1, 1200, 300, 0, 1, 0.05, 2000));
+        assertThrows(IllegalArgumentException.class,
+                () -> new Settings(3, 1, 1200, 300, -2, 1, 0.05, 2000));
+    }
+
+    @Test
+    void optimizedTourIsAPermutationAndNeverLonger() {
+        Random random = new Random(42);
+        int n = 2000;
+        double[] x0 = new double[n];
+        double[] y0 = new double[n];
+        double[] x1 = new double[n];
+        double[] y1 = new double[n];
+        boolean[] returns = new boolean[n];
+        for (int c = 0; c < n; c++) {
+            x0[c] = random.nextDouble() * 1000;
+            y0[c] = random.nextDouble() * 1000;
+            x1[c] = x0[c] + random.nextDouble() * 20 - 10;
+            y1[c] = y0[c] + random.nextDouble() * 20 - 10;
+            returns[c] = random.nextInt(3) == 0;
+        }
+
+        ToolpathOptimizer seedOnly = new ToolpathOptimizer(x0, y0, x1, y1, returns, ExportProgress.NONE);
+        seedOnly.optimize(0);
+        ToolpathOptimizer optimizer = new ToolpathOptimizer(x0, y0, x1, y1, returns, ExportProgress.NONE);
+        double drawingOrder = optimizer.rapidDistance();
+        optimizer.optimize(5_000_000_000L);
+
+        boolean[] seen = new boolean[n];
+        for (int p = 0; p < n; p++) {
+            int c = optimizer.cutAt(p);
+            assertTrue(!seen[c], "cut " + c + " twice");
+            seen[c] = true;
+        }
+        // the seed does not depend on the budget, and improving it only ever shortens the tour
+        assertEquals(seedOnly.getSeedDistance(), optimizer.getSeedDistance(), 1e-6);
+        assertTrue(seedOnly.rapidDistance() <= seedOnly.getSeedDistance() + 1e-6);
+        assertTrue(optimizer.rapidDistance() <= seedOnly.rapidDistance() + 1e-6);
+        assertTrue(optimizer.rapidDistance() < optimizer.getSeedDistance());
+        assertTrue(optimizer.getSeedDistance() < drawingOrder);
+    }
+
+    @Test
+    void oneCutIsLeftAlone() {
+        ToolpathOptimizer optimizer = new ToolpathOptimizer(new double[]{3}, new double[]{4}, new double[]{9},
+                new double[]{9}, new boolean[]{false}, ExportProgress.NONE);
+        optimizer.optimize(1_000_000_000L);
+        assertEquals(0, optimizer.cutAt(0));
+        assertEquals(5, optimizer.rapidDistance(), 1e-9);
+    }
+
+    @Test
+    void openCutEntryFollowsTheReversedFlag() throws IOException {
+        // page y points down, machine y up: (10, 20) on a 100 high page is (10, 80)
+        GcodeExportService.Cuts cuts = cuts(line(10, 20, 50, 20));
+
+        for (int passes : new int[]{3, 2}) {
+            List<double[]> forward = moves(cuts, settings(passes, 1), false);
+            assertArrayEquals(new double[]{10, 80}, forward.get(0));
+            List<double[]> reversed = moves(cuts, settings(passes, 1), true);
+            assertArrayEquals(new double[]{50, 80}, reversed.get(0));
+
+            // back and forth: odd pass counts leave at the far end, even ones where they came in
+            double[] leftAt = passes % 2 == 1 ? new double[]{50, 80} : new double[]{10, 80};
+            assertArrayEquals(leftAt, forward.get(forward.size() - 1));
+            assertEquals(passes + 1, forward.size());
+        }
+    }
+
+    @Test
+    void closedCutStartsAndEndsEveryPassAtItsFirstPoint() throws IOException {
+        GcodeExportService.Cuts cuts = cuts(square(10, 10, 30));
+        assertTrue(cuts.isClosed(0));
+
+        for (boolean reversed : new boolean[]{false, true}) {
+            List<double[]> moves = moves(cuts, settings(3, 1), reversed);
+            double[] entry = {cuts.startX()[0], cuts.startY()[0]};
+            assertArrayEquals(entry, moves.get(0));
+            assertArrayEquals(entry, moves.get(moves.size() - 1));
+        }
+    }
+
+    @Test
+    void writtenRapidsMatchTheOptimizedTour() throws IOException {
+        List<ShapeRecord> records = new ArrayList<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 300; i++) {
+            double x = random.nextDouble() * 400;
+            double y = random.nextDouble() * 400;
+            records.add(i % 4 == 0 ? square(x, y, 5) : line(x, y, x + random.nextDouble() * 30, y + 10));
+        }
+        CanvasDocument document = new CanvasDocument(400, 400, records, List.of());
+
+        for (double cutDepth : new double[]{3, 2}) {
+            Path file = dir.resolve("out" + (int) cutDepth + ".nc");
+            new GcodeExportService(settings(cutDepth, 1)).export(document, file.toFile());
+            List<String> lines = Files.readAllLines(file);
+
+            Matcher header = OPTIMIZED.matcher(lines.get(1));
+            assertTrue(header.find(), lines.get(1));
+            double expected = Double.parseDouble(header.group(1));
+
+            // travel between the last position of one cut and the G0 entry of the next
+            double travel = 0;
+            double x = 0;
+            double y = 0;
+            for (String line : lines.subList(0, lines.size() - 2)) {
+                Matcher xy = XY.matcher(line);
+                if (!xy.find()) {
+                    continue;
+                }
+                double nx = Double.parseDouble(xy.group(1));
+                double ny = Double.parseDouble(xy.group(2));
+                if (line.startsWith("G0")) {
+                    travel += Math.hypot(nx - x, ny - y);
+                }
+                x = nx;
+                y = ny;
+            }
+            assertEquals(expected, travel, 0.1, "cut depth " + cutDepth);
+        }
+    }
+
+    private static GcodeExportService.Cuts cuts(ShapeRecord record) {
+        CanvasDocument document = new CanvasDocument(100, 100, List.of(record), List.of());
+        GcodeExportService.Cuts cuts = new GcodeExportService.Cuts(document, 1, new ShapeFlattener(0.05));
+        cuts.add(record);
+        return cuts;
+    }
+
+    // the X/Y of the rapid to the cut's entry, then the last X/Y of every pass
+    private static List<double[]> moves(GcodeExportService.Cuts cuts, Settings settings, boolean reversed)
+            throws IOException {
+        StringWriter out = new StringWriter();
+        new GcodeExportService.GcodeWriter(out, settings).cut(cuts, 0, reversed);
+        List<double[]> moves = new ArrayList<>();
+        double[] last = null;
+        boolean cutting = false;
+        for (String line : out.toString().split("\n")) {
+            Matcher xy = XY.matcher(line);
+            if (xy.find()) {
+                last = new double[]{Double.parseDouble(xy.group(1)), Double.parseDouble(xy.group(2))};
+                if (line.startsWith("G0")) {
+                    moves.add(last);
+                }
+            } else if (line.startsWith("G1 Z") || line.startsWith("G0 Z")) {
+                // a plunge or the final retract ends the pass before it
+                if (cutting) {
+                    moves.add(last);
+                }
+                cutting = true;
+            }
+        }
+        return moves;
+    }
+}
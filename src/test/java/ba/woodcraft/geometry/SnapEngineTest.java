@@ -0,0 +1,248 @@
+package ba.woodcraft.geometry;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class SnapEngineTest {
+
+    private static final double EPS = 1e-9;
+
+    private final SnapEngine engine = new SnapEngine(10);
+
+    private void assertSnap(SnapEngine.Kind kind, double x, double y, double tolerance) {
+        assertTrue(engine.hasSnap());
+        assertEquals(kind, engine.getKind());
+        assertEquals(x, engine.getX(), tolerance);
+        assertEquals(y, engine.getY(), tolerance);
+    }
+
+    @Test
+    void lineEndpointsAndMidpoint() {
+        engine.begin(3, 2);
+        engine.line(0, 0, 100, 0);
+        assertSnap(SnapEngine.Kind.ENDPOINT, 0, 0, EPS);
+
+        engine.begin(97, -4);
+        engine.line(0, 0, 100, 0);
+        assertSnap(SnapEngine.Kind.ENDPOINT, 100, 0, EPS);
+
+        engine.begin(52, 3);
+        engine.line(0, 0, 100, 0);
+        assertSnap(SnapEngine.Kind.MIDPOINT, 50, 0, EPS);
+    }
+
+    @Test
+    void lineFallsBackToNearestPoint() {
+        engine.begin(30, 4);
+        engine.line(0, 0, 100, 0);
+        assertSnap(SnapEngine.Kind.NEAREST, 30, 0, EPS);
+        assertEquals(4, engine.getDistance(), EPS);
+    }
+
+    @Test
+    void lineTargetsFollowTheTransform() {
+        engine.begin(102, 51);
+        engine.setTransform(1, 0, 100, 0, 1, 50);
+        engine.line(0, 0, 10, 10);
+        assertSnap(SnapEngine.Kind.ENDPOINT, 100, 50, EPS);
+    }
+
+    @Test
+    void circleCenterAndQuadrants() {
+        engine.begin(52, 51);
+        engine.circle(50, 50, 20);
+        assertSnap(SnapEngine.Kind.CENTER, 50, 50, EPS);
+
+        engine.begin(71, 49);
+        engine.circle(50, 50, 20);
+        assertSnap(SnapEngine.Kind.QUADRANT, 70, 50, EPS);
+
+        engine.begin(49, 28);
+        engine.circle(50, 50, 20);
+        assertSnap(SnapEngine.Kind.QUADRANT, 50, 30, EPS);
+    }
+
+    @Test
+    void circleQuadrantsUnderUniformScale() {
+        engine.begin(31, 20);
+        engine.setTransform(2, 0, 0, 0, 2, 0);
+        engine.circle(10, 10, 5);
+        assertSnap(SnapEngine.Kind.QUADRANT, 30, 20, EPS);
+    }
+
+    @Test
+    void nearestPointOnCircleOutline() {
+        double angle = Math.toRadians(30);
+        engine.begin(50 + 22 * Math.cos(angle), 50 + 22 * Math.sin(angle));
+        engine.circle(50, 50, 20);
+        assertSnap(SnapEngine.Kind.NEAREST, 50 + 20 * Math.cos(angle), 50 + 20 * Math.sin(angle), 1e-9);
+    }
+
+    @Test
+    void circleUnderNonUniformScaleUsesTheEllipseAxes() {
+        engine.begin(41, 10);
+        engine.setTransform(2, 0, 0, 0, 1, 0);
+        engine.circle(10, 10, 10);
+        assertSnap(SnapEngine.Kind.QUADRANT, 40, 10, EPS);
+
+        engine.begin(20, 21);
+        engine.setTransform(2, 0, 0, 0, 1, 0);
+        engine.circle(10, 10, 10);
+        assertSnap(SnapEngine.Kind.QUADRANT, 20, 20, EPS);
+    }
+
+    @Test
+    void nearestPointOnCubic() {
+        double[] c = {0, 0, 0, 100, 100, 100, 100, 0};
+        double cursorX = SnapEngine.cubicAt(c[0], c[2], c[4], c[6], 0.3) + 2;
+        double cursorY = SnapEngine.cubicAt(c[1], c[3], c[5], c[7], 0.3) + 3;
+
+        engine.begin(cursorX, cursorY);
+        engine.nearestOnCubic(c[0], c[1], c[2], c[3], c[4], c[5], c[6], c[7]);
+
+        assertTrue(engine.hasSnap());
+        assertEquals(SnapEngine.Kind.NEAREST, engine.getKind());
+        assertEquals(closestOnCubic(c, cursorX, cursorY), engine.getDistance(), 1e-6);
+    }
+
+    @Test
+    void cubicEndpointsAndMidpoint() {
+        engine.begin(99, 2);
+        engine.cubic(0, 0, 0, 100, 100, 100, 100, 0);
+        assertSnap(SnapEngine.Kind.ENDPOINT, 100, 0, EPS);
+
+        engine.begin(51, 74);
+        engine.cubic(0, 0, 0, 100, 100, 100, 100, 0);
+        assertSnap(SnapEngine.Kind.MIDPOINT, 50, 75, EPS);
+    }
+
+    @Test
+    void nearestPointOnFreehandStroke() {
+        // a freehand stroke is a polyline, fed one segment at a time
+        double[] xs = new double[41];
+        double[] ys = new double[41];
+        for (int i = 0; i < xs.length; i++) {
+            xs[i] = i * 5;
+            ys[i] = 30 * Math.sin(i * 0.3);
+        }
+        double cursorX = 83;
+        double cursorY = 30 * Math.sin(83 / 5.0 * 0.3) + 4;
+
+        engine.begin(cursorX, cursorY);
+        for (int i = 1; i < xs.length; i++) {
+            engine.nearestOnSegment(xs[i - 1], ys[i - 1], xs[i], ys[i]);
+        }
+
+        assertTrue(engine.hasSnap());
+        assertEquals(SnapEngine.Kind.NEAREST, engine.getKind());
+        double best = Double.MAX_VALUE;
+        for (int i = 1; i < xs.length; i++) {
+            best = Math.min(best, distanceToSegment(xs[i - 1], ys[i - 1], xs[i], ys[i], cursorX, cursorY));
+        }
+        assertEquals(best, engine.getDistance(), EPS);
+    }
+
+    @Test
+    void perpendicularFootFromReference() {
+        engine.setReference(50, 40);
+        engine.begin(48, 3);
+        engine.line(0, 0, 200, 0);
+        assertSnap(SnapEngine.Kind.PERPENDICULAR, 50, 0, EPS);
+
+        engine.clearReference();
+        engine.begin(48, 3);
+        engine.line(0, 0, 200, 0);
+        assertSnap(SnapEngine.Kind.NEAREST, 48, 0, EPS);
+    }
+
+    @Test
+    void noPerpendicularPastTheEndOfTheSegment() {
+        engine.setReference(250, 40);
+        engine.begin(205, 3);
+        engine.line(0, 0, 200, 0);
+        assertSnap(SnapEngine.Kind.ENDPOINT, 200, 0, EPS);
+    }
+
+    @Test
+    void tangentPointsFromReference() {
+        engine.setReference(20, 0);
+        engine.begin(5.5, 8);
+        engine.circle(0, 0, 10);
+        assertSnap(SnapEngine.Kind.TANGENT, 5, Math.sqrt(75), 1e-9);
+
+        engine.begin(5.5, -8);
+        engine.circle(0, 0, 10);
+        assertSnap(SnapEngine.Kind.TANGENT, 5, -Math.sqrt(75), 1e-9);
+    }
+
+    @Test
+    void noTangentFromInsideTheCircle() {
+        engine.setReference(2, 0);
+        engine.begin(1, 9.9);
+        engine.circle(0, 0, 10);
+        assertSnap(SnapEngine.Kind.QUADRANT, 0, 10, EPS);
+    }
+
+    @Test
+    void pointTargetsOutrankCloserOutlineTargets() {
+        engine.begin(4, 0.5);
+        engine.line(0, 0, 100, 0);
+        assertSnap(SnapEngine.Kind.ENDPOINT, 0, 0, EPS);
+    }
+
+    @Test
+    void outlineTargetsOutrankBoundsWhateverTheOrder() {
+        engine.begin(1, 50);
+        engine.bounds(0, 0, 100, 100);
+        engine.nearestOnSegment(5, 0, 5, 100);
+        assertSnap(SnapEngine.Kind.NEAREST, 5, 50, EPS);
+
+        engine.begin(1, 50);
+        engine.nearestOnSegment(5, 0, 5, 100);
+        engine.bounds(0, 0, 100, 100);
+        assertSnap(SnapEngine.Kind.NEAREST, 5, 50, EPS);
+    }
+
+    @Test
+    void closerCandidateWinsWithinARank() {
+        engine.begin(10, 0);
+        engine.point(4, 0, SnapEngine.Kind.CENTER);
+        engine.point(13, 0, SnapEngine.Kind.ENDPOINT);
+        engine.point(6, 0, SnapEngine.Kind.QUADRANT);
+        assertSnap(SnapEngine.Kind.ENDPOINT, 13, 0, EPS);
+    }
+
+    @Test
+    void nothingOutsideTheRadius() {
+        engine.begin(0, 0);
+        engine.point(10.5, 0, SnapEngine.Kind.ENDPOINT);
+        engine.line(0, 20, 100, 20);
+        assertFalse(engine.hasSnap());
+        assertTrue(Double.isNaN(engine.getDistance()));
+
+        engine.point(0, 9, SnapEngine.Kind.ENDPOINT);
+        assertSnap(SnapEngine.Kind.ENDPOINT, 0, 9, EPS);
+    }
+
+    private static double closestOnCubic(double[] c, double px, double py) {
+        double best = Double.MAX_VALUE;
+        int samples = 200_000;
+        for (int i = 0; i <= samples; i++) {
+            double t = (double) i / samples;
+            double dx = SnapEngine.cubicAt(c[0], c[2], c[4], c[6], t) - px;
+            double dy = SnapEngine.cubicAt(c[1], c[3], c[5], c[7], t) - py;
+            best = Math.min(best, Math.sqrt(dx * dx + dy * dy));
+        }
+        return best;
+    }
+
+    private static double distanceToSegment(double ax, double ay, double bx, double by, double px, double py) {
+        double dx = bx - ax;
+        double dy = by - ay;
+        double t = Math.max(0, Math.min(1, ((px - ax) * dx + (py - ay) * dy) / (dx * dx + dy * dy)));
+        return Math.hypot(ax + t * dx - px, ay + t * dy - py);
+    }
+}
@@ -0,0 +1,212 @@
+package ba.woodcraft.io;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import ba.woodcraft.model.ShapeDocument;
+import ba.woodcraft.model.ShapeRecord;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class EditJournalTest {
+
+    @TempDir
+    Path dir;
+
+    private static ShapeRecord line(double x) {
+        return new ShapeRecord(ShapeRecord.Kind.LINE, new double[]{x, 0, x + 10, 10}, null,
+                true, 0xff000000, 1, false, 0, null);
+    }
+
+    // the snapshot and the journal as they are on disk right now, recovered from a copy
+    private EditJournal.Recovery recoverCopy(ShapeDocument target) throws IOException {
+        Path copy = Files.createTempDirectory(dir, "crash");
+        for (String name : List.of("autosave.wcf", "autosave.wcj")) {
+            if (Files.exists(dir.resolve(name))) {
+                Files.copy(dir.resolve(name), copy.resolve(name));
+            }
+        }
+        return EditJournal.open(copy, EditJournal.DEFAULT_COMPACT_BYTES).recover(target);
+    }
+
+    // three shapes journaled on top of an empty snapshot, then closed
+    private List<Long> journalThreeShapes() {
+        ShapeDocument document = new ShapeDocument();
+        EditJournal journal = openJournal();
+        journal.attach(document, () -> 100, () -> 100);
+        List<Long> ids = List.of(document.add(line(0)), document.add(line(1)), document.add(line(2)));
+        journal.close();
+        return ids;
+    }
+
+    private EditJournal openJournal() {
+        try {
+            return EditJournal.open(dir, EditJournal.DEFAULT_COMPACT_BYTES);
+        } catch (IOException ex) {
+            throw new AssertionError(ex);
+        }
+    }
+
+    @Test
+    void changesAreReplayedAfterACrash() throws Exception {
+        ShapeDocument document = new ShapeDocument();
+        EditJournal journal = openJournal();
+        journal.attach(document, () -> 300, () -> 200);
+        long a = document.add(line(0));
+        long b = document.add(line(1));
+        document.update(a, line(5));
+        document.remove(b);
+        long c = document.add(line(2));
+
+        // never closed: wait for the writer to get everything to disk, as a crash would find it
+        ShapeDocument recovered = new ShapeDocument();
+        EditJournal.Recovery recovery = recoverCopy(recovered);
+        for (long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+                recovery.replayed() < 5 && System.nanoTime() < deadline; ) {
+            Thread.sleep(10);
+            recovered = new ShapeDocument();
+            recovery = recoverCopy(recovered);
+        }
+        journal.close();
+
+        assertEquals(5, recovery.replayed());
+        assertEquals(300, recovery.pageWidth());
+        assertEquals(200, recovery.pageHeight());
+        assertEquals(2, recovered.size());
+        assertEquals(a, recovered.idAt(0));
+        assertEquals(c, recovered.idAt(1));
+        assertTrue(line(5).contentEquals(recovered.get(a)));
+    }
+
+    @Test
+    void tornTailIsDropped() throws IOException {
+        List<Long> ids = journalThreeShapes();
+        Path file = dir.resolve("autosave.wcj");
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 5));
+
+        ShapeDocument recovered = new ShapeDocument();
+        EditJournal.Recovery recovery = openJournal().recover(recovered);
+
+        assertEquals(2, recovery.replayed());
+        assertEquals(2, recovered.size());
+        assertEquals(ids.get(1), recovered.idAt(1));
+    }
+
+    @Test
+    void replayStopsAtACorruptEntry() throws IOException {
+        journalThreeShapes();
+        Path file = dir.resolve("autosave.wcj");
+        byte[] bytes = Files.readAllBytes(file);
+        // header, then u32 length, u32 crc and the payload of each entry
+        int first = 16;
+        int second = first + 8 + intAt(bytes, first);
+        bytes[second + 8 + 20] ^= 0x40;
+        Files.write(file, bytes);
+
+        EditJournal.Recovery recovery = openJournal().recover(new ShapeDocument());
+
+        assertEquals(1, recovery.replayed());
+        assertEquals(1, recovery.shapes());
+    }
+
+    @Test
+    void journalOlderThanTheSnapshotIsSkipped() throws IOException {
+        ShapeDocument document = new ShapeDocument();
+        EditJournal journal = openJournal();
+        journal.attach(document, () -> 100, () -> 100);
+        long a = document.add(line(0));
+        long b = document.add(line(1));
+        document.remove(a);
+        journal.close();
+        Path stale = dir.resolve("stale.wcj");
+        Files.copy(dir.resolve("autosave.wcj"), stale);
+
+        // the next start folds the journal into a newer snapshot
+        ShapeDocument reopened = new ShapeDocument();
+        EditJournal next = openJournal();
+        assertEquals(3, next.recover(reopened).replayed());
+        next.attach(reopened, () -> 100, () -> 100);
+        next.close();
+        // as if the new journal never made it to disk
+        Files.move(stale, dir.resolve("autosave.wcj"), StandardCopyOption.REPLACE_EXISTING);
+
+        ShapeDocument recovered = new ShapeDocument();
+        EditJournal.Recovery recovery = openJournal().recover(recovered);
+
+        assertEquals(0, recovery.replayed());
+        assertEquals(1, recovery.shapes());
+        assertEquals(b, recovered.idAt(0));
+    }
+
+    private static int intAt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xff) | (bytes[offset + 1] & 0xff) << 8 | (bytes[offset + 2] & 0xff) << 16
+                | (bytes[offset + 3] & 0xff) << 24;
+    }
+
+    @Test
+    void damagedSnapshotIsSetAsideAndTheNextStartIsClean() throws IOException {
+        Files.write(dir.resolve("autosave.wcf"), new byte[]{'W', 'C', 'F', 0x1a, 9, 9});
+        EditJournal journal = EditJournal.open(dir, EditJournal.DEFAULT_COMPACT_BYTES);
+        assertThrows(IOException.class, () -> journal.recover(new ShapeDocument()));
+
+        List<Path> kept = journal.setAside();
+
+        assertEquals(List.of(dir.resolve("autosave.wcf.bad")), kept);
+        assertFalse(Files.exists(dir.resolve("autosave.wcf")));
+        EditJournal.Recovery recovery = EditJournal.open(dir, EditJournal.DEFAULT_COMPACT_BYTES)
+                .recover(new ShapeDocument());
+        assertEquals(0, recovery.shapes());
+        assertTrue(Files.exists(dir.resolve("autosave.wcf.bad")));
+    }
+
+    @Test
+    void writeFailureIsReportedAndStopsJournaling() throws Exception {
+        // a non-empty directory where the snapshot should go makes the first write fail
+        Files.createDirectories(dir.resolve("autosave.wcf"));
+        Files.writeString(dir.resolve("autosave.wcf").resolve("keep"), "x");
+        EditJournal journal = EditJournal.open(dir, EditJournal.DEFAULT_COMPACT_BYTES);
+        CompletableFuture<IOException> reported = new CompletableFuture<>();
+        journal.setOnFailure(reported::complete);
+        ShapeDocument document = new ShapeDocument();
+
+        journal.attach(document, () -> 100, () -> 100);
+
+        assertNotNull(reported.get(5, TimeUnit.SECONDS));
+        assertTrue(journal.isFailed());
+        journal.compact();
+        journal.close();
+        assertFalse(Files.exists(dir.resolve("autosave.wcj")));
+    }
+
+    @Test
+    void bulkLoadWhilePausedIsOneSnapshot() throws IOException {
+        ShapeDocument document = new ShapeDocument();
+        EditJournal journal = EditJournal.open(dir, 1024);
+        journal.attach(document, () -> 100, () -> 100);
+
+        journal.pause();
+        for (int i = 0; i < 500; i++) {
+            document.add(line(i));
+        }
+        journal.resume();
+        journal.close();
+
+        // nothing journaled shape by shape, and no half-loaded snapshot in between
+        assertEquals(16, Files.size(dir.resolve("autosave.wcj")));
+        EditJournal.Recovery recovery = EditJournal.open(dir, 1024).recover(new ShapeDocument());
+        assertEquals(500, recovery.shapes());
+        assertEquals(0, recovery.replayed());
+    }
+}
@@ -0,0 +1,220 @@
+package ba.woodcraft.model;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class ShapeDocumentTest {
+
+    private static ShapeRecord line(double x) {
+        return new ShapeRecord(ShapeRecord.Kind.LINE, new double[]{x, 0, x + 10, 10}, null,
+                true, 0xff000000, 1, false, 0, null);
+    }
+
+    // a polyline of n segments, moved by (dx, dy) through its transform
+    private static ShapeRecord path(int n, double dx, double dy) {
+        byte[] ops = new byte[n + 1];
+        double[] coords = new double[(n + 1) * 2];
+        ops[0] = ShapeRecord.MOVE_TO;
+        for (int i = 0; i <= n; i++) {
+            if (i > 0) {
+                ops[i] = ShapeRecord.LINE_TO;
+            }
+            coords[i * 2] = i;
+            coords[i * 2 + 1] = i * i;
+        }
+        return new ShapeRecord(ShapeRecord.Kind.PATH, coords, ops,
+                true, 0xff102030, 2, true, 0x80405060, new double[]{1, 0, dx, 0, 1, dy});
+    }
+
+    private static long[] ids(ShapeDocument document) {
+        long[] ids = new long[document.size()];
+        for (int slot = 0; slot < ids.length; slot++) {
+            ids[slot] = document.idAt(slot);
+        }
+        return ids;
+    }
+
+    @Test
+    void addStacksShapesOnTop() {
+        ShapeDocument document = new ShapeDocument();
+        long a = document.add(line(0));
+        long b = document.add(line(1));
+        long c = document.add(line(2));
+
+        assertArrayEquals(new long[]{a, b, c}, ids(document));
+        assertEquals(2, document.slotOf(c));
+        assertEquals(-1, document.slotOf(c + 1));
+    }
+
+    @Test
+    void insertShiftsLaterShapesUp() {
+        ShapeDocument document = new ShapeDocument();
+        long a = document.add(line(0));
+        long b = document.add(line(1));
+        ShapeRecord restored = line(5);
+        document.insert(40, 1, restored);
+
+        assertArrayEquals(new long[]{a, 40, b}, ids(document));
+        assertEquals(2, document.slotOf(b));
+        assertTrue(restored.contentEquals(document.get(40)));
+        // ids handed out later never collide with the inserted one
+        assertEquals(41, document.add(line(2)));
+    }
+
+    @Test
+    void insertRejectsTakenIdsAndBadSlots() {
+        ShapeDocument document = new ShapeDocument();
+        long a = document.add(line(0));
+
+        assertThrows(IllegalArgumentException.class, () -> document.insert(a, 0, line(1)));
+        assertThrows(IndexOutOfBoundsException.class, () -> document.insert(7, 2, line(1)));
+        assertThrows(IndexOutOfBoundsException.class, () -> document.insert(7, -1, line(1)));
+        assertEquals(1, document.size());
+    }
+
+    @Test
+    void removeShiftsLaterShapesDown() {
+        ShapeDocument document = new ShapeDocument();
+        long a = document.add(line(0));
+        long b = document.add(line(1));
+        long c = document.add(line(2));
+
+        assertTrue(document.remove(b));
+        assertFalse(document.remove(b));
+        assertArrayEquals(new long[]{a, c}, ids(document));
+        assertEquals(1, document.slotOf(c));
+        assertNull(document.get(b));
+        assertEquals(-1, document.getShapeVersion(b));
+    }
+
+    @Test
+    void updateKeepsIdAndSlotAndStampsTheShape() {
+        ShapeDocument document = new ShapeDocument();
+        long a = document.add(line(0));
+        long b = document.add(line(1));
+        long versionOfA = document.getShapeVersion(a);
+        long before = document.getVersion();
+
+        assertTrue(document.update(a, path(3, 0, 0)));
+        assertFalse(document.update(99, line(0)));
+
+        assertArrayEquals(new long[]{a, b}, ids(document));
+        assertEquals(ShapeRecord.Kind.PATH, document.get(a).getKind());
+        assertTrue(document.getVersion() > before);
+        assertEquals(document.getVersion(), document.getShapeVersion(a));
+        assertTrue(document.getShapeVersion(a) > versionOfA);
+        assertTrue(document.getShapeVersion(b) < document.getShapeVersion(a));
+    }
+
+    @Test
+    void recordsAreHandedOutAgainUntilTheShapeChanges() {
+        ShapeDocument document = new ShapeDocument();
+        long a = document.add(line(0));
+        long b = document.add(line(1));
+        ShapeRecord first = document.get(a);
+
+        assertSame(first, document.get(a));
+        document.update(b, line(2));
+        assertSame(first, document.recordAt(0));
+        document.remove(b);
+        assertSame(first, document.get(a));
+        document.update(a, line(0));
+        assertNotSame(first, document.get(a));
+    }
+
+    @Test
+    void shapesSurvivePoolCompaction() {
+        ShapeDocument document = new ShapeDocument();
+        Map<Long, ShapeRecord> expected = new HashMap<>();
+        List<Long> order = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            ShapeRecord record = i % 3 == 0 ? line(i) : path(1 + i % 7, i, -i);
+            long id = document.add(record);
+            expected.put(id, record);
+            order.add(id);
+        }
+        // enough rewrites and removals that most of both pools turns to garbage
+        for (int round = 0; round < 5; round++) {
+            for (int i = round % 2; i < order.size(); i += 2) {
+                ShapeRecord record = path(1 + (i + round) % 11, round, i);
+                document.update(order.get(i), record);
+                expected.put(order.get(i), record);
+            }
+        }
+        for (int i = order.size() - 1; i >= 0; i -= 3) {
+            document.remove(order.get(i));
+            expected.remove(order.remove(i));
+        }
+
+        assertEquals(order.size(), document.size());
+        for (int slot = 0; slot < order.size(); slot++) {
+            long id = order.get(slot);
+            assertEquals(id, document.idAt(slot));
+            assertTrue(expected.get(id).contentEquals(document.recordAt(slot)), "shape " + id);
+        }
+    }
+
+    @Test
+    void clearEmptiesTheDocumentButKeepsIdsUnique() {
+        ShapeDocument document = new ShapeDocument();
+        document.add(path(4, 0, 0));
+        long last = document.add(line(1));
+        document.clear();
+
+        assertEquals(0, document.size());
+        assertTrue(document.snapshot().isEmpty());
+        long next = document.add(path(2, 1, 1));
+        assertTrue(next > last);
+        assertTrue(path(2, 1, 1).contentEquals(document.get(next)));
+    }
+
+    @Test
+    void listenerHearsEveryChangeInOrder() {
+        ShapeDocument document = new ShapeDocument();
+        List<String> events = new ArrayList<>();
+        document.setListener(new ShapeDocument.Listener() {
+            @Override
+            public void inserted(long id, int slot, ShapeRecord record) {
+                events.add("inserted " + id + " at " + slot);
+            }
+
+            @Override
+            public void updated(long id, ShapeRecord record) {
+                events.add("updated " + id);
+            }
+
+            @Override
+            public void removed(long id) {
+                events.add("removed " + id);
+            }
+
+            @Override
+            public void cleared() {
+                events.add("cleared");
+            }
+        });
+
+        long a = document.add(line(0));
+        document.insert(9, 0, line(1));
+        document.update(a, line(2));
+        document.update(42, line(2));
+        document.remove(9);
+        document.remove(9);
+        document.clear();
+
+        assertEquals(List.of("inserted " + a + " at 0", "inserted 9 at 0", "updated " + a,
+                "removed 9", "cleared"), events);
+    }
+}
@@ -0,0 +1,153 @@
+package ba.woodcraft.model;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class UndoHistoryTest {
+
+    private static ShapeRecord line(double x) {
+        return new ShapeRecord(ShapeRecord.Kind.LINE, new double[]{x, 0, x + 10, 10}, null,
+                true, 0xff000000, 1, false, 0, null);
+    }
+
+    private static long[] ids(ShapeDocument document) {
+        long[] ids = new long[document.size()];
+        for (int slot = 0; slot < ids.length; slot++) {
+            ids[slot] = document.idAt(slot);
+        }
+        return ids;
+    }
+
+    private static void assertShapes(ShapeDocument document, long[] ids, List<ShapeRecord> records) {
+        assertArrayEquals(ids, ids(document));
+        for (int slot = 0; slot < ids.length; slot++) {
+            assertTrue(records.get(slot).contentEquals(document.recordAt(slot)), "slot " + slot);
+        }
+    }
+
+    @Test
+    void editsUndoAndRedoInOrder() {
+        ShapeDocument document = new ShapeDocument();
+        UndoHistory history = new UndoHistory(document);
+        long a = history.add(line(0));
+        long b = history.add(line(1));
+        long c = history.add(line(2));
+        history.update(a, line(5));
+        history.remove(b);
+
+        assertShapes(document, new long[]{a, c}, List.of(line(5), line(2)));
+        assertArrayEquals(new long[]{b}, history.undo());
+        assertShapes(document, new long[]{a, b, c}, List.of(line(5), line(1), line(2)));
+        assertArrayEquals(new long[]{a}, history.undo());
+        assertShapes(document, new long[]{a, b, c}, List.of(line(0), line(1), line(2)));
+        history.undo();
+        history.undo();
+        history.undo();
+        assertEquals(0, document.size());
+        assertFalse(history.canUndo());
+        assertNull(history.undo());
+
+        for (int i = 0; i < 5; i++) {
+            history.redo();
+        }
+        assertShapes(document, new long[]{a, c}, List.of(line(5), line(2)));
+        assertFalse(history.canRedo());
+        assertNull(history.redo());
+    }
+
+    @Test
+    void clearRoundTripsWithIdsAndOrder() {
+        ShapeDocument document = new ShapeDocument();
+        UndoHistory history = new UndoHistory(document);
+        long a = history.add(line(0));
+        long b = history.add(line(1));
+        long c = history.add(line(2));
+        history.update(b, line(7));
+        history.clear();
+        assertEquals(0, document.size());
+
+        assertArrayEquals(new long[]{a, b, c}, history.undo());
+        assertShapes(document, new long[]{a, b, c}, List.of(line(0), line(7), line(2)));
+        history.redo();
+        assertEquals(0, document.size());
+        history.undo();
+        assertShapes(document, new long[]{a, b, c}, List.of(line(0), line(7), line(2)));
+        history.undo();
+        assertShapes(document, new long[]{a, b, c}, List.of(line(0), line(1), line(2)));
+    }
+
+    @Test
+    void clearingAnEmptyDocumentIsNoStep() {
+        ShapeDocument document = new ShapeDocument();
+        UndoHistory history = new UndoHistory(document);
+        history.clear();
+        assertFalse(history.canUndo());
+    }
+
+    @Test
+    void aNewEditDropsTheRedoSteps() {
+        ShapeDocument document = new ShapeDocument();
+        UndoHistory history = new UndoHistory(document);
+        history.add(line(0));
+        history.add(line(1));
+        history.undo();
+        assertTrue(history.canRedo());
+
+        history.add(line(2));
+        assertFalse(history.canRedo());
+        assertEquals(2, history.getUndoCount());
+    }
+
+    @Test
+    void stepLimitDropsTheOldestSteps() {
+        ShapeDocument document = new ShapeDocument();
+        UndoHistory history = new UndoHistory(document);
+        history.setLimits(UndoHistory.DEFAULT_MAX_BYTES, 3);
+        for (int i = 0; i < 5; i++) {
+            history.add(line(i));
+        }
+
+        assertEquals(3, history.getUndoCount());
+        while (history.canUndo()) {
+            history.undo();
+        }
+        assertEquals(2, document.size());
+    }
+
+    @Test
+    void clearOverTheByteBudgetCanStillBeUndone() {
+        ShapeDocument document = new ShapeDocument();
+        UndoHistory history = new UndoHistory(document, 4096, 100);
+        for (int i = 0; i < 200; i++) {
+            history.add(line(i));
+        }
+        history.clear();
+
+        assertTrue(history.getUsedBytes() > history.getMaxBytes());
+        assertEquals(1, history.getUndoCount());
+        history.undo();
+        assertEquals(200, document.size());
+    }
+
+    @Test
+    void olderStepsGoFirstWhenOverBudget() {
+        ShapeDocument document = new ShapeDocument();
+        UndoHistory history = new UndoHistory(document, 4096, 100);
+        for (int i = 0; i < 200; i++) {
+            history.add(line(i));
+        }
+        history.clear();
+        history.add(line(-1));
+
+        // the clear no longer fits next to the newer step
+        assertEquals(1, history.getUndoCount());
+        history.undo();
+        assertEquals(0, document.size());
+    }
+}
@@ -0,0 +1,430 @@
+package ba.woodcraft.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Logger;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInfo;
+
+class ConnectionPoolTest {
+
+    private static final StubDriver DRIVER = new StubDriver();
+
+    private String url;
+
+    @BeforeAll
+    static void registerDriver() throws SQLException {
+        DriverManager.registerDriver(DRIVER);
+    }
+
+    @AfterAll
+    static void deregisterDriver() throws SQLException {
+        DriverManager.deregisterDriver(DRIVER);
+    }
+
+    private ConnectionPool pool(TestInfo test, int minSize, int maxSize, long idleTimeoutMillis,
+                                long validateAfterIdleMillis, int statementCacheSize) {
+        url = "jdbc:stub:" + test.getDisplayName();
+        return new ConnectionPool(new ConnectionPool.Config(url, "user", "secret", minSize, maxSize,
+                100, idleTimeoutMillis, validateAfterIdleMillis, 1, statementCacheSize));
+    }
+
+    private List<StubConnection> opened() {
+        return DRIVER.opened(url);
+    }
+
+    @Test
+    void lendsNoMoreThanMaxSize(TestInfo test) throws SQLException {
+        try (ConnectionPool pool = pool(test, 0, 2, 60_000, 60_000, 8)) {
+            Connection first = pool.getConnection();
+            Connection second = pool.getConnection();
+
+            assertThrows(SQLTimeoutException.class, pool::getConnection);
+            assertEquals(1, pool.getStats().timeouts());
+            assertEquals(2, pool.getStats().active());
+
+            first.close();
+            first.close();
+            Connection third = pool.getConnection();
+            assertThrows(SQLTimeoutException.class, pool::getConnection);
+            assertEquals(2, pool.getStats().created());
+            assertEquals(2, opened().size());
+
+            second.close();
+            third.close();
+            assertEquals(2, pool.getStats().idle());
+        }
+    }
+
+    @Test
+    void reusesTheConnectionMostRecentlyGivenBack(TestInfo test) throws SQLException {
+        try (ConnectionPool pool = pool(test, 0, 4, 60_000, 60_000, 8)) {
+            Connection first = pool.getConnection();
+            first.close();
+            Connection again = pool.getConnection();
+
+            assertNotSame(first, again);
+            assertTrue(first.isClosed());
+            assertThrows(SQLException.class, () -> first.prepareStatement("SELECT 1"));
+            assertEquals(1, opened().size());
+            again.close();
+        }
+    }
+
+    @Test
+    void closesConnectionsIdleTooLong(TestInfo test) throws Exception {
+        try (ConnectionPool pool = pool(test, 1, 4, 50, 60_000, 8)) {
+            List<Connection> lent = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                lent.add(pool.getConnection());
+            }
+            for (Connection connection : lent) {
+                connection.close();
+            }
+
+            // maintenance runs every second at the shortest
+            long deadline = System.currentTimeMillis() + 5000;
+            while (pool.getStats().total() > 1 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+
+            // the first maintenance run may have opened one more to reach the minimum
+            int extra = opened().size() - 1;
+            assertEquals(1, pool.getStats().total());
+            assertEquals(extra, pool.getStats().evicted());
+            assertEquals(extra, opened().stream().filter(c -> c.closed).count());
+        }
+    }
+
+    @Test
+    void replacesConnectionsThatFailValidation(TestInfo test) throws SQLException {
+        try (ConnectionPool pool = pool(test, 0, 2, 60_000, 0, 8)) {
+            pool.getConnection().close();
+            StubConnection stale = opened().get(0);
+            stale.valid = false;
+
+            Connection connection = pool.getConnection();
+
+            assertEquals(2, opened().size());
+            assertTrue(stale.closed);
+            assertFalse(opened().get(1).closed);
+            assertEquals(1, pool.getStats().broken());
+            assertEquals(1, pool.getStats().total());
+            connection.close();
+        }
+    }
+
+    @Test
+    void skipsValidationForRecentlyUsedConnections(TestInfo test) throws SQLException {
+        try (ConnectionPool pool = pool(test, 0, 2, 60_000, 60_000, 8)) {
+            pool.getConnection().close();
+            opened().get(0).valid = false;
+
+            pool.getConnection().close();
+
+            assertEquals(1, opened().size());
+            assertEquals(0, opened().get(0).validations);
+        }
+    }
+
+    @Test
+    void rollsBackAndRestoresAutoCommitOnReturn(TestInfo test) throws SQLException {
+        try (ConnectionPool pool = pool(test, 0, 1, 60_000, 60_000, 8)) {
+            Connection connection = pool.getConnection();
+            connection.setAutoCommit(false);
+            connection.close();
+
+            StubConnection raw = opened().get(0);
+            assertEquals(1, raw.rollbacks);
+            assertTrue(raw.autoCommit);
+
+            Connection next = pool.getConnection();
+            assertTrue(next.getAutoCommit());
+            next.close();
+            assertEquals(1, raw.rollbacks);
+        }
+    }
+
+    @Test
+    void dropsConnectionsThatFailedWithAConnectionError(TestInfo test) throws SQLException {
+        try (ConnectionPool pool = pool(test, 0, 1, 60_000, 60_000, 8)) {
+            Connection connection = pool.getConnection();
+            opened().get(0).failure = new SQLException("link gone", "08S01");
+            assertThrows(SQLException.class, connection::commit);
+            connection.close();
+
+            assertTrue(opened().get(0).closed);
+            assertEquals(1, pool.getStats().broken());
+            assertEquals(0, pool.getStats().total());
+        }
+    }
+
+    @Test
+    void handsOutCachedStatementsForTheSameSql(TestInfo test) throws SQLException {
+        try (ConnectionPool pool = pool(test, 0, 1, 60_000, 60_000, 8)) {
+            try (Connection connection = pool.getConnection();
+                 PreparedStatement ps = connection.prepareStatement("SELECT ?")) {
+                ps.setInt(1, 1);
+                ps.executeQuery();
+            }
+            try (Connection connection = pool.getConnection();
+                 PreparedStatement ps = connection.prepareStatement("SELECT ?")) {
+                assertSame(connection, ps.getConnection());
+            }
+
+            StubConnection raw = opened().get(0);
+            assertEquals(1, raw.statements.size());
+            StubStatement statement = raw.statements.get(0);
+            assertFalse(statement.closed);
+            assertEquals(2, statement.clears);
+            assertTrue(statement.results.get(0).closed);
+            assertEquals(1, pool.getStats().statementHits());
+            assertEquals(1, pool.getStats().statementMisses());
+        }
+    }
+
+    @Test
+    void sameSqlPreparedTwiceAtOnceGetsTwoStatements(TestInfo test) throws SQLException {
+        try (ConnectionPool pool = pool(test, 0, 1, 60_000, 60_000, 8);
+             Connection connection = pool.getConnection()) {
+            PreparedStatement first = connection.prepareStatement("SELECT 1");
+            PreparedStatement second = connection.prepareStatement("SELECT 1");
+            first.close();
+            second.close();
+
+            List<StubStatement> statements = opened().get(0).statements;
+            assertEquals(2, statements.size());
+            // only one of them fits back into the cache
+            assertFalse(statements.get(0).closed);
+            assertTrue(statements.get(1).closed);
+        }
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsedStatement(TestInfo test) throws SQLException {
+        try (ConnectionPool pool = pool(test, 0, 1, 60_000, 60_000, 2);
+             Connection connection = pool.getConnection()) {
+            connection.prepareStatement("A").close();
+            connection.prepareStatement("B").close();
+            connection.prepareStatement("A").close();
+            connection.prepareStatement("C").close();
+
+            List<StubStatement> statements = opened().get(0).statements;
+            assertEquals(List.of("A", "B", "C"), statements.stream().map(s -> s.sql).toList());
+            assertFalse(statements.get(0).closed);
+            assertTrue(statements.get(1).closed);
+            assertFalse(statements.get(2).closed);
+            assertEquals(1, pool.getStats().statementHits());
+        }
+    }
+
+    @Test
+    void closingThePoolClosesIdleConnections(TestInfo test) throws SQLException {
+        ConnectionPool pool = pool(test, 0, 2, 60_000, 60_000, 8);
+        Connection lent = pool.getConnection();
+        pool.getConnection().close();
+        pool.close();
+
+        assertTrue(opened().get(1).closed);
+        assertFalse(opened().get(0).closed);
+        lent.close();
+        assertTrue(opened().get(0).closed);
+        assertThrows(SQLException.class, pool::getConnection);
+    }
+
+    // Hands out StubConnections for jdbc:stub: URLs and remembers them per URL.
+    private static final class StubDriver implements Driver {
+
+        private final Map<String, List<StubConnection>> opened = new ConcurrentHashMap<>();
+
+        List<StubConnection> opened(String url) {
+            return opened.getOrDefault(url, List.of());
+        }
+
+        @Override
+        public Connection connect(String url, Properties info) {
+            if (!acceptsURL(url)) {
+                return null;
+            }
+            StubConnection connection = new StubConnection();
+            opened.computeIfAbsent(url, u -> new CopyOnWriteArrayList<>()).add(connection);
+            return proxy(Connection.class, connection);
+        }
+
+        @Override
+        public boolean acceptsURL(String url) {
+            return url.startsWith("jdbc:stub:");
+        }
+
+        @Override
+        public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+            return new DriverPropertyInfo[0];
+        }
+
+        @Override
+        public int getMajorVersion() {
+            return 1;
+        }
+
+        @Override
+        public int getMinorVersion() {
+            return 0;
+        }
+
+        @Override
+        public boolean jdbcCompliant() {
+            return false;
+        }
+
+        @Override
+        public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+            throw new SQLFeatureNotSupportedException();
+        }
+    }
+
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+
+    private static Object unsupported(Method method) throws SQLException {
+        if (method.getReturnType() == void.class) {
+            return null;
+        }
+        throw new SQLFeatureNotSupportedException(method.getName());
+    }
+
+    private static final class StubConnection implements InvocationHandler {
+
+        final List<StubStatement> statements = new CopyOnWriteArrayList<>();
+        volatile boolean autoCommit = true;
+        volatile boolean valid = true;
+        volatile boolean closed;
+        volatile int rollbacks;
+        volatile int validations;
+        // thrown by commit() when set
+        volatile SQLException failure;
+
+        @Override
+        public Object invoke(Object self, Method method, Object[] args) throws Throwable {
+            return switch (method.getName()) {
+                case "getAutoCommit" -> autoCommit;
+                case "setAutoCommit" -> {
+                    autoCommit = (Boolean) args[0];
+                    yield null;
+                }
+                case "commit" -> {
+                    if (failure != null) {
+                        throw failure;
+                    }
+                    yield null;
+                }
+                case "rollback" -> {
+                    rollbacks++;
+                    yield null;
+                }
+                case "isValid" -> {
+                    validations++;
+                    yield valid;
+                }
+                case "prepareStatement" -> {
+                    StubStatement statement = new StubStatement((String) args[0]);
+                    statements.add(statement);
+                    yield proxy(PreparedStatement.class, statement);
+                }
+                case "close" -> {
+                    closed = true;
+                    yield null;
+                }
+                case "isClosed" -> closed;
+                case "toString" -> "stub connection";
+                case "hashCode" -> System.identityHashCode(self);
+                case "equals" -> self == args[0];
+                default -> unsupported(method);
+            };
+        }
+    }
+
+    private static final class StubStatement implements InvocationHandler {
+
+        final String sql;
+        final List<StubResultSet> results = new ArrayList<>();
+        boolean closed;
+        int clears;
+
+        StubStatement(String sql) {
+            this.sql = sql;
+        }
+
+        @Override
+        public Object invoke(Object self, Method method, Object[] args) throws Throwable {
+            if (method.getName().startsWith("set")) {
+                return null;
+            }
+            return switch (method.getName()) {
+                case "executeQuery" -> {
+                    StubResultSet rs = new StubResultSet();
+                    results.add(rs);
+                    yield proxy(ResultSet.class, rs);
+                }
+                case "clearParameters" -> {
+                    clears++;
+                    yield null;
+                }
+                case "close" -> {
+                    closed = true;
+                    yield null;
+                }
+                case "isClosed" -> closed;
+                case "toString" -> "stub statement " + sql;
+                case "hashCode" -> System.identityHashCode(self);
+                case "equals" -> self == args[0];
+                default -> unsupported(method);
+            };
+        }
+    }
+
+    private static final class StubResultSet implements InvocationHandler {
+
+        boolean closed;
+
+        @Override
+        public Object invoke(Object self, Method method, Object[] args) throws Throwable {
+            return switch (method.getName()) {
+                case "next" -> false;
+                case "close" -> {
+                    closed = true;
+                    yield null;
+                }
+                case "isClosed" -> closed;
+                case "hashCode" -> System.identityHashCode(self);
+                case "equals" -> self == args[0];
+                default -> unsupported(method);
+            };
+        }
+    }
+}